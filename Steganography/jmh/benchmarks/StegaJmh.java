@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the cases of StegaBenchmark under JMH. JMH does not take benchmarks in the default
+ * package, where the rest of the code is, and a named package cannot refer to it, so each case
+ * is set up by StegaBenchmark.setUp, found by reflection, and measured through a Callable.
+ *
+ * Usage: mvn -Pjmh package, then java -jar target/benchmarks.jar -prof gc for every hot path
+ * and size, or e.g. java -jar target/benchmarks.jar -p name=encodeText,decodeText -p coverMp=10
+ * -p payloadKb=64 -prof gc for some of them
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StegaJmh {
+
+	@Param({ "hideBytes", "hideBytes-k2", "hideBytes-k3", "hideBytes-k4", "revealBytes-k2", "revealBytes-k3",
+			"revealBytes-k4", "encodeText", "decodeText", "getText", "encodeImage", "decodeImage",
+			"encodeImageCtx", "decodeImageCtx", "encodeScattered", "decodeScattered", "encodeEncrypted",
+			"decodeEncrypted", "hideBytesMatch", "encodeMatch", "encodeTemplate", "writePngTemplate",
+			"encodeShards", "decodeShards", "readSlice", "encodeCorrected", "decodeCorrected",
+			"encodeFrames-D1", "encodeFrames-U1", "decodeFrames", "writePngImageIO", "writePng-L1",
+			"writePng-L1-par", "rejectPlain", "decodeImagePng", "encryptStream", "decryptStream",
+			"recover-0.001", "convertToBGR" })
+	public String name;
+
+	@Param({ "1", "10", "100" })
+	public double coverMp;
+
+	@Param({ "1", "64", "256" })
+	public int payloadKb;
+
+	private Callable<Void> op;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		op = (Callable<Void>) Class.forName("StegaBenchmark")
+				.getMethod("setUp", String.class, double.class, int.class)
+				.invoke(null, name, coverMp, payloadKb);
+	}
+
+	@Benchmark
+	public Void run() throws Exception {
+		return op.call();
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Cover backed by a byte array, usually the raster of a BufferedImage
+ */
+public class ArrayCover implements LsbCover {
+
+	private final byte[] bytes;
+
+	/**
+	 * @param bytes the cover bytes, modified in place
+	 */
+	public ArrayCover(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return the cover bytes
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public long size() {
+		return bytes.length;
+	}
+
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		LsbKernel.embed(bytes, toIndex(offset), payload, from, len, bits);
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		LsbKernel.embedMatching(bytes, toIndex(offset), payload, from, len, seed);
+	}
+
+	@Override
+	public void extract(long offset, byte[] payload, int from, int len, int bits) {
+		LsbKernel.extract(bytes, toIndex(offset), payload, from, len, bits);
+	}
+
+	/**
+	 * @param offset a cover offset
+	 * @return offset as an array index
+	 */
+	private int toIndex(long offset) {
+		if (offset < 0 || offset > bytes.length)
+			throw new ArrayIndexOutOfBoundsException("Offset " + offset + " outside cover of " + bytes.length + " bytes");
+		return (int) offset;
+	}
+}
@@ -0,0 +1,307 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Index of the covers in a library directory (and its subdirectories), kept in a file so a
+ * library of hundreds of thousands of images is not read again every time. Each image is
+ * described by its {@link CoverInfo}, read from its header only; {@link #update()} walks the
+ * directory and only reads the files that are new or whose size or modification time changed.
+ * The covers are kept sorted by cover bytes, so the smallest one a secret fits in is found
+ * with a binary search, in well under a millisecond, while an update may be running.
+ *
+ * Usage: java CoverIndex dir [-index file] [-fits bytes] [-bits n]
+ */
+public class CoverIndex {
+
+	static final String DEFAULT_NAME = ".stegaindex";  // index file in the library by default
+	private static final int MAGIC = 0x53544749;        // "STGI"
+	private static final int VERSION = 1;
+
+	private final File directory;
+	private final File indexFile;
+	private final Map<String, CoverInfo> files = new HashMap<String, CoverInfo>();  // every file seen, images or not
+	private volatile CoverInfo[] covers = new CoverInfo[0];  // the images of files, fewest cover bytes first
+
+	private static final Comparator<CoverInfo> BY_COVER_BYTES = new Comparator<CoverInfo>() {
+		public int compare(CoverInfo a, CoverInfo b) {
+			int c = Long.compare(a.getCoverBytes(), b.getCoverBytes());
+			return c != 0 ? c : a.getPath().compareTo(b.getPath());
+		}
+	};
+
+	/**
+	 * @param directory the library of cover images, the index is kept in a file inside it
+	 */
+	public CoverIndex(File directory) {
+		this(directory, new File(directory, DEFAULT_NAME));
+	}
+
+	/**
+	 * @param directory the library of cover images
+	 * @param indexFile where the index is kept
+	 */
+	public CoverIndex(File directory, File indexFile) {
+		this.directory = directory;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Loads the index file and brings it up to date with the directory
+	 * @param directory the library of cover images, the index is kept in a file inside it
+	 * @return the index
+	 * @throws IOException if the directory or index file cannot be read, or the index written
+	 */
+	public static CoverIndex open(File directory) throws IOException {
+		CoverIndex index = new CoverIndex(directory);
+		index.load();
+		index.update();
+		return index;
+	}
+
+	/**
+	 * Reads the index file. A missing file, or one written by another version, leaves the
+	 * index empty so the next update reads every image.
+	 * @return true if the file was read
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized boolean load() throws IOException {
+		if (!indexFile.isFile())
+			return false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return false;
+			int count = in.readInt();
+			files.clear();
+			for (int i = 0; i < count; i++) {
+				CoverInfo info = new CoverInfo(in.readUTF(), in.readLong(), in.readLong(), in.readInt(),
+						in.readInt(), in.readUnsignedByte(), in.readUTF());
+				files.put(info.getPath(), info);
+			}
+		}
+		sort();
+		return true;
+	}
+
+	/**
+	 * Writes the index file, replacing the old one only once the new one is complete
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		File temp = new File(indexFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(files.size());
+			for (CoverInfo info : files.values()) {
+				out.writeUTF(info.getPath());
+				out.writeLong(info.getLength());
+				out.writeLong(info.getModified());
+				out.writeInt(info.getWidth());
+				out.writeInt(info.getHeight());
+				out.writeByte(info.getSamples());
+				out.writeUTF(info.getFormat());
+			}
+		}
+		try {
+			Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Walks the directory and reads the headers of new and changed images on all cores, drops
+	 * files that are gone, and saves the index if anything changed. Files that are not images
+	 * are remembered too, so they are not tried again until they change.
+	 * @return number of files read
+	 * @throws IOException if the directory cannot be walked or the index written
+	 */
+	public synchronized int update() throws IOException {
+		final Path root = directory.toPath();
+		final Set<String> suffixes = new HashSet<String>();
+		for (String suffix : ImageIO.getReaderFileSuffixes())
+			suffixes.add(suffix.toLowerCase(Locale.ROOT));
+
+		final Map<String, CoverInfo> seen = new HashMap<String, CoverInfo>();
+		final List<Callable<CoverInfo>> changed = new ArrayList<Callable<CoverInfo>>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				String name = file.getFileName().toString();
+				int dot = name.lastIndexOf('.');
+				if (!attributes.isRegularFile() || dot < 0
+						|| !suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT)))
+					return FileVisitResult.CONTINUE;
+
+				final String path = root.relativize(file).toString();
+				final long length = attributes.size();
+				final long modified = attributes.lastModifiedTime().toMillis();
+				CoverInfo known = files.get(path);
+				if (known != null && known.getLength() == length && known.getModified() == modified) {
+					seen.put(path, known);
+				} else {
+					final File image = file.toFile();
+					changed.add(new Callable<CoverInfo>() {
+						public CoverInfo call() {
+							try {
+								return CoverInfo.read(image, path, length, modified);
+							} catch (IOException | RuntimeException e) {
+								return new CoverInfo(path, length, modified, 0, 0, 0, "");
+							}
+						}
+					});
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;  // unreadable, as if it were not there
+			}
+		});
+
+		for (Future<CoverInfo> result : ForkJoinPool.commonPool().invokeAll(changed)) {
+			try {
+				CoverInfo info = result.get();
+				seen.put(info.getPath(), info);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while indexing " + directory, e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());  // reading catches everything
+			}
+		}
+
+		boolean removed = !seen.keySet().containsAll(files.keySet());
+		files.clear();
+		files.putAll(seen);
+		sort();
+		if (!changed.isEmpty() || removed)
+			save();
+		return changed.size();
+	}
+
+	/**
+	 * Rebuilds the sorted array of images queries search
+	 */
+	private void sort() {
+		List<CoverInfo> images = new ArrayList<CoverInfo>(files.size());
+		for (CoverInfo info : files.values())
+			if (info.isImage())
+				images.add(info);
+		CoverInfo[] sorted = images.toArray(new CoverInfo[0]);
+		Arrays.sort(sorted, BY_COVER_BYTES);
+		covers = sorted;
+	}
+
+	/**
+	 * @param coverBytes cover bytes needed
+	 * @return the image with the fewest cover bytes that has at least that many, null if none has
+	 */
+	public CoverInfo smallest(long coverBytes) {
+		CoverInfo[] sorted = covers;
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid].getCoverBytes() < coverBytes)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low < sorted.length ? sorted[low] : null;
+	}
+
+	/**
+	 * @param stega the settings the secret will be hidden with
+	 * @param length number of secret bytes (deflated bytes with compression on)
+	 * @return the smallest image the secret fits in, null if it fits in none
+	 */
+	public CoverInfo smallestFor(Steganography stega, long length) {
+		return smallest(stega.coverBytesNeeded(length));
+	}
+
+	/**
+	 * @param info a cover of this index
+	 * @return its file
+	 */
+	public File getFile(CoverInfo info) {
+		return new File(directory, info.getPath());
+	}
+
+	/**
+	 * @return the images of the library, fewest cover bytes first
+	 */
+	public List<CoverInfo> getCovers() {
+		return Collections.unmodifiableList(Arrays.asList(covers));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0 || args.length % 2 == 0) {
+			System.err.println("Usage: java CoverIndex dir [-index file] [-fits bytes] [-bits n]");
+			System.exit(1);
+		}
+
+		File directory = new File(args[0]);
+		File indexFile = new File(directory, DEFAULT_NAME);
+		long fits = -1;
+		Steganography stega = new Steganography();
+		for (int i = 1; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-index"))
+				indexFile = new File(args[i + 1]);
+			else if (args[i].equals("-fits"))
+				fits = Long.parseLong(args[i + 1]);
+			else if (args[i].equals("-bits"))
+				stega.setBitsPerChannel(Integer.parseInt(args[i + 1]));
+		}
+
+		CoverIndex index = new CoverIndex(directory, indexFile);
+		long start = System.nanoTime();
+		boolean loaded = index.load();
+		int read = index.update();
+		System.out.println(String.format(Locale.ROOT, "%d covers, %d files read%s in %.1f ms", index.covers.length,
+				read, loaded ? "" : " (new index)", (System.nanoTime() - start) / 1e6));
+
+		if (fits >= 0) {
+			CoverInfo cover = index.smallestFor(stega, fits);
+			System.out.println(cover == null ? "No cover holds " + fits + " bytes"
+					: index.getFile(cover) + " holds " + stega.capacity(cover.getCoverBytes()) + " bytes");
+
+			// time it again once the classes are loaded, as a service asking many times would see it
+			int queries = 100000;
+			start = System.nanoTime();
+			for (int i = 0; i < queries; i++)
+				index.smallestFor(stega, fits + i % 1024);
+			System.out.println(String.format(Locale.ROOT, "%.3f us per query", (System.nanoTime() - start) / 1e3 / queries));
+		}
+	}
+}
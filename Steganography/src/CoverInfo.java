@@ -0,0 +1,155 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * What a possible cover image offers, read from the header of its file without decoding a
+ * pixel: its size, its format and how many cover bytes it has (color samples, 3 per pixel for
+ * color images and 1 for gray ones, as {@link RasterCover} counts them). Pass the cover bytes to
+ * {@link Steganography#capacity(long)} to know how large a secret fits.
+ */
+public class CoverInfo {
+
+	private final String path;     // as given, relative to the library for a CoverIndex
+	private final long length;     // file size and modification time, to notice the file changed
+	private final long modified;
+	private final int width;       // 0 if the file is not an image
+	private final int height;
+	private final int samples;     // cover bytes per pixel
+	private final String format;   // ImageIO format name, empty if the file is not an image
+
+	/**
+	 * @param path path of the file
+	 * @param length size of the file in bytes
+	 * @param modified time the file was last modified, in milliseconds
+	 * @param width width of the image, 0 if it is not an image
+	 * @param height height of the image, 0 if it is not an image
+	 * @param samples cover bytes per pixel, 1 or 3
+	 * @param format ImageIO format name, empty if it is not an image
+	 */
+	CoverInfo(String path, long length, long modified, int width, int height, int samples, String format) {
+		this.path = path;
+		this.length = length;
+		this.modified = modified;
+		this.width = width;
+		this.height = height;
+		this.samples = samples;
+		this.format = format;
+	}
+
+	/**
+	 * Reads the size and pixel layout of an image from the header of its file
+	 * @param file the image file
+	 * @return what it offers as a cover
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public static CoverInfo read(File file) throws IOException {
+		return read(file, file.getPath(), file.length(), file.lastModified());
+	}
+
+	/**
+	 * @param file the image file
+	 * @param path path to record for it
+	 * @param length size of the file
+	 * @param modified time the file was last modified
+	 * @return what it offers as a cover
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	static CoverInfo read(File file, String path, long length, long modified) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+			if (iis == null)
+				throw new IOException("Cannot read " + file);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext())
+				throw new IOException(file + " is not an image");
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+
+				// ImageIO.read decodes to the first type, a 1x1 image of it has the same layout
+				ImageTypeSpecifier type = reader.getImageTypes(0).next();
+				int samples = (int) RasterCover.wrap(type.createBufferedImage(1, 1)).size();
+				return new CoverInfo(path, length, modified, width, height, samples, reader.getFormatName());
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * @return path of the file
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return size of the file in bytes when it was read
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return time the file was last modified when it was read, in milliseconds
+	 */
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * @return width of the image, 0 if the file is not an image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the image, 0 if the file is not an image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return cover bytes per pixel, 3 for color images and 1 for gray ones
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return ImageIO format name ("png", "JPEG"...), empty if the file is not an image
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return true if the file could be read as an image
+	 */
+	public boolean isImage() {
+		return width > 0;
+	}
+
+	/**
+	 * @return number of cover bytes, each holding 1 to 4 bits of a secret
+	 */
+	public long getCoverBytes() {
+		return (long) width * height * samples;
+	}
+
+	@Override
+	public String toString() {
+		return path + ", " + (isImage() ? format + " " + width + "x" + height + ", " + getCoverBytes()
+				+ " cover bytes" : "not an image");
+	}
+}
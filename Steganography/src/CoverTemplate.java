@@ -0,0 +1,158 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+/**
+ * One cover many secrets are hidden in, one copy each, such as a corporate image carrying a
+ * different ID for every recipient. The cover is decoded and converted once; each secret goes
+ * in a {@link TemplateCopy} that only copies the pages of cover bytes the secret touches and
+ * shares the rest, and its PNG reuses the deflated rows of the cover the secret did not touch.
+ * A template is never changed, so copies can be made and written on several threads at once.
+ * {@link TemplateCache} keeps the templates of the covers used most recently.
+ */
+public class CoverTemplate {
+
+	static final int PAGE_BITS = 16;                // cover bytes copied together, 64 KB
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private final BufferedImage image;             // 3 byte BGR or 8 bit gray, never changed
+	private final byte[] bytes;                    // its raster, the cover bytes in order
+	private final ByteBuffer[] pages;              // the raster cut in pages for the kernel
+	private final PngWriter png;
+	private volatile PngWriter.Blocks blocks;      // the image deflated, on the first write
+
+	/**
+	 * @param cover the cover, used as it is if it is 3 byte BGR or 8 bit gray (it must not be
+	 * changed afterwards) and converted to 3 byte BGR otherwise
+	 */
+	public CoverTemplate(BufferedImage cover) {
+		this(cover, new PngWriter());
+	}
+
+	/**
+	 * @param cover the cover, used as it is if it is 3 byte BGR or 8 bit gray (it must not be
+	 * changed afterwards) and converted to 3 byte BGR otherwise
+	 * @param png writes the PNGs of the copies, not changed afterwards either
+	 */
+	public CoverTemplate(BufferedImage cover, PngWriter png) {
+		if ((cover.getType() != BufferedImage.TYPE_3BYTE_BGR && cover.getType() != BufferedImage.TYPE_BYTE_GRAY)
+				|| RasterCover.wrap(cover).getPath() != RasterCover.Path.DIRECT)
+			cover = RasterCover.convertToBGR(cover);
+		this.image = cover;
+		this.bytes = ((DataBufferByte) cover.getRaster().getDataBuffer()).getData();
+		this.png = png;
+
+		pages = new ByteBuffer[(int) ((bytes.length + (long) PAGE_SIZE - 1) >>> PAGE_BITS)];
+		for (int p = 0; p < pages.length; p++) {
+			int start = p << PAGE_BITS;
+			pages[p] = ByteBuffer.wrap(bytes, start, Math.min(PAGE_SIZE, bytes.length - start)).slice();
+		}
+	}
+
+	/**
+	 * Reads a cover from a file
+	 * @param file the image file
+	 * @return template of it
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public static CoverTemplate read(File file) throws IOException {
+		BufferedImage bimg = ImageIO.read(file);
+		if (bimg == null)
+			throw new IOException(file + " is not an image");
+		return new CoverTemplate(bimg);
+	}
+
+	/**
+	 * @return the cover, not to be changed
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * @return number of cover bytes
+	 */
+	public long size() {
+		return bytes.length;
+	}
+
+	/**
+	 * @return a copy of the cover to hide one secret in
+	 */
+	public TemplateCopy newCopy() {
+		return new TemplateCopy(this);
+	}
+
+	/**
+	 * Hides text in a new copy of the cover
+	 * @param stega the settings to hide it with
+	 * @param message the text to be hidden
+	 * @return the copy with the text inside
+	 */
+	public TemplateCopy encodeText(Steganography stega, String message) {
+		TemplateCopy copy = newCopy();
+		stega.encodeText(copy, message);
+		return copy;
+	}
+
+	/**
+	 * Hides an image in a new copy of the cover
+	 * @param stega the settings to hide it with
+	 * @param secret the image to be hidden
+	 * @return the copy with the image inside
+	 */
+	public TemplateCopy encodeImage(Steganography stega, BufferedImage secret) {
+		TemplateCopy copy = newCopy();
+		stega.encodeImage(copy, secret);
+		return copy;
+	}
+
+	/**
+	 * @return the raster of the cover
+	 */
+	byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @param p index of a page
+	 * @return the cover bytes of the page, not to be written
+	 */
+	ByteBuffer page(int p) {
+		return pages[p];
+	}
+
+	/**
+	 * @return number of pages
+	 */
+	int pageCount() {
+		return pages.length;
+	}
+
+	/**
+	 * @return the writer for the PNGs of the copies
+	 */
+	PngWriter getPngWriter() {
+		return png;
+	}
+
+	/**
+	 * @return the cover deflated in blocks of rows, done on the first call
+	 * @throws IOException if it cannot be deflated
+	 */
+	PngWriter.Blocks getBlocks() throws IOException {
+		PngWriter.Blocks deflated = blocks;
+		if (deflated == null) {
+			synchronized (this) {
+				deflated = blocks;
+				if (deflated == null)
+					blocks = deflated = png.deflateBlocks(image);
+			}
+		}
+		return deflated;
+	}
+}
@@ -0,0 +1,164 @@
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Read only cover over an image file that only decodes the rows it is asked for, so reading a
+ * slice of a secret out of a large cover does not decode the whole image. Rows are decoded in
+ * bands of at least 1 MB of cover bytes and the last band is kept, so reading on from where the
+ * last read stopped mostly decodes nothing new. Most formats are read with a source region on
+ * their ImageReader. The JDK PNG reader inflates the whole image whatever the region, so PNGs
+ * are read with {@link PngRowReader} instead: rows above a band are still inflated (a PNG is
+ * one deflate stream) but the rows below it are never read. The cover bytes are the same as
+ * {@link RasterCover} has for the image read whole.
+ */
+public class FileCover implements LsbCover, Closeable {
+
+	private static final long BAND_BYTES = 1 << 20;  // fewest cover bytes decoded at once
+
+	private final PngRowReader png;  // PNG files of a common layout, null for any other file
+	private final ImageInputStream iis;
+	private final ImageReader reader;
+	private final int width;
+	private final int height;
+	private final long rowBytes;     // cover bytes per row
+	private LsbCover band;           // rows decoded last, null before the first read
+	private int bandStart;           // first row of band
+	private int bandRows;
+	private long decodedRows = 0;    // rows decoded so far
+
+	/**
+	 * Reads the header of an image file, no pixel is decoded yet
+	 * @param file the image file
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public FileCover(File file) throws IOException {
+		png = PngRowReader.open(file);
+		if (png != null) {
+			iis = null;
+			reader = null;
+			width = png.getWidth();
+			height = png.getHeight();
+			rowBytes = (long) width * png.getSamples();
+			return;
+		}
+
+		iis = ImageIO.createImageInputStream(file);
+		if (iis == null)
+			throw new IOException("Cannot read " + file);
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if (!readers.hasNext()) {
+			iis.close();
+			throw new IOException(file + " is not an image");
+		}
+		reader = readers.next();
+		try {
+			// not forward only, a band above the last one is read again from the start
+			reader.setInput(iis, false, true);
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+			int samples = (int) RasterCover.wrap(reader.getImageTypes(0).next().createBufferedImage(1, 1)).size();
+			rowBytes = (long) width * samples;
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public long size() {
+		return rowBytes * height;
+	}
+
+	/**
+	 * @return number of image rows decoded so far, counting rows decoded more than once
+	 */
+	public synchronized long getDecodedRows() {
+		return decodedRows;
+	}
+
+	/**
+	 * Decodes the whole image once and keeps it, for secrets scattered over all of it
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public synchronized void decodeAll() throws IOException {
+		decode(0, height);
+	}
+
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		throw new UnsupportedOperationException("A cover read from a file cannot be changed");
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		throw new UnsupportedOperationException("A cover read from a file cannot be changed");
+	}
+
+	@Override
+	public synchronized void extract(long offset, byte[] payload, int from, int len, int bits) {
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		long end = offset + LsbKernel.coverBytes(len, bits);
+		if (offset < 0 || len < 0 || end > size())
+			throw new ArrayIndexOutOfBoundsException("Cover of " + size() + " bytes cannot hold "
+					+ len + " bytes at offset " + offset);
+		if (len == 0)
+			return;
+
+		int first = (int) (offset / rowBytes);
+		int last = (int) ((end - 1) / rowBytes);
+		if (band == null || first < bandStart || last >= bandStart + bandRows) {
+			int rows = (int) Math.max(last + 1 - first, Math.min(height - first, BAND_BYTES / rowBytes));
+			try {
+				decode(first, rows);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		band.extract(offset - bandStart * rowBytes, payload, from, len, bits);
+	}
+
+	/**
+	 * Decodes some rows of the image and keeps them
+	 * @param first first row
+	 * @param rows number of rows
+	 * @throws IOException if the file cannot be decoded
+	 */
+	private void decode(int first, int rows) throws IOException {
+		if (band != null && bandStart == first && bandRows == rows)
+			return;
+		if (rows * rowBytes > Integer.MAX_VALUE - 8)
+			throw new IOException("Cannot decode " + rows + " rows of " + rowBytes + " cover bytes at once");
+		if (png != null) {
+			byte[] bytes = new byte[(int) (rows * rowBytes)];
+			png.readRows(first, rows, bytes);
+			band = new ArrayCover(bytes);
+		} else {
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(0, first, width, rows));
+			band = RasterCover.wrap(reader.read(0, param));
+		}
+		bandStart = first;
+		bandRows = rows;
+		decodedRows += rows;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (png != null) {
+			png.close();
+			return;
+		}
+		reader.dispose();
+		iis.close();
+	}
+}
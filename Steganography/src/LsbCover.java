@@ -0,0 +1,73 @@
+/**
+ * Bytes that payloads can be hidden in, in the 1 to 4 low bits of each cover byte (8 cover
+ * bytes per payload byte with one bit). Lets the same streams and header code work on an image
+ * raster in memory or on a memory mapped file.
+ */
+public interface LsbCover {
+
+	/**
+	 * @return number of cover bytes available, 8 of them are needed per hidden byte with one bit each
+	 */
+	long size();
+
+	/**
+	 * Hides len bytes of payload starting at the given cover byte, one bit per cover byte
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small
+	 */
+	default void embed(long offset, byte[] payload, int from, int len) {
+		embed(offset, payload, from, len, 1);
+	}
+
+	/**
+	 * Hides len bytes of payload starting at the given cover byte. With 3 bits, a range that is
+	 * continued by a later call must be a multiple of 3 bytes long.
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param bits low bits used in each cover byte, 1 to 4
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small
+	 */
+	void embed(long offset, byte[] payload, int from, int len, int bits);
+
+	/**
+	 * Hides len bytes of payload starting at the given cover byte by LSB matching, one bit per
+	 * cover byte: a cover byte whose LSB is not the payload bit is moved one up or down at random
+	 * (0 only up, 255 only down), so the secret reads back the same as with embed.
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param seed any value, picks the ups and downs
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small
+	 * @throws UnsupportedOperationException if the cover cannot change whole cover bytes
+	 */
+	void embedMatching(long offset, byte[] payload, int from, int len, long seed);
+
+	/**
+	 * Recovers len payload bytes hidden starting at the given cover byte, one bit per cover byte
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small
+	 */
+	default void extract(long offset, byte[] payload, int from, int len) {
+		extract(offset, payload, from, len, 1);
+	}
+
+	/**
+	 * Recovers len payload bytes hidden starting at the given cover byte
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @param bits low bits used in each cover byte, 1 to 4
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small
+	 */
+	void extract(long offset, byte[] payload, int from, int len, int bits);
+}
@@ -0,0 +1,538 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Low level routines that move payload bytes in and out of the least significant bits of a
+ * cover byte array. With one bit per cover byte every payload byte occupies exactly 8
+ * consecutive cover bytes (most significant bit first), so the fast path treats each group of
+ * 8 cover bytes as one 64-bit word and embeds or extracts a whole payload byte with a single
+ * mask, lookup and store. The scalar methods are kept as the reference implementation.
+ *
+ * Up to 4 low bits of each cover byte can be used instead, and each 8 byte word then holds 2
+ * (2 bits), 3 (3 bits) or 4 (4 bits) payload bytes, packed or unpacked with shifts and masks.
+ * Since payload byte i always maps to the same cover bytes, large payloads can also be split
+ * into ranges and processed on several cores.
+ *
+ * With one bit, payloads can also be hidden by LSB matching (embedMatching), which changes
+ * cover bytes by +-1 instead of overwriting their LSB, also a word at a time.
+ */
+final class LsbKernel {
+
+	private static final long LSB_MASK = 0x0101010101010101L;  // LSB of every byte in a word
+	private static final long LOW7_MASK = 0x7F7F7F7F7F7F7F7FL; // low 7 bits of every byte in a word
+	private static final long GATHER = 0x0102040810204080L;    // collects the 8 LSBs into the top byte
+	private static final long[] SPREAD = new long[256];        // payload byte -> its bits spread over a word
+	private static final int[] SPREAD2 = new int[256];         // payload byte -> 2 bits in each of 4 bytes
+	private static final int[] SPREAD3 = new int[4096];        // 12 payload bits -> 3 bits in each of 4 bytes
+
+	static {
+		// bit m of the payload byte goes in the LSB of byte m (counting from the low end) of
+		// a big endian word, which is cover byte 7-m, so the MSB lands in the first cover byte
+		for (int b = 0; b < 256; b++) {
+			long word = 0;
+			int word2 = 0;
+			for (int m = 0; m < 8; m++)
+				word |= (long) ((b >> m) & 1) << (8 * m);
+			for (int m = 0; m < 4; m++)
+				word2 |= ((b >> (2 * m)) & 3) << (8 * m);
+			SPREAD[b] = word;
+			SPREAD2[b] = word2;
+		}
+		for (int v = 0; v < 4096; v++) {
+			int word = 0;
+			for (int m = 0; m < 4; m++)
+				word |= ((v >> (3 * m)) & 7) << (8 * m);
+			SPREAD3[v] = word;
+		}
+	}
+
+	private LsbKernel() {
+	}
+
+	/**
+	 * @param len number of payload bytes
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 * @return number of cover bytes len payload bytes are spread over
+	 */
+	static long coverBytes(long len, int bits) {
+		return (8 * len + bits - 1) / bits;
+	}
+
+	/**
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 * @return fewest payload bytes that fill whole cover bytes, ranges are split on multiples of it
+	 */
+	static int groupBytes(int bits) {
+		return bits == 3 ? 3 : 1;
+	}
+
+	/**
+	 * Hides len bytes of payload in the cover, 8 cover bytes per payload byte
+	 * @param cover the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 */
+	static void embed(byte[] cover, int offset, byte[] payload, int from, int len) {
+		embed(cover, offset, payload, from, len, 1);
+	}
+
+	/**
+	 * Hides len bytes of payload in the low bits of the cover
+	 * @param cover the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	static void embed(byte[] cover, int offset, byte[] payload, int from, int len, int bits) {
+		checkCapacity(cover, offset, len, bits);
+		embed(ByteBuffer.wrap(cover), offset, payload, from, len, bits); // big endian by default
+	}
+
+	/**
+	 * Hides len bytes of payload in a big endian buffer (heap, direct or mapped). The caller
+	 * makes sure the buffer has coverBytes(len, bits) bytes from offset.
+	 * @param words the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	static void embed(ByteBuffer words, int offset, byte[] payload, int from, int len, int bits) {
+		int end = from + len;
+		switch (bits) {
+		case 1:
+			for (int i = from; i < end; i++, offset += 8) {
+				long word = words.getLong(offset);
+				words.putLong(offset, (word & ~LSB_MASK) | SPREAD[payload[i] & 0xFF]);
+			}
+			break;
+		case 2: {
+			// 2 payload bytes per word, then an int word for an odd last byte
+			int i = from;
+			for (; i + 1 < end; i += 2, offset += 8) {
+				long spread = (long) SPREAD2[payload[i] & 0xFF] << 32 | (SPREAD2[payload[i + 1] & 0xFF] & 0xFFFFFFFFL);
+				long word = words.getLong(offset);
+				words.putLong(offset, (word & ~(3 * LSB_MASK)) | spread);
+			}
+			if (i < end) {
+				int word = words.getInt(offset);
+				words.putInt(offset, (word & ~0x03030303) | SPREAD2[payload[i] & 0xFF]);
+			}
+			break;
+		}
+		case 3: {
+			int whole = end - len % 3;
+			for (int i = from; i < whole; i += 3, offset += 8) {
+				int v = (payload[i] & 0xFF) << 16 | (payload[i + 1] & 0xFF) << 8 | (payload[i + 2] & 0xFF);
+				long spread = (long) SPREAD3[v >>> 12] << 32 | (SPREAD3[v & 0xFFF] & 0xFFFFFFFFL);
+				long word = words.getLong(offset);
+				words.putLong(offset, (word & ~(7 * LSB_MASK)) | spread);
+			}
+			// the last 1 or 2 bytes of a payload only partly fill their cover bytes
+			embedScalar(words, offset, payload, whole, end - whole, 3);
+			break;
+		}
+		case 4: {
+			// 4 payload bytes per word, each one split in two nibbles
+			int i = from;
+			for (; i + 3 < end; i += 4, offset += 8) {
+				long packed = (long) (payload[i] & 0xFF) << 48 | (long) (payload[i + 1] & 0xFF) << 32
+						| (payload[i + 2] & 0xFF) << 16 | (payload[i + 3] & 0xFF);
+				long spread = (packed << 4) & 0x0F000F000F000F00L | packed & 0x000F000F000F000FL;
+				long word = words.getLong(offset);
+				words.putLong(offset, (word & ~(15 * LSB_MASK)) | spread);
+			}
+			for (; i < end; i++, offset += 2) {
+				int b = payload[i] & 0xFF;
+				int word = words.getShort(offset);
+				words.putShort(offset, (short) ((word & ~0x0F0F) | (b & 0xF0) << 4 | (b & 0x0F)));
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		}
+	}
+
+	/**
+	 * Hides len bytes of payload in the LSBs of the cover by LSB matching: a cover byte whose LSB
+	 * differs from the payload bit is moved one up or down at random instead of having its LSB
+	 * overwritten, which leaves no pairs of values with equal counts for steganalysis to find.
+	 * @param cover the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param seed any value, picks the ups and downs
+	 */
+	static void embedMatching(byte[] cover, int offset, byte[] payload, int from, int len, long seed) {
+		checkCapacity(cover, offset, len, 1);
+		embedMatching(ByteBuffer.wrap(cover), offset, payload, from, len, seed);
+	}
+
+	/**
+	 * Hides len bytes of payload by LSB matching in a big endian buffer, 8 cover bytes per
+	 * payload byte, with the same word at a time steps as embed and no branch on the cover or
+	 * payload. Each byte whose LSB differs moves down if its random bit says so and up
+	 * otherwise, except 0, which always moves up, and 255, which always moves down, so adding
+	 * the ups and subtracting the downs never carries into the next byte. Only the LSB of each
+	 * random byte is used, so one mix gives the random bits of 8 words, the words of a block of
+	 * 64 taking them shifted right by 0 to 7. The blocks are counted from seed + offset, so no
+	 * state is carried from block to block and the result is the same however the payload is
+	 * split. The caller makes sure the buffer has 8 * len bytes from offset.
+	 * @param words the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param seed any value, picks the ups and downs
+	 */
+	static void embedMatching(ByteBuffer words, int offset, byte[] payload, int from, int len, long seed) {
+		long key = seed + offset;
+		long random = mix(key & ~63L);
+		for (int i = from, end = from + len; i < end; i++, offset += 8, key += 8) {
+			if ((key & 56) == 0)  // first word of a block
+				random = mix(key & ~63L);
+			long word = words.getLong(offset);
+			long differ = (word ^ SPREAD[payload[i] & 0xFF]) & LSB_MASK;
+
+			long inner = (((word ^ (word >>> 1)) & LOW7_MASK) + LOW7_MASK) >>> 7;  // byte is not 0 or 255
+			long down = random >>> ((key >>> 3) & 7);
+			long moveDown = differ & (word ^ ((down ^ word) & inner));             // 0 up, 255 down
+			words.putLong(offset, word + (differ ^ moveDown) - moveDown);
+		}
+	}
+
+	/**
+	 * Reference for one cover byte of embedMatching, with key = seed + offset, cover byte k of
+	 * the 8 at offset gets mix(key & ~63) shifted right by (key >>> 3 & 7) + 8 * (7 - k) as random
+	 * @param value the cover byte, 0 to 255, its LSB not the payload bit
+	 * @param random any value, its low bit says down
+	 * @return value moved one up or down, inside 0 to 255
+	 */
+	static int matchByte(int value, long random) {
+		if (value == 0 || (value != 255 && (random & 1) == 0))
+			return value + 1;
+		return value - 1;
+	}
+
+	/**
+	 * @param z any value
+	 * @return z with its bits mixed (the SplitMix64 finalizer), so nearby seeds give unrelated streams
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Recovers len payload bytes hidden in the cover, 8 cover bytes per payload byte
+	 * @param cover the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 */
+	static void extract(byte[] cover, int offset, byte[] payload, int from, int len) {
+		extract(cover, offset, payload, from, len, 1);
+	}
+
+	/**
+	 * Recovers len payload bytes hidden in the low bits of the cover
+	 * @param cover the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	static void extract(byte[] cover, int offset, byte[] payload, int from, int len, int bits) {
+		checkCapacity(cover, offset, len, bits);
+		extract(ByteBuffer.wrap(cover), offset, payload, from, len, bits);
+	}
+
+	/**
+	 * Recovers len payload bytes from a big endian buffer (heap, direct or mapped). The caller
+	 * makes sure the buffer has coverBytes(len, bits) bytes from offset.
+	 * @param words the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	static void extract(ByteBuffer words, int offset, byte[] payload, int from, int len, int bits) {
+		int end = from + len;
+		switch (bits) {
+		case 1:
+			for (int i = from; i < end; i++, offset += 8) {
+				long word = words.getLong(offset) & LSB_MASK;
+				payload[i] = (byte) ((word * GATHER) >>> 56);
+			}
+			break;
+		case 2: {
+			int i = from;
+			for (; i + 1 < end; i += 2, offset += 8) {
+				long word = words.getLong(offset) & (3 * LSB_MASK);
+				payload[i] = gather2((int) (word >>> 32));
+				payload[i + 1] = gather2((int) word);
+			}
+			if (i < end)
+				payload[i] = gather2(words.getInt(offset) & 0x03030303);
+			break;
+		}
+		case 3: {
+			int whole = end - len % 3;
+			for (int i = from; i < whole; i += 3, offset += 8) {
+				long word = words.getLong(offset) & (7 * LSB_MASK);
+				int high = (int) (word >>> 32), low = (int) word;
+				int v = gather3(high) << 12 | gather3(low);
+				payload[i] = (byte) (v >> 16);
+				payload[i + 1] = (byte) (v >> 8);
+				payload[i + 2] = (byte) v;
+			}
+			extractScalar(words, offset, payload, whole, end - whole, 3);
+			break;
+		}
+		case 4: {
+			int i = from;
+			for (; i + 3 < end; i += 4, offset += 8) {
+				// join the two nibbles of every 2 byte lane in its low byte
+				long word = words.getLong(offset) & (15 * LSB_MASK);
+				word = (word | word >>> 4) & 0x00FF00FF00FF00FFL;
+				payload[i] = (byte) (word >>> 48);
+				payload[i + 1] = (byte) (word >>> 32);
+				payload[i + 2] = (byte) (word >>> 16);
+				payload[i + 3] = (byte) word;
+			}
+			for (; i < end; i++, offset += 2) {
+				int word = words.getShort(offset) & 0x0F0F;
+				payload[i] = (byte) ((word >> 4) | (word & 0x0F));
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		}
+	}
+
+	/**
+	 * @param word 4 cover bytes with only their 2 low bits set
+	 * @return the payload byte they hold, first cover byte highest
+	 */
+	private static byte gather2(int word) {
+		return (byte) ((word >>> 18) & 0xC0 | (word >>> 12) & 0x30 | (word >>> 6) & 0x0C | word & 0x03);
+	}
+
+	/**
+	 * @param word 4 cover bytes with only their 3 low bits set
+	 * @return the 12 bits they hold, first cover byte highest
+	 */
+	private static int gather3(int word) {
+		return (word >>> 15) & 0xE00 | (word >>> 10) & 0x1C0 | (word >>> 5) & 0x38 | word & 0x07;
+	}
+
+	/**
+	 * Same as embed, but splits the payload in ranges handled by the common fork join pool
+	 * @param cover the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param minChunk payload bytes below which a range is no longer split
+	 */
+	static void embedParallel(byte[] cover, int offset, byte[] payload, int from, int len, int minChunk) {
+		embedParallel(cover, offset, payload, from, len, 1, minChunk);
+	}
+
+	/**
+	 * Same as embed, but splits the payload in ranges handled by the common fork join pool
+	 * @param cover the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 * @param minChunk payload bytes below which a range is no longer split
+	 */
+	static void embedParallel(byte[] cover, int offset, byte[] payload, int from, int len, int bits, int minChunk) {
+		checkCapacity(cover, offset, len, bits);
+		ForkJoinPool.commonPool().invoke(new RangeTask(true, cover, offset, payload, from, len, bits, minChunk));
+	}
+
+	/**
+	 * Same as extract, but splits the payload in ranges handled by the common fork join pool
+	 * @param cover the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @param minChunk payload bytes below which a range is no longer split
+	 */
+	static void extractParallel(byte[] cover, int offset, byte[] payload, int from, int len, int minChunk) {
+		extractParallel(cover, offset, payload, from, len, 1, minChunk);
+	}
+
+	/**
+	 * Same as extract, but splits the payload in ranges handled by the common fork join pool
+	 * @param cover the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 * @param minChunk payload bytes below which a range is no longer split
+	 */
+	static void extractParallel(byte[] cover, int offset, byte[] payload, int from, int len, int bits, int minChunk) {
+		checkCapacity(cover, offset, len, bits);
+		ForkJoinPool.commonPool().invoke(new RangeTask(false, cover, offset, payload, from, len, bits, minChunk));
+	}
+
+	/**
+	 * Reference implementation of embed that sets one cover byte per iteration
+	 * @param cover the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 */
+	static void embedScalar(byte[] cover, int offset, byte[] payload, int from, int len) {
+		for (int i = from, end = from + len; i < end; i++) {
+			int character = payload[i];
+			for (int j = 7; j >= 0; j--) {  // 8 bits per character
+				// get corresponding bit
+				int bit = (character >> j) & 1;
+
+				// get last image byte, set last bit to 0 ( AND 0xFE) then OR with bit
+				cover[offset] = (byte) ((cover[offset] & 0xFE) | bit);
+				offset++;
+			}
+		}
+	}
+
+	/**
+	 * Reference implementation of extract that reads one cover byte per iteration
+	 * @param cover the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 */
+	static void extractScalar(byte[] cover, int offset, byte[] payload, int from, int len) {
+		for (int i = from, end = from + len; i < end; i++) {
+			int b = 0;
+			for (int j = 0; j < 8; j++) { // each bit
+				// shift by 1 and grab last bit of next image byte
+				b = (b << 1) | (cover[offset] & 1);
+				offset++;
+			}
+			payload[i] = (byte) b;
+		}
+	}
+
+	/**
+	 * Reference implementation of embed for any number of bits, one payload bit at a time. The
+	 * first payload bit goes in the highest of the low bits of the first cover byte.
+	 * @param words the cover bytes to modify
+	 * @param offset index of the first cover byte to use
+	 * @param payload the bytes to hide
+	 * @param from index of the first payload byte to hide
+	 * @param len how many payload bytes to hide
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	static void embedScalar(ByteBuffer words, int offset, byte[] payload, int from, int len, int bits) {
+		for (int p = 0; p < 8 * len; p++) {
+			int bit = (payload[from + p / 8] >> (7 - p % 8)) & 1;
+			int index = offset + p / bits;
+			int shift = bits - 1 - p % bits;
+			words.put(index, (byte) ((words.get(index) & ~(1 << shift)) | (bit << shift)));
+		}
+	}
+
+	/**
+	 * Reference implementation of extract for any number of bits, one payload bit at a time
+	 * @param words the cover bytes holding the payload
+	 * @param offset index of the first cover byte to read
+	 * @param payload where the recovered bytes are stored
+	 * @param from index of the first payload byte to write
+	 * @param len how many payload bytes to recover
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	static void extractScalar(ByteBuffer words, int offset, byte[] payload, int from, int len, int bits) {
+		for (int i = from, p = 0; i < from + len; i++) {
+			int b = 0;
+			for (int j = 0; j < 8; j++, p++)
+				b = (b << 1) | (words.get(offset + p / bits) >> (bits - 1 - p % bits)) & 1;
+			payload[i] = (byte) b;
+		}
+	}
+
+	/**
+	 * Makes sure the cover can hold len payload bytes starting at offset. Callers rely on an
+	 * ArrayIndexOutOfBoundsException to tell that the cover is too small, same as the scalar loops.
+	 * @param cover the cover bytes
+	 * @param offset index of the first cover byte to use
+	 * @param len how many payload bytes will be accessed
+	 * @param bits bits hidden per cover byte, 1 to 4
+	 */
+	private static void checkCapacity(byte[] cover, int offset, int len, int bits) {
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		if (offset < 0 || len < 0 || (long) offset + coverBytes(len, bits) > cover.length)
+			throw new ArrayIndexOutOfBoundsException("Cover of " + cover.length + " bytes cannot hold "
+					+ len + " bytes at offset " + offset);
+	}
+
+	/**
+	 * Embeds or extracts a range of the payload, halving it until it is smaller than minChunk
+	 */
+	private static class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final boolean embed;  // true to embed, false to extract
+		private final byte[] cover;
+		private final int offset;
+		private final byte[] payload;
+		private final int from;
+		private final int len;
+		private final int bits;
+		private final int minChunk;
+
+		RangeTask(boolean embed, byte[] cover, int offset, byte[] payload, int from, int len, int bits, int minChunk) {
+			this.embed = embed;
+			this.cover = cover;
+			this.offset = offset;
+			this.payload = payload;
+			this.from = from;
+			this.len = len;
+			this.bits = bits;
+			this.minChunk = Math.max(1, minChunk);
+		}
+
+		@Override
+		protected void compute() {
+			// each half keeps its own window of the cover, so halves end on whole cover bytes
+			int group = groupBytes(bits);
+			int half = (len >>> 1) / group * group;
+			if (len <= minChunk || half == 0) {
+				if (embed)
+					embed(ByteBuffer.wrap(cover), offset, payload, from, len, bits);
+				else
+					extract(ByteBuffer.wrap(cover), offset, payload, from, len, bits);
+				return;
+			}
+
+			invokeAll(new RangeTask(embed, cover, offset, payload, from, half, bits, minChunk),
+					new RangeTask(embed, cover, offset + (int) coverBytes(half, bits), payload, from + half,
+							len - half, bits, minChunk));
+		}
+	}
+}
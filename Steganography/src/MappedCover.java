@@ -0,0 +1,254 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Cover stored as an uncompressed binary PPM (P6, 8 bits per sample) file that is memory
+ * mapped instead of read, so images larger than the heap can be used and embedding and
+ * extraction change the pixels of the file in place without copying them. The pixel bytes
+ * are used in file order (RGB), not in the BGR order of {@link RasterCover} and PNG files, so
+ * a secret hidden in a PPM can only be read back from the PPM: converting the file to another
+ * format, or a stego PNG to PPM, loses it. Files over 2 GB are mapped in several segments.
+ */
+public class MappedCover implements LsbCover, Closeable {
+
+	private static final int SEGMENT_BITS = 30;               // 1 GB per mapped segment
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final int MAX_HEADER = 1024;               // generous limit for header + comments
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final int width;
+	private final int height;
+	private final long size;         // number of pixel bytes
+
+	/**
+	 * Maps the pixels of a binary PPM file
+	 * @param file the .ppm file to use as cover
+	 * @param writable true to hide data in the file, false to only read from it
+	 * @throws IOException if the file cannot be mapped or is not an 8 bit binary PPM
+	 */
+	public MappedCover(File file, boolean writable) throws IOException {
+		channel = writable
+				? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			// read just the header, the pixels are never read through the heap
+			ByteBuffer header = ByteBuffer.allocate((int) Math.min(MAX_HEADER, channel.size()));
+			while (header.hasRemaining() && channel.read(header) != -1);
+			header.flip();
+
+			if (!(nextToken(header).equals("P6")))
+				throw new IOException(file + " is not a binary PPM file");
+
+			width = nextInt(header);
+			height = nextInt(header);
+			if (width <= 0 || height <= 0)
+				throw new IOException(file + " has no pixels, it is " + width + "x" + height);
+			if (!nextToken(header).equals("255"))
+				throw new IOException(file + " must have 8 bits per sample");
+
+			long dataOffset = header.position() + 1;  // single whitespace after max value
+			size = 3L * width * height;
+			if (dataOffset + size > channel.size())
+				throw new IOException(file + " is truncated");
+
+			FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(mode, dataOffset + start, Math.min(SEGMENT_SIZE, size - start));
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a black PPM file of the given size, to be filled in by other tools
+	 * @param file the .ppm file to create
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @throws IOException if the file cannot be written
+	 * @throws IllegalArgumentException if width or height is not positive
+	 */
+	public static void create(File file, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Image must be at least 1x1, not " + width + "x" + height);
+		byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes("US-ASCII");
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			out.write(ByteBuffer.wrap(header));
+
+			// setting the size leaves a sparse file of zeros instead of writing every pixel
+			out.write(ByteBuffer.wrap(new byte[1]), header.length + 3L * width * height - 1);
+		}
+	}
+
+	/**
+	 * @return width of the image in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the image in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		access(true, false, 0, offset, payload, from, len, bits);
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		access(true, true, seed, offset, payload, from, len, 1);
+	}
+
+	@Override
+	public void extract(long offset, byte[] payload, int from, int len, int bits) {
+		access(false, false, 0, offset, payload, from, len, bits);
+	}
+
+	/**
+	 * Writes any change made to the pixels back to the file
+	 */
+	public void force() {
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+
+	/**
+	 * Embeds or extracts a range of payload, one segment at a time
+	 * @param embed true to embed, false to extract
+	 * @param matching true to embed by LSB matching, with 1 bit
+	 * @param seed picks the ups and downs of LSB matching
+	 * @param offset index of the first cover byte
+	 * @param payload the payload bytes
+	 * @param from index of the first payload byte
+	 * @param len how many payload bytes
+	 * @param bits low bits used in each cover byte, 1 to 4
+	 */
+	private void access(boolean embed, boolean matching, long seed, long offset, byte[] payload, int from, int len,
+			int bits) {
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		if (offset < 0 || len < 0 || offset + LsbKernel.coverBytes(len, bits) > size)
+			throw new ArrayIndexOutOfBoundsException("Cover of " + size + " bytes cannot hold "
+					+ len + " bytes at offset " + offset);
+
+		int group = LsbKernel.groupBytes(bits);            // payload bytes moved together
+		int groupCover = (int) LsbKernel.coverBytes(group, bits);
+		while (len > 0) {
+			ByteBuffer segment = segments[(int) (offset >>> SEGMENT_BITS)];
+			int index = (int) (offset & (SEGMENT_SIZE - 1));
+			long room = segment.capacity() - index;
+			int n = (int) Math.min(len, room / groupCover * group);
+
+			if (n == 0) {
+				// one group of payload bytes is split between two segments, go through a small buffer
+				n = Math.min(len, group);
+				int span = (int) LsbKernel.coverBytes(n, bits);
+				ByteBuffer word = ByteBuffer.allocate(8);
+				for (int i = 0; i < span; i++)
+					word.put(i, getByte(offset + i));
+				if (matching) {
+					LsbKernel.embedMatching(word, 0, payload, from, n, seed + offset);
+					for (int i = 0; i < span; i++)
+						putByte(offset + i, word.get(i));
+				} else if (embed) {
+					LsbKernel.embed(word, 0, payload, from, n, bits);
+					for (int i = 0; i < span; i++)
+						putByte(offset + i, word.get(i));
+				} else {
+					LsbKernel.extract(word, 0, payload, from, n, bits);
+				}
+			} else if (matching) {
+				LsbKernel.embedMatching(segment, index, payload, from, n, seed + offset - index);
+			} else if (embed) {
+				LsbKernel.embed(segment, index, payload, from, n, bits);
+			} else {
+				LsbKernel.extract(segment, index, payload, from, n, bits);
+			}
+
+			offset += LsbKernel.coverBytes(n, bits);
+			from += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * @param offset index of a pixel byte
+	 * @return the pixel byte at offset
+	 */
+	private byte getByte(long offset) {
+		return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & (SEGMENT_SIZE - 1)));
+	}
+
+	/**
+	 * @param offset index of a pixel byte
+	 * @param b new value of the pixel byte
+	 */
+	private void putByte(long offset, byte b) {
+		segments[(int) (offset >>> SEGMENT_BITS)].put((int) (offset & (SEGMENT_SIZE - 1)), b);
+	}
+
+	/**
+	 * @param header the bytes of the header
+	 * @return the next token of the header, a number
+	 * @throws IOException if the header ends first or the token is not a number
+	 */
+	private static int nextInt(ByteBuffer header) throws IOException {
+		String token = nextToken(header);
+		try {
+			return Integer.parseInt(token);
+		} catch (NumberFormatException e) {
+			throw new IOException("PPM header has " + token + " where a number should be", e);
+		}
+	}
+
+	/**
+	 * Reads the next whitespace separated token of a PPM header, skipping comments
+	 * @param header the bytes of the header
+	 * @return the next token
+	 * @throws IOException if the header ends first
+	 */
+	private static String nextToken(ByteBuffer header) throws IOException {
+		StringBuilder token = new StringBuilder();
+		while (header.hasRemaining()) {
+			char c = (char) header.get();
+			if (c == '#' && token.length() == 0) {
+				while (header.hasRemaining() && header.get() != '\n');
+			} else if (Character.isWhitespace(c)) {
+				if (token.length() > 0) {
+					header.position(header.position() - 1); // leave the separator for the caller
+					return token.toString();
+				}
+			} else {
+				token.append(c);
+			}
+		}
+		throw new IOException("Incomplete PPM header");
+	}
+}
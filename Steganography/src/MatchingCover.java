@@ -0,0 +1,54 @@
+/**
+ * Hides secrets in another cover by LSB matching instead of LSB replacement: a cover byte whose
+ * LSB is not the secret bit is moved one up or down at random rather than having its LSB set.
+ * The secret reads back exactly as before, with the same extract, but the values of a pair
+ * (2k, 2k + 1) no longer even out, which is what chi-square and RS analysis look for (see
+ * {@link StegaAnalysis}). Only one bit per cover byte can be hidden this way.
+ */
+public class MatchingCover implements LsbCover {
+
+	private final LsbCover cover;
+	private final long seed;
+
+	/**
+	 * @param cover the cover to hide the secret in, must support
+	 * {@link LsbCover#embedMatching(long, byte[], int, int, long)}
+	 * @param seed any value, picks the ups and downs, not needed to read the secret back
+	 */
+	public MatchingCover(LsbCover cover, long seed) {
+		this.cover = cover;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the cover the secret is hidden in
+	 */
+	public LsbCover getCover() {
+		return cover;
+	}
+
+	@Override
+	public long size() {
+		return cover.size();
+	}
+
+	/**
+	 * @throws IllegalArgumentException if bits is not 1
+	 */
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		if (bits != 1)
+			throw new IllegalArgumentException("LSB matching hides 1 bit per cover byte, not " + bits);
+		cover.embedMatching(offset, payload, from, len, seed);
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		cover.embedMatching(offset, payload, from, len, seed);
+	}
+
+	@Override
+	public void extract(long offset, byte[] payload, int from, int len, int bits) {
+		cover.extract(offset, payload, from, len, bits);
+	}
+}
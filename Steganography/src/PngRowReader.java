@@ -0,0 +1,251 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the rows of a PNG file in order, inflating only as far as the last row asked for, for
+ * {@link FileCover} and for the header {@link StegaProbe} reads from the first rows. The JDK
+ * reader inflates a whole PNG even for a small source region; this one stops after the rows
+ * needed and goes on from there for the next ones, so only rows above a slice are inflated as
+ * well (a PNG is one deflate stream). It reads the 8 bit, non interlaced gray, gray and alpha,
+ * RGB and RGBA images {@link PngWriter} and most tools write, as the cover bytes
+ * {@link RasterCover} takes from them; anything else is left to the ImageReader.
+ */
+class PngRowReader implements Closeable {
+
+	private static final int IHDR = 0x49484452;
+	private static final int IDAT = 0x49444154;
+
+	private final File file;
+	private final int width;
+	private final int height;
+	private final int channels;      // bytes per pixel in the file, 1 to 4
+	private final int samples;       // cover bytes per pixel, 1 for gray and 3 for color
+	private final Inflater inflater = new Inflater();
+	private final byte[] input = new byte[1 << 16];
+	private byte[] prior;            // the last row inflated, unfiltered, after its filter byte
+	private byte[] row;
+	private DataInputStream in;      // at the data of an IDAT chunk
+	private int chunkLeft;           // bytes of the IDAT chunk not read yet
+	private int next;                // index of the next row to inflate
+
+	/**
+	 * @param file a PNG file
+	 * @return reader over its rows, null if it is not a PNG of a layout this reads
+	 * @throws IOException if the file cannot be read
+	 */
+	static PngRowReader open(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readLong() != 0x89504E470D0A1A0AL || in.readInt() != 13 || in.readInt() != IHDR)
+				return null;
+			int width = in.readInt();
+			int height = in.readInt();
+			int depth = in.readUnsignedByte();
+			int colorType = in.readUnsignedByte();
+			int compression = in.readUnsignedByte();
+			int filter = in.readUnsignedByte();
+			int interlace = in.readUnsignedByte();
+			int channels = colorType == 0 ? 1 : colorType == 4 ? 2 : colorType == 2 ? 3 : colorType == 6 ? 4 : 0;
+			if (width <= 0 || height <= 0 || depth != 8 || channels == 0 || compression != 0 || filter != 0
+					|| interlace != 0 || (long) width * channels + 1 > Integer.MAX_VALUE - 8)
+				return null;
+			return new PngRowReader(file, width, height, channels);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private PngRowReader(File file, int width, int height, int channels) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.samples = channels < 3 ? 1 : 3;
+	}
+
+	/**
+	 * @return cover bytes per pixel, 1 or 3
+	 */
+	int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return width of the image
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the image
+	 */
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Reads the cover bytes of some rows, going back to the start of the file only for rows
+	 * above the last ones read
+	 * @param first first row
+	 * @param rows number of rows
+	 * @param dst where the cover bytes go, width * samples per row
+	 * @throws IOException if the file cannot be read or is not a valid PNG
+	 */
+	void readRows(int first, int rows, byte[] dst) throws IOException {
+		if (in == null || first < next)
+			restart();
+		while (next < first)
+			inflateRow();
+		int at = 0;
+		for (int y = 0; y < rows; y++) {
+			inflateRow();
+			if (samples == 1) {
+				for (int x = 0; x < width; x++)
+					dst[at++] = row[1 + x * channels];
+			} else {
+				// blue, green, red, as RasterCover orders the samples of a pixel
+				for (int x = 1, end = 1 + width * channels; x < end; x += channels) {
+					dst[at++] = row[x + 2];
+					dst[at++] = row[x + 1];
+					dst[at++] = row[x];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens the file again at the data of its first IDAT chunk
+	 * @throws IOException if the file cannot be read or has no image data
+	 */
+	private void restart() throws IOException {
+		closeFile();
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		in.readLong();  // signature, checked by open
+		inflater.reset();
+		prior = new byte[1 + width * channels];
+		row = new byte[prior.length];
+		next = 0;
+		chunkLeft = 0;
+		nextChunk();
+	}
+
+	/**
+	 * Skips to the data of the next IDAT chunk, past the CRC of the one before
+	 * @throws IOException if there is none
+	 */
+	private void nextChunk() throws IOException {
+		while (true) {
+			int length = in.readInt();
+			int type = in.readInt();
+			if (type == IDAT) {
+				chunkLeft = length;
+				return;
+			}
+			if (next > 0 || length < 0)
+				throw new IOException("PNG image data ends before row " + next);
+			in.skipNBytes(length + 4L);  // any chunk before the image data, and its CRC
+		}
+	}
+
+	/**
+	 * Inflates and unfilters the next row into row, the row before it going to prior
+	 * @throws IOException if the image data is cut off or corrupt
+	 */
+	private void inflateRow() throws IOException {
+		if (next >= height)
+			throw new IOException("PNG has no row " + next);
+		byte[] swap = prior;
+		prior = row;
+		row = swap;
+
+		try {
+			for (int done = 0; done < row.length;) {
+				int n = inflater.inflate(row, done, row.length - done);
+				done += n;
+				if (n == 0 && done < row.length) {
+					if (inflater.finished() || inflater.needsDictionary())
+						throw new IOException("PNG image data ends before row " + next);
+					if (chunkLeft == 0) {
+						in.readInt();  // CRC
+						nextChunk();
+					}
+					int len = Math.min(chunkLeft, input.length);
+					in.readFully(input, 0, len);
+					chunkLeft -= len;
+					inflater.setInput(input, 0, len);
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("PNG image data is corrupt", e);
+		}
+
+		unfilter();
+		next++;
+	}
+
+	/**
+	 * Undoes the filter of row, named by its first byte, with prior as the row above
+	 * @throws IOException if the filter type is unknown
+	 */
+	private void unfilter() throws IOException {
+		int bpp = channels;
+		int end = row.length;
+		boolean top = next == 0;  // the row above the first one is all 0
+		switch (row[0]) {
+		case 0:
+			break;
+		case 1:
+			for (int i = 1 + bpp; i < end; i++)
+				row[i] += row[i - bpp];
+			break;
+		case 2:
+			if (!top)
+				for (int i = 1; i < end; i++)
+					row[i] += prior[i];
+			break;
+		case 3:
+			for (int i = 1; i < end; i++) {
+				int left = i > bpp ? row[i - bpp] & 0xFF : 0;
+				int up = top ? 0 : prior[i] & 0xFF;
+				row[i] += (left + up) >>> 1;
+			}
+			break;
+		case 4:
+			for (int i = 1; i < end; i++) {
+				int a = i > bpp ? row[i - bpp] & 0xFF : 0;
+				int b = top ? 0 : prior[i] & 0xFF;
+				int c = i > bpp && !top ? prior[i - bpp] & 0xFF : 0;
+				int p = a + b - c;
+				int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+				row[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			}
+			break;
+		default:
+			throw new IOException("PNG row " + next + " has unknown filter " + row[0]);
+		}
+	}
+
+	/**
+	 * Closes the file, it is opened again by the next read
+	 * @throws IOException if the file cannot be closed
+	 */
+	private void closeFile() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		closeFile();
+	}
+}
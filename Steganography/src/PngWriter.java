@@ -0,0 +1,591 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes PNG files straight from the raster of an image, without going through the ImageIO
+ * plugin. The compression level and strategy can be chosen (level 0 only stores the pixels,
+ * level 1 is fast), and in parallel mode the image is cut in blocks of rows that are deflated
+ * on all cores, each block primed with the end of the previous one so the file stays about as
+ * small as a single threaded one. Images in layouts it does not know are handed to ImageIO.
+ * Blocks can also be deflated on their own and kept ({@link #deflateBlocks(BufferedImage)}),
+ * so copies of an image that only differ in a few rows are written without deflating the rest.
+ */
+public class PngWriter {
+
+	public static final int FILTER_NONE = 0;  // rows stored as they are
+	public static final int FILTER_SUB = 1;   // each byte minus the same byte of the previous pixel
+
+	private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+	private static final int WINDOW = 32 * 1024;      // deflate window, used as dictionary between blocks
+	private static final int COLOR_GRAY = 0;
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_RGBA = 6;
+
+	/**
+	 * Gives the PNG samples of one row of an image (RGB, RGBA or gray, 8 bits each)
+	 */
+	public interface RowSource {
+		/**
+		 * @param y index of the row, asked for in order from 0
+		 * @param row where to store the samples of the row
+		 */
+		void getRow(int y, byte[] row);
+	}
+
+	private int level = Deflater.BEST_SPEED;
+	private int strategy = Deflater.DEFAULT_STRATEGY;
+	private int filter = -1;                 // -1 picks one from the level
+	private boolean parallel = false;
+	private int blockSize = 256 * 1024;      // raw bytes per compressed block
+
+	/**
+	 * An image deflated in blocks of rows that do not refer to each other, kept to write copies
+	 * of the image that only differ in some rows. Made by {@link PngWriter#deflateBlocks}.
+	 */
+	public static class Blocks {
+		private final int width;
+		private final int height;
+		private final int colorType;
+		private final int rowsPerBlock;
+		private final int rowFilter;
+		private final int level;
+		private final byte[][] compressed;  // deflated bytes of each block, the last one ends the stream
+		private final int[] crc;            // CRC of the IDAT chunk of each block
+		private final int[] adler;          // adler32 of the raw bytes of each block
+
+		private Blocks(int width, int height, int colorType, int rowsPerBlock, int rowFilter, int level) {
+			this.width = width;
+			this.height = height;
+			this.colorType = colorType;
+			this.rowsPerBlock = rowsPerBlock;
+			this.rowFilter = rowFilter;
+			this.level = level;
+			int count = (height + rowsPerBlock - 1) / rowsPerBlock;
+			this.compressed = new byte[count][];
+			this.crc = new int[count];
+			this.adler = new int[count];
+		}
+
+		/**
+		 * @return rows deflated together, a copy with one of them changed deflates them again
+		 */
+		public int getRowsPerBlock() {
+			return rowsPerBlock;
+		}
+
+		/**
+		 * @return number of deflated bytes kept
+		 */
+		public long getCompressedSize() {
+			long size = 0;
+			for (byte[] block : compressed)
+				size += block.length;
+			return size;
+		}
+	}
+
+	/**
+	 * @param level deflate level from 0 (store only) to 9 (smallest), 1 by default
+	 */
+	public void setLevel(int level) {
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("Level must be 0 to 9: " + level);
+		this.level = level;
+	}
+
+	/**
+	 * @param strategy one of Deflater.DEFAULT_STRATEGY, FILTERED or HUFFMAN_ONLY
+	 */
+	public void setStrategy(int strategy) {
+		this.strategy = strategy;
+	}
+
+	/**
+	 * @param filter FILTER_NONE or FILTER_SUB, by default none for levels 0 and 1 and sub otherwise
+	 */
+	public void setFilter(int filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @param parallel true to compress blocks of rows on all cores
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @param blockSize how many uncompressed bytes go in one block, at least one row is used
+	 */
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Writes an image to a PNG file
+	 * @param bimg the image to write
+	 * @param file the file to write to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(BufferedImage bimg, File file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+			write(bimg, out);
+		}
+	}
+
+	/**
+	 * Writes an image as PNG to a stream
+	 * @param bimg the image to write
+	 * @param out where the PNG goes, not closed
+	 * @throws IOException if out cannot be written
+	 */
+	public void write(BufferedImage bimg, OutputStream out) throws IOException {
+		RowSource rows = rowsOf(bimg);
+		if (rows == null) {
+			ImageIO.write(bimg, "png", out);
+			return;
+		}
+
+		write(bimg.getWidth(), bimg.getHeight(), colorType(bimg), rows, out);
+	}
+
+	/**
+	 * @param bimg an image rowsOf can read
+	 * @return its PNG color type
+	 */
+	private static int colorType(BufferedImage bimg) {
+		boolean alpha = bimg.getColorModel().hasAlpha();
+		return bimg.getType() == BufferedImage.TYPE_BYTE_GRAY ? COLOR_GRAY : alpha ? COLOR_RGBA : COLOR_RGB;
+	}
+
+	/**
+	 * @param colorType a PNG color type
+	 * @return bytes per pixel of it
+	 */
+	private static int bytesPerPixel(int colorType) {
+		return colorType == COLOR_GRAY ? 1 : colorType == COLOR_RGB ? 3 : 4;
+	}
+
+	/**
+	 * Writes a PNG whose rows come from a source, so images never held in memory can be written
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param colorType 0 for gray, 2 for RGB, 6 for RGBA
+	 * @param rows gives the samples of each row
+	 * @param out where the PNG goes, not closed
+	 * @throws IOException if out cannot be written
+	 */
+	public void write(int width, int height, int colorType, RowSource rows, OutputStream out) throws IOException {
+		int bpp = bytesPerPixel(colorType);
+		int rowBytes = width * bpp;
+		int rowsPerBlock = Math.max(1, blockSize / (rowBytes + 1));
+		int rowFilter = filter >= 0 ? filter : level <= 1 ? FILTER_NONE : FILTER_SUB;
+		DataOutputStream data = new DataOutputStream(out);
+		writeHeader(data, width, height, colorType, level);
+
+		Adler32 adler = new Adler32();
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		int maxPending = parallel ? 2 * ForkJoinPool.getCommonPoolParallelism() : 0;
+		byte[] row = new byte[rowBytes];
+		byte[] previous = null;   // raw block before the current one, for the dictionary
+
+		for (int y = 0; y < height; y += rowsPerBlock) {
+			int n = Math.min(rowsPerBlock, height - y);
+			byte[] raw = new byte[n * (rowBytes + 1)];
+			for (int r = 0; r < n; r++) {
+				rows.getRow(y + r, row);
+				filterRow(rowFilter, row, bpp, raw, r * (rowBytes + 1));
+			}
+			adler.update(raw, 0, raw.length);
+
+			Callable<byte[]> block = new BlockTask(raw, previous, y + n == height);
+			if (parallel) {
+				pending.add(ForkJoinPool.commonPool().submit(block));
+				while (pending.size() > maxPending)
+					writeBlock(data, pending.poll());
+			} else {
+				byte[] compressed = call(block);
+				writeChunk(data, "IDAT", compressed, compressed.length);
+			}
+			previous = raw;
+		}
+		while (!pending.isEmpty())
+			writeBlock(data, pending.poll());
+		writeTrailer(data, (int) adler.getValue());
+	}
+
+	/**
+	 * Writes the signature, the IHDR chunk and the zlib header, in a chunk of its own
+	 * @param level deflate level the image data is compressed with
+	 */
+	private static void writeHeader(DataOutputStream data, int width, int height, int colorType, int level)
+			throws IOException {
+		data.write(SIGNATURE);
+		ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+		DataOutputStream h = new DataOutputStream(ihdr);
+		h.writeInt(width);
+		h.writeInt(height);
+		h.writeByte(8);           // bit depth
+		h.writeByte(colorType);
+		h.writeByte(0);           // deflate
+		h.writeByte(0);           // adaptive filtering
+		h.writeByte(0);           // not interlaced
+		writeChunk(data, "IHDR", ihdr.toByteArray(), ihdr.size());
+
+		// zlib header, then raw deflate blocks, then the adler32 of all uncompressed bytes
+		int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+		int flg = flevel << 6;
+		flg += 31 - ((0x78 << 8 | flg) % 31);
+		writeChunk(data, "IDAT", new byte[] { 0x78, (byte) flg }, 2);
+	}
+
+	/**
+	 * Writes the adler32 that ends the zlib stream and the IEND chunk
+	 * @param sum adler32 of all uncompressed bytes
+	 */
+	private static void writeTrailer(DataOutputStream data, int sum) throws IOException {
+		writeChunk(data, "IDAT", new byte[] { (byte) (sum >>> 24), (byte) (sum >>> 16), (byte) (sum >>> 8), (byte) sum }, 4);
+		writeChunk(data, "IEND", new byte[0], 0);
+		data.flush();
+	}
+
+	/**
+	 * Deflates an image in blocks of rows that do not refer to each other, on all cores in
+	 * parallel mode. The file of the image itself comes out a little larger than with write,
+	 * since blocks are not primed with the previous one, but any block can be reused.
+	 * @param bimg the image, 3 byte BGR, 4 byte ABGR, gray or packed int RGB
+	 * @return the deflated blocks
+	 * @throws IOException if a block cannot be deflated
+	 * @throws IllegalArgumentException if the layout of the image is not supported
+	 */
+	public Blocks deflateBlocks(BufferedImage bimg) throws IOException {
+		RowSource rows = rowsOf(bimg);
+		if (rows == null)
+			throw new IllegalArgumentException("Cannot keep blocks of an image of type " + bimg.getType());
+		int colorType = colorType(bimg);
+		int rowBytes = bimg.getWidth() * bytesPerPixel(colorType);
+		Blocks blocks = new Blocks(bimg.getWidth(), bimg.getHeight(), colorType,
+				Math.max(1, blockSize / (rowBytes + 1)), filter >= 0 ? filter : level <= 1 ? FILTER_NONE : FILTER_SUB, level);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int b = 0; b < blocks.compressed.length; b++) {
+			final int block = b;
+			final byte[] raw = rawBlock(blocks, rows, block);
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					keepBlock(blocks, block, raw);
+					return null;
+				}
+			});
+		}
+		if (parallel) {
+			for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks))
+				get(result);
+		} else {
+			for (Callable<Void> task : tasks)
+				call(task);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Writes a PNG of a copy of an image deflated with {@link #deflateBlocks}, deflating only the
+	 * blocks with a changed row and reusing the others as they are
+	 * @param blocks the image the copy was made from, deflated in blocks
+	 * @param rows gives the samples of the rows of the copy, only asked for the rows of changed
+	 * blocks, in order
+	 * @param changedRows rows of the copy that may differ from the image
+	 * @param out where the PNG goes, not closed
+	 * @throws IOException if out cannot be written
+	 */
+	public void write(Blocks blocks, RowSource rows, BitSet changedRows, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		writeHeader(data, blocks.width, blocks.height, blocks.colorType, blocks.level);
+
+		// blocks start without a dictionary, so a changed block does not change the next one
+		int sum = 1;  // adler32 of nothing
+		long rowLength = (long) blocks.width * bytesPerPixel(blocks.colorType) + 1;
+		for (int b = 0; b < blocks.compressed.length; b++) {
+			int y = b * blocks.rowsPerBlock;
+			int n = Math.min(blocks.rowsPerBlock, blocks.height - y);
+			int next = changedRows.nextSetBit(y);
+			if (next >= 0 && next < y + n) {
+				Blocks changed = new Blocks(blocks.width, blocks.height, blocks.colorType, blocks.rowsPerBlock,
+						blocks.rowFilter, blocks.level);
+				keepBlock(changed, b, rawBlock(changed, rows, b));
+				writeChunk(data, "IDAT", changed.compressed[b], changed.compressed[b].length, changed.crc[b]);
+				sum = combineAdler(sum, changed.adler[b], n * rowLength);
+			} else {
+				writeChunk(data, "IDAT", blocks.compressed[b], blocks.compressed[b].length, blocks.crc[b]);
+				sum = combineAdler(sum, blocks.adler[b], n * rowLength);
+			}
+		}
+		writeTrailer(data, sum);
+	}
+
+	/**
+	 * Filters the rows of one block
+	 * @param blocks the image being deflated in blocks
+	 * @param rows gives the samples of its rows
+	 * @param block index of the block
+	 * @return the filtered rows, each preceded by its filter type
+	 */
+	private static byte[] rawBlock(Blocks blocks, RowSource rows, int block) {
+		int bpp = bytesPerPixel(blocks.colorType);
+		int rowBytes = blocks.width * bpp;
+		int y = block * blocks.rowsPerBlock;
+		int n = Math.min(blocks.rowsPerBlock, blocks.height - y);
+		byte[] row = new byte[rowBytes];
+		byte[] raw = new byte[n * (rowBytes + 1)];
+		for (int r = 0; r < n; r++) {
+			rows.getRow(y + r, row);
+			filterRow(blocks.rowFilter, row, bpp, raw, r * (rowBytes + 1));
+		}
+		return raw;
+	}
+
+	/**
+	 * Deflates one block without a dictionary and keeps it with its checksums
+	 */
+	private void keepBlock(Blocks blocks, int block, byte[] raw) {
+		byte[] compressed = new BlockTask(raw, null, block == blocks.compressed.length - 1).call();
+		Adler32 adler = new Adler32();
+		adler.update(raw, 0, raw.length);
+		blocks.compressed[block] = compressed;
+		blocks.crc[block] = chunkCrc("IDAT", compressed, compressed.length);
+		blocks.adler[block] = (int) adler.getValue();
+	}
+
+	/**
+	 * @param first adler32 of some bytes
+	 * @param second adler32 of the bytes after them
+	 * @param length number of bytes after them
+	 * @return adler32 of both, as zlib's adler32_combine
+	 */
+	static int combineAdler(int first, int second, long length) {
+		final int base = 65521;
+		long rem = length % base;
+		long a1 = first & 0xFFFF, b1 = (first >>> 16) & 0xFFFF;
+		long a2 = second & 0xFFFF, b2 = (second >>> 16) & 0xFFFF;
+		long a = (a1 + a2 + base - 1) % base;
+		long b = (rem * a1 % base + b1 + b2 + base - rem) % base;
+		return (int) (b << 16 | a);
+	}
+
+	/**
+	 * Deflates one block of filtered rows, using the end of the previous block as dictionary
+	 */
+	private class BlockTask implements Callable<byte[]> {
+		private final byte[] raw;
+		private final byte[] previous;
+		private final boolean last;
+
+		BlockTask(byte[] raw, byte[] previous, boolean last) {
+			this.raw = raw;
+			this.previous = previous;
+			this.last = last;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				deflater.setStrategy(strategy);
+				if (previous != null) {
+					int n = Math.min(WINDOW, previous.length);
+					deflater.setDictionary(previous, previous.length - n, n);
+				}
+				deflater.setInput(raw);
+				if (last)
+					deflater.finish();
+
+				// sync flush ends the block on a byte boundary so blocks can be concatenated
+				byte[] out = new byte[raw.length / 2 + 1024];
+				int size = 0;
+				while (true) {
+					if (size == out.length)
+						out = Arrays.copyOf(out, out.length * 2);
+					size += deflater.deflate(out, size, out.length - size, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+					if (last ? deflater.finished() : (deflater.needsInput() && size < out.length))
+						break;
+				}
+				return Arrays.copyOf(out, size);
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Runs a block task on the calling thread
+	 */
+	private static <T> T call(Callable<T> block) throws IOException {
+		try {
+			return block.call();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Waits for a block task run in the background
+	 */
+	private static <T> T get(Future<T> block) throws IOException {
+		try {
+			return block.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Waits for a block compressed in the background and writes it
+	 */
+	private static void writeBlock(DataOutputStream out, Future<byte[]> block) throws IOException {
+		byte[] compressed = get(block);
+		writeChunk(out, "IDAT", compressed, compressed.length);
+	}
+
+	/**
+	 * Stores a row, preceded by its filter type, in the uncompressed data
+	 * @param filter FILTER_NONE or FILTER_SUB
+	 * @param row samples of the row
+	 * @param bpp bytes per pixel
+	 * @param raw where the filtered row goes
+	 * @param offset index in raw of the filter type byte
+	 */
+	private static void filterRow(int filter, byte[] row, int bpp, byte[] raw, int offset) {
+		raw[offset++] = (byte) filter;
+		if (filter == FILTER_NONE) {
+			System.arraycopy(row, 0, raw, offset, row.length);
+			return;
+		}
+
+		System.arraycopy(row, 0, raw, offset, bpp);
+		for (int i = bpp; i < row.length; i++)
+			raw[offset + i] = (byte) (row[i] - row[i - bpp]);
+	}
+
+	/**
+	 * Writes a chunk with its length, type and CRC
+	 */
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+		writeChunk(out, type, data, length, chunkCrc(type, data, length));
+	}
+
+	/**
+	 * Writes a chunk whose CRC is already known
+	 */
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int length, int crc)
+			throws IOException {
+		out.writeInt(length);
+		out.write(type.getBytes(StandardCharsets.US_ASCII));
+		out.write(data, 0, length);
+		out.writeInt(crc);
+	}
+
+	/**
+	 * @return CRC of a chunk, over its type and data
+	 */
+	private static int chunkCrc(String type, byte[] data, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(type.getBytes(StandardCharsets.US_ASCII));
+		crc.update(data, 0, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Reads the rows of an image straight from its raster when the layout is a common one
+	 * @param bimg the image to read
+	 * @return source of PNG rows, null if the layout is not supported
+	 */
+	static RowSource rowsOf(BufferedImage bimg) {
+		final int width = bimg.getWidth();
+		if (bimg.getRaster().getParent() != null || bimg.getRaster().getDataBuffer().getOffset() != 0
+				|| bimg.getRaster().getSampleModelTranslateX() != 0 || bimg.getRaster().getSampleModelTranslateY() != 0)
+			return null;
+
+		switch (bimg.getType()) {
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			final byte[] data = ((DataBufferByte) bimg.getRaster().getDataBuffer()).getData();
+			return new RowSource() {
+				public void getRow(int y, byte[] row) {
+					for (int x = 0, i = y * width * 3; x < row.length; x += 3, i += 3) {
+						row[x] = data[i + 2];
+						row[x + 1] = data[i + 1];
+						row[x + 2] = data[i];
+					}
+				}
+			};
+		}
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			final byte[] data = ((DataBufferByte) bimg.getRaster().getDataBuffer()).getData();
+			return new RowSource() {
+				public void getRow(int y, byte[] row) {
+					for (int x = 0, i = y * width * 4; x < row.length; x += 4, i += 4) {
+						row[x] = data[i + 3];
+						row[x + 1] = data[i + 2];
+						row[x + 2] = data[i + 1];
+						row[x + 3] = data[i];
+					}
+				}
+			};
+		}
+		case BufferedImage.TYPE_BYTE_GRAY: {
+			final byte[] data = ((DataBufferByte) bimg.getRaster().getDataBuffer()).getData();
+			return new RowSource() {
+				public void getRow(int y, byte[] row) {
+					System.arraycopy(data, y * width, row, 0, width);
+				}
+			};
+		}
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_BGR: {
+			final int[] data = ((DataBufferInt) bimg.getRaster().getDataBuffer()).getData();
+			final boolean alpha = bimg.getType() == BufferedImage.TYPE_INT_ARGB;
+			final boolean bgr = bimg.getType() == BufferedImage.TYPE_INT_BGR;
+			return new RowSource() {
+				public void getRow(int y, byte[] row) {
+					for (int x = 0, i = y * width; x < row.length; i++) {
+						int p = data[i];
+						row[x++] = (byte) (bgr ? p : p >> 16);
+						row[x++] = (byte) (p >> 8);
+						row[x++] = (byte) (bgr ? p >> 16 : p);
+						if (alpha)
+							row[x++] = (byte) (p >>> 24);
+					}
+				}
+			};
+		}
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.ByteBuffer;
+
+/**
+ * Cover that hides data directly in the raster of a BufferedImage, whatever its layout, instead
+ * of redrawing it as 3 byte BGR first. The cover bytes are the color samples of each pixel in
+ * blue, green, red order (alpha is skipped), which is exactly the raster of a TYPE_3BYTE_BGR
+ * image, so a secret hidden in an ARGB image can still be read after the image has been saved
+ * and read back in another layout. Gray images use their single sample per pixel. Layouts that
+ * cannot be edited losslessly (palettes, premultiplied alpha, 16 bit samples) are converted.
+ */
+public class RasterCover implements LsbCover {
+
+	/**
+	 * How the raster of the image is accessed
+	 */
+	public enum Path {
+		DIRECT,       // TYPE_3BYTE_BGR or 8 bit gray, raster bytes used as they are
+		BYTE,         // other interleaved byte layouts (ABGR, RGB, gray with alpha...)
+		INT,          // pixels packed in ints (INT_RGB, INT_ARGB, INT_BGR)
+		CONVERTED     // redrawn as TYPE_3BYTE_BGR first
+	}
+
+	private final BufferedImage image;  // image that is read and modified
+	private Path path;
+	private final long size;            // number of color samples
+	private final int samples;          // color samples per pixel, 3 or 1
+
+	private byte[] bytes;               // DIRECT, CONVERTED and BYTE paths
+	private ByteBuffer words;           // DIRECT and CONVERTED paths, bytes wrapped for the kernel
+	private int[] ints;                 // INT path
+	private int pixelStride;            // BYTE path, array elements per pixel
+	private int[] sampleOffsets;        // BYTE path, offset of each cover sample within a pixel
+	private int[] bitOffsets;           // INT path, bit offset of each cover sample within a pixel
+
+	/**
+	 * Wraps an image, converting it only if its raster cannot be used as it is
+	 * @param bimg the image to hide data in or read data from
+	 * @return cover over the raster of bimg, or of a converted copy
+	 */
+	public static RasterCover wrap(BufferedImage bimg) {
+		RasterCover cover = direct(bimg);
+		if (cover != null)
+			return cover;
+
+		cover = direct(convertToBGR(bimg));
+		cover.path = Path.CONVERTED;
+		return cover;
+	}
+
+	/**
+	 * Redraws an image with 3 bytes of blue, green, red each, respectively
+	 * @param bimg the image to be converted
+	 * @return new image with color scheme (BGR)
+	 */
+	static BufferedImage convertToBGR(BufferedImage bimg) {
+		BufferedImage newImage = new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		Graphics g = newImage.getGraphics();
+		g.drawImage(bimg, 0, 0, null);
+		g.dispose();
+		return newImage;
+	}
+
+	/**
+	 * Wraps the raster of an image without copying it
+	 * @param bimg the image to wrap
+	 * @return cover over bimg, null if its layout is not supported
+	 */
+	private static RasterCover direct(BufferedImage bimg) {
+		Raster raster = bimg.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db = raster.getDataBuffer();
+		int colors = bimg.getColorModel().getNumColorComponents();
+
+		// skip anything with a palette, premultiplied alpha, padding or shared with a parent raster
+		if ((colors != 3 && colors != 1) || bimg.getType() == BufferedImage.TYPE_BYTE_BINARY
+				|| bimg.getColorModel().isAlphaPremultiplied() || db.getNumBanks() != 1 || db.getOffset() != 0
+				|| raster.getParent() != null || raster.getSampleModelTranslateX() != 0
+				|| raster.getSampleModelTranslateY() != 0
+				|| bimg.getColorModel() instanceof java.awt.image.IndexColorModel)
+			return null;
+
+		// cover sample c of a pixel is band (colors - 1 - c), so blue, green, red
+		if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+			ComponentSampleModel csm = (ComponentSampleModel) sm;
+			if (csm.getScanlineStride() != csm.getPixelStride() * bimg.getWidth()
+					|| !allZero(csm.getBankIndices()))
+				return null;
+
+			int[] offsets = new int[colors];
+			for (int c = 0; c < colors; c++)
+				offsets[c] = csm.getBandOffsets()[colors - 1 - c];
+
+			boolean plain = csm.getPixelStride() == colors && isSequence(offsets);
+			RasterCover cover = new RasterCover(bimg, plain ? Path.DIRECT : Path.BYTE, colors);
+			cover.bytes = ((DataBufferByte) db).getData();
+			cover.pixelStride = csm.getPixelStride();
+			cover.sampleOffsets = offsets;
+			return cover;
+		}
+
+		if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+			SinglePixelPackedSampleModel spp = (SinglePixelPackedSampleModel) sm;
+			if (spp.getScanlineStride() != bimg.getWidth())
+				return null;
+
+			int[] offsets = new int[colors];
+			for (int c = 0; c < colors; c++) {
+				if (spp.getSampleSize(colors - 1 - c) != 8)
+					return null;
+				offsets[c] = spp.getBitOffsets()[colors - 1 - c];
+			}
+
+			RasterCover cover = new RasterCover(bimg, Path.INT, colors);
+			cover.ints = ((DataBufferInt) db).getData();
+			cover.bitOffsets = offsets;
+			return cover;
+		}
+
+		return null;
+	}
+
+	private RasterCover(BufferedImage image, Path path, int samples) {
+		this.image = image;
+		this.samples = samples;
+		this.size = (long) image.getWidth() * image.getHeight() * samples;
+		this.path = path;
+	}
+
+	/**
+	 * @return the image that is actually read and modified, a converted copy for the CONVERTED path
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * @return how the raster is being accessed
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the raster bytes when they are the cover bytes themselves, null otherwise
+	 */
+	public byte[] getDirectBytes() {
+		return path == Path.DIRECT || path == Path.CONVERTED ? bytes : null;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		checkCapacity(offset, len, bits);
+		if (getDirectBytes() != null) {
+			LsbKernel.embed(words(), (int) offset, payload, from, len, bits);
+			return;
+		}
+
+		// queue payload bits and hand them out bits at a time, first bit highest
+		long sample = offset;
+		int queued = 0, n = 0;
+		for (int i = from, end = from + len; i < end; i++) {
+			queued = (queued << 8 | (payload[i] & 0xFF)) & 0xFFF;
+			for (n += 8; n >= bits; sample++) {
+				n -= bits;
+				setBits(sample, queued >>> n, (1 << bits) - 1);
+			}
+		}
+		if (n > 0)  // payload ends part way through a sample
+			setBits(sample, queued << (bits - n), ((1 << n) - 1) << (bits - n));
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		checkCapacity(offset, len, 1);
+		if (getDirectBytes() != null) {
+			LsbKernel.embedMatching(words(), (int) offset, payload, from, len, seed);
+			return;
+		}
+
+		// one sample at a time, reading and writing the whole sample
+		long sample = offset;
+		for (int i = from, end = from + len; i < end; i++) {
+			long key = seed + sample;  // as the kernel draws it for these 8 samples
+			long random = LsbKernel.mix(key & ~63L) >>> ((key >>> 3) & 7);
+			for (int j = 7; j >= 0; j--, sample++) {
+				int value = getBits(sample, 8);
+				if ((value & 1) != ((payload[i] >> j) & 1))
+					setBits(sample, LsbKernel.matchByte(value, random >>> (8 * j)), 0xFF);
+			}
+		}
+	}
+
+	@Override
+	public void extract(long offset, byte[] payload, int from, int len, int bits) {
+		checkCapacity(offset, len, bits);
+		if (getDirectBytes() != null) {
+			LsbKernel.extract(words(), (int) offset, payload, from, len, bits);
+			return;
+		}
+
+		long sample = offset;
+		int queued = 0, n = 0;
+		for (int i = from, end = from + len; i < end; i++) {
+			for (; n < 8; n += bits, sample++)
+				queued = (queued << bits) | getBits(sample, bits);
+			n -= 8;
+			payload[i] = (byte) (queued >>> n);
+			queued &= (1 << n) - 1;
+		}
+	}
+
+	/**
+	 * @return the raster bytes wrapped once, so embedding and extracting again allocates nothing
+	 */
+	private ByteBuffer words() {
+		if (words == null)
+			words = ByteBuffer.wrap(bytes);  // big endian, as the kernel wants
+		return words;
+	}
+
+	/**
+	 * @param sample index of a cover sample
+	 * @param bits how many low bits to read
+	 * @return low bits of the sample
+	 */
+	private int getBits(long sample, int bits) {
+		int pixel = (int) (sample / samples);
+		int c = (int) (sample - (long) pixel * samples);
+
+		if (path == Path.INT)
+			return (ints[pixel] >>> bitOffsets[c]) & ((1 << bits) - 1);
+		return bytes[pixel * pixelStride + sampleOffsets[c]] & ((1 << bits) - 1);
+	}
+
+	/**
+	 * @param sample index of a cover sample
+	 * @param value new low bits of the sample
+	 * @param mask which low bits to change
+	 */
+	private void setBits(long sample, int value, int mask) {
+		int pixel = (int) (sample / samples);
+		int c = (int) (sample - (long) pixel * samples);
+		value &= mask;
+
+		if (path == Path.INT) {
+			ints[pixel] = (ints[pixel] & ~(mask << bitOffsets[c])) | (value << bitOffsets[c]);
+		} else {
+			int index = pixel * pixelStride + sampleOffsets[c];
+			bytes[index] = (byte) ((bytes[index] & ~mask) | value);
+		}
+	}
+
+	/**
+	 * @param offset index of the first cover sample
+	 * @param len how many payload bytes will be accessed
+	 * @param bits low bits used in each cover sample
+	 */
+	private void checkCapacity(long offset, int len, int bits) {
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		if (offset < 0 || len < 0 || offset + LsbKernel.coverBytes(len, bits) > size)
+			throw new ArrayIndexOutOfBoundsException("Cover of " + size + " bytes cannot hold "
+					+ len + " bytes at offset " + offset);
+	}
+
+	private static boolean allZero(int[] a) {
+		for (int x : a)
+			if (x != 0)
+				return false;
+		return true;
+	}
+
+	private static boolean isSequence(int[] a) {
+		for (int i = 0; i < a.length; i++)
+			if (a[i] != i)
+				return false;
+		return true;
+	}
+}
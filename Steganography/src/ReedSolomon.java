@@ -0,0 +1,364 @@
+import java.io.IOException;
+
+/**
+ * Reed-Solomon code RS(255, 239) over GF(256) (polynomial 0x11D, roots alpha^0 to alpha^15),
+ * so a secret survives a cover that was changed a little after it was hidden: a re-save by a
+ * careless tool, a few flipped LSBs, a stripe painted over. Each codeword of up to 239 data
+ * bytes gets 16 parity bytes and any 8 wrong bytes in it are corrected. Products are looked up
+ * in log and antilog tables.
+ *
+ * A secret of n bytes is cut in d = ceil(n / 239) codewords, codeword c holding secret bytes
+ * c, c + d, c + 2d... The secret stays as it is, followed by parity byte j of codeword c at
+ * n + j * d + c: bytes next to each other in the cover belong to different codewords, so a
+ * damaged run of the cover costs each codeword a byte or two instead of costing one codeword
+ * all of them, and a slice of the secret can still be read straight from the cover.
+ *
+ * Parity is computed for all codewords in one pass over the secret. The 16 byte remainder of
+ * a codeword is kept in 2 longs and takes 8 of its bytes at a time, one table per position
+ * (like slicing-by-8 CRCs): the remainder shifts by 8 bytes and 16 table longs are xored in,
+ * so no product is worked out while encoding. Codewords are worked on in blocks whose
+ * remainders stay in L1. Decoding computes the parity again the same way, and only codewords
+ * whose parity differs are corrected (Berlekamp-Massey, Chien search, Forney), with syndromes
+ * taken from the 16 bytes of difference instead of the 255 bytes of the codeword.
+ */
+final class ReedSolomon {
+
+	static final int DATA = 239;                 // data bytes per codeword
+	static final int PARITY = 16;                // parity bytes per codeword, PARITY / 2 wrong bytes are corrected
+	private static final int POLY = 0x11D;
+	private static final int BLOCK = 512;        // codewords worked on together, their 8 KB of remainders stay in L1
+	private static final int[] EXP = new int[510];  // alpha^i, twice over so sums of logs need no mod
+	private static final int[] LOG = new int[256];  // i for alpha^i, LOG[0] unused
+	private static final int[] GENERATOR = new int[PARITY + 1];  // coefficient of x^i at index i
+	private static final long[] SLICES = new long[8 * 256 * 2];   // position, feedback byte -> what it adds to the remainder
+
+	static {
+		for (int i = 0, x = 1; i < 255; i++) {
+			EXP[i] = EXP[i + 255] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x > 255)
+				x ^= POLY;
+		}
+
+		// (x - alpha^0)...(x - alpha^15), minus is plus in GF(256)
+		GENERATOR[0] = 1;
+		for (int r = 0; r < PARITY; r++) {
+			for (int i = r + 1; i > 0; i--)
+				GENERATOR[i] = GENERATOR[i - 1] ^ mul(GENERATOR[i], EXP[r]);
+			GENERATOR[0] = mul(GENERATOR[0], EXP[r]);
+		}
+
+		// position 7 (the last byte of 8): the generator times the feedback, byte i the
+		// coefficient of x^(15 - i), the order of the parity bytes
+		for (int f = 0; f < 256; f++)
+			for (int i = 0; i < PARITY; i++)
+				SLICES[(7 * 256 + f) * 2 + i / 8] |= (long) mul(f, GENERATOR[PARITY - 1 - i]) << (56 - 8 * (i % 8));
+		// position k: the same, then shifted through the 7 - k bytes that follow with no data
+		for (int k = 6; k >= 0; k--)
+			for (int f = 0; f < 256; f++) {
+				int from = ((k + 1) * 256 + f) * 2;
+				long r0 = SLICES[from];
+				int t = (7 * 256 + (int) (r0 >>> 56)) * 2;
+				SLICES[(k * 256 + f) * 2] = (r0 << 8 | SLICES[from + 1] >>> 56) ^ SLICES[t];
+				SLICES[(k * 256 + f) * 2 + 1] = SLICES[from + 1] << 8 ^ SLICES[t + 1];
+			}
+	}
+
+	private ReedSolomon() {
+	}
+
+	/**
+	 * @param a element of GF(256)
+	 * @param b element of GF(256)
+	 * @return their product
+	 */
+	private static int mul(int a, int b) {
+		return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+	}
+
+	/**
+	 * @param length number of secret bytes
+	 * @return number of codewords they are cut in
+	 */
+	static long codewords(long length) {
+		return (length + DATA - 1) / DATA;
+	}
+
+	/**
+	 * @param length number of secret bytes
+	 * @return number of bytes with the parity
+	 */
+	static long encodedLength(long length) {
+		return length + PARITY * codewords(length);
+	}
+
+	/**
+	 * Inverse of {@link #encodedLength(long)}, also for lengths it never returns
+	 * @param encoded number of hidden bytes
+	 * @return most secret bytes they hold with their parity
+	 */
+	static long dataLength(long encoded) {
+		long whole = encoded / (DATA + PARITY);
+		return whole * DATA + Math.max(0, encoded % (DATA + PARITY) - PARITY);
+	}
+
+	/**
+	 * Adds the parity of all codewords after a secret
+	 * @param data the secret
+	 * @return the secret followed by the interleaved parity
+	 * @throws IllegalArgumentException if the secret and its parity do not fit in an array
+	 */
+	static byte[] encode(byte[] data) {
+		long encoded = encodedLength(data.length);
+		if (encoded > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Secret of " + data.length + " bytes is too large for error correction");
+		byte[] out = new byte[(int) encoded];
+		System.arraycopy(data, 0, out, 0, data.length);
+		int d = (int) codewords(data.length);
+		long[] state = remainders(data, data.length, d);
+		for (int j = 0, at = data.length; j < PARITY; j++) {
+			int shift = 56 - 8 * (j % 8);
+			for (int c = 0, w = j / 8; c < d; c++, w += 2)
+				out[at++] = (byte) (state[w] >>> shift);
+		}
+		return out;
+	}
+
+	/**
+	 * Corrects the hidden bytes of a secret in place
+	 * @param hidden the secret followed by its parity as encode returned them, maybe damaged
+	 * @param length number of secret bytes, dataLength(hidden.length)
+	 * @return number of bytes corrected
+	 * @throws IOException if a codeword has more wrong bytes than can be corrected
+	 */
+	static int correct(byte[] hidden, int length) throws IOException {
+		int d = (int) codewords(length);
+		long[] state = remainders(hidden, length, d);
+		byte[] diff = new byte[PARITY];
+		int[] syndromes = new int[PARITY];
+		int[] errors = new int[PARITY / 2];
+		int[] values = new int[PARITY / 2];
+		int fixed = 0;
+
+		for (int c = 0; c < d; c++) {
+			long p0 = 0;
+			long p1 = 0;
+			for (int j = 0, at = length + c; j < 8; j++, at += d) {
+				p0 = p0 << 8 | (hidden[at] & 0xFF);
+				p1 = p1 << 8 | (hidden[at + 8 * d] & 0xFF);
+			}
+			p0 ^= state[2 * c];
+			p1 ^= state[2 * c + 1];
+			if ((p0 | p1) == 0)
+				continue;
+
+			// the word read minus the codeword with the same data is 0 but for the parity
+			// difference, so both have the same syndromes
+			for (int j = 0; j < 8; j++) {
+				diff[j] = (byte) (p0 >>> (56 - 8 * j));
+				diff[j + 8] = (byte) (p1 >>> (56 - 8 * j));
+			}
+			syndromes(diff, 0, PARITY, syndromes);
+			int k = (length - c + d - 1) / d;  // data bytes of codeword c
+			int n = solve(syndromes, k + PARITY, errors, values);
+			if (n < 0)
+				throw new IOException("Codeword " + c + " has more than " + PARITY / 2 + " wrong bytes");
+			for (int e = 0; e < n; e++) {
+				int i = k + PARITY - 1 - errors[e];  // index in the codeword of the wrong term
+				hidden[i < k ? c + i * d : length + (i - k) * d + c] ^= values[e];
+			}
+			fixed += n;
+		}
+		return fixed;
+	}
+
+	/**
+	 * Works out the parity of all codewords of a secret in one pass over it
+	 * @param data the secret, maybe followed by more bytes
+	 * @param length number of secret bytes
+	 * @param d number of codewords
+	 * @return 2 longs per codeword, its 16 parity bytes big endian
+	 */
+	private static long[] remainders(byte[] data, int length, int d) {
+		long[] state = new long[2 * d];
+		for (int first = 0; first < d; first += BLOCK) {
+			int count = Math.min(BLOCK, d - first);
+			// byte m of codeword c is at m * d + c, so a block takes count bytes in a row from
+			// each of 8 rows of the secret
+			for (int row = first; row < length; row += 8 * d) {
+				for (int i = row, end = row + Math.min(count, length - row), s = 2 * first; i < end; i++, s += 2) {
+					long r0 = state[s];
+					long r1 = state[s + 1];
+					if (i + 7 * d < length) {
+						int t0 = ((data[i] ^ (int) (r0 >>> 56)) & 0xFF) << 1;
+						int t1 = (256 + ((data[i + d] ^ (int) (r0 >>> 48)) & 0xFF)) << 1;
+						int t2 = (512 + ((data[i + 2 * d] ^ (int) (r0 >>> 40)) & 0xFF)) << 1;
+						int t3 = (768 + ((data[i + 3 * d] ^ (int) (r0 >>> 32)) & 0xFF)) << 1;
+						int t4 = (1024 + ((data[i + 4 * d] ^ (int) (r0 >>> 24)) & 0xFF)) << 1;
+						int t5 = (1280 + ((data[i + 5 * d] ^ (int) (r0 >>> 16)) & 0xFF)) << 1;
+						int t6 = (1536 + ((data[i + 6 * d] ^ (int) (r0 >>> 8)) & 0xFF)) << 1;
+						int t7 = (1792 + ((data[i + 7 * d] ^ (int) r0) & 0xFF)) << 1;
+						r0 = r1 ^ SLICES[t0] ^ SLICES[t1] ^ SLICES[t2] ^ SLICES[t3]
+								^ SLICES[t4] ^ SLICES[t5] ^ SLICES[t6] ^ SLICES[t7];
+						r1 = SLICES[t0 + 1] ^ SLICES[t1 + 1] ^ SLICES[t2 + 1] ^ SLICES[t3 + 1]
+								^ SLICES[t4 + 1] ^ SLICES[t5 + 1] ^ SLICES[t6 + 1] ^ SLICES[t7 + 1];
+					} else {
+						// the last bytes of a codeword, one at a time
+						for (int j = i; j < length; j += d) {
+							int t = (7 * 256 + ((data[j] ^ (int) (r0 >>> 56)) & 0xFF)) << 1;
+							r0 = (r0 << 8 | r1 >>> 56) ^ SLICES[t];
+							r1 = r1 << 8 ^ SLICES[t + 1];
+						}
+					}
+					state[s] = r0;
+					state[s + 1] = r1;
+				}
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Works out the parity of one short codeword, such as a header
+	 * @param data the data bytes
+	 * @param off index of the first data byte
+	 * @param len number of data bytes, at most 239
+	 * @param dst where the 16 parity bytes go
+	 * @param dstOff index of the first parity byte
+	 */
+	static void parity(byte[] data, int off, int len, byte[] dst, int dstOff) {
+		long r0 = 0;
+		long r1 = 0;
+		for (int i = off; i < off + len; i++) {
+			int t = (7 * 256 + ((data[i] ^ (int) (r0 >>> 56)) & 0xFF)) << 1;
+			r0 = (r0 << 8 | r1 >>> 56) ^ SLICES[t];
+			r1 = r1 << 8 ^ SLICES[t + 1];
+		}
+		for (int j = 0; j < 8; j++) {
+			dst[dstOff + j] = (byte) (r0 >>> (56 - 8 * j));
+			dst[dstOff + 8 + j] = (byte) (r1 >>> (56 - 8 * j));
+		}
+	}
+
+	/**
+	 * Corrects one short codeword in place
+	 * @param codeword the data bytes followed by the 16 parity bytes
+	 * @param off index of the first byte
+	 * @param len number of bytes, at most 255
+	 * @return number of bytes corrected, -1 if there are too many wrong ones
+	 */
+	static int correct(byte[] codeword, int off, int len) {
+		int[] syndromes = new int[PARITY];
+		int[] errors = new int[PARITY / 2];
+		int[] values = new int[PARITY / 2];
+		syndromes(codeword, off, len, syndromes);
+		int n = solve(syndromes, len, errors, values);
+		for (int e = 0; e < n; e++)
+			codeword[off + len - 1 - errors[e]] ^= values[e];
+		return n;
+	}
+
+	/**
+	 * @param b a word, its first byte the coefficient of the highest power
+	 * @param off index of the first byte
+	 * @param len number of bytes
+	 * @param s where the values of the word at alpha^0 to alpha^15 go
+	 */
+	private static void syndromes(byte[] b, int off, int len, int[] s) {
+		for (int i = 0; i < PARITY; i++) {
+			int v = 0;
+			for (int j = off; j < off + len; j++)
+				v = mul(v, EXP[i]) ^ (b[j] & 0xFF);
+			s[i] = v;
+		}
+	}
+
+	/**
+	 * Finds the wrong bytes of a word from its syndromes
+	 * @param s syndromes, the values of the word at alpha^0 to alpha^15
+	 * @param len number of bytes of the word, errors past it mean it cannot be corrected
+	 * @param errors where the degrees of the wrong terms go
+	 * @param values where what to add to them goes
+	 * @return number of wrong bytes, -1 if there are too many
+	 */
+	private static int solve(int[] s, int len, int[] errors, int[] values) {
+		boolean zero = true;
+		for (int i = 0; i < PARITY; i++)
+			zero &= s[i] == 0;
+		if (zero)
+			return 0;
+
+		// Berlekamp-Massey: the shortest lfsr lambda(x) that generates the syndromes
+		int[] lambda = new int[PARITY + 1];
+		int[] prev = new int[PARITY + 1];
+		int[] temp = new int[PARITY + 1];
+		lambda[0] = prev[0] = 1;
+		int l = 0;
+		int m = 1;
+		int b = 1;
+		for (int r = 0; r < PARITY; r++) {
+			int delta = s[r];
+			for (int i = 1; i <= l; i++)
+				delta ^= mul(lambda[i], s[r - i]);
+			if (delta == 0) {
+				m++;
+				continue;
+			}
+			int scale = mul(delta, EXP[255 - LOG[b]]);
+			boolean longer = 2 * l <= r;
+			if (longer)
+				System.arraycopy(lambda, 0, temp, 0, PARITY + 1);
+			for (int i = 0; i + m <= PARITY; i++)
+				lambda[i + m] ^= mul(scale, prev[i]);
+			if (longer) {
+				System.arraycopy(temp, 0, prev, 0, PARITY + 1);
+				l = r + 1 - l;
+				b = delta;
+				m = 1;
+			} else {
+				m++;
+			}
+		}
+		if (l > PARITY / 2)
+			return -1;
+
+		// Chien search: the term of degree j is wrong if lambda(alpha^-j) = 0
+		int n = 0;
+		for (int j = 0; j < len; j++) {
+			int v = 0;
+			for (int i = 0, step = (255 - j) % 255, e = 0; i <= l; i++, e = (e + step) % 255)
+				v ^= mul(lambda[i], EXP[e]);
+			if (v == 0) {
+				if (n == l)
+					return -1;
+				errors[n++] = j;
+			}
+		}
+		if (n != l)
+			return -1;
+
+		// Forney: omega(x) = s(x) lambda(x) mod x^16, and the value at X = alpha^j is
+		// X omega(1/X) / lambda'(1/X), the derivative having only the odd terms in GF(2^8)
+		int[] omega = temp;
+		for (int i = 0; i < PARITY; i++) {
+			int v = 0;
+			for (int k = 0; k <= Math.min(i, l); k++)
+				v ^= mul(lambda[k], s[i - k]);
+			omega[i] = v;
+		}
+		for (int e = 0; e < n; e++) {
+			int inverse = (255 - errors[e]) % 255;  // log of 1/X
+			int num = 0;
+			for (int i = 0; i < PARITY; i++)
+				num ^= mul(omega[i], EXP[i * inverse % 255]);
+			int den = 0;
+			for (int i = 1; i <= l; i += 2)
+				den ^= mul(lambda[i], EXP[(i - 1) * inverse % 255]);
+			if (den == 0)
+				return -1;
+			values[e] = mul(mul(num, EXP[errors[e]]), EXP[255 - LOG[den]]);
+		}
+		return n;
+	}
+}
@@ -0,0 +1,162 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Spreads a secret over the whole of another cover in an order only the key gives, instead of
+ * filling it from the top. The cover bytes after the header are cut in units of 512 (170
+ * pixels, 64 payload bytes with one bit) and unit u of the secret goes to unit p(u) of the
+ * cover, where p is a keyed Feistel permutation of the unit indexes. p is computed for each
+ * unit on its own, so nothing of the size of the cover is allocated and any part of the secret
+ * can be reached directly, by several threads at once. Units are several cache lines long
+ * because on covers larger than the caches each unit costs a cache and TLB miss. The header
+ * stays at the start, unscattered, so it can be read before the key is asked for.
+ */
+public class ScatteredCover implements LsbCover {
+
+	static final int UNIT = 512;            // cover bytes moved together
+	private static final int ROUNDS = 4;
+
+	private final LsbCover cover;
+	private final int start;                // cover bytes of the header, not scattered
+	private final long units;               // units of the cover after the header
+	private final int lowBits;              // bits of the right half in even rounds, left half in odd ones
+	private final int highBits;             // the other half, lowBits + highBits bits hold any unit index
+	private final long[] keys = new long[ROUNDS];
+
+	/**
+	 * @param cover the cover to scatter the secret in
+	 * @param key any bytes, the same ones are needed to read the secret back
+	 */
+	public ScatteredCover(LsbCover cover, byte[] key) {
+		this(cover, key, StegaHeader.COVER_BYTES);
+	}
+
+	/**
+	 * @param cover the cover to scatter the secret in
+	 * @param key any bytes, the same ones are needed to read the secret back
+	 * @param start cover bytes of the header, {@link StegaHeader#getCoverBytes()}
+	 */
+	public ScatteredCover(LsbCover cover, byte[] key, int start) {
+		this.cover = cover;
+		this.start = start;
+		this.units = Math.max(0, (cover.size() - start) / UNIT);
+
+		int bits = 2;
+		while (bits < 62 && 1L << bits < units)
+			bits++;
+		this.lowBits = bits / 2;
+		this.highBits = bits - lowBits;
+
+		// round keys from a hash of the key and the number of units, so covers of other sizes differ
+		byte[] hash;
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			sha.update(key);
+			sha.update(Long.toString(units).getBytes(StandardCharsets.US_ASCII));
+			hash = sha.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);  // every JDK has SHA-256
+		}
+		for (int r = 0; r < ROUNDS; r++)
+			for (int i = 0; i < 8; i++)
+				keys[r] = keys[r] << 8 | (hash[8 * r + i] & 0xFF);
+	}
+
+	/**
+	 * @return the cover the secret is scattered in
+	 */
+	public LsbCover getCover() {
+		return cover;
+	}
+
+	/**
+	 * @return the cover bytes the header and whole units take, the rest of the cover is not used
+	 */
+	@Override
+	public long size() {
+		return start + units * UNIT;
+	}
+
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		access(cover, true, offset, payload, from, len, bits);
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		// keyed by the offset in the cover, as if the cover were wrapped in a MatchingCover
+		access(new MatchingCover(cover, seed), true, offset, payload, from, len, 1);
+	}
+
+	@Override
+	public void extract(long offset, byte[] payload, int from, int len, int bits) {
+		access(cover, false, offset, payload, from, len, bits);
+	}
+
+	/**
+	 * Embeds or extracts a range of payload, one unit at a time
+	 * @param via the cover itself, or a wrapper of it that hides another way
+	 * @param embed true to embed, false to extract
+	 * @param offset index of the first cover byte, as if the secret were not scattered
+	 * @param payload the payload bytes
+	 * @param from index of the first payload byte
+	 * @param len how many payload bytes
+	 * @param bits low bits used in each cover byte, 1 to 4
+	 */
+	private void access(LsbCover via, boolean embed, long offset, byte[] payload, int from, int len, int bits) {
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		if (offset < 0 || len < 0 || offset + LsbKernel.coverBytes(len, bits) > size())
+			throw new ArrayIndexOutOfBoundsException("Cover of " + size() + " bytes cannot hold "
+					+ len + " bytes at offset " + offset);
+
+		while (len > 0) {
+			long at = offset - start;
+			long target;
+			int n;
+			if (at < 0) {
+				// the header is not scattered
+				target = offset;
+				n = (int) Math.min(len, -at * bits / 8);
+			} else {
+				// a unit holds 8 * bits payload bytes, a whole number of groups for any bits
+				int index = (int) (at % UNIT);
+				target = start + permute(at / UNIT) * UNIT + index;
+				n = Math.min(len, (UNIT - index) * bits / 8);
+			}
+
+			if (embed)
+				via.embed(target, payload, from, n, bits);
+			else
+				via.extract(target, payload, from, n, bits);
+			offset += LsbKernel.coverBytes(n, bits);
+			from += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Keyed bijection of [0, units): a Feistel network over the smallest number of bits that
+	 * holds units, with halves one bit apart when that number is odd, applied again to results
+	 * past the end (cycle walking, fewer than 2 times on average)
+	 * @param unit index of a unit of the secret
+	 * @return index of the cover unit it goes to
+	 */
+	long permute(long unit) {
+		long x = unit;
+		do {
+			// each round moves the right half to the top and xors the left half with a hash of it
+			int right = lowBits, left = highBits;
+			for (int r = 0; r < ROUNDS; r++) {
+				long low = x & ((1L << right) - 1);
+				long high = x >>> right;
+				x = low << left | ((high ^ LsbKernel.mix(low ^ keys[r])) & ((1L << left) - 1));
+				int t = right;
+				right = left;
+				left = t;
+			}
+		} while (x >= units);
+		return x;
+	}
+}
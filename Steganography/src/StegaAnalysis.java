@@ -0,0 +1,310 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Steganalysis to score how well covers hide secrets, before and after embedding, with the
+ * two classic attacks on LSB replacement:
+ *
+ * Chi-square (Westfeld and Pfitzmann): replacing LSBs with random bits evens out the counts of
+ * each pair of values (2k, 2k + 1). The test gives the probability that the counts are that
+ * even, close to 1 over the part of the cover a secret was written to. Run over growing
+ * prefixes of the cover it also shows how far a secret hidden in order goes.
+ *
+ * RS analysis (Fridrich, Goljan and Du): groups of 4 samples of a channel along a row are
+ * regular or singular when flipping their middle LSBs makes them less or more smooth, and
+ * replacement moves the counts for flips and shifted flips apart in a known way, so the
+ * fraction of cover bytes changed can be solved for. It finds secrets scattered anywhere.
+ *
+ * LSB matching ({@link MatchingCover}) changes values by +-1 without pairing them, so both
+ * should score it about the same as a clean cover.
+ *
+ * Usage: java StegaAnalysis [-rates 0.05,0.25,1] [-key k] image...
+ * where rates are fractions of the capacity filled with random bytes, hidden in a copy of
+ * each image by replacement and by matching (scattered with the key if there is one).
+ */
+public class StegaAnalysis {
+
+	private static final int PROFILE_STEPS = 100;  // prefixes of the cover the chi-square test is run on
+
+	/**
+	 * Runs the chi-square test on the pairs of values of some cover bytes
+	 * @param samples the cover bytes
+	 * @param from index of the first byte
+	 * @param to index after the last byte
+	 * @return probability a secret replaced the LSBs of those bytes, 0 to 1
+	 */
+	public static double chiSquare(byte[] samples, int from, int to) {
+		long[] counts = new long[256];
+		for (int i = from; i < to; i++)
+			counts[samples[i] & 0xFF]++;
+		return chiSquare(counts);
+	}
+
+	/**
+	 * Runs the chi-square test on growing prefixes of the cover
+	 * @param samples the cover bytes, in the order secrets are hidden in them
+	 * @param steps number of prefixes, the last one is the whole cover
+	 * @return probability of LSB replacement for each prefix
+	 */
+	public static double[] chiSquareProfile(byte[] samples, int steps) {
+		double[] p = new double[steps];
+		long[] counts = new long[256];
+		int done = 0;
+		for (int s = 0; s < steps; s++) {
+			int end = (int) ((long) samples.length * (s + 1) / steps);
+			for (; done < end; done++)
+				counts[samples[done] & 0xFF]++;
+			p[s] = chiSquare(counts);
+		}
+		return p;
+	}
+
+	/**
+	 * @param counts number of cover bytes of each value
+	 * @return probability the pairs of values are as even as LSB replacement leaves them
+	 */
+	private static double chiSquare(long[] counts) {
+		double chi = 0;
+		int categories = 0;
+		for (int k = 0; k < 256; k += 2) {
+			double expected = (counts[k] + counts[k + 1]) / 2.0;
+			if (expected == 0)
+				continue;  // pairs that never occur say nothing
+			double d = counts[k] - expected;
+			chi += d * d / expected;
+			categories++;
+		}
+		if (categories < 2)
+			return 0;
+		return upperGamma((categories - 1) / 2.0, chi / 2);
+	}
+
+	/**
+	 * Estimates how much of a cover was hidden in by LSB replacement with RS analysis
+	 * @param samples the cover bytes, rows of width pixels of channels bytes each
+	 * @param width width of the image in pixels
+	 * @param channels bytes per pixel
+	 * @return estimated fraction of the cover bytes holding a secret, about 0 for a clean cover
+	 */
+	public static double rs(byte[] samples, int width, int channels) {
+		// regular and singular groups for the mask and the negative mask, on the cover (0-3)
+		// and on the cover with every LSB flipped (4-7)
+		long[] counts = new long[8];
+		int row = width * channels;
+		int height = samples.length / row;
+		long groups = 0;
+		for (int y = 0; y < height; y++) {
+			for (int c = 0; c < channels; c++) {
+				for (int x = 0; x + 4 <= width; x += 4) {
+					int at = y * row + x * channels + c;
+					int a = samples[at] & 0xFF;
+					int b = samples[at + channels] & 0xFF;
+					int m = samples[at + 2 * channels] & 0xFF;
+					int d = samples[at + 3 * channels] & 0xFF;
+					classify(a, b, m, d, counts, 0);
+					classify(a ^ 1, b ^ 1, m ^ 1, d ^ 1, counts, 4);
+					groups++;
+				}
+			}
+		}
+		if (groups == 0)
+			return 0;
+
+		double d0 = (double) (counts[0] - counts[1]) / groups;   // R_M - S_M
+		double n0 = (double) (counts[2] - counts[3]) / groups;   // R_-M - S_-M
+		double d1 = (double) (counts[4] - counts[5]) / groups;   // the same with the LSBs flipped
+		double n1 = (double) (counts[6] - counts[7]) / groups;
+
+		// 2(d1 + d0) x^2 + (n0 - n1 - d1 - 3 d0) x + d0 - n0 = 0, the root closer to 0
+		double qa = 2 * (d1 + d0);
+		double qb = n0 - n1 - d1 - 3 * d0;
+		double qc = d0 - n0;
+		double x;
+		if (Math.abs(qa) < 1e-12) {
+			x = qb == 0 ? 0 : -qc / qb;
+		} else {
+			double root = Math.sqrt(Math.max(0, qb * qb - 4 * qa * qc));
+			double x1 = (-qb + root) / (2 * qa);
+			double x2 = (-qb - root) / (2 * qa);
+			x = Math.abs(x1) < Math.abs(x2) ? x1 : x2;
+		}
+		return x / (x - 0.5);
+	}
+
+	/**
+	 * Counts a group of 4 samples as regular or singular under the mask [0 1 1 0] and its negative
+	 * @param counts R_M, S_M, R_-M and S_-M are counted from index at
+	 */
+	private static void classify(int a, int b, int c, int d, long[] counts, int at) {
+		int f = smoothness(a, b, c, d);
+		int flipped = smoothness(a, b ^ 1, c ^ 1, d);
+		int shifted = smoothness(a, ((b + 1) ^ 1) - 1, ((c + 1) ^ 1) - 1, d);  // -1<->0, 1<->2...
+		if (flipped > f)
+			counts[at]++;
+		else if (flipped < f)
+			counts[at + 1]++;
+		if (shifted > f)
+			counts[at + 2]++;
+		else if (shifted < f)
+			counts[at + 3]++;
+	}
+
+	/**
+	 * @return how rough a group of 4 samples is, the sum of the differences between neighbours
+	 */
+	private static int smoothness(int a, int b, int c, int d) {
+		return Math.abs(b - a) + Math.abs(c - b) + Math.abs(d - c);
+	}
+
+	/**
+	 * @param a shape, positive
+	 * @param x point, not negative
+	 * @return the regularized upper incomplete gamma function Q(a, x)
+	 */
+	static double upperGamma(double a, double x) {
+		if (x <= 0)
+			return 1;
+		double front = Math.exp(-x + a * Math.log(x) - logGamma(a));
+		if (x < a + 1) {
+			// series for P(a, x)
+			double term = 1 / a, sum = term;
+			for (int n = 1; n < 1000 && Math.abs(term) > Math.abs(sum) * 1e-15; n++) {
+				term *= x / (a + n);
+				sum += term;
+			}
+			return Math.max(0, 1 - sum * front);
+		}
+
+		// continued fraction for Q(a, x), Lentz's method
+		double tiny = 1e-300;
+		double b = x + 1 - a, c = 1 / tiny, d = 1 / b, h = d;
+		for (int n = 1; n < 1000; n++) {
+			double an = -n * (n - a);
+			b += 2;
+			d = an * d + b;
+			if (Math.abs(d) < tiny)
+				d = tiny;
+			c = b + an / c;
+			if (Math.abs(c) < tiny)
+				c = tiny;
+			d = 1 / d;
+			double step = d * c;
+			h *= step;
+			if (Math.abs(step - 1) < 1e-15)
+				break;
+		}
+		return Math.min(1, front * h);
+	}
+
+	/**
+	 * @param x positive
+	 * @return log of the gamma function (Lanczos approximation)
+	 */
+	private static double logGamma(double x) {
+		double[] g = { 76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155,
+				0.1208650973866179e-2, -0.5395239384953e-5 };
+		double y = x, t = x + 5.5;
+		t -= (x + 0.5) * Math.log(t);
+		double sum = 1.000000000190015;
+		for (double coefficient : g)
+			sum += coefficient / ++y;
+		return -t + Math.log(2.5066282746310005 * sum / x);
+	}
+
+	/**
+	 * Scores a cover and prints a result row
+	 * @param name name of the image
+	 * @param mode how the secret was hidden
+	 * @param rate fraction of the capacity used
+	 * @param bimg the cover, 3 bytes per pixel
+	 * @param embedNanos time the secret took to hide, 0 for none
+	 * @param secretBytes bytes hidden
+	 */
+	private static void score(String name, String mode, double rate, BufferedImage bimg, long embedNanos,
+			long secretBytes) {
+		byte[] samples = ((DataBufferByte) bimg.getRaster().getDataBuffer()).getData();
+		long start = System.nanoTime();
+		double chi = chiSquare(samples, 0, samples.length);
+		double[] profile = chiSquareProfile(samples, PROFILE_STEPS);
+		double estimate = rs(samples, bimg.getWidth(), 3);
+		long analysisNanos = System.nanoTime() - start;
+
+		// how far from the start the pairs stay even, where a secret hidden in order ends
+		int even = 0;
+		while (even < profile.length && profile[even] > 0.5)
+			even++;
+
+		System.out.println(String.format(Locale.ROOT, "%-24s %-8s %5.2f %8.4f %8.2f %8.3f %10.1f %10.1f",
+				name.length() > 24 ? name.substring(name.length() - 24) : name, mode, rate, chi,
+				(double) even / PROFILE_STEPS, estimate,
+				embedNanos == 0 ? 0 : secretBytes / (embedNanos / 1e9) / (1 << 20),
+				samples.length / (analysisNanos / 1e9) / (1 << 20)));
+	}
+
+	/**
+	 * @param list comma separated numbers
+	 * @return the numbers
+	 */
+	private static double[] parse(String list) {
+		String[] parts = list.split(",");
+		double[] numbers = new double[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			numbers[i] = Double.parseDouble(parts[i].trim());
+		return numbers;
+	}
+
+	public static void main(String[] args) throws IOException {
+		double[] rates = { 0.05, 0.25, 1 };
+		byte[] key = null;
+		List<String> images = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-rates") && i + 1 < args.length)
+				rates = parse(args[++i]);
+			else if (args[i].equals("-key") && i + 1 < args.length)
+				key = args[++i].getBytes("UTF-8");
+			else
+				images.add(args[i]);
+		}
+		if (images.isEmpty()) {
+			System.err.println("Usage: java StegaAnalysis [-rates 0.05,0.25,1] [-key k] image...");
+			System.exit(1);
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-24s %-8s %5s %8s %8s %8s %10s %10s", "image", "mode",
+				"rate", "chi p", "chi len", "rs", "embed MB/s", "scan MB/s"));
+		Random random = new Random(42);
+		for (String name : images) {
+			BufferedImage read = ImageIO.read(new File(name));
+			if (read == null) {
+				System.err.println(name + " is not an image");
+				continue;
+			}
+			score(name, "clean", 0, RasterCover.convertToBGR(read), 0, 0);
+
+			for (double rate : rates) {
+				for (boolean matching : new boolean[] { false, true }) {
+					Steganography stega = new Steganography();
+					stega.setMatching(matching);
+					stega.setScatterKey(key);
+					BufferedImage cover = RasterCover.convertToBGR(read);
+					RasterCover raster = RasterCover.wrap(cover);
+					byte[] secret = new byte[(int) Math.max(0, stega.capacity(raster.size()) * rate)];
+					random.nextBytes(secret);  // as a compressed or encrypted secret looks
+
+					long start = System.nanoTime();
+					stega.encodeText(raster, new ByteArrayInputStream(secret), secret.length);
+					score(name, matching ? "match" : "replace", rate, cover, System.nanoTime() - start, secret.length);
+				}
+			}
+		}
+	}
+}
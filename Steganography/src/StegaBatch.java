@@ -0,0 +1,384 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Headless command that hides one secret in (or recovers secrets from) a whole directory of
+ * images. Work goes through three stages, read, embed/extract and write, each with its own
+ * threads, connected by bounded queues so a slow stage holds the others back instead of
+ * piling up decoded images in memory. Throughput of every stage is printed at the end.
+ *
+ * Usage:
+ *   java StegaBatch embed -secret text.txt|secret.png -in dir|list.txt -out dir [options]
+ *   java StegaBatch extract -type text|image -in dir|list.txt -out dir [options]
+ * Options: -readers n, -workers n, -writers n (threads per stage), -queue n (images waiting
+ * between two stages), -level n (PNG deflate level, 0 to 9), -bits n (bits per channel
+ * used for the secret, 1 to 4), -compress true (deflate the secret first), -key passphrase
+ * (scatter the secret over the cover with a key, needed again to extract it), -password word
+ * (encrypt the secret, needed again to extract it), -matching true (hide by LSB matching,
+ * 1 bit per channel only), -correct true (add Reed-Solomon parity, so a slightly damaged
+ * stego image still gives the secret back). -in is either a
+ * directory of PNG images or a text file listing one image path per line.
+ */
+public class StegaBatch {
+
+	/**
+	 * One image going through the pipeline
+	 */
+	private static class Job {
+		final File source;        // image read in the first stage
+		final File target;        // file written in the last stage
+		BufferedImage image;      // read image, then image to write
+		byte[] bytes;             // recovered text, if any
+		long size;                // bytes read or written, for throughput
+
+		Job(File source, File target) {
+			this.source = source;
+			this.target = target;
+		}
+	}
+
+	private static final Job END = new Job(null, null);  // tells a stage there is no more work
+
+	/**
+	 * Work done by one stage on one job
+	 */
+	private interface Task {
+		/**
+		 * @param job the job to work on
+		 * @return the job to hand to the next stage
+		 * @throws Exception if the job failed, it is reported and dropped
+		 */
+		Job process(Job job) throws Exception;
+	}
+
+	/**
+	 * Threads that take jobs from one queue, work on them and put them in the next queue
+	 */
+	private static class Stage {
+		final String name;
+		final int threads;
+		final BlockingQueue<Job> in;
+		final BlockingQueue<Job> out;      // null for the last stage
+		final int downstreamThreads;       // how many END markers to pass on
+		final Task task;
+		final AtomicInteger running;
+		final AtomicLong busyNanos = new AtomicLong();
+		final AtomicLong items = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		final CountDownLatch done;
+
+		Stage(String name, int threads, BlockingQueue<Job> in, BlockingQueue<Job> out,
+				int downstreamThreads, Task task) {
+			this.name = name;
+			this.threads = threads;
+			this.in = in;
+			this.out = out;
+			this.downstreamThreads = downstreamThreads;
+			this.task = task;
+			this.running = new AtomicInteger(threads);
+			this.done = new CountDownLatch(threads);
+		}
+
+		void start() {
+			for (int i = 0; i < threads; i++) {
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						work();
+					}
+				}, name + "-" + i);
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+
+		private void work() {
+			try {
+				Job job;
+				while ((job = in.take()) != END) {
+					long start = System.nanoTime();
+					Job result = null;
+					try {
+						result = task.process(job);
+						items.incrementAndGet();
+						bytes.addAndGet(result.size);
+					} catch (Throwable e) {
+						// an OutOfMemoryError on one large image fails that image, not the stage
+						failures.incrementAndGet();
+						System.err.println(job.source + ": " + e);
+					}
+					busyNanos.addAndGet(System.nanoTime() - start);  // waiting on the next stage is not busy
+
+					if (result != null && out != null)
+						out.put(result);  // blocks while the next stage is behind
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				// last thread of this stage out tells every thread of the next stage to stop,
+				// however it got out, or the next stage would wait for work forever
+				if (running.decrementAndGet() == 0 && out != null)
+					for (int i = 0; i < downstreamThreads; i++)
+						putEnd();
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Passes END on to the next stage even if this thread was interrupted
+		 */
+		private void putEnd() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					out.put(END);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		String report(double wallSeconds) {
+			double busy = busyNanos.get() / 1e9;
+			return String.format(Locale.ROOT, "%-8s %3d threads %8d ok %5d failed %10.1f items/s %10.1f MB/s %8.1f s busy",
+					name, threads, items.get(), failures.get(), items.get() / wallSeconds,
+					bytes.get() / wallSeconds / (1 << 20), busy);
+		}
+	}
+
+	private final Steganography stega = new Steganography();
+	private final PngWriter png = new PngWriter();
+	private int readers = 2;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int writers = 2;
+	private int queueSize = 16;
+
+	/**
+	 * Runs the pipeline over all jobs and prints the throughput of each stage
+	 * @param jobs the images to process
+	 * @param name name of the middle stage
+	 * @param work what to do with each read image
+	 * @param write how to save the result of each image
+	 * @throws InterruptedException if interrupted while waiting for the stages
+	 */
+	void run(List<Job> jobs, String name, Task work, Task write) throws InterruptedException {
+		BlockingQueue<Job> files = new ArrayBlockingQueue<Job>(jobs.size() + readers);
+		BlockingQueue<Job> read = new ArrayBlockingQueue<Job>(queueSize);
+		BlockingQueue<Job> processed = new ArrayBlockingQueue<Job>(queueSize);
+
+		Stage readStage = new Stage("read", readers, files, read, workers, new Task() {
+			public Job process(Job job) throws IOException {
+				job.image = ImageIO.read(job.source);
+				if (job.image == null)
+					throw new IOException("not an image");
+				job.size = job.source.length();
+				return job;
+			}
+		});
+		Stage workStage = new Stage(name, workers, read, processed, writers, work);
+		Stage writeStage = new Stage("write", writers, processed, null, 0, write);
+
+		files.addAll(jobs);
+		for (int i = 0; i < readers; i++)
+			files.add(END);
+
+		long start = System.nanoTime();
+		readStage.start();
+		workStage.start();
+		writeStage.start();
+		readStage.done.await();
+		workStage.done.await();
+		writeStage.done.await();
+		double wall = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format(Locale.ROOT, "%d images in %.2f s", jobs.size(), wall));
+		System.out.println(readStage.report(wall));
+		System.out.println(workStage.report(wall));
+		System.out.println(writeStage.report(wall));
+	}
+
+	/**
+	 * Hides the same secret in every image
+	 * @param secret a .txt or .png file
+	 * @param jobs the cover images and where to save them
+	 * @throws IOException if the secret cannot be read
+	 * @throws InterruptedException if interrupted while waiting for the stages
+	 */
+	void embed(File secret, List<Job> jobs) throws IOException, InterruptedException {
+		final boolean isText = secret.getName().endsWith(".txt");
+		final byte[] text = isText ? Files.readAllBytes(secret.toPath()) : null;
+		final BufferedImage image = isText ? null : ImageIO.read(secret);
+		if (!isText && image == null)
+			throw new IOException(secret + " is not a .txt or image file");
+
+		run(jobs, "embed", new Task() {
+			public Job process(Job job) throws IOException {
+				if (isText)
+					job.image = stega.encodeText(job.image, new ByteArrayInputStream(text), text.length);
+				else
+					job.image = stega.encodeImage(job.image, image);
+				return job;
+			}
+		}, new Task() {
+			public Job process(Job job) throws IOException {
+				png.write(job.image, job.target);
+				job.size = job.target.length();
+				job.image = null;
+				return job;
+			}
+		});
+	}
+
+	/**
+	 * Recovers the secret of every image
+	 * @param isText true if the images hold text, false if they hold images
+	 * @param jobs the images with a secret and where to save the secret
+	 * @throws InterruptedException if interrupted while waiting for the stages
+	 */
+	void extract(final boolean isText, List<Job> jobs) throws InterruptedException {
+		run(jobs, "extract", new Task() {
+			public Job process(Job job) throws IOException {
+				if (isText) {
+					ByteArrayOutputStream text = new ByteArrayOutputStream();
+					stega.decodeText(job.image, text);
+					job.bytes = text.toByteArray();
+					job.image = null;
+				} else {
+					job.image = stega.decodeImage(job.image);
+				}
+				return job;
+			}
+		}, new Task() {
+			public Job process(Job job) throws IOException {
+				if (isText) {
+					try (OutputStream out = new FileOutputStream(job.target)) {
+						out.write(job.bytes);
+					}
+				} else {
+					png.write(job.image, job.target);
+				}
+				job.size = job.target.length();
+				job.image = null;
+				job.bytes = null;
+				return job;
+			}
+		});
+	}
+
+	/**
+	 * Lists the images to process and where their results go
+	 * @param in a directory of PNG images or a text file with one image path per line
+	 * @param out directory for the results
+	 * @param extension extension of the result files
+	 * @return one job per image
+	 * @throws IOException if in cannot be read
+	 */
+	static List<Job> listJobs(File in, File out, String extension) throws IOException {
+		List<File> sources = new ArrayList<File>();
+		if (in.isDirectory()) {
+			File[] files = in.listFiles();
+			Arrays.sort(files);
+			for (File f : files)
+				if (f.isFile() && f.getName().toLowerCase(Locale.ROOT).endsWith(".png"))
+					sources.add(f);
+		} else {
+			for (String line : Files.readAllLines(in.toPath()))
+				if (!line.trim().isEmpty())
+					sources.add(new File(line.trim()));
+		}
+
+		if (!out.isDirectory() && !out.mkdirs())
+			throw new IOException("Cannot create " + out);
+
+		List<Job> jobs = new ArrayList<Job>();
+		for (File f : sources) {
+			String name = f.getName();
+			int dot = name.lastIndexOf('.');
+			jobs.add(new Job(f, new File(out, (dot > 0 ? name.substring(0, dot) : name) + extension)));
+		}
+		return jobs;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java StegaBatch embed -secret file -in dir|list -out dir [options]");
+		System.err.println("       java StegaBatch extract -type text|image -in dir|list -out dir [options]");
+		System.err.println("Options: -readers n -workers n -writers n -queue n -level n -bits n -compress true|false -key passphrase -password word -matching true|false -correct true|false");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0)
+			usage();
+
+		StegaBatch batch = new StegaBatch();
+		String mode = args[0], secret = null, in = null, out = null, type = "text";
+		for (int i = 1; i < args.length; i++) {
+			if (i + 1 == args.length)
+				usage();
+			String value = args[++i];
+			if (args[i - 1].equals("-secret"))
+				secret = value;
+			else if (args[i - 1].equals("-in"))
+				in = value;
+			else if (args[i - 1].equals("-out"))
+				out = value;
+			else if (args[i - 1].equals("-type"))
+				type = value;
+			else if (args[i - 1].equals("-readers"))
+				batch.readers = Integer.parseInt(value);
+			else if (args[i - 1].equals("-workers"))
+				batch.workers = Integer.parseInt(value);
+			else if (args[i - 1].equals("-writers"))
+				batch.writers = Integer.parseInt(value);
+			else if (args[i - 1].equals("-queue"))
+				batch.queueSize = Integer.parseInt(value);
+			else if (args[i - 1].equals("-level"))
+				batch.png.setLevel(Integer.parseInt(value));
+			else if (args[i - 1].equals("-bits"))
+				batch.stega.setBitsPerChannel(Integer.parseInt(value));
+			else if (args[i - 1].equals("-compress"))
+				batch.stega.setCompression(Boolean.parseBoolean(value));
+			else if (args[i - 1].equals("-key"))
+				batch.stega.setScatterKey(value.getBytes("UTF-8"));
+			else if (args[i - 1].equals("-password"))
+				batch.stega.setPassword(value.toCharArray());
+			else if (args[i - 1].equals("-matching"))
+				batch.stega.setMatching(Boolean.parseBoolean(value));
+			else if (args[i - 1].equals("-correct"))
+				batch.stega.setErrorCorrection(Boolean.parseBoolean(value));
+			else
+				usage();
+		}
+		if (in == null || out == null)
+			usage();
+
+		if (mode.equals("embed") && secret != null) {
+			batch.embed(new File(secret), listJobs(new File(in), new File(out), ".png"));
+		} else if (mode.equals("extract")) {
+			boolean isText = type.equals("text");
+			batch.extract(isText, listJobs(new File(in), new File(out), isText ? ".txt" : ".png"));
+		} else {
+			usage();
+		}
+	}
+}
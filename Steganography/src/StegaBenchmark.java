@@ -0,0 +1,591 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Measures the throughput and allocation rate of the encode/decode hot paths over a range of
+ * cover and payload sizes, so regressions show up before they reach a pipeline. Each case runs
+ * a warmup phase and then a timed phase; the allocation column is bytes allocated per operation
+ * by the benchmark thread (same number JMH reports as gc.alloc.rate.norm). The *Ctx cases reuse
+ * a {@link StegaContext} and should show 0. hideBytesMatch and encodeMatch (LSB matching) take
+ * about 3 times the steps of hideBytes per word, for the 0 and 255 check and the random bits,
+ * with no branch on the data, so they run at about a third of its speed; closing the rest
+ * takes SIMD, which the JDK only has as an incubator module.
+ * encodeTemplate and writePngTemplate hide the payload in a copy of a {@link CoverTemplate}
+ * and write its PNG, against encodeText and writePng-L1 for a whole cover.
+ * readSlice reads 4 KB from anywhere in the secret with a {@link StegaReader} and should take
+ * about as long as decodeText takes for 4 KB, whatever the payload size.
+ * encodeShards and decodeShards split the secret image over 4 covers of a quarter of the size
+ * ({@link StegaShards}), one per core, against encodeImage and decodeImage.
+ * encodeCorrected and decodeCorrected hide and read the text with Reed-Solomon parity
+ * ({@link ReedSolomon}) and should stay within about 20% of encodeText and decodeText. The
+ * recover-p cases flip each LSB under the header and the secret with probability p before
+ * decoding (and back after), and print how many decodes still gave the secret back; without
+ * error correction a single flipped bit loses it.
+ * encodeFrames-Xn hides a secret over the 8 frames of a TIFF ({@link StegaFrames}), written
+ * with Deflate (D) or Uncompressed (U), with n frames in flight; with more than 1 in flight it
+ * should scale with the cores, only copying the encoded pages into the file runs alone.
+ * decodeFrames reads the secret back out of the Deflate TIFF.
+ * The encrypt/decrypt cases should run well ahead of hideBytes and revealBytes once warmed up.
+ * They and the *Encrypted cases allocate about a quarter of the secret in objects the JDK
+ * cipher makes for each 4 KB chunk, garbage as soon as the chunk is done, never a second copy
+ * of the secret.
+ *
+ * Usage: java -Xmx4g StegaBenchmark [-covers 1,10,100] [-payloads 1,64,256] [-time 2] [-filter name]
+ * where covers are in megapixels, payloads in KB and time in seconds per case.
+ * The same cases run under JMH, in forked JVMs with its own warmup and -prof gc for the
+ * allocation rate: mvn -Pjmh package, then
+ * java -jar target/benchmarks.jar -p name=encodeText,decodeText -p coverMp=10 -p payloadKb=64 -prof gc
+ */
+public class StegaBenchmark {
+
+	/**
+	 * One benchmarked call
+	 */
+	interface Operation {
+		void run() throws Exception;
+	}
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final Steganography stega = new Steganography();
+	private final Random random = new Random(42);
+	private double seconds = 2;
+	private String filter = null;
+	private String target = null;    // case set up for JMH instead of timed here
+	private Operation found = null;
+
+	/**
+	 * Stops the cases once the one set up for JMH is reached
+	 */
+	private static class Found extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Found() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Runs operation repeatedly for the configured time and prints a result row
+	 * @param name name of the operation
+	 * @param coverMp size of the cover in megapixels
+	 * @param payloadBytes bytes moved per operation, used for the MB/s column
+	 * @param op the operation to measure
+	 * @throws Exception if the operation fails
+	 */
+	void measure(String name, double coverMp, long payloadBytes, Operation op) throws Exception {
+		if (target != null) {
+			if (!name.equals(target))
+				return;
+			found = op;
+			throw new Found();
+		}
+		if (filter != null && !name.contains(filter))
+			return;
+
+		// warmup for a third of the measured time so the JIT settles
+		long warmupEnd = System.nanoTime() + (long) (seconds * 1e9 / 3);
+		while (System.nanoTime() < warmupEnd)
+			op.run();
+
+		long thread = Thread.currentThread().getId();
+		long allocated = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long end = start + (long) (seconds * 1e9);
+		long ops = 0, now;
+		do {
+			op.run();
+			ops++;
+		} while ((now = System.nanoTime()) < end);
+		allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+
+		double elapsed = (now - start) / 1e9;
+		String row = String.format(Locale.ROOT, "%-16s %8.1f %10d %12.1f %12.1f %14d",
+				name, coverMp, payloadBytes / 1024, ops / elapsed,
+				payloadBytes * ops / elapsed / (1 << 20), allocated / ops);
+		System.out.println(row);
+	}
+
+	/**
+	 * @param megapixels size of the cover
+	 * @return cover image filled with noise, as read from a photo
+	 */
+	BufferedImage cover(double megapixels) {
+		int width = (int) Math.sqrt(megapixels * 1e6 * 4 / 3);  // 4:3 image
+		int height = (int) (megapixels * 1e6 / width);
+		BufferedImage bimg = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		random.nextBytes(((DataBufferByte) bimg.getRaster().getDataBuffer()).getData());
+		return bimg;
+	}
+
+	/**
+	 * @param bytes size of the payload
+	 * @return random bytes of the given size
+	 */
+	byte[] payload(int bytes) {
+		byte[] b = new byte[bytes];
+		random.nextBytes(b);
+		return b;
+	}
+
+	/**
+	 * Runs all cases for one cover and payload size
+	 * @param coverMp size of the cover in megapixels
+	 * @param payloadKb size of the payload in KB
+	 * @throws Exception if a case fails
+	 */
+	void runAll(double coverMp, int payloadKb) throws Exception {
+		final BufferedImage cover = cover(coverMp);
+		final byte[] coverBytes = ((DataBufferByte) cover.getRaster().getDataBuffer()).getData();
+		final int payloadBytes = payloadKb * 1024;
+		if (8L * payloadBytes + StegaHeader.COVER_BYTES > coverBytes.length) {
+			System.out.println("-- skipping " + payloadKb + " KB payload, does not fit in " + coverMp + " MP");
+			return;
+		}
+
+		final byte[] payload = payload(payloadBytes);
+		final String text = new String(payload, "ISO-8859-1");
+
+		// secret image with about as many bytes as the payload
+		int side = Math.max(1, (int) Math.sqrt(payloadBytes / 3));
+		final BufferedImage secret = new BufferedImage(side, side, BufferedImage.TYPE_3BYTE_BGR);
+		random.nextBytes(((DataBufferByte) secret.getRaster().getDataBuffer()).getData());
+		final long secretBytes = 3L * side * side;
+
+		measure("hideBytes", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				LsbKernel.embed(coverBytes, 32, payload, 0, payload.length);
+			}
+		});
+		measure("hideBytesMatch", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				LsbKernel.embedMatching(coverBytes, 32, payload, 0, payload.length, 42);
+			}
+		});
+		for (final int bits : new int[] { 2, 3, 4 }) {
+			measure("hideBytes-k" + bits, coverMp, payloadBytes, new Operation() {
+				public void run() {
+					LsbKernel.embed(coverBytes, 32, payload, 0, payload.length, bits);
+				}
+			});
+			measure("revealBytes-k" + bits, coverMp, payloadBytes, new Operation() {
+				public void run() {
+					LsbKernel.extract(coverBytes, 32, payload, 0, payload.length, bits);
+				}
+			});
+		}
+		measure("hideBytesScalar", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				LsbKernel.embedScalar(coverBytes, 32, payload, 0, payload.length);
+			}
+		});
+		measure("encodeText", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				stega.encodeText(cover, text);
+			}
+		});
+		stega.encodeText(cover, text);  // decode cases need a secret inside, whatever ran before
+		measure("decodeText", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				stega.decodeText(cover);
+			}
+		});
+		measure("decodeTextStream", coverMp, payloadBytes, new Operation() {
+			public void run() throws IOException {
+				stega.decodeText(cover, NULL_OUTPUT);
+			}
+		});
+		// 4 KB slices from all over the secret, without extracting the rest
+		final StegaReader reader = stega.openReader(cover);
+		final byte[] slice = new byte[Math.min(4096, payloadBytes)];
+		measure("readSlice", coverMp, slice.length, new Operation() {
+			long position = 0;
+			public void run() throws IOException {
+				position = (position + 7919L * 4096) % (payloadBytes - slice.length + 1);
+				reader.readFully(position, slice, 0, slice.length);
+			}
+		});
+		measureCorrection(cover, coverMp, text);
+		stega.encodeText(cover, text);
+		final BufferedImage plain = cover(coverMp);
+		measure("rejectPlain", coverMp, 0, new Operation() {
+			public void run() {
+				try {
+					stega.decodeText(plain);
+					throw new IllegalStateException("found a secret in random pixels");
+				} catch (IllegalArgumentException e) {
+					// expected, an image without a header is rejected after a few bytes
+				}
+			}
+		});
+		measure("encodeImage", coverMp, secretBytes, new Operation() {
+			public void run() {
+				stega.encodeImage(cover, secret);
+			}
+		});
+		stega.encodeImage(cover, secret);
+		measure("decodeImage", coverMp, secretBytes, new Operation() {
+			public void run() {
+				stega.decodeImage(cover);
+			}
+		});
+		final Steganography scattering = new Steganography();
+		scattering.setScatterKey("benchmark".getBytes("US-ASCII"));
+		measure("encodeScattered", coverMp, secretBytes, new Operation() {
+			public void run() {
+				scattering.encodeImage(cover, secret);
+			}
+		});
+		measure("decodeScattered", coverMp, secretBytes, new Operation() {
+			public void run() {
+				scattering.decodeImage(cover);
+			}
+		});
+		final Steganography matching = new Steganography();
+		matching.setMatching(true);
+		measure("encodeMatch", coverMp, secretBytes, new Operation() {
+			public void run() {
+				matching.encodeImage(cover, secret);
+			}
+		});
+
+		// the same secret split over 4 covers of a quarter of the size, a shard per core
+		final List<BufferedImage> quarters = new ArrayList<BufferedImage>();
+		for (int i = 0; i < 4; i++)
+			quarters.add(cover(coverMp / 4));
+		final StegaShards shards = new StegaShards(stega);
+		long quarterBytes = 3L * quarters.get(0).getWidth() * quarters.get(0).getHeight();
+		if (4 * (stega.capacity(quarterBytes) - StegaShards.MANIFEST) >= secretBytes) {
+			measure("encodeShards", coverMp, secretBytes, new Operation() {
+				public void run() {
+					shards.encodeImage(quarters, secret);
+				}
+			});
+			measure("decodeShards", coverMp, secretBytes, new Operation() {
+				public void run() {
+					shards.decodeImage(quarters);
+				}
+			});
+		}
+
+		// one cover, many secrets: only the pages and deflated rows a secret touches are redone
+		final CoverTemplate template = new CoverTemplate(cover);
+		measure("encodeTemplate", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				template.encodeText(stega, text);
+			}
+		});
+		final TemplateCopy copy = template.encodeText(stega, text);
+		measure("writePngTemplate", coverMp, 3L * cover.getWidth() * cover.getHeight(), new Operation() {
+			public void run() throws IOException {
+				copy.writePng(NULL_OUTPUT);
+			}
+		});
+		stega.encodeImage(cover, secret);
+		final PngWriter png = new PngWriter();
+		measure("decodeImagePng", coverMp, secretBytes, new Operation() {
+			public void run() throws IOException {
+				stega.decodeImage(cover, png, NULL_OUTPUT);
+			}
+		});
+
+		// same calls with pooled buffers, should allocate 0 bytes per operation
+		final StegaContext context = new StegaContext();
+		measure("encodeImageCtx", coverMp, secretBytes, new Operation() {
+			public void run() {
+				stega.encodeImage(cover, secret, context);
+			}
+		});
+		measure("decodeImageCtx", coverMp, secretBytes, new Operation() {
+			public void run() {
+				stega.decodeImage(cover, context);
+			}
+		});
+
+		// the cipher stage on its own and in the encode/decode, with a context so only it allocates
+		final Steganography encrypting = new Steganography();
+		encrypting.setPassword("benchmark".toCharArray());
+		final StegaCipher cipher = new StegaCipher("benchmark".toCharArray());
+		final byte[] secretPixels = ((DataBufferByte) secret.getRaster().getDataBuffer()).getData();
+		measure("encryptStream", coverMp, secretBytes, new Operation() {
+			public void run() throws IOException {
+				try (OutputStream out = cipher.encrypting(NULL_OUTPUT)) {
+					out.write(secretPixels);
+				}
+			}
+		});
+		ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+		try (OutputStream out = cipher.encrypting(sealed)) {
+			out.write(secretPixels);
+		}
+		final byte[] encrypted = sealed.toByteArray();
+		measure("decryptStream", coverMp, secretBytes, new Operation() {
+			public void run() throws IOException {
+				try (InputStream in = cipher.decrypting(new ByteArrayInputStream(encrypted))) {
+					while (in.read(secretPixels) != -1)
+						continue;
+				}
+			}
+		});
+		if (StegaCipher.encryptedLength(secretBytes) <= (coverBytes.length - StegaHeader.COVER_BYTES) / 8) {
+			measure("encodeEncrypted", coverMp, secretBytes, new Operation() {
+				public void run() {
+					encrypting.encodeImage(cover, secret, context);
+				}
+			});
+			measure("decodeEncrypted", coverMp, secretBytes, new Operation() {
+				public void run() {
+					encrypting.decodeImage(cover, context);
+				}
+			});
+		}
+
+		File file = File.createTempFile("stega", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), payload);
+		final File textFile = file;
+		measure("getText", coverMp, payloadBytes, new Operation() {
+			public void run() {
+				stega.getText(textFile);
+			}
+		});
+	}
+
+	/**
+	 * Runs the error correction cases: encode and decode with parity, then decode with bits flipped
+	 * @param cover the cover to hide the text in
+	 * @param coverMp size of the cover in megapixels
+	 * @param text the payload
+	 * @throws Exception if a case fails
+	 */
+	void measureCorrection(final BufferedImage cover, double coverMp, final String text) throws Exception {
+		final Steganography correcting = new Steganography();
+		correcting.setErrorCorrection(true);
+		final int length = text.length();
+		if (correcting.coverBytesNeeded(length) > RasterCover.wrap(cover).size())
+			return;
+		measure("encodeCorrected", coverMp, length, new Operation() {
+			public void run() {
+				correcting.encodeText(cover, text);
+			}
+		});
+		correcting.encodeText(cover, text);
+		measure("decodeCorrected", coverMp, length, new Operation() {
+			public void run() {
+				correcting.decodeText(cover);
+			}
+		});
+
+		// random bit errors in the LSBs the header and secret use, undone after each decode
+		final byte[] coverBytes = ((DataBufferByte) cover.getRaster().getDataBuffer()).getData();
+		final int used = (int) correcting.coverBytesNeeded(length);
+		for (final double p : new double[] { 1e-4, 5e-4, 1e-3, 2e-3 }) {
+			final int[] flips = new int[(int) Math.round(p * used)];
+			final long[] decodes = new long[2];  // decodes, and those that gave the secret back
+			measure("recover-" + p, coverMp, length, new Operation() {
+				public void run() {
+					for (int i = 0; i < flips.length; i++) {
+						flips[i] = random.nextInt(used);
+						coverBytes[flips[i]] ^= 1;
+					}
+					try {
+						if (correcting.decodeText(cover).equals(text))
+							decodes[1]++;
+					} catch (IllegalArgumentException e) {
+						// too many errors in a codeword, or in the header
+					}
+					decodes[0]++;
+					for (int i = flips.length - 1; i >= 0; i--)
+						coverBytes[flips[i]] ^= 1;
+				}
+			});
+			if (decodes[0] > 0)
+				System.out.println(String.format(Locale.ROOT, "  %d bits flipped, %d of %d decodes recovered (%.1f%%)",
+						flips.length, decodes[1], decodes[0], 100.0 * decodes[1] / decodes[0]));
+		}
+	}
+
+	/**
+	 * Runs the cases that only depend on the cover size
+	 * @param coverMp size of the cover in megapixels
+	 * @throws Exception if a case fails
+	 */
+	void runCover(double coverMp) throws Exception {
+		BufferedImage bgr = cover(coverMp);
+		final BufferedImage argb = new BufferedImage(bgr.getWidth(), bgr.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		long pixels = (long) argb.getWidth() * argb.getHeight();
+
+		measure("convertToBGR", coverMp, 3 * pixels, new Operation() {
+			public void run() {
+				RasterCover.convertToBGR(argb);
+			}
+		});
+
+		final BufferedImage stego = bgr;
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		measure("writePngImageIO", coverMp, 3 * pixels, new Operation() {
+			public void run() throws IOException {
+				out.reset();
+				ImageIO.write(stego, "png", out);
+			}
+		});
+		for (final int level : new int[] { 0, 1, 6 }) {
+			for (final boolean parallel : new boolean[] { false, true }) {
+				final PngWriter png = new PngWriter();
+				png.setLevel(level);
+				png.setParallel(parallel);
+				measure("writePng-L" + level + (parallel ? "-par" : ""), coverMp, 3 * pixels, new Operation() {
+					public void run() throws IOException {
+						out.reset();
+						png.write(stego, out);
+					}
+				});
+			}
+		}
+
+		measureFrames(coverMp);
+	}
+
+	/**
+	 * Hides a secret of half the room over the 8 frames of a TIFF, each an eighth of the cover,
+	 * with one frame in flight and with the default, the MB/s counting the cover bytes
+	 * @param coverMp size of all frames together in megapixels
+	 * @throws Exception if a case fails
+	 */
+	void measureFrames(double coverMp) throws Exception {
+		final File in = File.createTempFile("frames", ".tif");
+		final File out = File.createTempFile("stego", ".tif");
+		in.deleteOnExit();
+		out.deleteOnExit();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+		long pixels = 0;
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(in)) {
+			writer.setOutput(ios);
+			writer.prepareWriteSequence(null);
+			for (int i = 0; i < 8; i++) {
+				BufferedImage frame = cover(coverMp / 8);
+				pixels += (long) frame.getWidth() * frame.getHeight();
+				writer.writeToSequence(new IIOImage(frame, null, null), null);
+			}
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+		}
+
+		final StegaFrames frames = new StegaFrames(stega);
+		long room = frames.capacity(in);
+		final String text = new String(payload((int) Math.min(room / 2, 1 << 24)), "ISO-8859-1");
+		for (final String compression : new String[] { "Deflate", "Uncompressed" }) {
+			for (final int inFlight : new int[] { 1, Runtime.getRuntime().availableProcessors() + 1 }) {
+				measure("encodeFrames-" + compression.charAt(0) + inFlight, coverMp, 3 * pixels, new Operation() {
+					public void run() throws IOException {
+						frames.setTiffCompression(compression);
+						frames.setFramesInFlight(inFlight);
+						frames.encodeText(in, out, text);
+					}
+				});
+			}
+		}
+		measure("decodeFrames", coverMp, 3 * pixels, new Operation() {
+			public void run() throws IOException {
+				frames.decodeText(out);
+			}
+		});
+		in.delete();
+		out.delete();
+	}
+
+	/**
+	 * Sets up one case to be measured by JMH (jmh/benchmarks/StegaJmh.java) instead of timing it
+	 * here; the other cases are skipped, as with -filter
+	 * @param name name of the case, as in the first column of the table
+	 * @param coverMp size of the cover in megapixels
+	 * @param payloadKb size of the payload in KB
+	 * @return the call to measure
+	 * @throws IllegalArgumentException if there is no such case for these sizes
+	 * @throws Exception if setting up fails
+	 */
+	public static Callable<Void> setUp(String name, double coverMp, int payloadKb) throws Exception {
+		StegaBenchmark bench = new StegaBenchmark();
+		bench.target = name;
+		try {
+			bench.runCover(coverMp);
+			bench.runAll(coverMp, payloadKb);
+		} catch (Found f) {
+			final Operation op = bench.found;
+			return new Callable<Void>() {
+				public Void call() throws Exception {
+					op.run();
+					return null;
+				}
+			};
+		}
+		throw new IllegalArgumentException("There is no case " + name + " for a " + coverMp + " MP cover and a "
+				+ payloadKb + " KB payload");
+	}
+
+	private static final OutputStream NULL_OUTPUT = new ByteArrayOutputStream() {
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// discard, only the extraction is measured
+		}
+	};
+
+	/**
+	 * @param list comma separated numbers
+	 * @return the numbers
+	 */
+	private static double[] parse(String list) {
+		String[] parts = list.split(",");
+		double[] numbers = new double[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			numbers[i] = Double.parseDouble(parts[i].trim());
+		return numbers;
+	}
+
+	public static void main(String[] args) throws Exception {
+		double[] covers = { 1, 10, 100 };
+		double[] payloads = { 1, 64, 256 };
+		StegaBenchmark bench = new StegaBenchmark();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-covers"))
+				covers = parse(args[i + 1]);
+			else if (args[i].equals("-payloads"))
+				payloads = parse(args[i + 1]);
+			else if (args[i].equals("-time"))
+				bench.seconds = Double.parseDouble(args[i + 1]);
+			else if (args[i].equals("-filter"))
+				bench.filter = args[i + 1];
+			else
+				System.err.println("Unknown option " + args[i]);
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-16s %8s %10s %12s %12s %14s",
+				"benchmark", "cover MP", "payload KB", "ops/s", "MB/s", "alloc B/op"));
+		for (double cover : covers) {
+			bench.runCover(cover);
+			for (double payload : payloads)
+				bench.runAll(cover, (int) payload);
+		}
+	}
+}
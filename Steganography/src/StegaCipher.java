@@ -0,0 +1,378 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts secrets with AES-GCM before they are hidden, a chunk at a time, so a secret of any
+ * size is encrypted and decrypted as it streams through with two chunk buffers. Every chunk is
+ * authenticated on its own and its nonce says whether it is the last one, so chunks cannot be
+ * reordered, dropped or cut off without decryption failing.
+ *
+ * Format: 16 byte salt, 8 byte nonce prefix, then chunks of 4 KB (the last one may be shorter,
+ * and is empty for an empty secret) each followed by its 16 byte tag. The AES-256 key is
+ * derived from the password and the salt with PBKDF2-HMAC-SHA256; the nonce of a chunk is the
+ * prefix, a 24 bit chunk number and a byte set to 1 for the last chunk.
+ */
+public class StegaCipher {
+
+	// plaintext bytes per chunk, small because the JIT only switches to the AES-NI/CLMUL version
+	// of GCM after thousands of calls, 64 KB chunks stay at about 40 MB/s for the first 100 MB
+	static final int CHUNK = 4096;
+	static final int TAG = 16;                // GCM tag after each chunk
+	private static final int SALT = 16;
+	private static final int PREFIX = 8;      // random part of the nonces
+	static final int HEADER = SALT + PREFIX;  // bytes in front of the first chunk
+	private static final int ITERATIONS = 100000;
+	private static final long MAX_CHUNKS = 1 << 24;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final char[] password;
+	private final byte[] salt = new byte[SALT];  // salt of the key new secrets are encrypted with
+	private final SecretKey key;
+	private byte[] lastSalt;                     // salt and key of the last secret decrypted
+	private SecretKey lastKey;
+
+	/**
+	 * Derives the key used to encrypt secrets, which takes a while on purpose. Secrets
+	 * encrypted with the same instance share the key and differ in their nonces.
+	 * @param password the password, copied
+	 */
+	public StegaCipher(char[] password) {
+		this.password = password.clone();
+		RANDOM.nextBytes(salt);
+		this.key = deriveKey(this.password, salt);
+	}
+
+	/**
+	 * @param length number of plaintext bytes
+	 * @return number of bytes they take once encrypted
+	 */
+	public static long encryptedLength(long length) {
+		return HEADER + length + TAG * Math.max(1, (length + CHUNK - 1) / CHUNK);
+	}
+
+	/**
+	 * Inverse of {@link #encryptedLength(long)}
+	 * @param length number of encrypted bytes there is room for
+	 * @return most plaintext bytes that fit in them once encrypted, -1 if not even an empty secret does
+	 */
+	public static long plainLength(long length) {
+		long sealed = length - HEADER;
+		if (sealed < TAG)
+			return -1;
+		long rest = sealed % (CHUNK + TAG);
+		return sealed / (CHUNK + TAG) * CHUNK + Math.max(0, rest - TAG);
+	}
+
+	/**
+	 * @param out where the encrypted bytes go, the salt and nonce prefix first
+	 * @return stream that encrypts what is written to it, must be closed to write the last chunk,
+	 * closing it closes out
+	 */
+	public OutputStream encrypting(OutputStream out) {
+		byte[] prefix = new byte[PREFIX];
+		RANDOM.nextBytes(prefix);
+		return new EncryptingStream(out, salt, key, prefix);
+	}
+
+	/**
+	 * @param in the encrypted bytes, from the start
+	 * @return stream of the decrypted bytes, closing it closes in. The salt and nonce prefix are
+	 * read, and the key derived if the salt is new, on the first read.
+	 */
+	public InputStream decrypting(InputStream in) {
+		return new DecryptingStream(in);
+	}
+
+	/**
+	 * Decrypts one chunk of a secret on its own, so part of a secret can be read without the
+	 * chunks before it
+	 * @param aes cipher to decrypt with, from newCipher, reused between calls
+	 * @param head the first HEADER encrypted bytes, the salt and nonce prefix
+	 * @param chunk number of the chunk
+	 * @param last true for the last chunk of the secret
+	 * @param sealed the encrypted chunk followed by its tag
+	 * @param len bytes in sealed
+	 * @param plain where the decrypted bytes go, CHUNK bytes at least
+	 * @return number of decrypted bytes
+	 * @throws IOException if the chunk does not decrypt
+	 */
+	int decryptChunk(Cipher aes, byte[] head, long chunk, boolean last, byte[] sealed, int len, byte[] plain)
+			throws IOException {
+		if (len < TAG)
+			throw new IOException("Encrypted secret is cut off");
+		init(aes, Cipher.DECRYPT_MODE, key(Arrays.copyOf(head, SALT)), Arrays.copyOfRange(head, SALT, HEADER),
+				chunk, last);
+		try {
+			return aes.doFinal(sealed, 0, len, plain, 0);
+		} catch (AEADBadTagException e) {
+			throw new IOException("Secret cannot be decrypted, the password is wrong or it is corrupt", e);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param secretSalt salt a secret was encrypted with
+	 * @return key for that salt, only derived again for a salt other than the last one
+	 */
+	private synchronized SecretKey key(byte[] secretSalt) {
+		if (Arrays.equals(secretSalt, salt))
+			return key;
+		if (!Arrays.equals(secretSalt, lastSalt)) {
+			lastKey = deriveKey(password, secretSalt);
+			lastSalt = secretSalt;
+		}
+		return lastKey;
+	}
+
+	/**
+	 * @param password the password
+	 * @param salt random bytes stored with the secret
+	 * @return AES-256 key derived with PBKDF2-HMAC-SHA256
+	 */
+	private static SecretKey deriveKey(char[] password, byte[] salt) {
+		PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, 256);
+		try {
+			byte[] bytes = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+			return new SecretKeySpec(bytes, "AES");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);  // every JDK has PBKDF2 and AES
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Sets up a cipher for one chunk
+	 * @param cipher the cipher to initialize
+	 * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+	 * @param key the AES key
+	 * @param prefix random part of the nonce
+	 * @param chunk number of the chunk
+	 * @param last true for the last chunk
+	 * @throws IOException if there are too many chunks
+	 */
+	private static void init(Cipher cipher, int mode, SecretKey key, byte[] prefix, long chunk, boolean last)
+			throws IOException {
+		if (chunk >= MAX_CHUNKS)
+			throw new IOException("Secret is too large to encrypt");
+		byte[] nonce = Arrays.copyOf(prefix, 12);
+		nonce[8] = (byte) (chunk >>> 16);
+		nonce[9] = (byte) (chunk >>> 8);
+		nonce[10] = (byte) chunk;
+		nonce[11] = (byte) (last ? 1 : 0);
+		try {
+			cipher.init(mode, key, new GCMParameterSpec(8 * TAG, nonce));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return a new AES-GCM cipher
+	 */
+	static Cipher newCipher() {
+		try {
+			return Cipher.getInstance("AES/GCM/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads until len bytes are read or the stream ends
+	 * @return number of bytes read
+	 */
+	private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while (total < len) {
+			int n = in.read(b, off + total, len - total);
+			if (n < 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Collects a chunk of plaintext and writes it encrypted once it is full
+	 */
+	private static class EncryptingStream extends FilterOutputStream {
+		private final Cipher cipher = newCipher();
+		private final byte[] salt;
+		private final SecretKey key;
+		private final byte[] prefix;
+		private final byte[] plain = new byte[CHUNK];
+		private final byte[] sealed = new byte[CHUNK + TAG];
+		private int count = 0;   // plaintext bytes waiting in plain
+		private long chunk = 0;
+		private boolean closed = false;
+
+		EncryptingStream(OutputStream out, byte[] salt, SecretKey key, byte[] prefix) {
+			super(out);
+			this.salt = salt;
+			this.key = key;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				throw new IOException("Stream closed");
+			while (len > 0) {
+				// a full chunk is only sealed once more bytes come, the last chunk is sealed on close
+				if (count == CHUNK)
+					seal(false);
+				int n = Math.min(len, CHUNK - count);
+				System.arraycopy(b, off, plain, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				seal(true);
+			} finally {
+				out.close();
+			}
+		}
+
+		/**
+		 * Encrypts the waiting plaintext as one chunk and writes it
+		 * @param last true for the last chunk
+		 */
+		private void seal(boolean last) throws IOException {
+			if (chunk == 0) {
+				out.write(salt);
+				out.write(prefix);
+			}
+			init(cipher, Cipher.ENCRYPT_MODE, key, prefix, chunk++, last);
+			int n;
+			try {
+				n = cipher.doFinal(plain, 0, count, sealed, 0);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+			out.write(sealed, 0, n);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Reads and decrypts a chunk at a time. A chunk is known to be the last one when nothing
+	 * follows it, so one byte past each chunk is read ahead.
+	 */
+	private class DecryptingStream extends InputStream {
+		private final InputStream in;
+		private final Cipher cipher = newCipher();
+		private SecretKey key;       // null until the salt is read
+		private final byte[] prefix = new byte[PREFIX];
+		private final byte[] sealed = new byte[CHUNK + TAG + 1];
+		private final byte[] plain = new byte[CHUNK];
+		private int ahead = 0;       // bytes of the next chunk already in sealed
+		private int position = 0;    // next byte of plain to hand out
+		private int limit = 0;       // decrypted bytes in plain
+		private long chunk = 0;
+		private boolean last = false;
+
+		DecryptingStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (off < 0 || len < 0 || len > b.length - off)
+				throw new IndexOutOfBoundsException();
+			if (len == 0)
+				return 0;
+			while (position == limit) {
+				if (last)
+					return -1;
+				open();
+			}
+			int n = Math.min(len, limit - position);
+			System.arraycopy(plain, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return limit - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * Reads and decrypts the next chunk
+		 * @throws IOException if it cannot be read or does not decrypt
+		 */
+		private void open() throws IOException {
+			if (key == null) {
+				if (readFully(in, sealed, 0, HEADER) < HEADER)
+					throw new IOException("Encrypted secret is cut off");
+				System.arraycopy(sealed, SALT, prefix, 0, PREFIX);
+				key = key(Arrays.copyOf(sealed, SALT));
+			}
+			int n = ahead + readFully(in, sealed, ahead, sealed.length - ahead);
+			last = n < sealed.length;
+			int size = last ? n : CHUNK + TAG;
+			if (size < TAG)
+				throw new IOException("Encrypted secret is cut off");
+
+			init(cipher, Cipher.DECRYPT_MODE, key, prefix, chunk++, last);
+			try {
+				limit = cipher.doFinal(sealed, 0, size, plain, 0);
+			} catch (AEADBadTagException e) {
+				throw new IOException("Secret cannot be decrypted, the password is wrong or it is corrupt", e);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+			position = 0;
+
+			if (!last) {
+				sealed[0] = sealed[CHUNK + TAG];
+				ahead = 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Buffers kept from one encode/decode to the next, so a thread that keeps encoding and decoding
+ * images of the same size stops allocating: payload arrays and decoded images are pooled by size,
+ * the raster of the last cover is not wrapped again, and the header is read into a scratch array
+ * with a reused checksum. Pass one to the methods of {@link Steganography} that take a context.
+ *
+ * A context is not thread safe; {@link #get()} gives each thread its own. Arrays and images it
+ * hands out are reused by later calls with the same size, so copy them to keep them.
+ */
+public class StegaContext {
+
+	private static final int SLOTS = 4;  // sizes of buffers and images kept, least recently used dropped
+
+	private static final ThreadLocal<StegaContext> CURRENT = new ThreadLocal<StegaContext>() {
+		@Override
+		protected StegaContext initialValue() {
+			return new StegaContext();
+		}
+	};
+
+	private final byte[][] buffers = new byte[SLOTS][];
+	private final BufferedImage[] images = new BufferedImage[SLOTS];
+	private final long[] bufferUse = new long[SLOTS];  // when each slot was last handed out
+	private final long[] imageUse = new long[SLOTS];
+	private long uses = 0;
+
+	private BufferedImage coverImage;  // image the last cover was wrapped from
+	private RasterCover cover;
+
+	final byte[] headerBytes = new byte[StegaHeader.SIZE];  // scratch for reading and writing headers
+	private final byte[] lastHeaderBytes = new byte[StegaHeader.SIZE];
+	private StegaHeader lastHeader;     // header parsed from lastHeaderBytes
+	private final CRC32C crc = new CRC32C();
+
+	/**
+	 * @return the context of the calling thread
+	 */
+	public static StegaContext get() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * @param size number of bytes
+	 * @return an array of exactly size bytes, with whatever it held the last time
+	 */
+	public byte[] buffer(int size) {
+		int slot = 0;
+		for (int i = 0; i < SLOTS; i++) {
+			if (buffers[i] != null && buffers[i].length == size) {
+				bufferUse[i] = ++uses;
+				return buffers[i];
+			}
+			if (bufferUse[i] < bufferUse[slot])
+				slot = i;
+		}
+		buffers[slot] = new byte[size];
+		bufferUse[slot] = ++uses;
+		return buffers[slot];
+	}
+
+	/**
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @return a TYPE_3BYTE_BGR image of that size, with whatever pixels it had the last time
+	 */
+	public BufferedImage image(int width, int height) {
+		int slot = 0;
+		for (int i = 0; i < SLOTS; i++) {
+			BufferedImage image = images[i];
+			if (image != null && image.getWidth() == width && image.getHeight() == height) {
+				imageUse[i] = ++uses;
+				return image;
+			}
+			if (imageUse[i] < imageUse[slot])
+				slot = i;
+		}
+		images[slot] = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		imageUse[slot] = ++uses;
+		return images[slot];
+	}
+
+	/**
+	 * Wraps an image, reusing the cover of the last call for the same image. Images that have to
+	 * be converted are wrapped again every time, their pixels may have changed since.
+	 * @param bimg the image to hide data in or read data from
+	 * @return cover over the raster of bimg, or of a converted copy
+	 */
+	RasterCover cover(BufferedImage bimg) {
+		if (bimg != coverImage) {
+			RasterCover wrapped = RasterCover.wrap(bimg);
+			if (wrapped.getPath() == RasterCover.Path.CONVERTED)
+				return wrapped;
+			coverImage = bimg;
+			cover = wrapped;
+		}
+		return cover;
+	}
+
+	/**
+	 * @param b bytes to check
+	 * @param off index of the first byte
+	 * @param len number of bytes
+	 * @return CRC32C of the bytes
+	 */
+	int checksum(byte[] b, int off, int len) {
+		crc.reset();
+		crc.update(b, off, len);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * @param b header bytes just read, checksum verified
+	 * @return the header parsed from the same bytes last time, null if they differ
+	 */
+	StegaHeader lastHeader(byte[] b) {
+		return lastHeader != null && Arrays.equals(b, lastHeaderBytes) ? lastHeader : null;
+	}
+
+	/**
+	 * @return the header last read or written with its fields, or a new one
+	 */
+	StegaHeader header(int type, int bits, boolean compressed, boolean scattered, boolean encrypted, boolean corrected,
+			long length, int width, int height, int crc) {
+		StegaHeader last = lastHeader;
+		if (last != null && last.getType() == type && last.getBits() == bits && last.isCompressed() == compressed
+				&& last.isScattered() == scattered && last.isEncrypted() == encrypted && last.isErrorCorrected() == corrected
+				&& last.getLength() == length && last.getWidth() == width && last.getHeight() == height && last.getCrc() == crc)
+			return last;
+		return new StegaHeader(type, bits, compressed, scattered, encrypted, corrected, length, width, height, crc);
+	}
+
+	/**
+	 * Keeps a header so reading the same bytes again does not parse them again
+	 * @param b header bytes
+	 * @param header the header parsed from them
+	 */
+	void keepHeader(byte[] b, StegaHeader header) {
+		System.arraycopy(b, 0, lastHeaderBytes, 0, StegaHeader.SIZE);
+		lastHeader = header;
+	}
+
+	/**
+	 * Drops everything kept, so the memory can be collected
+	 */
+	public void clear() {
+		Arrays.fill(buffers, null);
+		Arrays.fill(images, null);
+		coverImage = null;
+		cover = null;
+		lastHeader = null;
+	}
+}
@@ -0,0 +1,449 @@
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Hides a secret in the frames of a multi-image file (a multi-page TIFF, the frames of a GIF,
+ * anything ImageIO reads more than one image from), each frame an independent cover holding one
+ * shard of the secret as {@link StegaShards} cuts it, so the room grows with the number of
+ * frames. Frames go through a pipeline: each is decoded, has its shard hidden (or read) and is
+ * encoded as a TIFF page in a task on the common pool, with its own ImageReader over the file,
+ * and the pages are copied in order into one TIFF by {@link TiffPages}, so compression runs on
+ * every core too. At most {@link #setFramesInFlight(int)} frames are in tasks or waiting to be
+ * written at any time, so a file of any number of frames is processed in bounded memory.
+ * The stego file is always a TIFF, compressed losslessly: a GIF only holds palette indices and
+ * would lose the low bits of the colors.
+ *
+ * Usage: java StegaFrames hide -secret text.txt|secret.png -in frames.gif|tif -out stego.tif [options]
+ *        java StegaFrames reveal -in stego.tif -out text.txt|secret.png [options]
+ * Options: -frames n (frames in flight), -tiff Deflate|LZW|PackBits|Uncompressed, -bits n,
+ * -compress true, -key passphrase, -password word, -matching true, -correct true
+ */
+public class StegaFrames {
+
+	private final Steganography stega;
+	private final StegaShards shards;
+	private int inFlight = Runtime.getRuntime().availableProcessors() + 1;
+	private String tiffCompression = "Deflate";
+
+	/**
+	 * What is done with one decoded frame, in a task of its own
+	 */
+	private interface Work<T> {
+		/**
+		 * @param index index of the frame in the file
+		 * @param frame the frame, decoded
+		 * @return the result, handed to the sink in the order of the frames
+		 * @throws Exception if the frame cannot be processed
+		 */
+		T process(int index, BufferedImage frame) throws Exception;
+	}
+
+	/**
+	 * Takes the result of each frame, in order, on the calling thread
+	 */
+	private interface Sink<T> {
+		/**
+		 * @param result result of the next frame
+		 * @throws IOException if it cannot be written
+		 */
+		void take(T result) throws IOException;
+	}
+
+	/**
+	 * The frames of a file, with a reader for every task reading one at the same time
+	 */
+	private static class Frames implements Closeable {
+		final File file;
+		final int count;
+		private final ImageReader first;                  // also reads the sizes of the frames
+		private final ArrayDeque<ImageReader> idle = new ArrayDeque<ImageReader>();
+		private final List<ImageReader> all = new ArrayList<ImageReader>();
+
+		Frames(File file) throws IOException {
+			this.file = file;
+			this.first = open();
+			try {
+				count = first.getNumImages(true);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			if (count <= 0) {
+				close();
+				throw new IOException(file + " has no frames");
+			}
+			idle.add(first);
+		}
+
+		/**
+		 * @param index index of a frame
+		 * @return its cover bytes, from its size and layout, without decoding it
+		 * @throws IOException if the file cannot be read
+		 */
+		synchronized long coverBytes(int index) throws IOException {
+			int samples = (int) RasterCover.wrap(first.getImageTypes(index).next().createBufferedImage(1, 1)).size();
+			return (long) first.getWidth(index) * first.getHeight(index) * samples;
+		}
+
+		/**
+		 * Decodes a frame with a reader no other task is using
+		 * @param index index of the frame
+		 * @return the frame
+		 * @throws IOException if it cannot be decoded
+		 */
+		BufferedImage read(int index) throws IOException {
+			ImageReader reader;
+			synchronized (this) {
+				reader = idle.poll();
+			}
+			if (reader == null)
+				reader = open();
+			try {
+				return reader.read(index);
+			} finally {
+				synchronized (this) {
+					idle.add(reader);
+				}
+			}
+		}
+
+		/**
+		 * @return a new reader over the file, not forward only, so it reads the frames in any order
+		 * @throws IOException if the file cannot be read or is not an image
+		 */
+		private ImageReader open() throws IOException {
+			ImageInputStream iis = ImageIO.createImageInputStream(file);
+			if (iis == null)
+				throw new IOException("Cannot read " + file);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				iis.close();
+				throw new IOException(file + " is not an image");
+			}
+			ImageReader reader = readers.next();
+			reader.setInput(iis, false, true);
+			synchronized (this) {
+				all.add(reader);
+			}
+			return reader;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			for (ImageReader reader : all) {
+				ImageInputStream iis = (ImageInputStream) reader.getInput();
+				reader.dispose();
+				iis.close();
+			}
+			all.clear();
+		}
+	}
+
+	/**
+	 * @param stega the settings every shard is hidden with, and the key and password to reveal them
+	 */
+	public StegaFrames(Steganography stega) {
+		this.stega = stega;
+		this.shards = new StegaShards(stega);
+	}
+
+	/**
+	 * @param frames most frames decoded and not yet written at a time, at least 1; more than the
+	 * number of cores keeps every core busy while the writer catches up
+	 */
+	public void setFramesInFlight(int frames) {
+		if (frames < 1)
+			throw new IllegalArgumentException("Frames in flight must be at least 1, not " + frames);
+		inFlight = frames;
+	}
+
+	/**
+	 * @param type compression of the TIFF written: Deflate (the default), LZW, PackBits or
+	 * Uncompressed, which writes fastest
+	 * @throws IllegalArgumentException if the type is not one of these
+	 */
+	public void setTiffCompression(String type) {
+		if (!TiffPages.COMPRESSIONS.contains(type))
+			throw new IllegalArgumentException("TIFF compression must be one of " + TiffPages.COMPRESSIONS + ", not " + type);
+		tiffCompression = type;
+	}
+
+	/**
+	 * @param in a multi-image file
+	 * @return bytes of secret its frames hold in all with the current settings, -1 if a frame
+	 * is too small for a shard
+	 * @throws IOException if the file cannot be read
+	 */
+	public long capacity(File in) throws IOException {
+		try (Frames frames = new Frames(in)) {
+			long total = 0;
+			for (int i = 0; i < frames.count; i++) {
+				long room = stega.capacity(frames.coverBytes(i)) - StegaShards.MANIFEST;
+				if (room < 0)
+					return -1;
+				total += room;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Hides text split over the frames of a file
+	 * @param in the multi-image file to hide the text in, each frame gets a shard
+	 * @param out the TIFF written, a page per frame
+	 * @param message the text to be hidden
+	 * @return number of frames
+	 * @throws IOException if a file cannot be read or written
+	 * @throws ArrayIndexOutOfBoundsException if the frames together are too small for the text
+	 */
+	public int encodeText(File in, File out, String message) throws IOException {
+		return hide(in, out, stega.secretBytes(message), StegaHeader.TYPE_TEXT, 0, 0);
+	}
+
+	/**
+	 * Hides an image split over the frames of a file
+	 * @param in the multi-image file to hide the image in, each frame gets a shard
+	 * @param out the TIFF written, a page per frame
+	 * @param secret the image to be hidden
+	 * @return number of frames
+	 * @throws IOException if a file cannot be read or written
+	 * @throws ArrayIndexOutOfBoundsException if the frames together are too small for the image
+	 */
+	public int encodeImage(File in, File out, BufferedImage secret) throws IOException {
+		return hide(in, out, stega.secretBytes(secret, null), StegaHeader.TYPE_IMAGE, secret.getWidth(),
+				secret.getHeight());
+	}
+
+	/**
+	 * Puts text hidden in the frames of a file back together
+	 * @param in the file written by encodeText
+	 * @return the text
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	public String decodeText(File in) throws IOException {
+		return shards.assembleText(reveal(in));
+	}
+
+	/**
+	 * Puts an image hidden in the frames of a file back together
+	 * @param in the file written by encodeImage
+	 * @return the image, 3 byte BGR
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	public BufferedImage decodeImage(File in) throws IOException {
+		return shards.assembleImage(reveal(in));
+	}
+
+	/**
+	 * Cuts a secret in one shard per frame and hides them, writing the frames as they are done
+	 * @param in the multi-image file
+	 * @param out the TIFF written
+	 * @param secret the secret, deflated already if compression is on
+	 * @param type StegaHeader.TYPE_TEXT or StegaHeader.TYPE_IMAGE
+	 * @param width width of a secret image, 0 for text
+	 * @param height height of a secret image, 0 for text
+	 * @return number of frames
+	 */
+	private int hide(File in, File out, byte[] secret, int type, int width, int height) throws IOException {
+		try (Frames frames = new Frames(in)) {
+			long[] room = new long[frames.count];
+			for (int i = 0; i < frames.count; i++)
+				room[i] = shards.room(frames.coverBytes(i), i);
+			final byte[][] cut = StegaShards.cut(secret, room, stega.isCompression(), type, width, height);
+
+			final String compression = tiffCompression;
+			try (TiffPages pages = new TiffPages(out)) {
+				run(frames, new Work<byte[]>() {
+					public byte[] process(int index, BufferedImage frame) throws IOException {
+						RasterCover cover = RasterCover.wrap(frame);
+						stega.hideShard(cover, cut[index]);
+						return TiffPages.encode(cover.getImage(), compression);
+					}
+				}, new Sink<byte[]>() {
+					public void take(byte[] page) throws IOException {
+						pages.append(page);
+					}
+				});
+			}
+			return frames.count;
+		}
+	}
+
+	/**
+	 * Reads the shard of every frame of a file
+	 * @param in the multi-image file
+	 * @return the shards as revealed, in the order of the frames
+	 * @throws IllegalArgumentException if a frame holds no shard or a corrupt one
+	 */
+	private List<byte[]> reveal(File in) throws IOException {
+		final List<byte[]> revealed = new ArrayList<byte[]>();
+		try (Frames frames = new Frames(in)) {
+			run(frames, new Work<byte[]>() {
+				public byte[] process(int index, BufferedImage frame) {
+					try {
+						return stega.revealShard(RasterCover.wrap(frame));
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException("Frame " + (index + 1) + ": " + e.getMessage(), e);
+					}
+				}
+			}, new Sink<byte[]>() {
+				public void take(byte[] shard) {
+					revealed.add(shard);
+				}
+			});
+		}
+		return revealed;
+	}
+
+	/**
+	 * Decodes and processes the frames in tasks on the common pool and hands their results to
+	 * the sink in order, starting the task of a frame only once fewer than inFlight frames are
+	 * waiting for the sink
+	 * @param frames the frames of a file
+	 * @param work what is done with each frame
+	 * @param sink what is done with each result
+	 * @throws IOException if a frame cannot be decoded or the sink fails
+	 */
+	private <T> void run(final Frames frames, final Work<T> work, Sink<T> sink) throws IOException {
+		ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>();
+		boolean done = false;
+		try {
+			for (int i = 0; i < frames.count; i++) {
+				if (pending.size() >= inFlight)
+					sink.take(result(pending.poll()));
+				final int index = i;
+				// a FutureTask, not a ForkJoinTask, gives back the exception of the frame as it was thrown
+				FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+					public T call() throws Exception {
+						return work.process(index, frames.read(index));
+					}
+				});
+				ForkJoinPool.commonPool().execute(task);
+				pending.add(task);
+			}
+			while (!pending.isEmpty())
+				sink.take(result(pending.poll()));
+			done = true;
+		} finally {
+			// after a failure, the tasks still running must be done with their readers before they are closed
+			if (!done)
+				for (Future<T> f : pending) {
+					try {
+						f.get();
+					} catch (Exception e) {
+						// the first failure is the one reported
+					}
+				}
+		}
+	}
+
+	/**
+	 * @param f the task of a frame
+	 * @return its result, once it is done
+	 * @throws IOException if the frame could not be decoded
+	 */
+	private static <T> T result(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java StegaFrames hide -secret file -in frames -out stego.tif [options]");
+		System.err.println("       java StegaFrames reveal -in stego.tif -out file [options]");
+		System.err.println("Options: -frames n -tiff Deflate|LZW|PackBits|Uncompressed -bits n -compress true|false -key passphrase -password word -matching true|false -correct true|false");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0)
+			usage();
+
+		Steganography stega = new Steganography();
+		StegaFrames frames = new StegaFrames(stega);
+		String mode = args[0], secret = null, in = null, out = null;
+		for (int i = 1; i < args.length; i++) {
+			if (i + 1 == args.length)
+				usage();
+			String value = args[++i];
+			if (args[i - 1].equals("-secret"))
+				secret = value;
+			else if (args[i - 1].equals("-in"))
+				in = value;
+			else if (args[i - 1].equals("-out"))
+				out = value;
+			else if (args[i - 1].equals("-frames"))
+				frames.setFramesInFlight(Integer.parseInt(value));
+			else if (args[i - 1].equals("-tiff"))
+				frames.setTiffCompression(value);
+			else if (args[i - 1].equals("-bits"))
+				stega.setBitsPerChannel(Integer.parseInt(value));
+			else if (args[i - 1].equals("-compress"))
+				stega.setCompression(Boolean.parseBoolean(value));
+			else if (args[i - 1].equals("-key"))
+				stega.setScatterKey(value.getBytes("UTF-8"));
+			else if (args[i - 1].equals("-password"))
+				stega.setPassword(value.toCharArray());
+			else if (args[i - 1].equals("-matching"))
+				stega.setMatching(Boolean.parseBoolean(value));
+			else if (args[i - 1].equals("-correct"))
+				stega.setErrorCorrection(Boolean.parseBoolean(value));
+			else
+				usage();
+		}
+		if (in == null || out == null)
+			usage();
+
+		long start = System.nanoTime();
+		if (mode.equals("hide") && secret != null) {
+			int count;
+			if (secret.endsWith(".txt")) {
+				count = frames.encodeText(new File(in), new File(out),
+						new String(Files.readAllBytes(new File(secret).toPath())));
+			} else {
+				BufferedImage image = ImageIO.read(new File(secret));
+				if (image == null)
+					throw new IOException(secret + " is not a .txt or image file");
+				count = frames.encodeImage(new File(in), new File(out), image);
+			}
+			System.out.printf("%d frames in %.2f s%n", count, (System.nanoTime() - start) / 1e9);
+		} else if (mode.equals("reveal")) {
+			if (out.endsWith(".png"))
+				new PngWriter().write(frames.decodeImage(new File(in)), new File(out));
+			else
+				Files.write(new File(out).toPath(), frames.decodeText(new File(in)).getBytes());
+		} else {
+			usage();
+		}
+	}
+}
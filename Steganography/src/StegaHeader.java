@@ -0,0 +1,410 @@
+import java.util.zip.CRC32C;
+
+/**
+ * Header hidden in front of every secret, always one bit per cover byte so it can be read
+ * before knowing how the secret was hidden. It starts with a magic number and a version, so
+ * an image without a secret is rejected after reading its first few hundred cover bytes, and
+ * ends with a CRC32C of the header itself, so a random match of the magic number is rejected
+ * too. A secret hidden with error correction has 16 Reed-Solomon parity bytes of the header
+ * right after it ({@link ReedSolomon}), so a header with up to 8 wrong bytes is still read,
+ * and the secret starts after them.
+ *
+ * Layout (30 bytes, big endian):
+ *   0  'S' 'T' 'G'    magic
+ *   3  version        1
+ *   4  type           1 text, 2 image, 3 shard of a secret split over several covers
+ *   5  flags          bits 0-1 bits per cover byte - 1, bit 2 deflated, bits 3-4 pixel
+ *                     layout (0, 8 bit BGR), bit 5 scattered with a key, bit 6 encrypted,
+ *                     bit 7 Reed-Solomon parity after the header and the secret
+ *   6  length         64 bit number of hidden bytes (deflated and/or encrypted bytes, parity)
+ *   14 width          32 bit width of a hidden image, 0 for text
+ *   18 height         32 bit height of a hidden image, 0 for text
+ *   22 crc            CRC32C of the hidden bytes
+ *   26 header crc     CRC32C of bytes 0 to 25
+ *   30 parity         with flag bit 7 only, 16 Reed-Solomon parity bytes of bytes 0 to 29
+ */
+public class StegaHeader {
+
+	public static final int TYPE_TEXT = 1;
+	public static final int TYPE_IMAGE = 2;
+	public static final int TYPE_SHARD = 3;     // see StegaShards
+
+	static final int SIZE = 30;                 // header bytes
+	static final int COVER_BYTES = 8 * SIZE;    // cover bytes the header takes, where the secret starts
+	static final int CORRECTED_COVER_BYTES = 8 * (SIZE + ReedSolomon.PARITY);  // the same with the parity of the header
+	private static final int MAGIC_BYTES = 4;   // magic and version, checked before the rest is read
+	private static final int VERSION = 1;
+	private static final int FLAG_COMPRESSED = 0x04;
+	private static final int FLAG_SCATTERED = 0x20;
+	private static final int FLAG_ENCRYPTED = 0x40;
+	private static final int FLAG_CORRECTED = 0x80;
+	private static final int FLAG_RESERVED = 0x18;  // layout bits, all 0 in version 1
+
+	private final int type;
+	private final int bits;
+	private final boolean compressed;
+	private final boolean scattered;
+	private final boolean encrypted;
+	private final boolean corrected;
+	private final long length;
+	private final int width;
+	private final int height;
+	private final int crc;
+
+	/**
+	 * @param type TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @param bits low bits of each cover byte used for the secret, 1 to 4
+	 * @param compressed true if the secret is deflated
+	 * @param length number of hidden bytes, -1 if not known yet
+	 * @param width width of a hidden image, 0 for text
+	 * @param height height of a hidden image, 0 for text
+	 * @param crc CRC32C of the hidden bytes
+	 */
+	public StegaHeader(int type, int bits, boolean compressed, long length, int width, int height, int crc) {
+		this(type, bits, compressed, false, false, length, width, height, crc);
+	}
+
+	/**
+	 * @param type TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @param bits low bits of each cover byte used for the secret, 1 to 4
+	 * @param compressed true if the secret is deflated
+	 * @param scattered true if the secret is spread over the cover with a key ({@link ScatteredCover})
+	 * @param encrypted true if the secret is encrypted with a password ({@link StegaCipher})
+	 * @param length number of hidden bytes, -1 if not known yet
+	 * @param width width of a hidden image, 0 for text
+	 * @param height height of a hidden image, 0 for text
+	 * @param crc CRC32C of the hidden bytes
+	 */
+	public StegaHeader(int type, int bits, boolean compressed, boolean scattered, boolean encrypted, long length,
+			int width, int height, int crc) {
+		this(type, bits, compressed, scattered, encrypted, false, length, width, height, crc);
+	}
+
+	/**
+	 * @param type TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @param bits low bits of each cover byte used for the secret, 1 to 4
+	 * @param compressed true if the secret is deflated
+	 * @param scattered true if the secret is spread over the cover with a key ({@link ScatteredCover})
+	 * @param encrypted true if the secret is encrypted with a password ({@link StegaCipher})
+	 * @param corrected true if the header and secret are followed by Reed-Solomon parity ({@link ReedSolomon})
+	 * @param length number of hidden bytes, -1 if not known yet
+	 * @param width width of a hidden image, 0 for text
+	 * @param height height of a hidden image, 0 for text
+	 * @param crc CRC32C of the hidden bytes
+	 */
+	public StegaHeader(int type, int bits, boolean compressed, boolean scattered, boolean encrypted, boolean corrected,
+			long length, int width, int height, int crc) {
+		if (type != TYPE_TEXT && type != TYPE_IMAGE && type != TYPE_SHARD)
+			throw new IllegalArgumentException("Unknown secret type " + type);
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		this.type = type;
+		this.bits = bits;
+		this.compressed = compressed;
+		this.scattered = scattered;
+		this.encrypted = encrypted;
+		this.corrected = corrected;
+		this.length = length;
+		this.width = width;
+		this.height = height;
+		this.crc = crc;
+	}
+
+	/**
+	 * @return TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return low bits of each cover byte used for the secret
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return true if the hidden bytes are deflated
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return true if the secret is spread over the cover with a key
+	 */
+	public boolean isScattered() {
+		return scattered;
+	}
+
+	/**
+	 * @return true if the secret is encrypted with a password
+	 */
+	public boolean isEncrypted() {
+		return encrypted;
+	}
+
+	/**
+	 * @return true if the header and the secret are followed by Reed-Solomon parity
+	 */
+	public boolean isErrorCorrected() {
+		return corrected;
+	}
+
+	/**
+	 * @return cover bytes the header takes with its parity, where the secret starts
+	 */
+	public int getCoverBytes() {
+		return corrected ? CORRECTED_COVER_BYTES : COVER_BYTES;
+	}
+
+	/**
+	 * @return number of hidden bytes (deflated and/or encrypted bytes, parity), -1 if not known yet
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return width of the hidden image, 0 for text
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the hidden image, 0 for text
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return CRC32C of the hidden bytes
+	 */
+	public int getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @param length number of hidden bytes
+	 * @param crc CRC32C of the hidden bytes
+	 * @return the same header with the length and checksum known once the secret is written
+	 */
+	public StegaHeader complete(long length, int crc) {
+		return new StegaHeader(type, bits, compressed, scattered, encrypted, corrected, length, width, height, crc);
+	}
+
+	/**
+	 * @param cover the cover the secret goes in
+	 * @return true if the secret described fits after the header
+	 */
+	public boolean fits(LsbCover cover) {
+		long usable = cover.size() - getCoverBytes();
+		if (scattered)
+			usable -= usable % ScatteredCover.UNIT;  // only whole units are scattered over
+		return length <= usable * bits / 8;
+	}
+
+	/**
+	 * Hides the header at the start of a cover
+	 * @param cover the cover the secret is hidden in
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small for the header and secret
+	 */
+	public void write(LsbCover cover) {
+		write(cover, null);
+	}
+
+	/**
+	 * Hides the header at the start of a cover, using the scratch buffers of a context
+	 * @param cover the cover the secret is hidden in
+	 * @param context buffers to reuse, null for none
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small for the header and secret
+	 */
+	void write(LsbCover cover, StegaContext context) {
+		if (length < 0 || !fits(cover))
+			throw new ArrayIndexOutOfBoundsException("Cover of " + cover.size() + " bytes cannot hold "
+					+ length + " bytes");
+		byte[] b = toBytes(context == null ? new byte[SIZE] : context.headerBytes, context);
+		cover.embed(0, b, 0, SIZE);
+		if (corrected) {
+			byte[] parity = new byte[ReedSolomon.PARITY];
+			ReedSolomon.parity(b, 0, SIZE, parity, 0);
+			cover.embed(COVER_BYTES, parity, 0, parity.length);
+		}
+		if (context != null)
+			context.keepHeader(b, this);  // reading it back does not parse it again
+	}
+
+	/**
+	 * @return the 30 header bytes, header checksum included
+	 */
+	byte[] toBytes() {
+		return toBytes(new byte[SIZE], null);
+	}
+
+	/**
+	 * @param b array of at least 30 bytes the header is written to
+	 * @param context checksum to reuse, null for none
+	 * @return b
+	 */
+	private byte[] toBytes(byte[] b, StegaContext context) {
+		b[0] = 'S';
+		b[1] = 'T';
+		b[2] = 'G';
+		b[3] = VERSION;
+		b[4] = (byte) type;
+		b[5] = (byte) ((bits - 1) | (compressed ? FLAG_COMPRESSED : 0) | (scattered ? FLAG_SCATTERED : 0)
+				| (encrypted ? FLAG_ENCRYPTED : 0) | (corrected ? FLAG_CORRECTED : 0));
+		putLong(b, 6, length);
+		putInt(b, 14, width);
+		putInt(b, 18, height);
+		putInt(b, 22, crc);
+		putInt(b, 26, context == null ? checksum(b, 0, 26) : context.checksum(b, 0, 26));
+		return b;
+	}
+
+	/**
+	 * Reads and checks the header at the start of a cover, correcting it with its parity if it
+	 * has some. Only the first 368 cover bytes are read when there is no header.
+	 * @param cover the cover that may hold a secret
+	 * @return the header found
+	 * @throws IllegalArgumentException if there is no valid header or the secret does not fit
+	 */
+	public static StegaHeader read(LsbCover cover) {
+		return read(cover, null);
+	}
+
+	/**
+	 * Reads and checks the header at the start of a cover into the scratch buffers of a context.
+	 * The same header as last time is not parsed again.
+	 * @param cover the cover that may hold a secret
+	 * @param context buffers to reuse, null for none
+	 * @return the header found
+	 * @throws IllegalArgumentException if there is no valid header or the secret does not fit
+	 */
+	static StegaHeader read(LsbCover cover, StegaContext context) {
+		if (cover.size() < COVER_BYTES)
+			throw new IllegalArgumentException("There is no secret inside this cover image");
+
+		byte[] b = context == null ? new byte[SIZE] : context.headerBytes;
+		String problem = check(cover, b, context);
+		if (problem != null && !repair(cover, b))
+			throw new IllegalArgumentException(problem);
+
+		int type = b[4];
+		int flags = b[5] & 0xFF;
+		if ((type != TYPE_TEXT && type != TYPE_IMAGE && type != TYPE_SHARD) || (flags & FLAG_RESERVED) != 0)
+			throw new IllegalArgumentException("Secret was hidden with unsupported options");
+
+		StegaHeader header = context == null ? null : context.lastHeader(b);
+		if (header == null) {
+			header = new StegaHeader(type, (flags & 3) + 1, (flags & FLAG_COMPRESSED) != 0, (flags & FLAG_SCATTERED) != 0,
+					(flags & FLAG_ENCRYPTED) != 0, (flags & FLAG_CORRECTED) != 0, getLong(b, 6), getInt(b, 14), getInt(b, 18), getInt(b, 22));
+			if (context != null)
+				context.keepHeader(b, header);
+		}
+		if (header.length < 0 || !header.fits(cover)
+				|| (header.corrected && ReedSolomon.encodedLength(ReedSolomon.dataLength(header.length)) != header.length))
+			throw new IllegalArgumentException("There is no secret inside this cover image (length "
+					+ header.length + " does not fit)");
+		if (type == TYPE_IMAGE && (header.width <= 0 || header.height <= 0
+				|| (!header.compressed && header.rawLength(3L * header.width * header.height) != header.length)))
+			throw new IllegalArgumentException("There is no secret image inside this cover image");
+		return header;
+	}
+
+	/**
+	 * Reads the header at the start of a cover into b and checks it
+	 * @param cover the cover that may hold a secret
+	 * @param b where the header bytes go
+	 * @param context checksum to reuse, null for none
+	 * @return what is wrong with the header, null if nothing is
+	 */
+	private static String check(LsbCover cover, byte[] b, StegaContext context) {
+		cover.extract(0, b, 0, MAGIC_BYTES);
+		if (b[0] != 'S' || b[1] != 'T' || b[2] != 'G')
+			return "There is no secret inside this cover image";
+		if (b[3] != VERSION)
+			return "Secret was hidden with an unsupported version " + (b[3] & 0xFF);
+
+		cover.extract(8 * MAGIC_BYTES, b, MAGIC_BYTES, SIZE - MAGIC_BYTES);
+		if (getInt(b, 26) != (context == null ? checksum(b, 0, 26) : context.checksum(b, 0, 26)))
+			return "There is no secret inside this cover image (bad header checksum)";
+		return null;
+	}
+
+	/**
+	 * Corrects a damaged header with the parity hidden after it, if it was hidden with some
+	 * @param cover the cover that may hold a secret
+	 * @param b where the corrected header bytes go
+	 * @return true if b now holds a valid header of a secret with error correction
+	 */
+	private static boolean repair(LsbCover cover, byte[] b) {
+		if (cover.size() < CORRECTED_COVER_BYTES)
+			return false;
+		byte[] codeword = new byte[SIZE + ReedSolomon.PARITY];
+		cover.extract(0, codeword, 0, codeword.length);
+		if (ReedSolomon.correct(codeword, 0, codeword.length) < 0 || codeword[0] != 'S' || codeword[1] != 'T'
+				|| codeword[2] != 'G' || codeword[3] != VERSION || (codeword[5] & FLAG_CORRECTED) == 0
+				|| getInt(codeword, 26) != checksum(codeword, 0, 26))
+			return false;
+		System.arraycopy(codeword, 0, b, 0, SIZE);
+		return true;
+	}
+
+	/**
+	 * @param length number of bytes of an uncompressed secret
+	 * @return number of hidden bytes they take
+	 */
+	private long rawLength(long length) {
+		long hidden = encrypted ? StegaCipher.encryptedLength(length) : length;
+		return corrected ? ReedSolomon.encodedLength(hidden) : hidden;
+	}
+
+	/**
+	 * @param b bytes to check
+	 * @param off index of the first byte
+	 * @param len number of bytes
+	 * @return CRC32C of the bytes
+	 */
+	static int checksum(byte[] b, int off, int len) {
+		CRC32C crc = new CRC32C();
+		crc.update(b, off, len);
+		return (int) crc.getValue();
+	}
+
+	@Override
+	public String toString() {
+		return (type == TYPE_TEXT ? "text" : type == TYPE_SHARD ? "shard" : "image " + width + "x" + height)
+				+ ", " + length + " bytes"
+				+ (compressed ? " deflated" : "") + (scattered ? " scattered" : "")
+				+ (encrypted ? " encrypted" : "") + (corrected ? " error corrected" : "") + ", " + bits + " bit"
+				+ (bits > 1 ? "s" : "") + " per channel";
+	}
+
+	static void putInt(byte[] b, int off, int value) {
+		for (int i = 3; i >= 0; i--, value >>>= 8)
+			b[off + i] = (byte) value;
+	}
+
+	static void putLong(byte[] b, int off, long value) {
+		for (int i = 7; i >= 0; i--, value >>>= 8)
+			b[off + i] = (byte) value;
+	}
+
+	static int getInt(byte[] b, int off) {
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+			value = (value << 8) | (b[off + i] & 0xFF);
+		return value;
+	}
+
+	static long getLong(byte[] b, int off) {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | (b[off + i] & 0xFF);
+		return value;
+	}
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads the bytes hidden in the LSBs of a cover one buffer at a time, so a secret can be
+ * copied somewhere else (a file, a socket, {@link java.nio.channels.Channels#newChannel(InputStream)})
+ * without ever holding all of it in memory. The length in the header has been checked against
+ * what the cover can actually hold before anything is read, and when the secret is read from
+ * start to end its checksum is verified once the last byte is reached.
+ */
+public class StegaInputStream extends InputStream {
+
+	private final LsbCover cover;       // bytes with the secret inside
+	private final StegaHeader header;   // what the secret is
+	private final int bits;             // low bits used in each cover byte
+	private final byte[] group;         // last group of hidden bytes, for reads that split one
+	private CRC32C crc = new CRC32C();  // checksum of the bytes read so far, null after a skip
+	private long position = 0;          // number of hidden bytes read so far
+
+	/**
+	 * Creates a stream over the secret hidden in a cover
+	 * @param cover the cover with the secret inside
+	 * @param header the header read from the cover with {@link StegaHeader#read(LsbCover)}
+	 */
+	public StegaInputStream(LsbCover cover, StegaHeader header) {
+		this.cover = cover;
+		this.header = header;
+		this.bits = header.getBits();
+		this.group = new byte[LsbKernel.groupBytes(bits)];
+	}
+
+	/**
+	 * @return the header of the secret
+	 */
+	public StegaHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the cover the secret is read from
+	 */
+	LsbCover getCover() {
+		return cover;
+	}
+
+	/**
+	 * @return total number of hidden bytes, read or not (deflated bytes if compressed)
+	 */
+	public long getLength() {
+		return header.getLength();
+	}
+
+	/**
+	 * @return number of hidden bytes read or skipped so far
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		long length = header.getLength();
+		if (position >= length)
+			return -1;
+
+		int n = (int) Math.min(len, length - position);
+		int at = (int) (position % group.length);  // with 3 bits, hidden bytes come in groups of 3
+		long offset = header.getCoverBytes() + LsbKernel.coverBytes(position - at, bits);
+		if (at != 0 || n < group.length) {
+			// read the whole group and hand out the part asked for
+			cover.extract(offset, group, 0, (int) Math.min(group.length, length - position + at), bits);
+			n = Math.min(n, group.length - at);
+			System.arraycopy(group, at, b, off, n);
+		} else {
+			if (n < length - position)
+				n -= n % group.length;
+			cover.extract(offset, b, off, n, bits);
+		}
+		position += n;
+
+		if (crc != null) {
+			crc.update(b, off, n);
+			if (position == length && (int) crc.getValue() != header.getCrc())
+				throw new IOException("Secret is corrupt, its checksum does not match");
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = Math.max(0, Math.min(n, header.getLength() - position));
+		if (skipped > 0)
+			crc = null;  // bytes skipped cannot be checked
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, header.getLength() - position);
+	}
+}
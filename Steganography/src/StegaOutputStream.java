@@ -0,0 +1,111 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Hides bytes in the LSBs of a cover as they are written, so a secret can be streamed in
+ * from a file or a socket without holding it in memory first. The {@link StegaHeader} in front
+ * of the secret is written when the stream is closed, once the length and checksum of what was
+ * written are known, so the length does not have to be known up front.
+ */
+public class StegaOutputStream extends OutputStream {
+
+	private final LsbCover cover;      // bytes the secret is hidden in
+	private final StegaHeader header;  // header to complete on close, its length -1 if not known
+	private final int bits;            // low bits used in each cover byte
+	private final byte[] group;        // bytes of a group not complete yet (3 bits per cover byte)
+	private final CRC32C crc = new CRC32C();
+	private int pending = 0;           // bytes waiting in group
+	private long count = 0;            // number of bytes hidden so far
+	private boolean closed = false;
+
+	/**
+	 * Creates a stream that hides the bytes written to it in a cover
+	 * @param cover the cover to hide the secret in
+	 * @param header type and options of the secret, with the number of bytes that will be
+	 * written or -1 if it is not known until the stream is closed
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small to hold the declared length
+	 */
+	public StegaOutputStream(LsbCover cover, StegaHeader header) {
+		if (cover.size() < header.getCoverBytes() || !header.fits(cover))
+			throw new ArrayIndexOutOfBoundsException("Cover of " + cover.size() + " bytes cannot hold "
+					+ header.getLength() + " bytes");
+
+		this.cover = cover;
+		this.header = header;
+		this.bits = header.getBits();
+		this.group = new byte[LsbKernel.groupBytes(bits)];
+	}
+
+	/**
+	 * @return number of bytes hidden so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (closed)
+			throw new IOException("Stream closed");
+		long length = header.getLength();
+		if (length >= 0 && count + len > length)
+			throw new IOException("Secret is longer than the " + length + " bytes declared");
+		crc.update(b, off, len);
+
+		// complete a group started by an earlier write, only happens with 3 bits per cover byte
+		while (len > 0 && (pending > 0 || len < group.length)) {
+			int n = Math.min(len, group.length - pending);
+			System.arraycopy(b, off, group, pending, n);
+			pending += n;
+			count += n;
+			off += n;
+			len -= n;
+			if (pending == group.length) {
+				cover.embed(offset(count - pending), group, 0, pending, bits);
+				pending = 0;
+			}
+		}
+
+		// throws ArrayIndexOutOfBoundsException once the cover runs out of room
+		int n = len - len % group.length;
+		cover.embed(offset(count), b, off, n, bits);
+		count += n;
+
+		// keep the rest for the next write
+		if (len > n) {
+			System.arraycopy(b, off + n, group, 0, len - n);
+			pending = len - n;
+			count += pending;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (pending > 0)
+			cover.embed(offset(count - pending), group, 0, pending, bits);
+		if (header.getLength() >= 0 && count != header.getLength())
+			throw new IOException("Secret is " + count + " bytes but " + header.getLength() + " were declared");
+
+		header.complete(count, (int) crc.getValue()).write(cover);
+	}
+
+	/**
+	 * @param position index of a hidden byte, at the start of a group
+	 * @return index of the cover byte it starts at
+	 */
+	private long offset(long position) {
+		return header.getCoverBytes() + LsbKernel.coverBytes(position, bits);
+	}
+}
@@ -0,0 +1,245 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads what the header of a possible stego image says without decoding the image. For the
+ * usual 8 bit PNGs only the first scanline(s) are inflated and unfiltered; other images are
+ * read through an ImageReader limited to the first rows. The header is then checked against
+ * the capacity of the whole cover, so a large archive can be triaged in milliseconds per file.
+ */
+public class StegaProbe {
+
+	static final int PROBE_BYTES = StegaHeader.CORRECTED_COVER_BYTES;  // cover bytes the header and its parity span
+
+	private final int width;             // size of the cover
+	private final int height;
+	private final StegaHeader header;    // null if there is no valid header
+
+	private StegaProbe(int width, int height, StegaHeader header) {
+		this.width = width;
+		this.height = height;
+		this.header = header;
+	}
+
+	/**
+	 * @return width of the cover image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the cover image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the header found, null if the image holds no secret
+	 */
+	public StegaHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return true if the header describes text that fits in the cover
+	 */
+	public boolean isText() {
+		return header != null && header.getType() == StegaHeader.TYPE_TEXT;
+	}
+
+	/**
+	 * @return true if the header describes an image that fits in the cover
+	 */
+	public boolean isImage() {
+		return header != null && header.getType() == StegaHeader.TYPE_IMAGE;
+	}
+
+	/**
+	 * @return number of hidden bytes of the text (deflated bytes if compressed), -1 if there is none
+	 */
+	public long getTextLength() {
+		return isText() ? header.getLength() : -1;
+	}
+
+	/**
+	 * @return number of hidden bytes of the image (deflated bytes if compressed), -1 if there is none
+	 */
+	public long getImageLength() {
+		return isImage() ? header.getLength() : -1;
+	}
+
+	/**
+	 * @return width of the hidden image, 0 if there is none
+	 */
+	public int getSecretWidth() {
+		return isImage() ? header.getWidth() : 0;
+	}
+
+	/**
+	 * @return height of the hidden image, 0 if there is none
+	 */
+	public int getSecretHeight() {
+		return isImage() ? header.getHeight() : 0;
+	}
+
+	/**
+	 * @return true if the header says the secret is deflated
+	 */
+	public boolean isCompressed() {
+		return header != null && header.isCompressed();
+	}
+
+	@Override
+	public String toString() {
+		return width + "x" + height + ", " + (header != null ? header.toString() : "no secret");
+	}
+
+	/**
+	 * Reads the header hidden in an image file
+	 * @param file the image to look at
+	 * @return what the header says, and whether it is plausible for the size of the image
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public static StegaProbe probe(File file) throws IOException {
+		PrefixCover cover = readPng(file);
+		if (cover == null)
+			cover = readRegion(file);
+
+		return probe(cover);
+	}
+
+	/**
+	 * Reads the header from the first cover bytes of an image
+	 * @param cover the first cover bytes
+	 * @return what the header says
+	 */
+	static StegaProbe probe(PrefixCover cover) {
+		try {
+			return new StegaProbe(cover.width, cover.height, StegaHeader.read(cover));
+		} catch (IllegalArgumentException e) {
+			return new StegaProbe(cover.width, cover.height, null);
+		}
+	}
+
+	/**
+	 * Inflates and unfilters just the first rows of an 8 bit, non interlaced PNG, with the
+	 * {@link PngRowReader} FileCover uses
+	 * @param file the file to read
+	 * @return the first cover bytes, null if the file is not a PNG this can read
+	 * @throws IOException if the file cannot be read
+	 */
+	static PrefixCover readPng(File file) throws IOException {
+		PngRowReader png = PngRowReader.open(file);
+		if (png == null)
+			return null;
+		try {
+			int width = png.getWidth();
+			int height = png.getHeight();
+			long rowBytes = (long) width * png.getSamples();
+			int rows = (int) Math.min(height, (PROBE_BYTES + rowBytes - 1) / rowBytes);
+			byte[] prefix = new byte[(int) (rows * rowBytes)];
+			png.readRows(0, rows, prefix);
+			return new PrefixCover(prefix, rowBytes * height, width, height);
+		} finally {
+			png.close();
+		}
+	}
+
+	/**
+	 * Reads only the first rows of an image with an ImageReader
+	 * @param file the file to read
+	 * @return the first cover bytes
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	static PrefixCover readRegion(File file) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+			if (iis == null)
+				throw new IOException("Cannot read " + file);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext())
+				throw new IOException(file + " is not an image");
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				int rows = Math.min(height, (PROBE_BYTES + width - 1) / width);
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(0, 0, width, rows));
+				BufferedImage region = reader.read(0, param);
+
+				RasterCover cover = RasterCover.wrap(region);
+				long perRow = cover.size() / rows;
+				byte[] prefix = new byte[(int) cover.size()];
+				copySamples(cover, prefix);
+				return new PrefixCover(prefix, perRow * height, width, height);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Copies the cover bytes of a small image, LSBs are all that matter so they are rebuilt from them
+	 */
+	private static void copySamples(RasterCover cover, byte[] prefix) {
+		byte[] direct = cover.getDirectBytes();
+		if (direct != null) {
+			System.arraycopy(direct, 0, prefix, 0, prefix.length);
+			return;
+		}
+
+		// only the LSB of every sample is ever read, so recover 8 of them at a time
+		int whole = prefix.length / 8;
+		byte[] bits = new byte[whole];
+		cover.extract(0, bits, 0, whole);
+		for (int i = 0; i < whole * 8; i++)
+			prefix[i] = (byte) ((bits[i / 8] >> (7 - i % 8)) & 1);
+	}
+
+	/**
+	 * The first bytes of a cover, reporting the size of the whole cover so headers can be checked
+	 */
+	static class PrefixCover extends ArrayCover {
+		final long size;
+		final int width;
+		final int height;
+
+		PrefixCover(byte[] prefix, long size, int width, int height) {
+			super(prefix);
+			this.size = size;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: java StegaProbe image...");
+			System.exit(1);
+		}
+
+		for (String name : args) {
+			long start = System.nanoTime();
+			StegaProbe probe = probe(new File(name));
+			System.out.println(name + ": " + probe + " (" + (System.nanoTime() - start) / 1000 + " us)");
+		}
+	}
+}
@@ -0,0 +1,275 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+import javax.crypto.Cipher;
+
+/**
+ * Reads any part of a secret without the rest. Byte i of a secret is hidden at a fixed place
+ * in the cover, after the header, so a slice (one record of a large archive, a few rows of a
+ * secret image) is extracted in time proportional to its length wherever it is. An encrypted
+ * secret is read a 4 KB chunk at a time, each chunk decrypted and authenticated on its own.
+ * Opened with {@link Steganography#openReader(java.io.File)} only the rows of the cover image
+ * that hold the slice are decoded (see {@link FileCover}).
+ *
+ * The checksum in the header covers the whole secret, so slices of a secret that is not
+ * encrypted are not checked, and slices of a secret hidden with error correction are read as
+ * they are, the parity after the secret is not used. Deflated secrets can only be read from
+ * the start. A reader is meant for one thread at a time.
+ */
+public class StegaReader implements Closeable {
+
+	private final LsbCover cover;       // the cover, scattered if the secret is
+	private final StegaHeader header;
+	private final int bits;
+	private final long hidden;          // hidden bytes before the parity, encrypted if the secret is
+	private final long length;          // bytes of the secret
+	private final byte[] group;         // a group of hidden bytes, for slices that split one
+	private final Closeable file;       // closed with the reader, null for none
+
+	// encrypted secrets: the cipher, the salt and nonce prefix, and the last chunk decrypted
+	private final StegaCipher cipher;
+	private Cipher aes;
+	private byte[] head;
+	private byte[] sealed;
+	private byte[] plain;
+	private long chunk = -1;            // number of the chunk in plain, -1 for none
+	private int plainLength;
+
+	/**
+	 * @param cover the cover, scattered if the secret is
+	 * @param header the header read from it, of a secret that is not deflated
+	 * @param cipher decrypts the secret, null if it is not encrypted
+	 * @param file closed with the reader, null for none
+	 */
+	StegaReader(LsbCover cover, StegaHeader header, StegaCipher cipher, Closeable file) {
+		this.cover = cover;
+		this.header = header;
+		this.bits = header.getBits();
+		this.hidden = header.isErrorCorrected() ? ReedSolomon.dataLength(header.getLength()) : header.getLength();
+		this.cipher = cipher;
+		this.file = file;
+		this.group = new byte[LsbKernel.groupBytes(bits)];
+		this.length = cipher == null ? hidden : Math.max(0, StegaCipher.plainLength(hidden));
+	}
+
+	/**
+	 * @return the header of the secret, with the width and height of a secret image
+	 */
+	public StegaHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return number of bytes of the secret, decrypted
+	 */
+	public long size() {
+		return length;
+	}
+
+	/**
+	 * Reads part of the secret
+	 * @param position index in the secret of the first byte to read
+	 * @param dst where the bytes go
+	 * @param off index in dst of the first byte
+	 * @param len most bytes to read
+	 * @return number of bytes read, fewer than len only at the end of the secret, -1 if position
+	 * is at or past the end
+	 * @throws IOException if the cover cannot be read or an encrypted chunk does not decrypt
+	 */
+	public int read(long position, byte[] dst, int off, int len) throws IOException {
+		if (position < 0 || off < 0 || len < 0 || len > dst.length - off)
+			throw new IndexOutOfBoundsException();
+		if (position >= length)
+			return len == 0 ? 0 : -1;
+		int n = (int) Math.min(len, length - position);
+		try {
+			if (cipher == null)
+				extract(position, dst, off, n);
+			else
+				decrypt(position, dst, off, n);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return n;
+	}
+
+	/**
+	 * Reads part of the secret that must be there
+	 * @param position index in the secret of the first byte to read
+	 * @param dst where the bytes go
+	 * @param off index in dst of the first byte
+	 * @param len number of bytes to read
+	 * @throws EOFException if the secret ends before len bytes
+	 * @throws IOException if the cover cannot be read or an encrypted chunk does not decrypt
+	 */
+	public void readFully(long position, byte[] dst, int off, int len) throws IOException {
+		if (position + len > length)
+			throw new EOFException("Secret of " + length + " bytes ends before " + (position + len));
+		read(position, dst, off, len);
+	}
+
+	/**
+	 * Reads some rows of a secret image
+	 * @param y first row
+	 * @param rows number of rows
+	 * @return the rows as a 3 byte BGR image
+	 * @throws IOException if the cover cannot be read or an encrypted chunk does not decrypt
+	 * @throws IllegalArgumentException if the secret is not an image or has no such rows
+	 */
+	public BufferedImage readRows(int y, int rows) throws IOException {
+		if (header.getType() != StegaHeader.TYPE_IMAGE)
+			throw new IllegalArgumentException("The secret is not an image");
+		if (y < 0 || rows <= 0 || y + rows > header.getHeight())
+			throw new IllegalArgumentException("Secret image has no rows " + y + " to " + (y + rows - 1));
+		BufferedImage b = new BufferedImage(header.getWidth(), rows, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] bytes = ((DataBufferByte) b.getRaster().getDataBuffer()).getData();
+		readFully(3L * header.getWidth() * y, bytes, 0, bytes.length);
+		return b;
+	}
+
+	/**
+	 * @return a channel over the secret, read only, starting at position 0; closing it closes
+	 * the reader
+	 */
+	public SeekableByteChannel channel() {
+		return new SeekableByteChannel() {
+			private long position = 0;
+			private boolean open = true;
+
+			public int read(ByteBuffer dst) throws IOException {
+				if (!open)
+					throw new ClosedChannelException();
+				int n;
+				if (dst.hasArray()) {
+					n = StegaReader.this.read(position, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+					if (n > 0)
+						dst.position(dst.position() + n);
+				} else {
+					byte[] b = new byte[Math.min(dst.remaining(), 1 << 16)];
+					n = StegaReader.this.read(position, b, 0, b.length);
+					if (n > 0)
+						dst.put(b, 0, n);
+				}
+				if (n > 0)
+					position += n;
+				return n;
+			}
+
+			public int write(ByteBuffer src) {
+				throw new NonWritableChannelException();
+			}
+
+			public long position() throws IOException {
+				if (!open)
+					throw new ClosedChannelException();
+				return position;
+			}
+
+			public SeekableByteChannel position(long newPosition) throws IOException {
+				if (!open)
+					throw new ClosedChannelException();
+				if (newPosition < 0)
+					throw new IllegalArgumentException("Negative position " + newPosition);
+				position = newPosition;
+				return this;
+			}
+
+			public long size() throws IOException {
+				if (!open)
+					throw new ClosedChannelException();
+				return length;
+			}
+
+			public SeekableByteChannel truncate(long size) {
+				throw new NonWritableChannelException();
+			}
+
+			public boolean isOpen() {
+				return open;
+			}
+
+			public void close() throws IOException {
+				open = false;
+				StegaReader.this.close();
+			}
+		};
+	}
+
+	/**
+	 * Extracts hidden bytes, reading whole groups where a slice starts or ends inside one
+	 * @param position index of the first hidden byte
+	 * @param dst where they go
+	 * @param off index in dst of the first byte
+	 * @param len how many, all of them hidden
+	 */
+	private void extract(long position, byte[] dst, int off, int len) {
+		while (len > 0) {
+			int at = (int) (position % group.length);  // with 3 bits, hidden bytes come in groups of 3
+			long offset = header.getCoverBytes() + LsbKernel.coverBytes(position - at, bits);
+			int n;
+			if (at != 0 || len < group.length) {
+				cover.extract(offset, group, 0, (int) Math.min(group.length, hidden - position + at), bits);
+				n = Math.min(len, group.length - at);
+				System.arraycopy(group, at, dst, off, n);
+			} else {
+				n = len - len % group.length;
+				cover.extract(offset, dst, off, n, bits);
+			}
+			position += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Decrypts bytes of the secret, a chunk at a time
+	 * @param position index in the secret of the first byte
+	 * @param dst where they go
+	 * @param off index in dst of the first byte
+	 * @param len how many, all of them in the secret
+	 * @throws IOException if a chunk does not decrypt
+	 */
+	private void decrypt(long position, byte[] dst, int off, int len) throws IOException {
+		if (aes == null) {
+			aes = StegaCipher.newCipher();
+			head = new byte[StegaCipher.HEADER];
+			sealed = new byte[StegaCipher.CHUNK + StegaCipher.TAG];
+			plain = new byte[StegaCipher.CHUNK];
+			extract(0, head, 0, head.length);
+		}
+		long lastChunk = Math.max(0, (length - 1) / StegaCipher.CHUNK);
+		while (len > 0) {
+			long c = position / StegaCipher.CHUNK;
+			if (c != chunk) {
+				long start = StegaCipher.HEADER + c * (StegaCipher.CHUNK + StegaCipher.TAG);
+				int size = (int) Math.min(sealed.length, hidden - start);
+				extract(start, sealed, 0, size);
+				chunk = -1;  // a chunk that does not decrypt is not kept
+				plainLength = cipher.decryptChunk(aes, head, c, c == lastChunk, sealed, size, plain);
+				chunk = c;
+			}
+			int at = (int) (position - c * StegaCipher.CHUNK);
+			int n = Math.min(len, plainLength - at);
+			if (n <= 0)
+				throw new IOException("Encrypted secret is cut off");
+			System.arraycopy(plain, at, dst, off, n);
+			position += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (file != null)
+			file.close();
+	}
+}
@@ -0,0 +1,494 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Splits a secret too large for any one cover over several covers. The secret (deflated first
+ * if compression is on) is cut in one shard per cover, sized to what each cover holds so every
+ * cover is filled to the same fraction, and each shard is hidden with the usual settings of a
+ * {@link Steganography} (bits per channel, scattering, encryption, LSB matching, error
+ * correction) under a header of type {@link StegaHeader#TYPE_SHARD}. Every shard starts with
+ * the same manifest, so the stego images can be decoded in any order and the secret is put
+ * back together from them alone.
+ * Shards are hidden and revealed on the common pool, one cover per task; the progress listener
+ * of the settings hears about each shard on its own.
+ *
+ * Manifest (46 bytes, big endian):
+ *   0  id        64 bit random number, the same in every shard of a secret
+ *   8  index     32 bit index of the shard, 0 to count - 1
+ *   12 count     32 bit number of shards
+ *   16 offset    64 bit index in the secret of the first byte of the shard
+ *   24 length    64 bit length of the secret (deflated bytes if it is deflated)
+ *   32 type      StegaHeader.TYPE_TEXT or StegaHeader.TYPE_IMAGE
+ *   33 flags     bit 0 the secret is deflated
+ *   34 width     32 bit width of a secret image, 0 for text
+ *   38 height    32 bit height of a secret image, 0 for text
+ *   42 crc       CRC32C of the secret
+ *
+ * Usage: java StegaShards hide -secret text.txt|secret.png -out dir [options] cover...
+ *        java StegaShards reveal -out text.txt|secret.png [options] stego...
+ * Options: -bits n, -compress true, -key passphrase, -password word, -matching true, -correct true
+ */
+public class StegaShards {
+
+	static final int MANIFEST = 46;            // manifest bytes in front of every shard
+	private static final int FLAG_DEFLATED = 0x01;
+
+	private final Steganography stega;
+
+	/**
+	 * One shard read back from a cover
+	 */
+	private static class Shard {
+		long id;
+		int index;
+		int count;
+		long offset;
+		long length;
+		int type;
+		boolean deflated;
+		int width;
+		int height;
+		int crc;
+		byte[] bytes;   // manifest and part of the secret, which starts at MANIFEST
+	}
+
+	/**
+	 * @param stega the settings every shard is hidden with, and the key and password to reveal them
+	 */
+	public StegaShards(Steganography stega) {
+		this.stega = stega;
+	}
+
+	/**
+	 * Hides text split over several images
+	 * @param covers the images to hide the text in, each gets a shard
+	 * @param message the text to be hidden
+	 * @return the images with the shards inside, in the same order, each the cover itself unless
+	 * its layout had to be converted
+	 * @throws ArrayIndexOutOfBoundsException if the covers together are too small for the text
+	 */
+	public List<BufferedImage> encodeText(List<BufferedImage> covers, String message) {
+		return hide(covers, stega.secretBytes(message), StegaHeader.TYPE_TEXT, 0, 0);
+	}
+
+	/**
+	 * Hides an image split over several images
+	 * @param covers the images to hide the image in, each gets a shard
+	 * @param secret the image to be hidden
+	 * @return the images with the shards inside, in the same order, each the cover itself unless
+	 * its layout had to be converted
+	 * @throws ArrayIndexOutOfBoundsException if the covers together are too small for the image
+	 */
+	public List<BufferedImage> encodeImage(List<BufferedImage> covers, BufferedImage secret) {
+		return hide(covers, stega.secretBytes(secret, null), StegaHeader.TYPE_IMAGE, secret.getWidth(),
+				secret.getHeight());
+	}
+
+	/**
+	 * Puts text split over several images back together
+	 * @param stegos every image with a shard of the text inside, in any order
+	 * @return the text
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	public String decodeText(List<BufferedImage> stegos) {
+		return assembleText(reveal(stegos));
+	}
+
+	/**
+	 * Puts an image split over several images back together
+	 * @param stegos every image with a shard of the image inside, in any order
+	 * @return the image, 3 byte BGR
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	public BufferedImage decodeImage(List<BufferedImage> stegos) {
+		return assembleImage(reveal(stegos));
+	}
+
+	/**
+	 * Puts text back together from its shards
+	 * @param shards every shard of the text, as revealed, in any order
+	 * @return the text
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	String assembleText(List<byte[]> shards) {
+		List<Shard> parsed = check(shards, StegaHeader.TYPE_TEXT);
+		Shard first = parsed.get(0);
+		byte[] bytes = assemble(parsed, new byte[(int) first.length]);
+		return new String(first.deflated ? inflate(bytes, -1) : bytes);
+	}
+
+	/**
+	 * Puts an image back together from its shards
+	 * @param shards every shard of the image, as revealed, in any order
+	 * @return the image, 3 byte BGR
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	BufferedImage assembleImage(List<byte[]> shards) {
+		List<Shard> parsed = check(shards, StegaHeader.TYPE_IMAGE);
+		Shard first = parsed.get(0);
+		long raw = 3L * first.width * first.height;
+		if (first.width <= 0 || first.height <= 0 || raw > Integer.MAX_VALUE - 8
+				|| (!first.deflated && raw != first.length))
+			throw new IllegalArgumentException("Secret image of " + first.width + "x" + first.height + " is too large");
+
+		// shards of a raw image go straight into its raster
+		BufferedImage b = new BufferedImage(first.width, first.height, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] raster = ((DataBufferByte) b.getRaster().getDataBuffer()).getData();
+		if (!first.deflated) {
+			assemble(parsed, raster);
+		} else {
+			byte[] pixels = inflate(assemble(parsed, new byte[(int) first.length]), raster.length);
+			System.arraycopy(pixels, 0, raster, 0, raster.length);
+		}
+		return b;
+	}
+
+	/**
+	 * Cuts a secret in shards and hides one in each cover, all at once
+	 * @param covers the images to hide the secret in
+	 * @param secret the secret, deflated already if compression is on
+	 * @param type StegaHeader.TYPE_TEXT or StegaHeader.TYPE_IMAGE
+	 * @param width width of a secret image, 0 for text
+	 * @param height height of a secret image, 0 for text
+	 * @return the images with the shards inside
+	 */
+	private List<BufferedImage> hide(List<BufferedImage> covers, final byte[] secret, int type, int width,
+			int height) {
+		if (covers.isEmpty())
+			throw new IllegalArgumentException("There are no cover images to hide the secret in");
+
+		// room for secret bytes in each cover, after the manifest
+		final int count = covers.size();
+		final RasterCover[] rasters = new RasterCover[count];
+		long[] room = new long[count];
+		for (int i = 0; i < count; i++) {
+			rasters[i] = RasterCover.wrap(covers.get(i));
+			room[i] = room(rasters[i].size(), i);
+		}
+		byte[][] shards = cut(secret, room, stega.isCompression(), type, width, height);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < count; i++) {
+			final byte[] shard = shards[i];
+			final RasterCover raster = rasters[i];
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					stega.hideShard(raster, shard);
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+
+		List<BufferedImage> stegos = new ArrayList<BufferedImage>(count);
+		for (RasterCover raster : rasters)
+			stegos.add(raster.getImage());
+		return stegos;
+	}
+
+	/**
+	 * @param coverBytes cover bytes of one cover
+	 * @param index index of the cover, for the message
+	 * @return bytes of the secret a shard in that cover holds with the current settings
+	 * @throws ArrayIndexOutOfBoundsException if the cover cannot hold even the manifest
+	 */
+	long room(long coverBytes, int index) {
+		long room = stega.capacity(coverBytes) - MANIFEST;
+		if (room < 0)
+			throw new ArrayIndexOutOfBoundsException("Cover image " + (index + 1) + " of " + coverBytes
+					+ " bytes cannot hold a shard");
+		return room;
+	}
+
+	/**
+	 * Cuts a secret in one shard per cover, shard i ending where the covers up to i, filled to
+	 * the same fraction, end
+	 * @param secret the secret, deflated already if it is to be
+	 * @param room bytes of the secret each cover holds, see {@link #room(long, int)}
+	 * @param deflated true if the secret is deflated
+	 * @param type StegaHeader.TYPE_TEXT or StegaHeader.TYPE_IMAGE
+	 * @param width width of a secret image, 0 for text
+	 * @param height height of a secret image, 0 for text
+	 * @return the shards, each its manifest and its part of the secret
+	 * @throws ArrayIndexOutOfBoundsException if the covers together are too small for the secret
+	 */
+	static byte[][] cut(byte[] secret, long[] room, boolean deflated, int type, int width, int height) {
+		long total = 0;
+		for (long r : room)
+			total += r;
+		if (total < secret.length)
+			throw new ArrayIndexOutOfBoundsException("Cover images hold " + total + " bytes in all, not "
+					+ secret.length);
+
+		long id = ThreadLocalRandom.current().nextLong();
+		int crc = StegaHeader.checksum(secret, 0, secret.length);
+		BigInteger length = BigInteger.valueOf(secret.length);
+		BigInteger all = BigInteger.valueOf(Math.max(1, total));
+		byte[][] shards = new byte[room.length][];
+		long filled = 0;
+		int start = 0;
+		for (int i = 0; i < room.length; i++) {
+			filled += room[i];
+			int end = length.multiply(BigInteger.valueOf(filled)).divide(all).intValue();
+			shards[i] = new byte[MANIFEST + end - start];
+			manifest(shards[i], id, i, room.length, start, secret.length, type, deflated, width, height, crc);
+			System.arraycopy(secret, start, shards[i], MANIFEST, end - start);
+			start = end;
+		}
+		return shards;
+	}
+
+	/**
+	 * Reads the shards of a secret out of every image at once
+	 * @param stegos the images with the shards inside, in any order
+	 * @return the shards as revealed, in the order of the images
+	 * @throws IllegalArgumentException if an image holds no shard or a corrupt one
+	 */
+	private List<byte[]> reveal(List<BufferedImage> stegos) {
+		if (stegos.isEmpty())
+			throw new IllegalArgumentException("There are no cover images to read the secret from");
+
+		List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+		for (final BufferedImage bimg : stegos) {
+			tasks.add(new Callable<byte[]>() {
+				public byte[] call() {
+					return stega.revealShard(RasterCover.wrap(bimg));
+				}
+			});
+		}
+		return invokeAll(tasks);
+	}
+
+	/**
+	 * Reads the manifests of the shards of a secret and checks they make up all of it
+	 * @param bytes the shards as revealed, in any order
+	 * @param type StegaHeader.TYPE_TEXT or StegaHeader.TYPE_IMAGE
+	 * @return the shards, in the same order, all of one secret of that type
+	 * @throws IllegalArgumentException if a shard is missing, corrupt or of another secret
+	 */
+	private static List<Shard> check(List<byte[]> bytes, int type) {
+		if (bytes.isEmpty())
+			throw new IllegalArgumentException("There are no cover images to read the secret from");
+		List<Shard> shards = new ArrayList<Shard>(bytes.size());
+		for (byte[] b : bytes)
+			shards.add(parse(b));
+
+		Shard first = shards.get(0);
+		boolean[] found = new boolean[first.count];
+		for (Shard shard : shards) {
+			if (shard.id != first.id || shard.count != first.count || shard.length != first.length
+					|| shard.crc != first.crc)
+				throw new IllegalArgumentException("The cover images hold shards of different secrets");
+			if (found[shard.index])
+				throw new IllegalArgumentException("Shard " + (shard.index + 1) + " is in two cover images");
+			found[shard.index] = true;
+		}
+		for (int i = 0; i < found.length; i++)
+			if (!found[i])
+				throw new IllegalArgumentException("Shard " + (i + 1) + " of " + found.length + " is missing");
+		if (first.type != type)
+			throw new IllegalArgumentException(type == StegaHeader.TYPE_TEXT
+					? "These cover images hold an image, not text" : "These cover images hold text, not an image");
+		return shards;
+	}
+
+	/**
+	 * Copies the part of the secret in each shard to its place
+	 * @param shards every shard of the secret
+	 * @param secret where the secret goes, as long as it is
+	 * @return secret
+	 * @throws IllegalArgumentException if the secret put back together does not match its checksum
+	 */
+	private static byte[] assemble(List<Shard> shards, byte[] secret) {
+		for (Shard shard : shards) {
+			int len = shard.bytes.length - MANIFEST;
+			if (shard.offset < 0 || shard.offset + len > secret.length)
+				throw new IllegalArgumentException("Shard " + (shard.index + 1) + " does not fit in the secret");
+			System.arraycopy(shard.bytes, MANIFEST, secret, (int) shard.offset, len);
+		}
+		if (StegaHeader.checksum(secret, 0, secret.length) != shards.get(0).crc)
+			throw new IllegalArgumentException("The secret put back together from the shards is corrupt");
+		return secret;
+	}
+
+	/**
+	 * @param deflated the secret put back together
+	 * @param length bytes it must inflate to, -1 for any number
+	 * @return the secret inflated
+	 * @throws IllegalArgumentException if it does not inflate to length bytes
+	 */
+	private byte[] inflate(byte[] deflated, int length) {
+		try {
+			byte[] bytes = stega.inflate(deflated);
+			if (length >= 0 && bytes.length != length)
+				throw new IOException("Secret image has " + bytes.length + " bytes, not " + length);
+			return bytes;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("The secret put back together from the shards is corrupt", e);
+		}
+	}
+
+	/**
+	 * Writes the manifest at the start of a shard
+	 */
+	private static void manifest(byte[] b, long id, int index, int count, long offset, long length, int type,
+			boolean deflated, int width, int height, int crc) {
+		StegaHeader.putLong(b, 0, id);
+		StegaHeader.putInt(b, 8, index);
+		StegaHeader.putInt(b, 12, count);
+		StegaHeader.putLong(b, 16, offset);
+		StegaHeader.putLong(b, 24, length);
+		b[32] = (byte) type;
+		b[33] = (byte) (deflated ? FLAG_DEFLATED : 0);
+		StegaHeader.putInt(b, 34, width);
+		StegaHeader.putInt(b, 38, height);
+		StegaHeader.putInt(b, 42, crc);
+	}
+
+	/**
+	 * @param bytes a shard as it was hidden
+	 * @return the shard with its manifest read
+	 * @throws IllegalArgumentException if the manifest makes no sense
+	 */
+	private static Shard parse(byte[] bytes) {
+		if (bytes.length < MANIFEST)
+			throw new IllegalArgumentException("There is no shard inside this cover image (too short)");
+		Shard shard = new Shard();
+		shard.id = StegaHeader.getLong(bytes, 0);
+		shard.index = StegaHeader.getInt(bytes, 8);
+		shard.count = StegaHeader.getInt(bytes, 12);
+		shard.offset = StegaHeader.getLong(bytes, 16);
+		shard.length = StegaHeader.getLong(bytes, 24);
+		shard.type = bytes[32];
+		shard.deflated = (bytes[33] & FLAG_DEFLATED) != 0;
+		shard.width = StegaHeader.getInt(bytes, 34);
+		shard.height = StegaHeader.getInt(bytes, 38);
+		shard.crc = StegaHeader.getInt(bytes, 42);
+		shard.bytes = bytes;
+		if (shard.count <= 0 || shard.index < 0 || shard.index >= shard.count || shard.length < 0
+				|| shard.length > Integer.MAX_VALUE - 8
+				|| (shard.type != StegaHeader.TYPE_TEXT && shard.type != StegaHeader.TYPE_IMAGE))
+			throw new IllegalArgumentException("There is no shard inside this cover image (bad manifest)");
+		return shard;
+	}
+
+	/**
+	 * Runs tasks on the common pool and waits for all of them
+	 * @param tasks the tasks
+	 * @return their results, in order
+	 */
+	private static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		for (Future<T> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+			try {
+				results.add(result.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				if (e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param file an image file
+	 * @return the image
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	private static BufferedImage read(File file) throws IOException {
+		BufferedImage bimg = ImageIO.read(file);
+		if (bimg == null)
+			throw new IOException(file + " is not an image");
+		return bimg;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java StegaShards hide -secret file -out dir [options] cover...");
+		System.err.println("       java StegaShards reveal -out file [options] stego...");
+		System.err.println("Options: -bits n -compress true|false -key passphrase -password word -matching true|false -correct true|false");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0)
+			usage();
+
+		Steganography stega = new Steganography();
+		String mode = args[0], secret = null, out = null;
+		List<File> images = new ArrayList<File>();
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i].startsWith("-")) {
+				images.add(new File(args[i]));
+				continue;
+			}
+			if (i + 1 == args.length)
+				usage();
+			String value = args[++i];
+			if (args[i - 1].equals("-secret"))
+				secret = value;
+			else if (args[i - 1].equals("-out"))
+				out = value;
+			else if (args[i - 1].equals("-bits"))
+				stega.setBitsPerChannel(Integer.parseInt(value));
+			else if (args[i - 1].equals("-compress"))
+				stega.setCompression(Boolean.parseBoolean(value));
+			else if (args[i - 1].equals("-key"))
+				stega.setScatterKey(value.getBytes("UTF-8"));
+			else if (args[i - 1].equals("-password"))
+				stega.setPassword(value.toCharArray());
+			else if (args[i - 1].equals("-matching"))
+				stega.setMatching(Boolean.parseBoolean(value));
+			else if (args[i - 1].equals("-correct"))
+				stega.setErrorCorrection(Boolean.parseBoolean(value));
+			else
+				usage();
+		}
+		if (out == null || images.isEmpty())
+			usage();
+
+		List<BufferedImage> bimgs = new ArrayList<BufferedImage>();
+		for (File f : images)
+			bimgs.add(read(f));
+		StegaShards shards = new StegaShards(stega);
+		PngWriter png = new PngWriter();
+
+		if (mode.equals("hide") && secret != null) {
+			boolean isText = secret.endsWith(".txt");
+			List<BufferedImage> stegos = isText
+					? shards.encodeText(bimgs, new String(Files.readAllBytes(new File(secret).toPath())))
+					: shards.encodeImage(bimgs, read(new File(secret)));
+			new File(out).mkdirs();
+			for (int i = 0; i < stegos.size(); i++) {
+				String name = images.get(i).getName();
+				int dot = name.lastIndexOf('.');
+				png.write(stegos.get(i), new File(out, (dot > 0 ? name.substring(0, dot) : name) + ".png"));
+			}
+		} else if (mode.equals("reveal")) {
+			if (out.endsWith(".png"))
+				png.write(shards.decodeImage(bimgs), new File(out));
+			else
+				Files.write(new File(out).toPath(), shards.decodeText(bimgs).getBytes());
+		} else {
+			usage();
+		}
+	}
+}
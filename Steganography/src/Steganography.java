@@ -2,10 +2,29 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.imageio.ImageIO;
 
@@ -20,39 +39,360 @@ import javax.imageio.ImageIO;
 
 public class Steganography {
 	
-	private final int MESSAGE_LENGTH_BITS = 32;  // max bits used to encode length of message 
-	private final int WIDTH_BITS = 16;			 // max bits used to encode length of image width 
-	private final int HEIGHT_BITS = 16; 		 // max bits used to encode length of image height
+	private boolean parallel = false;           // split embedding/extraction across all cores
+	private int minChunkSize = 1 << 16;         // smallest number of bytes handled by one core
+	private int bitsPerChannel = 1;             // low bits of each cover byte used for the secret
+	private boolean compression = false;        // deflate secrets before hiding them
+	private ProgressListener progressListener;  // told how far an encode or decode has got, may be null
+	private byte[] scatterKey = null;           // spread secrets over the cover with this key, null to fill it in order
+	private StegaCipher cipher = null;          // encrypt secrets with this password, null to hide them as they are
+	private boolean matching = false;           // hide by LSB matching (+-1) instead of replacing LSBs
+	private boolean errorCorrection = false;    // add Reed-Solomon parity after the header and the secret
+	
+	// payload bytes hidden or revealed between progress reports and checks for cancellation,
+	// a multiple of 3 so chunks never split a group of bytes hidden with 3 bits per channel
+	private static final int PROGRESS_CHUNK = 3 << 16;
+	
+	/**
+	 * Receives how far a long encode or decode has got. It is called on the thread doing the
+	 * work, between chunks of the secret.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param done number of secret bytes hidden or revealed so far
+		 * @param total number of secret bytes in all, -1 if not known
+		 */
+		void progress(long done, long total);
+	}
+	
+	/**
+	 * Turns parallel embedding and extraction on or off. The result is the same either way.
+	 * @param parallel true to use all cores for large payloads
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * Sets how many payload bytes one core handles at least when running in parallel
+	 * @param minChunkSize minimum number of payload bytes per task
+	 */
+	public void setMinChunkSize(int minChunkSize) {
+		if (minChunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be positive: " + minChunkSize);
+		this.minChunkSize = minChunkSize;
+	}
+	
+	/**
+	 * Sets how many low bits of each cover byte hold the secret. More bits need a smaller cover
+	 * (a secret image can fit in a cover of the same size with 4 bits) but change the cover more.
+	 * The headers always use 1 bit and record the setting, so decoding picks it up by itself.
+	 * @param bitsPerChannel 1 to 4 bits per cover byte
+	 */
+	public void setBitsPerChannel(int bitsPerChannel) {
+		if (bitsPerChannel < 1 || bitsPerChannel > 4)
+			throw new IllegalArgumentException("Bits per channel must be 1 to 4: " + bitsPerChannel);
+		this.bitsPerChannel = bitsPerChannel;
+	}
+	
+	/**
+	 * Turns compression of secrets on or off. Text and raw image bytes usually deflate well, so
+	 * they fit in a smaller cover and fewer cover bytes are changed. The length header records
+	 * it, so decoding inflates the secret by itself.
+	 * @param compression true to deflate secrets before hiding them
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+	
+	/**
+	 * Spreads secrets over the whole cover in an order given by a key, instead of filling the
+	 * cover from the top where the changes are easy to spot. The header records it, and 
+	 * decoding needs the same key. See {@link ScatteredCover}.
+	 * @param scatterKey any bytes (a passphrase for example), null to hide secrets in order
+	 */
+	public void setScatterKey(byte[] scatterKey) {
+		this.scatterKey = scatterKey == null ? null : scatterKey.clone();
+	}
+	
+	/**
+	 * Encrypts secrets with a password (AES-GCM, see {@link StegaCipher}) before they are hidden,
+	 * a chunk at a time, so no encrypted copy of the whole secret is made. Deriving the key from
+	 * the password takes a while on purpose, so it is done here once. The header records it, 
+	 * and decoding needs the same password.
+	 * @param password the password, null to hide secrets unencrypted
+	 */
+	public void setPassword(char[] password) {
+		this.cipher = password == null ? null : new StegaCipher(password);
+	}
+	
+	/**
+	 * Hides secrets by LSB matching instead of LSB replacement: cover bytes whose LSB does not
+	 * match are moved one up or down at random, which chi-square and RS analysis do not pick
+	 * up (see {@link MatchingCover}). It works with 1 bit per channel only, and decoding does not
+	 * need to know.
+	 * @param matching true to hide by LSB matching
+	 */
+	public void setMatching(boolean matching) {
+		this.matching = matching;
+	}
+	
+	/**
+	 * Adds Reed-Solomon parity to the header and to secrets (see {@link ReedSolomon}), 7% more
+	 * hidden bytes, so a secret still comes back whole from a cover that had a few LSBs changed
+	 * after it was hidden, up to 8 bytes in every 255 wherever they are. The header records it,
+	 * and decoding corrects the secret by itself. The parity is worked out over the whole
+	 * secret, so it is held in memory, even behind openTextOutput.
+	 * @param errorCorrection true to add parity
+	 */
+	public void setErrorCorrection(boolean errorCorrection) {
+		this.errorCorrection = errorCorrection;
+	}
+	
+	/**
+	 * Works out how many secret bytes a cover holds with the current settings (bits per channel,
+	 * scattering, encryption, error correction) from its size alone, so covers can be picked from
+	 * their dimensions before any pixel is decoded ({@link CoverInfo#read(File)} reads them from
+	 * the file header).
+	 * With compression on this is the limit for the deflated bytes, which are not known up front.
+	 * @param coverBytes cover bytes of an image, {@link CoverInfo#getCoverBytes()}
+	 * @return number of secret bytes that fit, -1 if not even an empty secret does
+	 */
+	public long capacity(long coverBytes) {
+		if (coverBytes < headerBytes())
+			return -1;
+		long usable = coverBytes - headerBytes();
+		if (scatterKey != null)
+			usable -= usable % ScatteredCover.UNIT;  // only whole units are scattered over
+		long hidden = usable * bitsPerChannel / 8;   // same rule as StegaHeader.fits
+		if (errorCorrection)
+			hidden = ReedSolomon.dataLength(hidden);
+		return cipher == null ? hidden : StegaCipher.plainLength(hidden);
+	}
+
+	/**
+	 * Inverse of {@link #capacity(long)}
+	 * @param length number of secret bytes (deflated bytes with compression on)
+	 * @return fewest cover bytes that hold them with the current settings
+	 */
+	public long coverBytesNeeded(long length) {
+		long hidden = cipher == null ? length : StegaCipher.encryptedLength(length);
+		if (errorCorrection)
+			hidden = ReedSolomon.encodedLength(hidden);
+		long usable = LsbKernel.coverBytes(hidden, bitsPerChannel);
+		if (scatterKey != null)
+			usable = (usable + ScatteredCover.UNIT - 1) / ScatteredCover.UNIT * ScatteredCover.UNIT;
+		return headerBytes() + usable;
+	}
+	
+	/**
+	 * @return cover bytes the header of a secret hidden with the current settings takes
+	 */
+	private int headerBytes() {
+		return errorCorrection ? StegaHeader.CORRECTED_COVER_BYTES : StegaHeader.COVER_BYTES;
+	}
+
+	/**
+	 * @param cover an image file
+	 * @return number of secret bytes it holds with the current settings, -1 if not even an empty
+	 * secret fits; only the header of the file is read
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public long capacity(File cover) throws IOException {
+		return capacity(CoverInfo.read(cover).getCoverBytes());
+	}
+
+	/**
+	 * @param header the header of a secret
+	 * @return the cipher to decrypt it with, null if it is not encrypted
+	 * @throws IllegalArgumentException if the secret is encrypted and there is no password
+	 */
+	private StegaCipher cipher(StegaHeader header) {
+		if (!header.isEncrypted())
+			return null;
+		if (cipher == null)
+			throw new IllegalArgumentException("The secret inside this cover image is encrypted, set the password to read it");
+		return cipher;
+	}
+	
+	/**
+	 * @param cover the cover a secret goes in
+	 * @return the cover to hide the secret in, by LSB matching if it is on and scattered if there is a key
+	 * @throws IllegalArgumentException if LSB matching is on with more than 1 bit per channel
+	 */
+	private LsbCover scatter(LsbCover cover) {
+		if (matching) {
+			if (bitsPerChannel != 1)
+				throw new IllegalArgumentException("LSB matching hides 1 bit per channel, not " + bitsPerChannel);
+			cover = new MatchingCover(cover, ThreadLocalRandom.current().nextLong());
+		}
+		return scatterKey == null ? cover : new ScatteredCover(cover, scatterKey, headerBytes());
+	}
+	
+	/**
+	 * @param cover the cover with a secret inside
+	 * @param header the header read from it
+	 * @return the cover to read the secret from, scattered if the header says so
+	 * @throws IllegalArgumentException if the secret is scattered and there is no key
+	 */
+	private LsbCover scatter(LsbCover cover, StegaHeader header) {
+		if (!header.isScattered())
+			return cover;
+		if (scatterKey == null)
+			throw new IllegalArgumentException("The secret inside this cover image is scattered with a key, set the key to read it");
+		return new ScatteredCover(cover, scatterKey, header.getCoverBytes());
+	}
+	
+	/**
+	 * Sets who is told how far encoding and decoding have got. Whether or not there is one, an
+	 * encode or decode stops between chunks with a CancellationException once the thread running
+	 * it is interrupted.
+	 * @param progressListener the listener, or null for none
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * Reports progress and stops if the thread doing the work was interrupted
+	 * @param done number of secret bytes hidden or revealed so far
+	 * @param total number of secret bytes in all, -1 if not known
+	 * @throws CancellationException if the thread was interrupted
+	 */
+	private void progress(long done, long total) {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Cancelled after " + done + " bytes");
+		if (progressListener != null)
+			progressListener.progress(done, total);
+	}
+	
+	/**
+	 * @return payload bytes handled between progress reports, enough to keep all cores busy
+	 */
+	private int chunkSize() {
+		if (!parallel)
+			return PROGRESS_CHUNK;
+		long chunk = 4L * minChunkSize * ForkJoinPool.getCommonPoolParallelism();
+		return (int) Math.max(PROGRESS_CHUNK, Math.min(chunk - chunk % 3, Integer.MAX_VALUE - 2));
+	}
 	
 	/**Converts an image to 3 bytes of blue, green, red each, respectively
 	 * @param bimg the bufferedimage to be converted to
 	 * @return new bufferedimage with color scheme (BGR) desired
 	 */
 	private BufferedImage convertToBGR(BufferedImage bimg) {
-		BufferedImage newImage = new BufferedImage(bimg.getWidth(), bimg.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-		Graphics g = newImage.getGraphics();
-		g.drawImage(bimg, 0, 0, null);
-		g.dispose();
-		return newImage;
+		return RasterCover.convertToBGR(bimg);
 	}
 	
 	/**
 	 * Hides the bytes in an image by grabbing the LSB in image byte and 
 	 * giving it the value of the corresponding bit.
-	 * @param bimg the image where the text will be hidden in
+	 * @param cover the image where the text will be hidden in
 	 * @param bytes the message/image to hide
-	 * @param offset how much offset there is in bimg array
-	 */
-	private void hideBytes(byte[] bimg, byte[] bytes, int offset) {
-		for (int i = 0; i < bytes.length; i++) {
-			int character = bytes[i];
-			for (int j = 7; j >= 0; j--) {  // 8 bits per character
-				// get corresponding bit
-				int bit = (character >> j) & 1;
-				
-				// get last image byte, set last bit to 0 ( AND 0xFE) then OR with bit
-				bimg[offset] = (byte) ((bimg[offset] & 0xFE) | bit);
-				offset++;
+	 * @param offset how much offset there is in the cover
+	 * @param bits how many low bits of each image byte to use
+	 */
+	private void hideBytes(LsbCover cover, byte[] bytes, long offset, int bits) {
+		// check first, a secret that does not fit must not be half hidden
+		if (offset + LsbKernel.coverBytes(bytes.length, bits) > cover.size())
+			throw new ArrayIndexOutOfBoundsException("Cover of " + cover.size() + " bytes cannot hold "
+					+ bytes.length + " bytes");
+		
+		byte[] direct = directBytes(cover);
+		int chunk = chunkSize();
+		for (int from = 0; from < bytes.length; from += chunk) {
+			int len = Math.min(chunk, bytes.length - from);
+			long at = offset + LsbKernel.coverBytes(from, bits);  // past 2 GB in a mapped cover
+			if (parallel && direct != null && len > minChunkSize && !(cover instanceof RasterCover))
+				accessParallel(true, cover, at, bytes, from, len, bits);
+			else if (parallel && direct != null && len > minChunkSize)
+				LsbKernel.embedParallel(direct, (int) at, bytes, from, len, bits, minChunkSize);
+			else
+				cover.embed(at, bytes, from, len, bits);
+			progress(from + len, bytes.length);
+		}
+	}
+	
+	/**
+	 * Retrieves the bytes hidden in an image by grabbing the LSB of each image byte
+	 * @param cover the image with the hidden bytes inside
+	 * @param bytes where to store the hidden bytes, filled completely
+	 * @param offset how much offset there is in the cover
+	 * @param bits how many low bits of each image byte were used
+	 */
+	private void revealBytes(LsbCover cover, byte[] bytes, long offset, int bits) {
+		byte[] direct = directBytes(cover);
+		int chunk = chunkSize();
+		for (int from = 0; from < bytes.length; from += chunk) {
+			int len = Math.min(chunk, bytes.length - from);
+			long at = offset + LsbKernel.coverBytes(from, bits);  // past 2 GB in a mapped cover
+			if (parallel && direct != null && len > minChunkSize && cover instanceof ScatteredCover)
+				accessParallel(false, cover, at, bytes, from, len, bits);
+			else if (parallel && direct != null && len > minChunkSize)
+				LsbKernel.extractParallel(direct, (int) at, bytes, from, len, bits, minChunkSize);
+			else
+				cover.extract(at, bytes, from, len, bits);
+			progress(from + len, bytes.length);
+		}
+	}
+	
+	/**
+	 * @param cover a cover, scattered or not, hidden in by LSB matching or not
+	 * @return the raster bytes of the image under it when they are the cover bytes themselves,
+	 * the only case where several threads can change the cover at once
+	 */
+	private static byte[] directBytes(LsbCover cover) {
+		if (cover instanceof ScatteredCover)
+			cover = ((ScatteredCover) cover).getCover();
+		if (cover instanceof MatchingCover)
+			cover = ((MatchingCover) cover).getCover();
+		return cover instanceof RasterCover ? ((RasterCover) cover).getDirectBytes() : null;
+	}
+	
+	/**
+	 * Embeds or extracts a range of a scattered secret, or one hidden by LSB matching, on all
+	 * cores. Each part is a whole number of scattered units for any bits per channel, so no two
+	 * threads touch the same cover bytes.
+	 * @param embed true to embed, false to extract
+	 * @param cover the scattered or matching cover
+	 * @param offset index of the first cover byte, as if the secret were not scattered
+	 * @param bytes the payload bytes
+	 * @param from index of the first payload byte
+	 * @param len how many payload bytes
+	 * @param bits how many low bits of each image byte are used
+	 */
+	private void accessParallel(final boolean embed, final LsbCover cover, long offset, final byte[] bytes,
+			int from, int len, final int bits) {
+		int unitsLcm = ScatteredCover.UNIT / 8 * 12;  // payload bytes in whole units for 1, 2, 3 and 4 bits
+		int part = Math.max(minChunkSize, len / (4 * ForkJoinPool.getCommonPoolParallelism()));
+		part = Math.max(unitsLcm, part - part % unitsLcm);
+		
+		List<Callable<Void>> parts = new ArrayList<Callable<Void>>();
+		for (int done = 0; done < len; done += part) {
+			final long at = offset + LsbKernel.coverBytes(done, bits);
+			final int start = from + done;
+			final int n = Math.min(part, len - done);
+			parts.add(new Callable<Void>() {
+				public Void call() {
+					if (embed)
+						cover.embed(at, bytes, start, n, bits);
+					else
+						cover.extract(at, bytes, start, n, bits);
+					return null;
+				}
+			});
+		}
+		
+		for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(parts)) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
 			}
 		}
 	}
@@ -69,18 +409,52 @@ public class Steganography {
 	}
 	
 	/**
-	 * Gets the bytes of an integer and stores them in a byte array
-	 * @param size the size of the byte array
-	 * @param number which integer to convert to bytes
-	 * @return byte array with number in bytes
+	 * Deflates bytes in memory
+	 * @param bytes the bytes to compress
+	 * @return the deflated bytes, zlib format
 	 */
-	private byte[] getBytesFromInt(int size, int number) {
-		byte[] b = new byte[size];
-		
-		for (int i = size-1, shift = 0; i >= 0; i--, shift += 8) 
-			b[i] = (byte) ((number & (0x000000FF << shift)) >> shift);
-		
-		return b;
+	private byte[] deflate(byte[] bytes) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+		try (OutputStream deflater = deflating(out)) {
+			deflater.write(bytes);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);  // not thrown by a ByteArrayOutputStream
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * @param out where the deflated bytes go
+	 * @return stream that deflates what is written to it, closing it closes out
+	 */
+	private OutputStream deflating(OutputStream out) {
+		return new DeflaterOutputStream(out, new Deflater(), 8192) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					def.end();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * @param in deflated bytes
+	 * @return stream of the inflated bytes, closing it closes in
+	 */
+	private InputStream inflating(InputStream in) {
+		return new InflaterInputStream(in, new Inflater(), 8192) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inf.end();
+				}
+			}
+		};
 	}
 	
 	/**
@@ -89,18 +463,12 @@ public class Steganography {
 	 * @return contents of .txt file in String
 	 */
 	public String getText(File file) {
-		Scanner scanner = null;
 		String text = "";
 		try {
-			scanner = new Scanner(file);
-			
-			while (scanner.hasNextLine()) 
-				text += scanner.nextLine() + "\n"; // add new line char to at end of every line
-			
-		} catch (FileNotFoundException e) {
-			System.err.println("Could not find file " + file);
-		} finally {
-			scanner.close();
+			// read the raw bytes so line endings are kept as they are in the file
+			text = new String(Files.readAllBytes(file.toPath()));
+		} catch (IOException e) {
+			System.err.println("Could not read file " + file);
 		}
 		
 		return text;
@@ -111,128 +479,774 @@ public class Steganography {
 	 * Encodes bytes into an image using the least significant bit (LSB) algorithm
 	 * @param bimg the image used to hide text in
 	 * @param message the text to be hidden
-	 * @return new image with the text embedded in it
+	 * @return image with the text embedded in it, bimg itself unless its layout had to be converted
 	 */
 	public BufferedImage encodeText(BufferedImage bimg, String message) {
-		byte[] bytes = message.getBytes();
-		byte[] messageLengthArray = getBytesFromInt(MESSAGE_LENGTH_BITS/8, bytes.length); // 8 bits per byte
-		byte[] imageArray = getImageBytes(bimg);
-		
-		// hide bytes in image
-		hideBytes(imageArray, messageLengthArray, 0);
-		hideBytes(imageArray, bytes, MESSAGE_LENGTH_BITS);
+		return encodeText(bimg, message, null);
+	}
+	
+	/**
+	 * Encodes bytes into an image, reusing the buffers of a context
+	 * @param bimg the image used to hide text in
+	 * @param message the text to be hidden
+	 * @param context buffers to reuse, null for none
+	 * @return image with the text embedded in it, bimg itself unless its layout had to be converted
+	 */
+	public BufferedImage encodeText(BufferedImage bimg, String message, StegaContext context) {
+		byte[] bytes = secretBytes(message);
+		RasterCover cover = wrap(bimg, context);
+		hide(cover, bytes, StegaHeader.TYPE_TEXT, 0, 0, context);
+		return cover.getImage();
+	}
+	
+	/**
+	 * Encodes text into any cover, such as a copy of a {@link CoverTemplate}
+	 * @param cover the cover used to hide text in
+	 * @param message the text to be hidden
+	 */
+	public void encodeText(LsbCover cover, String message) {
+		hide(cover, secretBytes(message), StegaHeader.TYPE_TEXT, 0, 0, null);
+	}
+	
+	/**
+	 * @param message text to hide
+	 * @return its bytes, deflated if compression is on
+	 */
+	byte[] secretBytes(String message) {
+		return secretBytes(message.getBytes());
+	}
+	
+	/**
+	 * @param bytes bytes of a secret
+	 * @return the same, deflated if compression is on
+	 */
+	private byte[] secretBytes(byte[] bytes) {
+		return compression ? deflate(bytes) : bytes;
+	}
+
+	/**
+	 * Opens a stream that hides everything written to it as text in a cover, such as a 
+	 * memory mapped {@link MappedCover}. The header goes in when the stream is closed; with 
+	 * compression on the text is deflated as it is written. With error correction on the text is
+	 * kept until the stream is closed and hidden then.
+	 * @param cover the cover used to hide text in
+	 * @param length how many bytes will be written, or -1 if not known until the stream is closed
+	 * @return stream to write the text to, must be closed to finish encoding
+	 * @throws ArrayIndexOutOfBoundsException if the cover is too small for length bytes
+	 */
+	public OutputStream openTextOutput(final LsbCover cover, long length) {
+		if (errorCorrection) {
+			if (!compression && length >= 0 && coverBytesNeeded(length) > cover.size())
+				throw new ArrayIndexOutOfBoundsException("Cover of " + cover.size() + " bytes cannot hold "
+						+ length + " bytes");
+			// the parity is worked out over the whole secret
+			return new ByteArrayOutputStream() {
+				private boolean closed = false;
 				
-		return bimg;
+				@Override
+				public void close() {
+					if (closed)
+						return;
+					closed = true;
+					hide(cover, secretBytes(toByteArray()), StegaHeader.TYPE_TEXT, 0, 0, null);
+				}
+			};
+		}
+		if (compression || length < 0)
+			length = -1;
+		else if (cipher != null)
+			length = StegaCipher.encryptedLength(length);
+		OutputStream out = new StegaOutputStream(scatter(cover), header(null, StegaHeader.TYPE_TEXT, length, 0, 0, 0));
+		
+		// deflate first, encrypted bytes do not compress
+		if (cipher != null)
+			out = cipher.encrypting(out);
+		return compression ? deflating(out) : out;
+	}
+	
+	/**
+	 * Encodes text read from a stream into an image, a buffer at a time
+	 * @param bimg the image used to hide text in
+	 * @param in the text to be hidden, read until the end of the stream
+	 * @param length how many bytes in has, or -1 if not known
+	 * @return image with the text embedded in it, bimg itself unless its layout had to be converted
+	 * @throws IOException if in cannot be read or does not have length bytes
+	 */
+	public BufferedImage encodeText(BufferedImage bimg, InputStream in, long length) throws IOException {
+		RasterCover cover = RasterCover.wrap(bimg);
+		encodeText(cover, in, length);
+		return cover.getImage();
+	}
+	
+	/**
+	 * Encodes text read from a stream into a cover, a buffer at a time
+	 * @param cover the cover used to hide text in
+	 * @param in the text to be hidden, read until the end of the stream
+	 * @param length how many bytes in has, or -1 if not known
+	 * @throws IOException if in cannot be read or does not have length bytes
+	 */
+	public void encodeText(LsbCover cover, InputStream in, long length) throws IOException {
+		OutputStream out = openTextOutput(cover, length);
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		int n;
+		
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			total += n;
+			progress(total, length);
+		}
+		if ((compression || cipher != null || errorCorrection) && length >= 0 && total != length)
+			throw new IOException("Secret is " + total + " bytes but " + length + " were declared");
+		out.close();
+	}
+	
+	/**
+	 * Encodes text read from a channel (a FileChannel for example) into an image
+	 * @param bimg the image used to hide text in
+	 * @param channel the text to be hidden, read until the end of the channel
+	 * @param length how many bytes channel has, or -1 if not known
+	 * @return image with the text embedded in it, bimg itself unless its layout had to be converted
+	 * @throws IOException if channel cannot be read or does not have length bytes
+	 */
+	public BufferedImage encodeText(BufferedImage bimg, ReadableByteChannel channel, long length) throws IOException {
+		return encodeText(bimg, Channels.newInputStream(channel), length);
 	}
 
 	/**
 	 * Hides an image within another image using LSB algorithm
 	 * @param cover the bufferedimage used to disguise image
 	 * @param secret the bufferedimage to be hidden
-	 * @return new bufferedimage with contents of secret image embedded in cover image
+	 * @return bufferedimage with contents of secret image embedded in cover image, cover itself
+	 * unless its layout had to be converted
 	 */
 	public BufferedImage encodeImage(BufferedImage cover, BufferedImage secret) {
+		return encodeImage(cover, secret, null);
+	}
+	
+	/**
+	 * Hides an image within another image, reusing the buffers of a context. Without compression,
+	 * encryption or parallelism, hiding a 3 byte BGR image in the same cover again allocates nothing.
+	 * @param cover the bufferedimage used to disguise image
+	 * @param secret the bufferedimage to be hidden
+	 * @param context buffers to reuse, null for none
+	 * @return bufferedimage with contents of secret image embedded in cover image, cover itself
+	 * unless its layout had to be converted
+	 */
+	public BufferedImage encodeImage(BufferedImage cover, BufferedImage secret, StegaContext context) {
+		byte[] bytes = secretBytes(secret, context);
+		RasterCover raster = wrap(cover, context);
+		hide(raster, bytes, StegaHeader.TYPE_IMAGE, secret.getWidth(), secret.getHeight(), context);
+		return raster.getImage();
+	}
+	
+	/**
+	 * Hides an image within any cover, such as a copy of a {@link CoverTemplate}
+	 * @param cover the cover used to disguise image
+	 * @param secret the bufferedimage to be hidden
+	 */
+	public void encodeImage(LsbCover cover, BufferedImage secret) {
+		hide(cover, secretBytes(secret, null), StegaHeader.TYPE_IMAGE, secret.getWidth(), secret.getHeight(), null);
+	}
+	
+	/**
+	 * @param secret an image to hide
+	 * @param context buffers to reuse, null for none
+	 * @return its bytes as 3 byte BGR, deflated if compression is on
+	 */
+	byte[] secretBytes(BufferedImage secret, StegaContext context) {
 		int height = secret.getHeight();
 		int width = secret.getWidth();
-		byte[] bytes = getImageBytes(secret);
-
-		// get byte array for width, height, and message (8 bytes = 1 bit)
-		byte[] widthArray = getBytesFromInt(WIDTH_BITS/8, width);
-		byte[] heightArray = getBytesFromInt(HEIGHT_BITS/8, height);
-		byte[] messageLengthArray = getBytesFromInt(MESSAGE_LENGTH_BITS/8, bytes.length);
 		
-		byte[] imageArray = getImageBytes(cover);
+		// the secret is always hidden as 3 byte BGR, whatever layout it was read in
+		if (secret.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			if (context == null) {
+				secret = convertToBGR(secret);
+			} else {
+				BufferedImage bgr = context.image(width, height);
+				Graphics g = bgr.getGraphics();
+				g.drawImage(secret, 0, 0, null);
+				g.dispose();
+				secret = bgr;
+			}
+		}
+		return secretBytes(getImageBytes(secret));
+	}
+	
+	/**
+	 * Hides a secret held in memory after the header, then the header once it is known to fit
+	 * @param cover the cover to hide the secret in
+	 * @param bytes the secret, deflated already if compression is on
+	 * @param type StegaHeader.TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @param width width of a hidden image, 0 for text
+	 * @param height height of a hidden image, 0 for text
+	 * @param context buffers to reuse, null for none
+	 */
+	private void hide(LsbCover cover, byte[] bytes, int type, int width, int height, StegaContext context) {
+		if (cipher == null || errorCorrection) {
+			// the parity goes on what is hidden, so a secret is encrypted first, in one go
+			if (cipher != null)
+				bytes = encrypt(bytes);
+			if (errorCorrection)
+				bytes = ReedSolomon.encode(bytes);
+			LsbCover target = scatter(cover);
+			hideBytes(target, bytes, headerBytes(), bitsPerChannel);
+			header(context, type, bytes.length, width, height, checksum(bytes, context)).write(target, context);
+			return;
+		}
+		
+		// encrypted a chunk at a time on its way into the cover, the stream writes the header on close
+		StegaHeader header = header(context, type, StegaCipher.encryptedLength(bytes.length), width, height, 0);
+		try (OutputStream out = cipher.encrypting(new StegaOutputStream(scatter(cover), header))) {
+			for (int from = 0; from < bytes.length; from += PROGRESS_CHUNK) {
+				int len = Math.min(PROGRESS_CHUNK, bytes.length - from);
+				out.write(bytes, from, len);
+				progress(from + len, bytes.length);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);  // the length written is the length declared
+		}
+	}
+	
+	/**
+	 * @param bytes a secret
+	 * @return the secret encrypted with the password, as the stream of the cipher would hide it
+	 */
+	private byte[] encrypt(byte[] bytes) {
+		ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+		try (OutputStream out = cipher.encrypting(sealed)) {
+			out.write(bytes);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);  // writing to memory does not fail
+		}
+		return sealed.toByteArray();
+	}
+	
+	/**
+	 * Hides one shard of a secret split over several covers, see {@link StegaShards}. It is
+	 * not deflated again, the whole secret was.
+	 * @param cover the cover the shard goes in
+	 * @param bytes the manifest of the shard and its part of the secret
+	 */
+	void hideShard(LsbCover cover, byte[] bytes) {
+		hide(cover, bytes, StegaHeader.TYPE_SHARD, 0, 0, null);
+	}
+	
+	/**
+	 * @param cover a cover with a shard of a secret inside
+	 * @return the manifest of the shard and its part of the secret, decrypted
+	 * @throws IllegalArgumentException if there is no shard in the cover or it is corrupt
+	 */
+	byte[] revealShard(LsbCover cover) {
+		StegaHeader header = readHeader(cover, StegaHeader.TYPE_SHARD);
+		if (header.getLength() > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Shard of " + header.getLength() + " bytes is too large");
+		if (header.isEncrypted() || header.isErrorCorrected()) {
+			try (InputStream in = reveal(new StegaInputStream(scatter(cover, header), header))) {
+				return in.readAllBytes();
+			} catch (IOException e) {
+				throw corrupt(header, e);
+			}
+		}
+		
+		byte[] bytes = new byte[(int) header.getLength()];
+		revealBytes(scatter(cover, header), bytes, header.getCoverBytes(), header.getBits());
+		verify(header, bytes, null);
+		return bytes;
+	}
+	
+	/**
+	 * @return true if secrets are deflated before they are hidden
+	 */
+	boolean isCompression() {
+		return compression;
+	}
+	
+	/**
+	 * @param bytes a secret deflated by secretBytes
+	 * @return the secret inflated
+	 * @throws IOException if the bytes are not deflated
+	 */
+	byte[] inflate(byte[] bytes) throws IOException {
+		try (InputStream in = inflating(new ByteArrayInputStream(bytes))) {
+			return in.readAllBytes();
+		}
+	}
+	
+	/**
+	 * @param bimg the image to wrap
+	 * @param context buffers to reuse, null for none
+	 * @return cover over the raster of bimg, or of a converted copy
+	 */
+	private RasterCover wrap(BufferedImage bimg, StegaContext context) {
+		return context == null ? RasterCover.wrap(bimg) : context.cover(bimg);
+	}
+	
+	/**
+	 * @param context buffers to reuse, null for none
+	 * @param type StegaHeader.TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @param length number of hidden bytes
+	 * @param width width of a hidden image, 0 for text
+	 * @param height height of a hidden image, 0 for text
+	 * @param crc CRC32C of the hidden bytes
+	 * @return header for a secret hidden with the current settings, the last one of the context if the same
+	 */
+	private StegaHeader header(StegaContext context, int type, long length, int width, int height, int crc) {
+		boolean compressed = compression && type != StegaHeader.TYPE_SHARD;
+		boolean scattered = scatterKey != null;
+		boolean encrypted = cipher != null;
+		if (context == null)
+			return new StegaHeader(type, bitsPerChannel, compressed, scattered, encrypted, errorCorrection, length,
+					width, height, crc);
+		return context.header(type, bitsPerChannel, compressed, scattered, encrypted, errorCorrection, length,
+				width, height, crc);
+	}
+	
+	/**
+	 * @param bytes the hidden bytes
+	 * @param context checksum to reuse, null for none
+	 * @return CRC32C of all of bytes
+	 */
+	private int checksum(byte[] bytes, StegaContext context) {
+		return context == null ? StegaHeader.checksum(bytes, 0, bytes.length) : context.checksum(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Reads the header of the secret hidden in an image without reading the secret. Images 
+	 * without a secret are rejected after reading a few bytes.
+	 * @param bimg the image that may hold a secret
+	 * @return the header of the secret
+	 * @throws IllegalArgumentException if there is no secret in the image
+	 */
+	public StegaHeader readHeader(BufferedImage bimg) {
+		return StegaHeader.read(RasterCover.wrap(bimg));
+	}
+	
+	/**
+	 * Reads the header at the start of a cover and checks it holds the expected type of secret
+	 * @param cover the cover with the secret inside
+	 * @param type StegaHeader.TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @return the header found
+	 * @throws IllegalArgumentException if there is no secret of that type
+	 */
+	private StegaHeader readHeader(LsbCover cover, int type) {
+		return readHeader(cover, type, null);
+	}
+	
+	/**
+	 * Reads the header at the start of a cover into the buffers of a context and checks it 
+	 * holds the expected type of secret
+	 * @param cover the cover with the secret inside
+	 * @param type StegaHeader.TYPE_TEXT, TYPE_IMAGE or TYPE_SHARD
+	 * @param context buffers to reuse, null for none
+	 * @return the header found
+	 * @throws IllegalArgumentException if there is no secret of that type
+	 */
+	private StegaHeader readHeader(LsbCover cover, int type, StegaContext context) {
+		StegaHeader header = StegaHeader.read(cover, context);
+		if (header.getType() == type)
+			return header;
+		if (header.getType() == StegaHeader.TYPE_SHARD)
+			throw new IllegalArgumentException("This cover image holds one shard of a secret split over several"
+					+ " cover images, decode them together");
+		if (type == StegaHeader.TYPE_SHARD)
+			throw new IllegalArgumentException("This cover image holds a whole secret, not a shard");
+		throw new IllegalArgumentException(type == StegaHeader.TYPE_TEXT
+				? "This cover image holds an image, not text" : "This cover image holds text, not an image");
+	}
+	
+	/**
+	 * Checks the bytes read in one go match the checksum in the header
+	 * @param header the header of the secret
+	 * @param bytes the hidden bytes
+	 * @param context checksum to reuse, null for none
+	 * @throws IllegalArgumentException if the secret is corrupt
+	 */
+	private void verify(StegaHeader header, byte[] bytes, StegaContext context) {
+		if (checksum(bytes, context) != header.getCrc())
+			throw corrupt(header, null);
+	}
+	
+	/**
+	 * @param header the header of the secret
+	 * @param cause why the secret could not be read, null if its checksum did not match
+	 * @return exception saying the secret is corrupt, or that the key or password may be wrong
+	 */
+	private static IllegalArgumentException corrupt(StegaHeader header, Throwable cause) {
+		String message = "The secret inside this cover image is corrupt";
+		if (header.isScattered() && header.isEncrypted())
+			message += " or the key or password is wrong";
+		else if (header.isScattered())
+			message += " or the key is wrong";
+		else if (header.isEncrypted())
+			message += " or the password is wrong";
+		return new IllegalArgumentException(message, cause);
+	}
+	
+	/**
+	 * @param hidden stream of the hidden bytes
+	 * @return stream of the secret, corrected, decrypted and inflated as the header says
+	 * @throws IllegalArgumentException if the secret is encrypted and there is no password, or
+	 * it has too many wrong bytes to be corrected
+	 */
+	private InputStream reveal(StegaInputStream hidden) {
+		StegaHeader header = hidden.getHeader();
+		StegaCipher decrypter = cipher(header);
+		InputStream in = hidden;
+		if (header.isErrorCorrected()) {
+			byte[] bytes = correct(hidden.getCover(), header);
+			in = new ByteArrayInputStream(bytes, 0, (int) ReedSolomon.dataLength(bytes.length));
+		}
+		in = decrypter == null ? in : decrypter.decrypting(in);
+		return header.isCompressed() ? inflating(in) : in;
+	}
+	
+	/**
+	 * Reads all the hidden bytes of a secret with error correction and corrects them
+	 * @param cover the cover with the secret inside, scattered if the secret is
+	 * @param header the header read from it
+	 * @return the hidden bytes corrected, the secret (deflated and/or encrypted bytes) then its parity
+	 * @throws IllegalArgumentException if the secret is too large to correct in memory or has
+	 * too many wrong bytes
+	 */
+	private byte[] correct(LsbCover cover, StegaHeader header) {
+		if (header.getLength() > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Secret of " + header.getLength() + " bytes is too large to correct");
+		byte[] bytes = new byte[(int) header.getLength()];
+		revealBytes(cover, bytes, header.getCoverBytes(), header.getBits());
+		int length = (int) ReedSolomon.dataLength(bytes.length);
+		
+		// the checksum tells an untouched secret apart without working out any parity
+		if (checksum(bytes, null) != header.getCrc()) {
+			try {
+				ReedSolomon.correct(bytes, length);
+			} catch (IOException e) {
+				throw corrupt(header, e);
+			}
+			verify(header, bytes, null);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Opens a stream over the text hidden in an image, decrypted and inflated if need be. The text
+	 * is read a buffer at a time so it can be piped somewhere else without loading all of it.
+	 * @param bimg the image with the hidden text inside
+	 * @return stream of the bytes of the hidden text
+	 * @throws IllegalArgumentException if there is no text hidden in the image
+	 */
+	public InputStream readText(BufferedImage bimg) {
+		return readText(RasterCover.wrap(bimg));
+	}
+	
+	/**
+	 * Opens a stream over the text hidden in a cover, decrypted and inflated if need be
+	 * @param cover the cover with the hidden text inside
+	 * @return stream of the bytes of the hidden text
+	 * @throws IllegalArgumentException if there is no text hidden in the cover
+	 */
+	public InputStream readText(LsbCover cover) {
+		return reveal(openText(cover));
+	}
+	
+	/**
+	 * Opens a stream over the bytes hidden as text in an image, as they were hidden (deflated if
+	 * compression was on)
+	 * @param bimg the image with the hidden text inside
+	 * @return stream of the hidden bytes, with their header
+	 * @throws IllegalArgumentException if there is no text hidden in the image
+	 */
+	public StegaInputStream openText(BufferedImage bimg) {
+		return openText(RasterCover.wrap(bimg));
+	}
+	
+	/**
+	 * Opens a stream over the bytes hidden as text in a cover, such as a memory mapped 
+	 * {@link MappedCover}, as they were hidden (deflated if compression was on)
+	 * @param cover the cover with the hidden text inside
+	 * @return stream of the hidden bytes, with their header
+	 * @throws IllegalArgumentException if there is no text hidden in the cover
+	 */
+	public StegaInputStream openText(LsbCover cover) {
+		StegaHeader header = readHeader(cover, StegaHeader.TYPE_TEXT);
+		return new StegaInputStream(scatter(cover, header), header);
+	}
+	
+	/**
+	 * Opens a stream over the bytes (BGR order) of an image hidden in another image
+	 * @param bimg the image with the hidden image inside
+	 * @return stream of the hidden image bytes, with the header holding its width and height
+	 * @throws IllegalArgumentException if there is no image hidden in bimg
+	 */
+	public StegaInputStream openImage(BufferedImage bimg) {
+		return openImage(RasterCover.wrap(bimg));
+	}
+	
+	/**
+	 * Opens a stream over the bytes (BGR order) of an image hidden in a cover
+	 * @param cover the cover with the hidden image inside
+	 * @return stream of the hidden image bytes, with the header holding its width and height
+	 * @throws IllegalArgumentException if there is no image hidden in the cover
+	 */
+	public StegaInputStream openImage(LsbCover cover) {
+		StegaHeader header = readHeader(cover, StegaHeader.TYPE_IMAGE);
+		return new StegaInputStream(scatter(cover, header), header);
+	}
+	
+	/**
+	 * Opens a reader for any part of the secret hidden in an image, see {@link StegaReader}
+	 * @param bimg the image with the secret inside
+	 * @return reader over the bytes of the secret, decrypted if need be
+	 * @throws IllegalArgumentException if there is no secret in the image or it is deflated
+	 */
+	public StegaReader openReader(BufferedImage bimg) {
+		return openReader(RasterCover.wrap(bimg));
+	}
+	
+	/**
+	 * Opens a reader for any part of the secret hidden in a cover, see {@link StegaReader}
+	 * @param cover the cover with the secret inside
+	 * @return reader over the bytes of the secret, decrypted if need be
+	 * @throws IllegalArgumentException if there is no secret in the cover or it is deflated
+	 */
+	public StegaReader openReader(LsbCover cover) {
+		return openReader(cover, StegaHeader.read(cover), null);
+	}
+	
+	/**
+	 * Opens a reader for any part of the secret hidden in an image file, decoding only the rows
+	 * of the image that hold the parts read ({@link FileCover}). A scattered secret is spread
+	 * over all rows, so the whole image is decoded once for it.
+	 * @param file the image file with the secret inside
+	 * @return reader over the bytes of the secret, decrypted if need be, to be closed
+	 * @throws IOException if the file cannot be read or is not an image
+	 * @throws IllegalArgumentException if there is no secret in the image or it is deflated
+	 */
+	public StegaReader openReader(File file) throws IOException {
+		FileCover cover = new FileCover(file);
+		try {
+			StegaHeader header = StegaHeader.read(cover);
+			if (header.isScattered())
+				cover.decodeAll();
+			return openReader(cover, header, cover);
+		} catch (UncheckedIOException e) {
+			cover.close();
+			throw e.getCause();
+		} catch (IOException | RuntimeException e) {
+			cover.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @param cover the cover with the secret inside
+	 * @param header the header read from it
+	 * @param file closed with the reader, null for none
+	 * @return reader over the bytes of the secret
+	 * @throws IllegalArgumentException if the secret is deflated, or the key or password is missing
+	 */
+	private StegaReader openReader(LsbCover cover, StegaHeader header, FileCover file) {
+		if (header.isCompressed())
+			throw new IllegalArgumentException("The secret inside this cover image is deflated, it can only be read from the start");
+		return new StegaReader(scatter(cover, header), header, cipher(header), file);
+	}
+	
+	/**
+	 * Copies the text hidden in an image to a stream, using a small fixed buffer
+	 * @param bimg the image with the hidden text inside
+	 * @param out where the hidden text is written to
+	 * @return number of bytes written
+	 * @throws IOException if out cannot be written or the text is corrupt
+	 */
+	public long decodeText(BufferedImage bimg, OutputStream out) throws IOException {
+		return decodeText(RasterCover.wrap(bimg), out);
+	}
+	
+	/**
+	 * Copies the text hidden in a cover to a stream, using a small fixed buffer
+	 * @param cover the cover with the hidden text inside
+	 * @param out where the hidden text is written to
+	 * @return number of bytes written
+	 * @throws IOException if out cannot be written or the text is corrupt
+	 */
+	public long decodeText(LsbCover cover, OutputStream out) throws IOException {
+		StegaInputStream hidden = openText(cover);
+		InputStream in = reveal(hidden);
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		int n;
 		
-		// hide bytes with offset of previous bit lengths added up
-		hideBytes(imageArray, messageLengthArray, 0); 
-		hideBytes(imageArray, widthArray, MESSAGE_LENGTH_BITS);   
-		hideBytes(imageArray, heightArray, MESSAGE_LENGTH_BITS + WIDTH_BITS);      
-		hideBytes(imageArray, bytes, MESSAGE_LENGTH_BITS + WIDTH_BITS + HEIGHT_BITS);
+		// progress counts hidden bytes, the inflated or decrypted length is not known up front
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			total += n;
+			progress(hidden.getPosition(), hidden.getLength());
+		}
 		
-		return cover;
+		return total;
 	}
 	
 	/**
 	 * Retrieves hidden image inside another image using LSB algorithm
 	 * @param bimg the bufferedimage with hidden image inside
 	 * @return bufferedimage that was encoded in bimg
+	 * @throws IllegalArgumentException if there is no image hidden in bimg
 	 */
 	public BufferedImage decodeImage(BufferedImage bimg) {
-		byte[] imageArray = getImageBytes(bimg);
-		int length = 0, height = 0, width = 0;
-		
-		// loop through all encoded length bits and store value in corresponding variable
-		for (int i = 0; i < (MESSAGE_LENGTH_BITS + WIDTH_BITS + HEIGHT_BITS); i++) {
-			if (i < MESSAGE_LENGTH_BITS) 
-				length = (length << 1) | (imageArray[i] & 1);
-			else if (i < MESSAGE_LENGTH_BITS + WIDTH_BITS) 
-				width = (width << 1) | (imageArray[i] & 1);
-			else             
-				height = (height << 1) | (imageArray[i] & 1);
-		}
+		return decodeImage(bimg, null);
+	}
+	
+	/**
+	 * Retrieves hidden image inside another image, reusing the buffers of a context. The image
+	 * returned belongs to the context and is overwritten by the next decode of the same size
+	 * with it. Without compression, encryption or parallelism, decoding a secret of the same size again 
+	 * allocates nothing.
+	 * @param bimg the bufferedimage with hidden image inside
+	 * @param context buffers to reuse, null for none
+	 * @return bufferedimage that was encoded in bimg
+	 * @throws IllegalArgumentException if there is no image hidden in bimg
+	 */
+	public BufferedImage decodeImage(BufferedImage bimg, StegaContext context) {
+		RasterCover cover = wrap(bimg, context);
+		StegaHeader header = readHeader(cover, StegaHeader.TYPE_IMAGE, context);
+		int width = header.getWidth();
+		int height = header.getHeight();
 		
-		byte[] result = new byte[length];
+		// length was checked against the size of the cover when opening, an inflated size was not
+		if (3L * width * height > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Secret image of " + width + "x" + height + " is too large");
 		
-		// skip all encoded lengths (message_length, width and height bits)
-		int index = MESSAGE_LENGTH_BITS + WIDTH_BITS + HEIGHT_BITS;
+		// the hidden bytes are the raster of a 3 byte BGR image, so they go straight into one
+		BufferedImage b = context == null ? new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR)
+				: context.image(width, height);
+		byte[] result = getImageBytes(b);
 		
-		// loop til length of message and grab each LSB from image
-		for (int i = 0; i < result.length; i++) {
-			for (int j = 0; j < 8; j++) { // each bit
-				// shift by 1 and grab last bit of next image byte
-				result[i] = (byte) ((result[i] << 1) | (imageArray[index] & 1));
-				index++;
+		if (header.isCompressed() || header.isEncrypted() || header.isErrorCorrected()) {
+			StegaInputStream in = new StegaInputStream(scatter(cover, header), header);
+			// reading to the end also checks the checksum
+			try (DataInputStream revealed = new DataInputStream(reveal(in))) {
+				for (int n = 0; n < result.length; n += PROGRESS_CHUNK) {
+					revealed.readFully(result, n, Math.min(PROGRESS_CHUNK, result.length - n));
+					progress(in.getPosition(), in.getLength());
+				}
+				if (revealed.read() != -1)
+					throw new IOException("Secret image has extra bytes");
+			} catch (IOException e) {
+				throw corrupt(header, e);
 			}
+		} else {
+			// grab the low bits of each image byte after the header, 8 / bits image bytes per byte
+			revealBytes(scatter(cover, header), result, header.getCoverBytes(), header.getBits());
+			verify(header, result, context);
 		}
 		
-		// swap blue with red to follow RGB sequence from BGR
-		for (int i = 0; i < result.length; i+=3) {
-			byte temp = result[i];
-			result[i] = result[i+2];
-			result[i+2] = temp;
-		}
-		
-		// create image
-		BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-		WritableRaster raster = b.getRaster();
-		raster.setDataElements(0, 0, width, height, result);
-		
 		return b;
 	}
 	
+	/**
+	 * Retrieves the image hidden inside another image and writes it as PNG a row at a time,
+	 * so the secret image is never held in memory. The checksum is verified when the last row
+	 * is read; a corrupt secret leaves a PNG with wrong pixels in out.
+	 * @param bimg the bufferedimage with hidden image inside
+	 * @param png the writer with the compression settings to use
+	 * @param out where the PNG goes, not closed
+	 * @return the header of the hidden image, with its width and height
+	 * @throws IOException if out cannot be written
+	 * @throws IllegalArgumentException if there is no image hidden in bimg or it is corrupt
+	 */
+	public StegaHeader decodeImage(BufferedImage bimg, PngWriter png, OutputStream out) throws IOException {
+		final StegaInputStream hidden = openImage(bimg);
+		final StegaHeader header = hidden.getHeader();
+		final DataInputStream in = new DataInputStream(reveal(hidden));
+		final int rowBytes = 3 * header.getWidth();
+		if (rowBytes <= 0)
+			throw new IllegalArgumentException("Secret image " + header.getWidth() + " pixels wide is too large");
+		
+		try {
+			png.write(header.getWidth(), header.getHeight(), 2, new PngWriter.RowSource() {
+				public void getRow(int y, byte[] row) {
+					try {
+						in.readFully(row, 0, rowBytes);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					progress(hidden.getPosition(), hidden.getLength());
+					
+					// the row was hidden as blue, green, red and PNG wants red, green, blue
+					for (int i = 0; i < rowBytes; i += 3) {
+						byte temp = row[i];
+						row[i] = row[i + 2];
+						row[i + 2] = temp;
+					}
+				}
+			}, out);
+			
+			// nothing may be left once all rows are read
+			try {
+				if (in.read() != -1)
+					throw new IOException("Secret image has extra bytes");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} catch (UncheckedIOException e) {
+			// reading the hidden rows failed, writing out did not
+			throw corrupt(header, e.getCause());
+		} finally {
+			in.close();
+		}
+		return header;
+	}
+	
 	/**
 	 * Gets the hidden text from an image using LSB algorithm
 	 * @param bimg the image with the hidden text inside
 	 * @return the hidden text
+	 * @throws IllegalArgumentException if there is no text hidden in the image
 	 */
 	public String decodeText(BufferedImage bimg) {
-		byte[] imageArray = getImageBytes(bimg);
-		
-		int length = 0;
-		
-		// get length stored in messgae_length_bits
-		for (int i = 0; i < MESSAGE_LENGTH_BITS; i++) {
-			length = (length << 1) | (imageArray[i] & 1);
-		}
-		
-		byte[] result = new byte[length];
-		int index = MESSAGE_LENGTH_BITS; // skip bits for length of message
-
-		// loop til length of message and grab each LSB from image
-		for (int i = 0; i < result.length; i++) {
-			for (int j = 0; j < 8; j++) { // each bit
-				// shift by 1 and grab last bit of next image byte
-				result[i] = (byte) ((result[i] << 1) | (imageArray[index] & 1));
-				index++;
+		return decodeText(bimg, (StegaContext) null);
+	}
+	
+	/**
+	 * Gets the hidden text from an image, reusing the buffers of a context. The hidden bytes are
+	 * read into a pooled buffer, but the String made from them is a new copy every time, so unlike
+	 * {@link #decodeImage(BufferedImage, StegaContext)} this always allocates the text; use
+	 * {@link #decodeText(LsbCover, OutputStream)} to have the bytes without one.
+	 * @param bimg the image with the hidden text inside
+	 * @param context buffers to reuse, null for none
+	 * @return the hidden text
+	 * @throws IllegalArgumentException if there is no text hidden in the image
+	 */
+	public String decodeText(BufferedImage bimg, StegaContext context) {
+		RasterCover cover = wrap(bimg, context);
+		StegaHeader header = readHeader(cover, StegaHeader.TYPE_TEXT, context);
+		if (header.isCompressed() || header.isEncrypted()) {
+			ByteArrayOutputStream text = new ByteArrayOutputStream();
+			try {
+				decodeText(cover, text);
+			} catch (IOException e) {
+				throw corrupt(header, e);
 			}
+			return new String(text.toByteArray());
+		}
+		if (header.isErrorCorrected()) {
+			byte[] bytes = correct(scatter(cover, header), header);
+			return new String(bytes, 0, (int) ReedSolomon.dataLength(bytes.length));
 		}
 		
-		String message = "";
-		// convert to string
-		for (byte b : result)
-			message += (char)b;
+		// length was checked against the size of the cover when opening, not against the heap
+		if (header.getLength() > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Secret text of " + header.getLength() 
+					+ " bytes is too large for a String, use readText");
+		int length = (int) header.getLength();
+		byte[] result = context == null ? new byte[length] : context.buffer(length);
+
+		// grab the low bits of each image byte after the header, 8 / bits image bytes per byte
+		revealBytes(scatter(cover, header), result, header.getCoverBytes(), header.getBits());
+		verify(header, result, context);
 		
-		return message;
+		// same charset encodeText used to get the bytes
+		return new String(result);
 	}
 	
 	
@@ -246,7 +1260,8 @@ public class Steganography {
 			File txtFile = new File("text.txt");
 			String message = stega.getText(txtFile);
 			BufferedImage encodedText = stega.encodeText(original, message);
-			ImageIO.write(encodedText,"png", new File("encodedText.png"));
+			PngWriter png = new PngWriter();
+			png.write(encodedText, new File("encodedText.png"));
 			System.out.println("-> Finished encoding text into image!");
 			
 			// try decoding text in image
@@ -257,12 +1272,12 @@ public class Steganography {
 			// try encoding image in image
 			BufferedImage secret = stega.convertToBGR(ImageIO.read(new File("secret.png")));
 			BufferedImage encodedImage = stega.encodeImage(original, secret);
-			ImageIO.write(encodedImage, "png", new File("encodedImage.png"));
+			png.write(encodedImage, new File("encodedImage.png"));
 			System.out.println("-> Finished encoding image in image!");
 			
 			// try decoding image from image
 			BufferedImage decoded = stega.decodeImage(encodedImage);
-			ImageIO.write(decoded, "png", new File("decodedImage.png"));
+			png.write(decoded, new File("decodedImage.png"));
 			System.out.println("-> Finished decoding image in image!");
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
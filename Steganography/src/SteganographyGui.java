@@ -7,29 +7,44 @@ import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
 import javax.swing.LayoutStyle;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import java.util.Enumeration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Provides a graphical user interface (GUI) for steganography. User can click what they would 
  * want to do (either decode an image from an image, decode text from an image, encode text into 
  * an image or encode an image into another image). User then chooses the PNG image(s) and/or text
- * and then the encoding or decoding process begins.
+ * and then the encoding or decoding process begins. The work runs in the background with a progress
+ * bar and can be cancelled, so the window stays responsive with large images.
  * @author UlisesM
  */
 public class SteganographyGui extends JFrame implements ActionListener {
@@ -43,10 +58,22 @@ public class SteganographyGui extends JFrame implements ActionListener {
     private JRadioButton encodeTextRadio;
     private JRadioButton decodeTextRadio;
     private JButton mainButton;  // button where magic happens (either to encode or decode)
+    private JButton cancelButton;    // stops the encode/decode running in the background
+    private JProgressBar progressBar;    // bytes of the secret hidden/revealed so far
     private JButton secretButton;// to choose secret image / text file
     private JLabel secretLabel;
     private JTextField secretTextField; // display path of secret image or text file
     private Steganography stega;
+    private Task<?> worker;      // encode/decode running in the background, null if none
+    
+    // reads the secret image while the cover is read by the worker
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    	public Thread newThread(Runnable r) {
+    		Thread thread = new Thread(r, "Secret reader");
+    		thread.setDaemon(true);
+    		return thread;
+    	}
+    });
 
     // action commands
     private final String ON = "ON";
@@ -54,6 +81,7 @@ public class SteganographyGui extends JFrame implements ActionListener {
     private final String FILE1 = "FILE1";
     private final String FILE2 = "FILE2";
     private final String SUBMIT = "SUBMIT";
+    private final String CANCEL = "CANCEL";
     
     // text of radio buttons
     private final String ENCODE_IMAGE = "Encode image";
@@ -83,6 +111,8 @@ public class SteganographyGui extends JFrame implements ActionListener {
         coverButton = new JButton("Choose");
         secretButton = new JButton("Choose");
         mainButton = new JButton("Do it!");
+        cancelButton = new JButton("Cancel");
+        progressBar = new JProgressBar(0, 100);
         coverLabel = new JLabel("Cover image");
         secretLabel = new JLabel("Secret image / text");
         stega = new Steganography();
@@ -90,6 +120,10 @@ public class SteganographyGui extends JFrame implements ActionListener {
         // user can't edit path
         coverTextField.setEditable(false);
         secretTextField.setEditable(false);
+        
+        // nothing to cancel until an encode/decode starts
+        cancelButton.setEnabled(false);
+        progressBar.setStringPainted(true);
 
         encodeImageRadio.setSelected(true);
         buttonGroup.add(encodeImageRadio);
@@ -105,6 +139,7 @@ public class SteganographyGui extends JFrame implements ActionListener {
         coverButton.setActionCommand(FILE1);
         secretButton.setActionCommand(FILE2);
         mainButton.setActionCommand(SUBMIT);
+        cancelButton.setActionCommand(CANCEL);
         
         // add action listener to components
         decodeImageRadio.addActionListener(this);
@@ -114,6 +149,7 @@ public class SteganographyGui extends JFrame implements ActionListener {
         coverButton.addActionListener(this);
         secretButton.addActionListener(this);
         mainButton.addActionListener(this);
+        cancelButton.addActionListener(this);
         
         setCustomLayout();
     }
@@ -175,13 +211,66 @@ public class SteganographyGui extends JFrame implements ActionListener {
     	JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE, null);
     }
     
-    /** Allows the user to save png or txt file 
-     * @param bimg Bufferedimage to save (if there is one)
+    /**
+     * Displays the right error message for what went wrong while encoding or decoding
+     * @param t what was thrown
+     */
+    private void showError(Throwable t) {
+    	if (t instanceof IOException) {
+    		showErrorMessage("There was an error while reading/writing a file.");
+    	} else if (t instanceof ArrayIndexOutOfBoundsException) {
+    		// trying to encode something and it does not fit
+    		showErrorMessage("Cover image is too small. Choose a larger one.");
+    	} else if (t instanceof OutOfMemoryError) {
+    		/*
+    		 *  In case user tries to decode and there is nothing to decode and program creates
+    		 *  an array too big to handle
+    		 */
+    		showErrorMessage("There is no secret inside this cover image.");
+    	} else if (t instanceof IllegalArgumentException) {
+    		// the header says what is wrong: no secret, the other type of secret, corrupt...
+    		showErrorMessage(t.getMessage() + ".");
+    	} else {
+    		showErrorMessage("There is no secret inside this cover image.");
+    	}
+    }
+    
+    /**
+     * Reads an image file
+     * @param file the png file
+     * @return the image
+     * @throws IOException if the file cannot be read or is not an image
+     */
+    private static BufferedImage readImage(File file) throws IOException {
+    	BufferedImage bimg = ImageIO.read(file);
+    	if (bimg == null)
+    		throw new IOException(file + " is not an image");
+    	return bimg;
+    }
+    
+    /**
+     * Checks from the file headers alone that a secret fits in a cover, so a cover that is too
+     * small is reported before anything is decoded
+     * @param cover the cover image file
+     * @param length number of secret bytes
+     * @return false if the cover is too small, true if the secret fits or the header cannot be read
+     */
+    private boolean fits(File cover, long length) {
+    	try {
+    		if (stega.capacity(cover) >= length)
+    			return true;
+    	} catch (IOException e) {
+    		return true;  // reading the cover for real reports what is wrong with it
+    	}
+    	showErrorMessage("Cover image is too small. Choose a larger one.");
+    	return false;
+    }
+    
+    /** Asks the user where to save a png or txt file 
      * @param isText true if saving a txt file, false otherwise
-     * @param message the text to save to a file (if there is one)
-     * @throws IOException
+     * @return the file chosen, with its extension, or null if the user did not choose one
      */
-    private void saveFile(BufferedImage bimg, boolean isText, String message) throws IOException {
+    private File chooseSaveFile(boolean isText) {
     	JFileChooser jfc = new JFileChooser();
     	FileNameExtensionFilter filter;
     	
@@ -194,100 +283,257 @@ public class SteganographyGui extends JFrame implements ActionListener {
 		jfc.setFileFilter(filter);
 		jfc.setAcceptAllFileFilterUsed(false);
 		int result = jfc.showSaveDialog(this);
-		if (result == JFileChooser.APPROVE_OPTION) {
-			File file = jfc.getSelectedFile();
-			if (!isText) {
-				if (!file.toString().endsWith(".png")) // if user didn't add extension, add extension
-					file = new File(file.toString() + ".png");
-				
-				ImageIO.write(bimg, "png", file);
-			} else {  // txt file
-				if (!file.toString().endsWith(".txt")) // if user didn't add extension, add extension
-					file = new File(file.toString() + ".txt");
-				
-				// write to file
-				BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-				writer.write(message);
-				writer.close();
-			}
-		}
+		if (result != JFileChooser.APPROVE_OPTION)
+			return null;
+		
+		File file = jfc.getSelectedFile();
+		String extension = isText ? ".txt" : ".png";
+		if (!file.toString().endsWith(extension)) // if user didn't add extension, add extension
+			file = new File(file.toString() + extension);
+		return file;
+    }
+    
+    /** Allows the user to save png or txt file, which is written in the background
+     * @param bimg Bufferedimage to save, or with the image or text to save hidden inside
+     * @param isText true if saving the text hidden in bimg to a txt file, false to save a png
+     * @param hidden true if the png to save is the image hidden in bimg
+     */
+    private void saveFile(final BufferedImage bimg, final boolean isText, final boolean hidden) {
+    	final File file = chooseSaveFile(isText);
+    	if (file == null)
+    		return;
+    	
+    	start(new Task<Void>() {
+    		@Override
+    		protected Void doInBackground() throws Exception {
+    			boolean saved = false;
+    			try {
+    				if (!isText && !hidden) {
+    					new PngWriter().write(bimg, file);
+    				} else {
+    					// write to file straight from the image, without holding the whole secret
+    					try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+    						if (isText)
+    							stega.decodeText(bimg, out);
+    						else
+    							stega.decodeImage(bimg, new PngWriter(), out);
+    					}
+    				}
+    				saved = !isCancelled();
+    			} finally {
+    				if (!saved)
+    					file.delete();  // don't leave half a file behind
+    			}
+    			return null;
+    		}
+    	});
     }
     
     /**
-     * Encoding/decoding process begins here. 
+     * Encoding/decoding process begins here. The files are checked right away, the rest
+     * runs in the background.
      * @param action the text of the radio button which is selected that will say which 
      * action to perform (i.e. encode text, decode image, etc)
-     * @throws IOException
      */
     private void performAction(String action){
-    	File file1 = new File(coverTextField.getText());
-		File file2 = new File(secretTextField.getText());
+    	final File file1 = new File(coverTextField.getText());
+		final File file2 = new File(secretTextField.getText());
 
     	if (!file1.exists()) {
     		showErrorMessage("Cover image does not exist.");
     		return; 
     	}
     	
-    	try {
-    	
-	    	if (action.equals(ENCODE_IMAGE)) { // encoding an image within an image
-	    		
-	    		// check if second file is actually an image (.png) and exists
-				if (!secretTextField.getText().endsWith(".png")) {
-					showErrorMessage("Second file must be png image.");
-					return;
+    	if (action.equals(ENCODE_IMAGE)) { // encoding an image within an image
+    		
+    		// check if second file is actually an image (.png) and exists
+			if (!secretTextField.getText().endsWith(".png")) {
+				showErrorMessage("Second file must be png image.");
+				return;
+			}
+						
+			if (!file2.exists()) {
+				showErrorMessage("Secret image does not exist.");
+	    		return; 
+			}
+			
+			// the secret is hidden as 3 bytes per pixel whatever its format
+			long secretBytes = 0;
+			try {
+				CoverInfo secretInfo = CoverInfo.read(file2);
+				secretBytes = 3L * secretInfo.getWidth() * secretInfo.getHeight();
+			} catch (IOException e) {
+				// reading it for real reports what is wrong with it
+			}
+			if (!fits(file1, secretBytes))
+				return;
+			
+			start(new ImageTask() {
+				@Override
+				protected BufferedImage doInBackground() throws Exception {
+					// read both images at the same time
+					Future<BufferedImage> secret = reader.submit(new Callable<BufferedImage>() {
+						public BufferedImage call() throws IOException {
+							return readImage(file2);
+						}
+					});
+					try {
+						BufferedImage cover = readImage(file1);
+						return stega.encodeImage(cover, secret.get());
+					} catch (ExecutionException ee) {
+						if (ee.getCause() instanceof Error)
+							throw (Error) ee.getCause();
+						throw (Exception) ee.getCause();
+					} finally {
+						secret.cancel(true);
+					}
 				}
-							
-				if (!file2.exists()) {
-					showErrorMessage("Secret image does not exist.");
-		    		return; 
+			});
+			
+		} else if (action.equals(ENCODE_TEXT)) { // encoding text within image
+			
+			// check second file is .txt file and exists
+			if (!secretTextField.getText().endsWith(".txt")) {
+				showErrorMessage("Second file must be txt file.");
+				return;
+			}
+						
+			if (!file2.exists()) {
+				showErrorMessage("Txt file does not exist.");
+	    		return; 
+			}
+			if (!fits(file1, file2.length()))
+				return;
+			
+			start(new ImageTask() {
+				@Override
+				protected BufferedImage doInBackground() throws Exception {
+					// stream the text straight from the file into the cover
+					try (InputStream text = new FileInputStream(file2)) {
+						return stega.encodeText(readImage(file1), text, file2.length());
+					}
+				}
+			});
+			
+		} else if (action.equals(DECODE_IMAGE)) { // decode image from image
+			start(new Task<BufferedImage>() {
+				@Override
+				protected BufferedImage doInBackground() throws Exception {
+					// opening checks the hidden size before asking where to save
+					BufferedImage bimg = readImage(file1);
+					stega.openImage(bimg);
+					return bimg;
 				}
 				
-				BufferedImage bimg = stega.encodeImage(ImageIO.read(file1), ImageIO.read(file2));
-				saveFile(bimg, false, null);
-				
-			} else if (action.equals(ENCODE_TEXT)) { // encoding text within image
-				
-				// check second file is .txt file and exists
-				if (!secretTextField.getText().endsWith(".txt")) {
-					showErrorMessage("Second file must be txt file.");
-					return;
+				@Override
+				protected void finished(BufferedImage bimg) {
+					saveFile(bimg, false, true);
 				}
-							
-				if (!file2.exists()) {
-					showErrorMessage("Txt file does not exist.");
-		    		return; 
+			});
+			
+		} else if (action.equals(DECODE_TEXT)) { // decode text from image
+			start(new Task<BufferedImage>() {
+				@Override
+				protected BufferedImage doInBackground() throws Exception {
+					// opening checks the hidden length before asking where to save
+					BufferedImage bimg = readImage(file1);
+					stega.openText(bimg);
+					return bimg;
 				}
 				
-				String text = stega.getText(file2);
-				BufferedImage bimg = stega.encodeText(ImageIO.read(file1), text);
-				saveFile(bimg, false, null);
-				
-			} else if (action.equals(DECODE_IMAGE)) { // decode image from image
-				BufferedImage bimg = stega.decodeImage(ImageIO.read(file1));
-				saveFile(bimg, false, null);
-				
-			} else if (action.equals(DECODE_TEXT)) { // decode text from image
-				String message = stega.decodeText(ImageIO.read(file1));
-				saveFile(null, true, message);
-				
-			} else {
-				System.err.println("Unknown option selected");
-				return;
-			}
-    	} catch (IOException ioe) {
-    		showErrorMessage("There was an error while reading/writing a file.");
-    	} catch (ArrayIndexOutOfBoundsException aie) {
-    		// trying to encode something and it does not fit
-    		showErrorMessage("Cover image is too small. Choose a larger one.");
-    	} catch (OutOfMemoryError oome) { 
-    		/*
-    		 *  In case user tries to decode and there is nothing to decode and program creates
-    		 *  an array too big to handle
-    		 */
-    		showErrorMessage("There is no secret inside this cover image.");
-    	} catch (Exception e) {
-    		showErrorMessage("There is no secret inside this cover image.");
+				@Override
+				protected void finished(BufferedImage bimg) {
+					saveFile(bimg, true, true);
+				}
+			});
+			
+		} else {
+			System.err.println("Unknown option selected");
+		}
+    }
+    
+    /**
+     * Starts an encode/decode in the background, with the progress bar following it
+     * @param task the work to run
+     */
+    private void start(final Task<?> task) {
+    	worker = task;
+    	stega.setProgressListener(task);
+    	mainButton.setEnabled(false);
+    	cancelButton.setEnabled(true);
+    	progressBar.setValue(0);
+    	progressBar.setIndeterminate(true);  // until the first bytes are hidden/revealed
+    	
+    	task.addPropertyChangeListener(new PropertyChangeListener() {
+    		public void propertyChange(PropertyChangeEvent evt) {
+    			if (worker == task && "progress".equals(evt.getPropertyName())) {
+    				progressBar.setIndeterminate(false);
+    				progressBar.setValue((Integer) evt.getNewValue());
+    			}
+    		}
+    	});
+    	task.execute();
+    }
+    
+    /**
+     * Puts the buttons and progress bar back once nothing runs in the background
+     */
+    private void stopped() {
+    	worker = null;
+    	stega.setProgressListener(null);
+    	mainButton.setEnabled(true);
+    	cancelButton.setEnabled(false);
+    	progressBar.setIndeterminate(false);
+    	progressBar.setValue(0);
+    }
+    
+    /**
+     * Part of an encode/decode that runs in the background. Progress reported by 
+     * {@link Steganography} moves the progress bar, and cancelling interrupts the thread,
+     * which stops hiding/revealing bytes at the next chunk.
+     * @param <T> what the work gives back
+     */
+    private abstract class Task<T> extends SwingWorker<T, Void> implements Steganography.ProgressListener {
+    	
+    	@Override
+    	public void progress(long done, long total) {
+    		if (total > 0)
+    			setProgress((int) Math.min(100, 100 * done / total));
+    	}
+    	
+    	/**
+    	 * Called on the event dispatch thread once the work is done, unless it failed or was cancelled
+    	 * @param result what the work gave back
+    	 */
+    	protected void finished(T result) {
+    	}
+    	
+    	@Override
+    	protected void done() {
+    		try {
+    			T result = get();
+    			stopped();
+    			finished(result);  // may start the next part, such as saving
+    		} catch (CancellationException ce) {
+    			stopped();
+    		} catch (InterruptedException ie) {
+    			stopped();  // not thrown, the work is over when done is called
+    		} catch (ExecutionException ee) {
+    			stopped();
+    			if (!(ee.getCause() instanceof CancellationException))
+    				showError(ee.getCause());
+    		}
+    	}
+    }
+    
+    /**
+     * Background work that gives back an image to save as png
+     */
+    private abstract class ImageTask extends Task<BufferedImage> {
+    	
+    	@Override
+    	protected void finished(BufferedImage bimg) {
+    		saveFile(bimg, false, false);
     	}
     }
     
@@ -332,6 +578,12 @@ public class SteganographyGui extends JFrame implements ActionListener {
                  .addContainerGap(GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                  .addComponent(mainButton)
                  .addContainerGap(GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+             .addGroup(layout.createSequentialGroup()
+                 .addContainerGap()
+                 .addComponent(progressBar, GroupLayout.DEFAULT_SIZE, GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                 .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                 .addComponent(cancelButton)
+                 .addContainerGap())
          );
          layout.setVerticalGroup(
              layout.createParallelGroup(GroupLayout.Alignment.LEADING)
@@ -356,6 +608,10 @@ public class SteganographyGui extends JFrame implements ActionListener {
                      .addComponent(secretLabel))
                  .addGap(18, 18, 18)
                  .addComponent(mainButton)
+                 .addPreferredGap(LayoutStyle.ComponentPlacement.UNRELATED)
+                 .addGroup(layout.createParallelGroup(GroupLayout.Alignment.CENTER)
+                     .addComponent(progressBar, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+                     .addComponent(cancelButton))
                  .addContainerGap(GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
          );
 
@@ -371,6 +627,7 @@ public class SteganographyGui extends JFrame implements ActionListener {
     	 * "FILE1"  -> get user file and set path in first text field
     	 * "FILE2"  -> similar to "FILE1", but set path in second text field
     	 * "SUBMIT" -> start the decode/encode process 
+    	 * "CANCEL" -> stop the decode/encode running in the background
     	 */
 		String command = e.getActionCommand();
 		
@@ -386,6 +643,9 @@ public class SteganographyGui extends JFrame implements ActionListener {
 			getFile(true);
 		} else if (command.equals(SUBMIT)) {
 			performAction(getSelectedRadioButton(buttonGroup));
+		} else if (command.equals(CANCEL)) {
+			if (worker != null)
+				worker.cancel(true);
 		} else {
 			System.err.println("Unknown command.");
 		}
@@ -0,0 +1,126 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Keeps the {@link CoverTemplate}s of the covers used most recently, keyed by a SHA-256 hash of
+ * their files, so a cover used for many secrets is decoded and converted once however it is
+ * named or wherever it comes from. The templates used least recently are dropped once their
+ * cover bytes add up to more than the limit. Several threads can use one cache.
+ */
+public class TemplateCache {
+
+	private final long maxBytes;
+	private final PngWriter png;
+	private final LinkedHashMap<String, CoverTemplate> templates =
+			new LinkedHashMap<String, CoverTemplate>(16, 0.75f, true);  // least recently used first
+	private long bytes = 0;       // cover bytes of the templates kept
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param maxBytes cover bytes the templates kept may add up to
+	 */
+	public TemplateCache(long maxBytes) {
+		this(maxBytes, new PngWriter());
+	}
+
+	/**
+	 * @param maxBytes cover bytes the templates kept may add up to
+	 * @param png writes the PNGs of the copies of every template
+	 */
+	public TemplateCache(long maxBytes, PngWriter png) {
+		this.maxBytes = maxBytes;
+		this.png = png;
+	}
+
+	/**
+	 * @param file an image file
+	 * @return the template of the image in it
+	 * @throws IOException if the file cannot be read or is not an image
+	 */
+	public CoverTemplate get(File file) throws IOException {
+		return get(Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * @param encoded the bytes of an image file
+	 * @return the template of the image, decoded now unless it is already kept
+	 * @throws IOException if the bytes are not an image
+	 */
+	public CoverTemplate get(byte[] encoded) throws IOException {
+		String key = hash(encoded);
+		synchronized (this) {
+			CoverTemplate template = templates.get(key);
+			if (template != null) {
+				hits++;
+				return template;
+			}
+			misses++;
+		}
+
+		// decoded without holding the lock, the same cover decoded twice at once is kept once
+		BufferedImage bimg = ImageIO.read(new ByteArrayInputStream(encoded));
+		if (bimg == null)
+			throw new IOException("Cover is not an image");
+		CoverTemplate template = new CoverTemplate(bimg, png);
+		synchronized (this) {
+			CoverTemplate known = templates.get(key);
+			if (known != null)
+				return known;
+			templates.put(key, template);
+			bytes += template.size();
+			Iterator<Map.Entry<String, CoverTemplate>> eldest = templates.entrySet().iterator();
+			while (bytes > maxBytes && templates.size() > 1) {
+				bytes -= eldest.next().getValue().size();
+				eldest.remove();
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * @return number of covers found in the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of covers decoded
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of templates kept
+	 */
+	public synchronized int size() {
+		return templates.size();
+	}
+
+	/**
+	 * @param encoded the bytes of a file
+	 * @return their SHA-256 hash in hex
+	 */
+	private static String hash(byte[] encoded) {
+		try {
+			StringBuilder hex = new StringBuilder(64);
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(encoded))
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);  // every JDK has SHA-256
+		}
+	}
+}
@@ -0,0 +1,236 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Copy of a {@link CoverTemplate} to hide one secret in, copied on write: a page of 64 KB of
+ * cover bytes is only copied from the template the first time a secret changes it, so a short
+ * secret hidden in a large cover costs a page or two. Its PNG only deflates again the blocks
+ * of rows that hold a copied page.
+ */
+public class TemplateCopy implements LsbCover {
+
+	private final CoverTemplate template;
+	private final ByteBuffer[] copies;   // copied pages, null where the page of the template is shared
+
+	/**
+	 * @param template the cover this is a copy of
+	 */
+	TemplateCopy(CoverTemplate template) {
+		this.template = template;
+		this.copies = new ByteBuffer[template.pageCount()];
+	}
+
+	/**
+	 * @return the cover this is a copy of
+	 */
+	public CoverTemplate getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return number of cover bytes copied from the template so far
+	 */
+	public long getCopiedBytes() {
+		long total = 0;
+		for (ByteBuffer page : copies)
+			if (page != null)
+				total += page.capacity();
+		return total;
+	}
+
+	@Override
+	public long size() {
+		return template.size();
+	}
+
+	@Override
+	public void embed(long offset, byte[] payload, int from, int len, int bits) {
+		access(true, false, 0, offset, payload, from, len, bits);
+	}
+
+	@Override
+	public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+		access(true, true, seed, offset, payload, from, len, 1);
+	}
+
+	@Override
+	public void extract(long offset, byte[] payload, int from, int len, int bits) {
+		access(false, false, 0, offset, payload, from, len, bits);
+	}
+
+	/**
+	 * Embeds or extracts a range of payload, one page at a time, copying the pages it embeds in
+	 * @param embed true to embed, false to extract
+	 * @param matching true to embed by LSB matching, with 1 bit
+	 * @param seed picks the ups and downs of LSB matching
+	 * @param offset index of the first cover byte
+	 * @param payload the payload bytes
+	 * @param from index of the first payload byte
+	 * @param len how many payload bytes
+	 * @param bits low bits used in each cover byte, 1 to 4
+	 */
+	private void access(boolean embed, boolean matching, long seed, long offset, byte[] payload, int from, int len,
+			int bits) {
+		if (bits < 1 || bits > 4)
+			throw new IllegalArgumentException("Bits per cover byte must be 1 to 4, not " + bits);
+		if (offset < 0 || len < 0 || offset + LsbKernel.coverBytes(len, bits) > size())
+			throw new ArrayIndexOutOfBoundsException("Cover of " + size() + " bytes cannot hold "
+					+ len + " bytes at offset " + offset);
+
+		int group = LsbKernel.groupBytes(bits);            // payload bytes moved together
+		int groupCover = (int) LsbKernel.coverBytes(group, bits);
+		while (len > 0) {
+			int p = (int) (offset >>> CoverTemplate.PAGE_BITS);
+			int index = (int) (offset & (CoverTemplate.PAGE_SIZE - 1));
+			ByteBuffer page = embed ? writable(p) : readable(p);
+			int n = Math.min(len, (page.capacity() - index) / groupCover * group);
+
+			if (n == 0) {
+				// one group of payload bytes is split between two pages, go through a small buffer
+				n = Math.min(len, group);
+				int span = (int) LsbKernel.coverBytes(n, bits);
+				ByteBuffer word = ByteBuffer.allocate(8);
+				for (int i = 0; i < span; i++)
+					word.put(i, getByte(offset + i));
+				if (matching)
+					LsbKernel.embedMatching(word, 0, payload, from, n, seed + offset);
+				else if (embed)
+					LsbKernel.embed(word, 0, payload, from, n, bits);
+				else
+					LsbKernel.extract(word, 0, payload, from, n, bits);
+				if (embed)
+					for (int i = 0; i < span; i++)
+						writable((int) ((offset + i) >>> CoverTemplate.PAGE_BITS))
+								.put((int) ((offset + i) & (CoverTemplate.PAGE_SIZE - 1)), word.get(i));
+			} else if (matching) {
+				LsbKernel.embedMatching(page, index, payload, from, n, seed + offset - index);
+			} else if (embed) {
+				LsbKernel.embed(page, index, payload, from, n, bits);
+			} else {
+				LsbKernel.extract(page, index, payload, from, n, bits);
+			}
+
+			offset += LsbKernel.coverBytes(n, bits);
+			from += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * @param p index of a page
+	 * @return the page, copied or shared
+	 */
+	private ByteBuffer readable(int p) {
+		return copies[p] != null ? copies[p] : template.page(p);
+	}
+
+	/**
+	 * @param p index of a page
+	 * @return the copy of the page, made now if it is still shared
+	 */
+	private ByteBuffer writable(int p) {
+		if (copies[p] == null) {
+			ByteBuffer shared = template.page(p);
+			byte[] bytes = new byte[shared.capacity()];
+			shared.get(0, bytes);
+			copies[p] = ByteBuffer.wrap(bytes);
+		}
+		return copies[p];
+	}
+
+	/**
+	 * @param offset index of a cover byte
+	 * @return the cover byte
+	 */
+	private byte getByte(long offset) {
+		return readable((int) (offset >>> CoverTemplate.PAGE_BITS)).get((int) (offset & (CoverTemplate.PAGE_SIZE - 1)));
+	}
+
+	/**
+	 * Reads raster bytes from the pages
+	 * @param offset index of the first raster byte
+	 * @param dst where they go
+	 * @param len how many
+	 */
+	private void read(long offset, byte[] dst, int len) {
+		for (int done = 0; done < len;) {
+			int p = (int) (offset >>> CoverTemplate.PAGE_BITS);
+			int index = (int) (offset & (CoverTemplate.PAGE_SIZE - 1));
+			ByteBuffer page = readable(p);
+			int n = Math.min(len - done, page.capacity() - index);
+			page.get(index, dst, done, n);
+			done += n;
+			offset += n;
+		}
+	}
+
+	/**
+	 * @return rows of the image that lie in a copied page
+	 */
+	private BitSet changedRows() {
+		BufferedImage image = template.getImage();
+		long rowBytes = (long) image.getWidth() * (image.getType() == BufferedImage.TYPE_BYTE_GRAY ? 1 : 3);
+		BitSet rows = new BitSet(image.getHeight());
+		for (int p = 0; p < copies.length; p++) {
+			if (copies[p] != null) {
+				long start = (long) p << CoverTemplate.PAGE_BITS;
+				rows.set((int) (start / rowBytes), (int) ((start + copies[p].capacity() - 1) / rowBytes) + 1);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the copy as PNG, deflating only the blocks of rows that hold copied pages
+	 * @param out where the PNG goes, not closed
+	 * @throws IOException if out cannot be written
+	 */
+	public void writePng(OutputStream out) throws IOException {
+		BufferedImage image = template.getImage();
+		final int width = image.getWidth();
+		final boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+		PngWriter.RowSource rows = new PngWriter.RowSource() {
+			public void getRow(int y, byte[] row) {
+				read((long) y * row.length, row, row.length);
+				if (!gray) {
+					// BGR to RGB
+					for (int x = 0; x < 3 * width; x += 3) {
+						byte blue = row[x];
+						row[x] = row[x + 2];
+						row[x + 2] = blue;
+					}
+				}
+			}
+		};
+		template.getPngWriter().write(template.getBlocks(), rows, changedRows(), out);
+	}
+
+	/**
+	 * Writes the copy to a PNG file
+	 * @param file the file to write to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writePng(File file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+			writePng(out);
+		}
+	}
+
+	/**
+	 * @return the copy as an image of its own, all of its bytes copied
+	 */
+	public BufferedImage toImage() {
+		BufferedImage image = template.getImage();
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+		byte[] bytes = ((DataBufferByte) copy.getRaster().getDataBuffer()).getData();
+		read(0, bytes, bytes.length);
+		return copy;
+	}
+}
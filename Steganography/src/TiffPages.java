@@ -0,0 +1,170 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes a multi-page TIFF from pages encoded on their own, so the pages of a file can be
+ * compressed on every core at once and only copied in order, for {@link StegaFrames}. Each page
+ * is a whole one page TIFF as the JDK writer makes it ({@link #encode}); {@link #append} moves
+ * it to the end of the file, adding its position to every offset in it, and links the page
+ * before to it. Pages with sub-IFDs, Exif or GPS data or an old style JPEG stream are not
+ * taken, the JDK writer only writes them with metadata.
+ */
+class TiffPages implements Closeable {
+
+	/** lossless compression types of the JDK writer */
+	static final List<String> COMPRESSIONS = Arrays.asList("Deflate", "LZW", "PackBits", "Uncompressed");
+
+	private static final int STRIP_OFFSETS = 273;
+	private static final int TILE_OFFSETS = 324;
+	private static final int[] NESTED = { 330, 513, 34665, 34853 };  // tags pointing at more offsets
+	private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4 };
+
+	private final RandomAccessFile file;
+	private ByteOrder order;         // of the first page, every page must have it
+	private long link = 4;           // where the offset of the next page goes
+
+	/**
+	 * @param out the file written, replaced if there is one
+	 * @throws IOException if it cannot be written
+	 */
+	TiffPages(File out) throws IOException {
+		file = new RandomAccessFile(out, "rw");
+		file.setLength(0);
+	}
+
+	/**
+	 * Encodes one image as a TIFF of one page
+	 * @param image the image
+	 * @param compression one of {@link #COMPRESSIONS}
+	 * @return the TIFF
+	 * @throws IOException if the image cannot be encoded
+	 * @throws IllegalArgumentException if the compression is not one of them
+	 */
+	static byte[] encode(BufferedImage image, String compression) throws IOException {
+		// the JDK writer calls every type lossless, JPEG included, so the lossless ones are listed
+		if (!COMPRESSIONS.contains(compression))
+			throw new IllegalArgumentException("TIFF compression must be one of " + COMPRESSIONS + ", not " + compression);
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+		if (!writers.hasNext())
+			throw new IllegalStateException("There is no TIFF writer");
+		ImageWriter writer = writers.next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_DISABLED);
+		if (!compression.equals("Uncompressed")) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionType(compression);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ImageOutputStream ios = new MemoryCacheImageOutputStream(bytes)) {
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Adds a page at the end of the file
+	 * @param tiff a TIFF of one page made by {@link #encode}, changed in place
+	 * @throws IOException if the page cannot be read or written
+	 */
+	void append(byte[] tiff) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(tiff);
+		if (tiff.length < 8 || tiff[0] != tiff[1] || (tiff[0] != 'M' && tiff[0] != 'I'))
+			throw new IOException("Page is not a TIFF");
+		b.order(tiff[0] == 'M' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		if (b.getShort(2) != 42)
+			throw new IOException("Page is not a TIFF");
+		if (order == null) {
+			order = b.order();
+			file.write(tiff, 0, 8);
+		} else if (order != b.order()) {
+			throw new IOException("Pages of a TIFF must all have the same byte order");
+		}
+
+		// the page goes where the file ends, less the header it does not need
+		long shift = file.length() - 8;
+		if (shift + tiff.length > 0xFFFFFFFFL)
+			throw new IOException("A TIFF cannot be larger than 4 GB");
+		int ifd = b.getInt(4);
+		if (ifd < 8 || ifd + 2 > tiff.length)
+			throw new IOException("Page has no IFD");
+		int entries = b.getShort(ifd) & 0xFFFF;
+		int next = ifd + 2 + 12 * entries;
+		if (next + 4 > tiff.length || b.getInt(next) != 0)
+			throw new IOException("Page is not a TIFF of one page");
+
+		for (int e = ifd + 2; e < next; e += 12) {
+			int tag = b.getShort(e) & 0xFFFF;
+			int type = b.getShort(e + 2);
+			long count = b.getInt(e + 4) & 0xFFFFFFFFL;
+			for (int nested : NESTED)
+				if (tag == nested)
+					throw new IOException("Page has tag " + tag + ", which cannot be moved");
+			if (type < 1 || type >= TYPE_SIZES.length)
+				throw new IOException("Page has tag " + tag + " of unknown type " + type);
+
+			// a value larger than 4 bytes is elsewhere in the page, its offset moves
+			int values = e + 8;
+			if (count * TYPE_SIZES[type] > 4) {
+				values = b.getInt(e + 8);
+				if (values < 8 || values + count * TYPE_SIZES[type] > tiff.length)
+					throw new IOException("Page has tag " + tag + " outside of it");
+				b.putInt(e + 8, (int) (values + shift));
+			}
+			if (tag == STRIP_OFFSETS || tag == TILE_OFFSETS) {
+				for (int i = 0; i < count; i++) {
+					if (type == 4) {
+						b.putInt(values + 4 * i, (int) ((b.getInt(values + 4 * i) & 0xFFFFFFFFL) + shift));
+					} else if (type == 3) {
+						int moved = (b.getShort(values + 2 * i) & 0xFFFF) + (int) shift;
+						if (moved > 0xFFFF)
+							throw new IOException("Page has 16 bit offsets, which cannot be moved");
+						b.putShort(values + 2 * i, (short) moved);
+					} else {
+						throw new IOException("Page has offsets of type " + type);
+					}
+				}
+			}
+		}
+
+		file.seek(file.length());
+		file.write(tiff, 8, tiff.length - 8);
+		writeLink(ifd + shift);
+		link = next + shift;
+	}
+
+	/**
+	 * @param offset offset of the IFD of the page just added, for the page before it
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeLink(long offset) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4).order(order);
+		b.putInt(0, (int) offset);
+		file.seek(link);
+		file.write(b.array());
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,131 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A library indexed, saved and loaded again, updated after files change, and searched for the
+ * smallest cover a secret fits in
+ */
+public class CoverIndexTest {
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * @param name path under the library
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @return the PNG written
+	 */
+	private File png(String name, int width, int height) throws IOException {
+		File file = dir.resolve(name).toFile();
+		file.getParentFile().mkdirs();
+		ImageIO.write(TestImages.noise(width, height, width * height), "png", file);
+		return file;
+	}
+
+	/**
+	 * @param index an index
+	 * @return its covers, one line each
+	 */
+	private static String describe(CoverIndex index) {
+		StringBuilder s = new StringBuilder();
+		for (CoverInfo info : index.getCovers())
+			s.append(info).append(' ').append(info.getLength()).append(' ').append(info.getModified()).append('\n');
+		return s.toString();
+	}
+
+	@Test
+	public void indexIsSavedAndLoaded() throws IOException {
+		png("a.png", 40, 30);
+		png("sub/b.png", 20, 10);
+		png("sub/deeper/c.png", 50, 50);
+		Files.write(dir.resolve("notes.txt"), "not an image suffix".getBytes());
+		CoverIndex index = CoverIndex.open(dir.toFile());
+		assertEquals(3, index.getCovers().size());
+		assertTrue(new File(dir.toFile(), CoverIndex.DEFAULT_NAME).isFile());
+
+		CoverIndex loaded = new CoverIndex(dir.toFile());
+		assertTrue(loaded.load());
+		assertEquals(describe(index), describe(loaded));
+		assertEquals(0, loaded.update(), "nothing changed since it was saved");
+
+		// another version of the file is not read, the next update reads everything
+		Files.write(dir.resolve(CoverIndex.DEFAULT_NAME), new byte[] { 0x53, 0x54, 0x47, 0x49, 0, 0, 0, 9 });
+		CoverIndex other = new CoverIndex(dir.toFile());
+		assertFalse(other.load());
+		assertEquals(3, other.update());
+	}
+
+	@Test
+	public void updateReadsOnlyWhatChanged() throws IOException {
+		png("a.png", 40, 30);
+		File b = png("b.png", 20, 10);
+		File c = png("c.png", 50, 50);
+		File broken = dir.resolve("broken.png").toFile();
+		Files.write(broken.toPath(), "not an image".getBytes());
+		CoverIndex index = new CoverIndex(dir.toFile());
+		assertEquals(4, index.update());
+		assertEquals(3, index.getCovers().size(), "files that are not images are left out");
+
+		// a changed file and a new one are read, the broken one is remembered
+		png("b.png", 60, 60);
+		b.setLastModified(b.lastModified() + 2000);
+		png("d.png", 10, 10);
+		assertEquals(2, index.update());
+		CoverInfo changed = index.smallest(3 * 60 * 60);
+		assertEquals(b, index.getFile(changed));
+		assertEquals(60, changed.getWidth());
+		assertEquals(4, index.getCovers().size());
+
+		// a deleted file is dropped without reading anything
+		assertTrue(c.delete());
+		assertEquals(0, index.update());
+		List<CoverInfo> covers = index.getCovers();
+		assertEquals(3, covers.size());
+		for (CoverInfo info : covers)
+			assertFalse(info.getPath().equals("c.png"));
+		CoverIndex loaded = new CoverIndex(dir.toFile());
+		loaded.load();
+		assertEquals(describe(index), describe(loaded), "the drop was saved");
+	}
+
+	@Test
+	public void smallestCoverThatFits() throws IOException {
+		png("a.png", 10, 10);     // 300 cover bytes
+		png("b.png", 20, 10);     // 600
+		png("c.png", 30, 10);     // 900
+		png("d.png", 30, 10);     // 900 as well
+		CoverIndex index = CoverIndex.open(dir.toFile());
+
+		assertEquals("a.png", index.smallest(0).getPath());
+		assertEquals("a.png", index.smallest(300).getPath());
+		assertEquals("b.png", index.smallest(301).getPath());
+		assertEquals("b.png", index.smallest(600).getPath());
+		assertEquals("c.png", index.smallest(601).getPath(), "ties go to the first path");
+		assertEquals("c.png", index.smallest(900).getPath());
+		assertNull(index.smallest(901));
+
+		// a secret of the capacity of a cover fits it, one more byte does not
+		Steganography stega = new Steganography();
+		stega.setBitsPerChannel(4);
+		CoverInfo b = index.smallest(600);
+		long capacity = stega.capacity(b.getCoverBytes());
+		assertSame(b, index.smallestFor(stega, capacity));
+		assertEquals("c.png", index.smallestFor(stega, capacity + 1).getPath());
+		assertNull(index.smallestFor(stega, stega.capacity(900) + 1));
+	}
+}
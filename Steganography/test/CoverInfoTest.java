@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Cover bytes read from the header of image files, which must be what hiding in the decoded
+ * image uses
+ */
+public class CoverInfoTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void coverBytesMatchTheDecodedImage() throws IOException {
+		int[] types = { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_ARGB };
+		String[] formats = { "png", "bmp", "jpg" };
+		int[] samples = { 3, 1, 3 };  // alpha holds nothing
+		for (int i = 0; i < types.length; i++) {
+			for (String format : formats) {
+				if (!format.equals("png") && types[i] == BufferedImage.TYPE_INT_ARGB)
+					continue;  // ImageIO only writes alpha to PNG
+				File file = dir.resolve(i + "." + format).toFile();
+				ImageIO.write(TestImages.noise(70, 50, types[i], i), format, file);
+
+				CoverInfo info = CoverInfo.read(file);
+				String what = format + " of type " + types[i];
+				assertEquals(70, info.getWidth(), what);
+				assertEquals(50, info.getHeight(), what);
+				assertEquals(samples[i], info.getSamples(), what);
+				assertEquals(RasterCover.wrap(ImageIO.read(file)).size(), info.getCoverBytes(), what);
+				assertEquals(new Steganography().capacity(info.getCoverBytes()), new Steganography().capacity(file));
+			}
+		}
+	}
+
+	@Test
+	public void otherFilesAreRejected() throws IOException {
+		final File text = dir.resolve("text.png").toFile();
+		Files.write(text.toPath(), "not an image".getBytes());
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				CoverInfo.read(text);
+			}
+		});
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				CoverInfo.read(new File(dir.toFile(), "missing.png"));
+			}
+		});
+	}
+}
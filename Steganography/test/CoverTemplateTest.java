@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Secrets hidden in copies of one template, which copy only the pages they touch and write the
+ * same PNG as the whole image would, and the cache of templates
+ */
+public class CoverTemplateTest {
+
+	private static final int PAGE = CoverTemplate.PAGE_SIZE;
+
+	@Test
+	public void copiesDecodeAndLeaveTheTemplateAlone() {
+		BufferedImage cover = TestImages.noise(400, 300, 1);  // 360000 cover bytes, 6 pages
+		byte[] original = TestImages.raster(cover).clone();
+		CoverTemplate template = new CoverTemplate(cover);
+		assertSame(cover, template.getImage(), "a 3 byte BGR cover is not converted");
+
+		Steganography stega = new Steganography();
+		String first = TestImages.text(1000, 2);
+		String second = TestImages.text(20000, 3);
+		TemplateCopy a = template.encodeText(stega, first);
+		TemplateCopy b = template.encodeText(stega, second);
+		assertEquals(first, stega.decodeText(a.toImage()));
+		assertEquals(second, stega.decodeText(b.toImage()));
+		assertArrayEquals(original, TestImages.raster(template.getImage()));
+
+		// the same secret hidden in the whole image gives the same bytes
+		assertArrayEquals(TestImages.raster(stega.encodeText(TestImages.noise(400, 300, 1), second)),
+				TestImages.raster(b.toImage()));
+
+		// copies can be read as covers too
+		byte[] back = new byte[1000];
+		a.extract(StegaHeader.COVER_BYTES, back, 0, back.length, 1);
+		assertArrayEquals(first.getBytes(), back);
+	}
+
+	@Test
+	public void onlyTouchedPagesAreCopied() {
+		CoverTemplate template = new CoverTemplate(TestImages.noise(400, 300, 4));
+		Steganography stega = new Steganography();
+		assertEquals(0, template.newCopy().getCopiedBytes());
+
+		// header and text in the first page, then across three pages
+		assertEquals(PAGE, template.encodeText(stega, TestImages.text(1000, 5)).getCopiedBytes());
+		int threePages = (2 * PAGE + 100 - StegaHeader.COVER_BYTES) / 8;
+		assertEquals(3 * PAGE, template.encodeText(stega, TestImages.text(threePages, 6)).getCopiedBytes());
+
+		// a page in the middle only
+		TemplateCopy copy = template.newCopy();
+		copy.embed(3L * PAGE + 10, new byte[] { 1, 2, 3 }, 0, 3, 1);
+		assertEquals(PAGE, copy.getCopiedBytes());
+
+		// the last page is shorter, all of them add up to the cover
+		TemplateCopy full = template.newCopy();
+		full.embed(0, new byte[(int) (template.size() / 8)], 0, (int) (template.size() / 8), 1);
+		assertEquals(template.size(), full.getCopiedBytes());
+	}
+
+	/**
+	 * @param png the writer
+	 * @param bimg an image
+	 * @return its PNG as the writer makes it from blocks, with no block reused
+	 */
+	private static byte[] fullWrite(PngWriter png, BufferedImage bimg) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		png.write(png.deflateBlocks(bimg), PngWriter.rowsOf(bimg), new BitSet(), out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void pngOfCopyMatchesFullWrite() throws IOException {
+		PngWriter png = new PngWriter();
+		png.setBlockSize(16 * 1024);
+		for (int type : new int[] { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY }) {
+			CoverTemplate template = new CoverTemplate(TestImages.noise(400, 300, type, 7), png);
+			TemplateCopy copy = template.encodeText(new Steganography(), TestImages.text(5000, 8));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			copy.writePng(out);
+			assertArrayEquals(fullWrite(png, copy.toImage()), out.toByteArray(), "type " + type);
+
+			BufferedImage back = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+			assertArrayEquals(TestImages.raster(copy.toImage()), TestImages.raster(back), "type " + type);
+		}
+	}
+
+	/**
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param seed picks the pixels
+	 * @return a PNG file of random pixels
+	 */
+	private static byte[] png(int width, int height, long seed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PngWriter().write(TestImages.noise(width, height, seed), out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void cacheHitsOnContentAndEvictsByBytes() throws IOException {
+		byte[] a = png(100, 100, 9);    // 30000 cover bytes each
+		byte[] b = png(100, 100, 10);
+		byte[] c = png(100, 100, 11);
+		TemplateCache cache = new TemplateCache(70000);
+
+		CoverTemplate first = cache.get(a);
+		cache.get(b);
+		assertSame(first, cache.get(a.clone()), "the same content under another array");
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		// a third template goes over 70000 bytes, b was used least recently
+		cache.get(c);
+		assertEquals(2, cache.size());
+		assertSame(first, cache.get(a));
+		assertEquals(2, cache.getHits());
+		cache.get(b);
+		assertEquals(4, cache.getMisses(), "b was dropped");
+
+		// a template larger than the limit is still kept on its own
+		TemplateCache small = new TemplateCache(1000);
+		CoverTemplate large = small.get(a);
+		assertSame(large, small.get(a));
+		assertNotSame(large, small.get(b));
+		assertEquals(1, small.size());
+
+		final TemplateCache broken = new TemplateCache(1000);
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				broken.get("not an image".getBytes());
+			}
+		});
+	}
+}
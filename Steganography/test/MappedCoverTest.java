@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Secrets hidden in memory mapped PPM files, across the boundary of two mapped segments, and
+ * files that are not PPMs a cover can be mapped from
+ */
+public class MappedCoverTest {
+
+	private static final long SEGMENT = 1L << 30;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void textRoundTrip() throws IOException {
+		File ppm = dir.resolve("cover.ppm").toFile();
+		MappedCover.create(ppm, 300, 200);
+		Steganography stega = new Steganography();
+		String text = TestImages.text(20000, 1);
+		try (MappedCover cover = new MappedCover(ppm, true)) {
+			assertEquals(300, cover.getWidth());
+			assertEquals(200, cover.getHeight());
+			assertEquals(180000, cover.size());
+			stega.encodeText(cover, text);
+		}
+		try (MappedCover cover = new MappedCover(ppm, false)) {
+			assertEquals(text, new String(stega.readText(cover).readAllBytes()));
+		}
+	}
+
+	@Test
+	public void groupsSplitBetweenSegments() throws IOException {
+		// a sparse file just over 1 GB of pixels, so there are two segments
+		File ppm = dir.resolve("large.ppm").toFile();
+		MappedCover.create(ppm, 16384, 21846);
+		long size = 3L * 16384 * 21846;
+		long base = SEGMENT - 4096;  // a region around the boundary, filled with noise
+		Random random = new Random(2);
+		byte[] region = new byte[8192];
+		random.nextBytes(region);
+		try (RandomAccessFile raf = new RandomAccessFile(ppm, "rw")) {
+			raf.seek(ppm.length() - size + base);
+			raf.write(region);
+		}
+
+		ArrayCover expected = new ArrayCover(region.clone());
+		byte[] payload = new byte[100];
+		random.nextBytes(payload);
+		try (MappedCover cover = new MappedCover(ppm, true)) {
+			assertEquals(size, cover.size());
+			for (int bits = 1; bits <= 4; bits++) {
+				// starts 1, 3 and 5 bytes before the boundary, none a whole group
+				for (long end : new long[] { 1, 3, 5 }) {
+					long offset = SEGMENT - end - LsbKernel.coverBytes(48, bits);
+					cover.embed(offset, payload, 0, 100, bits);
+					expected.embed(offset - base, payload, 0, 100, bits);
+					byte[] back = new byte[100];
+					cover.extract(offset, back, 0, 100, bits);
+					assertArrayEquals(payload, back, bits + " bits, " + end + " before the end");
+				}
+			}
+			// the ups and downs of LSB matching depend on the offset only, not on the segment
+			long offset = SEGMENT - 3 - 8 * 48;
+			cover.embedMatching(offset, payload, 0, 100, 42);
+			expected.embedMatching(offset - base, payload, 0, 100, 42 + base);
+		}
+
+		byte[] written = new byte[region.length];
+		try (RandomAccessFile raf = new RandomAccessFile(ppm, "r")) {
+			raf.seek(ppm.length() - size + base);
+			raf.readFully(written);
+		}
+		assertArrayEquals(expected.getBytes(), written);
+	}
+
+	/**
+	 * @param text contents of a file
+	 * @return the file
+	 */
+	private File file(String text) throws IOException {
+		File file = Files.createTempFile(dir, "bad", ".ppm").toFile();
+		Files.write(file.toPath(), text.getBytes("US-ASCII"));
+		return file;
+	}
+
+	@Test
+	public void badHeadersAreRejected() throws IOException {
+		String[] headers = { "P6\n-2 -3\n255\n", "P6\n0 5\n255\n", "P6\n5 0\n255\n", "P6\nabc 5\n255\n",
+				"P6\n99999999999 5\n255\n", "P5\n2 2\n255\n", "P6\n2 2\n65535\n", "P6\n2 2\n255\nshort", "P6\n2" };
+		for (String header : headers) {
+			final File file = file(header);
+			assertThrows(IOException.class, new Executable() {
+				public void execute() throws IOException {
+					new MappedCover(file, false).close();
+				}
+			}, header);
+		}
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() throws IOException {
+				MappedCover.create(new File(dir.toFile(), "empty.ppm"), 0, 10);
+			}
+		});
+	}
+}
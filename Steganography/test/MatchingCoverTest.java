@@ -0,0 +1,181 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * LSB matching: the word at a time kernel against matchByte, moves of one at most that never
+ * wrap around, and secrets that read back with the usual extract
+ */
+public class MatchingCoverTest {
+
+	/**
+	 * @param random picks the bytes
+	 * @param length number of bytes
+	 * @return random bytes, a third of them 0 or 255
+	 */
+	private static byte[] cover(Random random, int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		for (int i = 0; i < length; i += 3)
+			bytes[i] = (byte) (random.nextBoolean() ? 0 : 255);
+		return bytes;
+	}
+
+	@Test
+	public void kernelMatchesReference() {
+		Random random = new Random(1);
+		for (int t = 0; t < 200; t++) {
+			int offset = random.nextInt(100);
+			int len = random.nextInt(300);
+			long seed = random.nextLong();
+			byte[] original = cover(random, offset + 8 * len + 5);
+			byte[] payload = new byte[len];
+			random.nextBytes(payload);
+
+			// one byte at a time, as the doc of matchByte draws the random bits
+			byte[] expected = original.clone();
+			for (int i = 0; i < len; i++) {
+				long key = seed + offset + 8L * i;
+				long word = LsbKernel.mix(key & ~63L) >>> ((key >>> 3) & 7);
+				for (int k = 0; k < 8; k++) {
+					int at = offset + 8 * i + k;
+					int value = expected[at] & 0xFF;
+					if ((value & 1) != ((payload[i] >> (7 - k)) & 1))
+						expected[at] = (byte) LsbKernel.matchByte(value, word >>> (8 * (7 - k)));
+				}
+			}
+
+			byte[] actual = original.clone();
+			LsbKernel.embedMatching(actual, offset, payload, 0, len, seed);
+			assertArrayEquals(expected, actual, "offset " + offset + ", " + len + " bytes");
+		}
+	}
+
+	@Test
+	public void splitGivesSameBytes() {
+		Random random = new Random(2);
+		byte[] original = cover(random, 8 * 5000);
+		byte[] payload = new byte[5000];
+		random.nextBytes(payload);
+
+		byte[] whole = original.clone();
+		new MatchingCover(new ArrayCover(whole), 42).embed(0, payload, 0, payload.length, 1);
+		for (int cut : new int[] { 1, 7, 8, 9, 2500, 4999 }) {
+			byte[] split = original.clone();
+			MatchingCover cover = new MatchingCover(new ArrayCover(split), 42);
+			cover.embed(0, payload, 0, cut, 1);
+			cover.embed(8L * cut, payload, cut, payload.length - cut, 1);
+			assertArrayEquals(whole, split, "cut at " + cut);
+		}
+	}
+
+	@Test
+	public void bytesMoveByOneWithoutWrapping() {
+		Random random = new Random(3);
+		byte[] original = cover(random, 8 * 10000);
+		byte[] payload = new byte[10000];
+		random.nextBytes(payload);
+		byte[] bytes = original.clone();
+		MatchingCover cover = new MatchingCover(new ArrayCover(bytes), random.nextLong());
+		cover.embed(0, payload, 0, payload.length, 1);
+
+		int up = 0;
+		int down = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			int delta = (bytes[i] & 0xFF) - (original[i] & 0xFF);
+			assertTrue(Math.abs(delta) <= 1, "byte " + i + " moved by " + delta);
+			if (delta > 0)
+				up++;
+			else if (delta < 0)
+				down++;
+		}
+		// a third of the bytes are forced one way, the rest go either way
+		assertTrue(Math.abs(up - down) < bytes.length / 50, up + " up, " + down + " down");
+
+		byte[] back = new byte[payload.length];
+		cover.extract(0, back, 0, back.length, 1);
+		assertArrayEquals(payload, back);
+	}
+
+	@Test
+	public void stegoImagesReadBack() {
+		String text = TestImages.text(5000, 4);
+		for (int type : new int[] { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB }) {
+			Steganography stega = new Steganography();
+			stega.setMatching(true);
+			BufferedImage cover = TestImages.noise(300, 200, type, 5);
+			BufferedImage original = TestImages.noise(300, 200, type, 5);
+			stega.encodeText(RasterCover.wrap(cover), text);
+			assertEquals(text, new Steganography().decodeText(cover));
+
+			for (int y = 0; y < 200; y++)
+				for (int x = 0; x < 300; x++)
+					for (int shift = 0; shift < 24; shift += 8) {
+						int delta = (cover.getRGB(x, y) >> shift & 0xFF) - (original.getRGB(x, y) >> shift & 0xFF);
+						assertTrue(Math.abs(delta) <= 1, "type " + type + " at " + x + "," + y);
+					}
+		}
+	}
+
+	@Test
+	public void scatteredMatchingIsKeyedByTheCoverOffset() {
+		Random random = new Random(7);
+		byte[] original = cover(random, StegaHeader.COVER_BYTES + 200 * ScatteredCover.UNIT);
+		byte[] payload = new byte[10000];
+		random.nextBytes(payload);
+
+		// scattering a matching cover, as Steganography does, and matching through the scatter
+		byte[] wrapped = original.clone();
+		new ScatteredCover(new MatchingCover(new ArrayCover(wrapped), 42), "key".getBytes())
+				.embed(StegaHeader.COVER_BYTES, payload, 0, payload.length, 1);
+		byte[] direct = original.clone();
+		ScatteredCover cover = new ScatteredCover(new ArrayCover(direct), "key".getBytes());
+		cover.embedMatching(StegaHeader.COVER_BYTES, payload, 0, payload.length, 42);
+		assertArrayEquals(wrapped, direct);
+
+		byte[] back = new byte[payload.length];
+		cover.extract(StegaHeader.COVER_BYTES, back, 0, back.length, 1);
+		assertArrayEquals(payload, back);
+	}
+
+	@Test
+	public void scatteredStegoImageReadsBack() {
+		Steganography stega = new Steganography();
+		stega.setMatching(true);
+		stega.setScatterKey("key".getBytes());
+		String text = TestImages.text(5000, 8);
+		BufferedImage cover = TestImages.noise(300, 200, 9);
+		byte[] original = TestImages.raster(cover).clone();
+		stega.encodeText(cover, text);
+		assertEquals(text, stega.decodeText(cover));
+		byte[] bytes = TestImages.raster(cover);
+		for (int i = 0; i < bytes.length; i++)
+			assertTrue(Math.abs((bytes[i] & 0xFF) - (original[i] & 0xFF)) <= 1, "byte " + i);
+	}
+
+	@Test
+	public void moreThanOneBitIsRejected() {
+		final MatchingCover cover = new MatchingCover(new ArrayCover(new byte[1000]), 1);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				cover.embed(0, new byte[10], 0, 10, 2);
+			}
+		});
+
+		final Steganography stega = new Steganography();
+		stega.setMatching(true);
+		stega.setBitsPerChannel(2);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.encodeText(TestImages.noise(100, 100, 6), "secret");
+			}
+		});
+	}
+}
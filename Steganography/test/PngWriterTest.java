@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * PNGs written straight from the raster, read back by ImageIO pixel for pixel in every layout
+ * and with every setting
+ */
+public class PngWriterTest {
+
+	/**
+	 * @param png the writer
+	 * @param bimg an image
+	 * @return the image written and read back by ImageIO
+	 */
+	private static BufferedImage roundTrip(PngWriter png, BufferedImage bimg) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		png.write(bimg, out);
+		BufferedImage back = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+		assertTrue(back != null, "ImageIO cannot read the PNG");
+		return back;
+	}
+
+	/**
+	 * @param expected an image
+	 * @param actual the same one read back, colors and alpha must be the same
+	 */
+	private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel " + x + "," + y);
+	}
+
+	@Test
+	public void everyLayoutReadsBack() throws IOException {
+		int[] types = { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+				BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY };
+		for (int type : types) {
+			BufferedImage bimg = TestImages.noise(97, 61, type, type);
+			assertSamePixels(bimg, roundTrip(new PngWriter(), bimg));
+		}
+	}
+
+	@Test
+	public void everySettingReadsBack() throws IOException {
+		BufferedImage bimg = TestImages.noise(300, 211, 1);
+		for (int level : new int[] { 0, 1, 6, 9 })
+			for (int filter : new int[] { PngWriter.FILTER_NONE, PngWriter.FILTER_SUB })
+				for (boolean parallel : new boolean[] { false, true }) {
+					PngWriter png = new PngWriter();
+					png.setLevel(level);
+					png.setFilter(filter);
+					png.setParallel(parallel);
+					png.setBlockSize(17);
+					png.setStrategy(level == 9 ? Deflater.FILTERED : Deflater.DEFAULT_STRATEGY);
+					assertSamePixels(bimg, roundTrip(png, bimg));
+				}
+	}
+
+	@Test
+	public void changedRowsReuseBlocks() throws IOException {
+		PngWriter png = new PngWriter();
+		png.setBlockSize(16);
+		BufferedImage cover = TestImages.noise(200, 150, 2);
+		PngWriter.Blocks blocks = png.deflateBlocks(cover);
+
+		// the secret only changes the first rows of a copy of the cover
+		BufferedImage stego = new Steganography().encodeText(TestImages.noise(200, 150, 2), "a short secret");
+		BitSet changed = new BitSet();
+		for (int y = 0; y < 150; y++)
+			for (int x = 0; x < 200; x++)
+				if (stego.getRGB(x, y) != cover.getRGB(x, y))
+					changed.set(y);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		png.write(blocks, PngWriter.rowsOf(stego), changed, out);
+
+		BufferedImage back = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+		assertSamePixels(stego, back);
+		assertArrayEquals(TestImages.raster(stego), TestImages.raster(RasterCover.convertToBGR(back)));
+		assertEquals("a short secret", new Steganography().decodeText(back));
+	}
+
+	@Test
+	public void invalidLevelIsRejected() {
+		final PngWriter png = new PngWriter();
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				png.setLevel(10);
+			}
+		});
+	}
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Secrets hidden in the raster of every image layout, in place where the layout allows it, and
+ * read back after the image is redrawn in another layout
+ */
+public class RasterCoverTest {
+
+	private static final int[] TYPES = { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY,
+			BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+			BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_4BYTE_ABGR_PRE,
+			BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_BYTE_INDEXED };
+
+	private static final RasterCover.Path[] PATHS = { RasterCover.Path.DIRECT, RasterCover.Path.DIRECT,
+			RasterCover.Path.BYTE, RasterCover.Path.INT, RasterCover.Path.INT, RasterCover.Path.INT,
+			RasterCover.Path.CONVERTED, RasterCover.Path.CONVERTED, RasterCover.Path.CONVERTED,
+			RasterCover.Path.CONVERTED };
+
+	@Test
+	public void everyLayoutRoundTrips() {
+		Steganography stega = new Steganography();
+		String text = TestImages.text(2000, 1);
+		for (int i = 0; i < TYPES.length; i++) {
+			BufferedImage cover = TestImages.noise(200, 150, TYPES[i], i);
+			RasterCover raster = RasterCover.wrap(cover);
+			assertEquals(PATHS[i], raster.getPath(), "type " + TYPES[i]);
+			boolean gray = TYPES[i] == BufferedImage.TYPE_BYTE_GRAY;
+			assertEquals((gray ? 1 : 3) * 200 * 150, raster.size(), "type " + TYPES[i]);
+
+			BufferedImage stego = stega.encodeText(cover, text);
+			if (PATHS[i] == RasterCover.Path.CONVERTED) {
+				assertNotSame(cover, stego, "type " + TYPES[i]);
+				assertEquals(BufferedImage.TYPE_3BYTE_BGR, stego.getType());
+			} else {
+				assertSame(cover, stego, "type " + TYPES[i] + " is changed in place");
+			}
+			assertEquals(text, stega.decodeText(stego), "type " + TYPES[i]);
+		}
+	}
+
+	@Test
+	public void onlyDirectLayoutsExposeTheirBytes() {
+		for (int i = 0; i < TYPES.length; i++) {
+			RasterCover raster = RasterCover.wrap(TestImages.noise(20, 10, TYPES[i], i));
+			if (PATHS[i] == RasterCover.Path.BYTE || PATHS[i] == RasterCover.Path.INT)
+				assertNull(raster.getDirectBytes(), "type " + TYPES[i]);
+			else
+				assertEquals(raster.size(), raster.getDirectBytes().length, "type " + TYPES[i]);
+		}
+	}
+
+	@Test
+	public void colorsAreCoverBytesInAnyLayout() {
+		// the same pixels in any layout give the same colors once the same secret is hidden
+		Steganography stega = new Steganography();
+		String text = TestImages.text(3000, 2);
+		BufferedImage bgr = stega.encodeText(TestImages.noise(200, 150, 3), text);
+		for (int type : new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB,
+				BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR }) {
+			BufferedImage stego = stega.encodeText(TestImages.noise(200, 150, type, 3), text);
+			assertTrue(TestImages.sameColors(bgr, stego), "type " + type);
+			// and the secret survives redrawing an opaque image as 3 byte BGR
+			if (!stego.getColorModel().hasAlpha())
+				assertEquals(text, stega.decodeText(RasterCover.convertToBGR(stego)), "type " + type);
+		}
+	}
+
+	@Test
+	public void alphaIsLeftAlone() {
+		BufferedImage cover = TestImages.noise(200, 150, BufferedImage.TYPE_INT_ARGB, 4);
+		int[] alpha = new int[200 * 150];
+		for (int y = 0; y < 150; y++)
+			for (int x = 0; x < 200; x++)
+				alpha[y * 200 + x] = cover.getRGB(x, y) >>> 24;
+
+		new Steganography().encodeText(cover, TestImages.text(3000, 5));
+		for (int y = 0; y < 150; y++)
+			for (int x = 0; x < 200; x++)
+				assertEquals(alpha[y * 200 + x], cover.getRGB(x, y) >>> 24, "pixel " + x + "," + y);
+	}
+}
@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * The Reed-Solomon code on its own and on stego images damaged after the secret was hidden
+ */
+public class ReedSolomonTest {
+
+	@Test
+	public void burstOfEightPerCodewordIsCorrected() throws IOException {
+		Random random = new Random(1);
+		for (int length : new int[] { 1, 238, 239, 240, 10000, 100003 }) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			byte[] encoded = ReedSolomon.encode(data);
+			assertEquals(length, ReedSolomon.dataLength(encoded.length));
+
+			// interleaving spreads a run of 8 bytes per codeword over all of them
+			byte[] damaged = encoded.clone();
+			int burst = (int) Math.min(damaged.length, 8 * ReedSolomon.codewords(length));
+			int start = random.nextInt(damaged.length - burst + 1);
+			for (int i = start; i < start + burst; i++)
+				damaged[i] ^= 1 + random.nextInt(255);
+			assertEquals(burst, ReedSolomon.correct(damaged, length));
+			assertArrayEquals(encoded, damaged, "length " + length);
+		}
+	}
+
+	@Test
+	public void tooManyErrorsAreReported() {
+		Random random = new Random(2);
+		byte[] data = new byte[200];
+		random.nextBytes(data);
+		final byte[] damaged = ReedSolomon.encode(data);
+		for (int i = 0; i < 40; i += 2)
+			damaged[i] ^= 1 + random.nextInt(255);
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				ReedSolomon.correct(damaged, 200);
+			}
+		});
+	}
+
+	@Test
+	public void headerCodewordIsCorrected() {
+		Random random = new Random(3);
+		for (int t = 0; t < 200; t++) {
+			byte[] codeword = new byte[46];
+			random.nextBytes(codeword);
+			ReedSolomon.parity(codeword, 0, 30, codeword, 30);
+			byte[] original = codeword.clone();
+			int errors = random.nextInt(9);
+			for (int e = 0; e < errors; e++)
+				codeword[random.nextInt(46)] ^= 1 + random.nextInt(255);
+
+			ReedSolomon.correct(codeword, 0, 46);
+			assertArrayEquals(original, codeword);
+		}
+	}
+
+	@Test
+	public void damagedStegoImageIsRepaired() {
+		Random random = new Random(4);
+		String text = TestImages.text(20000, 5);
+		BufferedImage secret = TestImages.noise(60, 40, 6);
+		for (int bits = 1; bits <= 2; bits++) {
+			Steganography stega = new Steganography();
+			stega.setBitsPerChannel(bits);
+			stega.setErrorCorrection(true);
+
+			BufferedImage textStego = stega.encodeText(TestImages.noise(400, 300, 7), text);
+			BufferedImage imageStego = stega.encodeImage(TestImages.noise(400, 300, 8), secret);
+			for (BufferedImage stego : new BufferedImage[] { textStego, imageStego }) {
+				byte[] pixels = TestImages.raster(stego);
+				// a few LSBs of the header, then about 1 cover byte in 2000 anywhere
+				for (int i = 0; i < StegaHeader.CORRECTED_COVER_BYTES; i += 97)
+					pixels[i] ^= 1;
+				for (int i = 0; i < pixels.length / 2000; i++)
+					pixels[random.nextInt(pixels.length)] ^= 1 << random.nextInt(bits);
+			}
+
+			assertEquals(text, stega.decodeText(textStego), "bits " + bits);
+			assertTrue(TestImages.sameColors(secret, stega.decodeImage(imageStego)), "bits " + bits);
+		}
+	}
+
+	@Test
+	public void stripeOverTheSecretIsRepaired() {
+		Steganography stega = new Steganography();
+		stega.setErrorCorrection(true);
+		stega.setCompression(true);
+		stega.setPassword("password".toCharArray());
+		String text = TestImages.text(20000, 9);
+		BufferedImage stego = stega.encodeText(TestImages.noise(400, 300, 10), text);
+
+		// 1600 cover bytes, 200 hidden bytes over about 50 codewords of deflated text
+		byte[] pixels = TestImages.raster(stego);
+		for (int i = 20000; i < 21600; i++)
+			pixels[i] = 0;
+		assertEquals(text, stega.decodeText(stego));
+	}
+
+	@Test
+	public void heavyDamageIsRejected() {
+		final Steganography stega = new Steganography();
+		stega.setErrorCorrection(true);
+		final BufferedImage stego = stega.encodeText(TestImages.noise(400, 300, 11), TestImages.text(10000, 12));
+		Random random = new Random(13);
+		byte[] pixels = TestImages.raster(stego);
+		for (int i = StegaHeader.CORRECTED_COVER_BYTES; i < pixels.length; i++)
+			if (random.nextInt(8) == 0)
+				pixels[i] ^= 1;
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.decodeText(stego);
+			}
+		});
+	}
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * The keyed Feistel scatter: a bijection of the units for any size, secrets that read back
+ * with the key and not without it
+ */
+public class ScatteredCoverTest {
+
+	@Test
+	public void permutationIsBijection() {
+		for (long units : new long[] { 1, 2, 3, 4, 5, 100, 1000, 4097 }) {
+			long size = StegaHeader.COVER_BYTES + units * ScatteredCover.UNIT;
+			ScatteredCover cover = new ScatteredCover(new ArrayCover(new byte[(int) size]), "key".getBytes());
+			BitSet seen = new BitSet();
+			for (long u = 0; u < units; u++) {
+				long p = cover.permute(u);
+				assertTrue(p >= 0 && p < units, units + " units: " + u + " -> " + p);
+				assertFalse(seen.get((int) p), units + " units: two units go to " + p);
+				seen.set((int) p);
+			}
+		}
+	}
+
+	@Test
+	public void keysGiveOtherOrders() {
+		ArrayCover plain = new ArrayCover(new byte[StegaHeader.COVER_BYTES + 1000 * ScatteredCover.UNIT]);
+		ScatteredCover a = new ScatteredCover(plain, "key".getBytes());
+		ScatteredCover b = new ScatteredCover(plain, "kez".getBytes());
+		int same = 0;
+		for (long u = 0; u < 1000; u++)
+			if (a.permute(u) == b.permute(u))
+				same++;
+		assertTrue(same < 20, same + " of 1000 units in the same place");
+	}
+
+	@Test
+	public void roundTripThroughCover() {
+		Random random = new Random(1);
+		byte[] bytes = new byte[StegaHeader.COVER_BYTES + 300 * ScatteredCover.UNIT];
+		random.nextBytes(bytes);
+		ScatteredCover cover = new ScatteredCover(new ArrayCover(bytes), "key".getBytes());
+		for (int bits = 1; bits <= 4; bits++) {
+			byte[] payload = new byte[(int) ((cover.size() - StegaHeader.COVER_BYTES) * bits / 8) - 3];
+			random.nextBytes(payload);
+			cover.embed(StegaHeader.COVER_BYTES, payload, 0, payload.length, bits);
+
+			byte[] back = new byte[payload.length];
+			cover.extract(StegaHeader.COVER_BYTES, back, 0, back.length, bits);
+			assertArrayEquals(payload, back, "bits " + bits);
+		}
+	}
+
+	@Test
+	public void wrongKeyDoesNotRead() {
+		Steganography stega = new Steganography();
+		stega.setScatterKey("key".getBytes());
+		String text = TestImages.text(5000, 2);
+		final BufferedImage stego = stega.encodeText(TestImages.noise(400, 300, 3), text);
+		assertEquals(text, stega.decodeText(stego));
+
+		final Steganography other = new Steganography();
+		other.setScatterKey("kez".getBytes());
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				other.decodeText(stego);
+			}
+		});
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				new Steganography().decodeText(stego);
+			}
+		});
+		assertTrue(e.getMessage().contains("key"), e.getMessage());
+	}
+
+	@Test
+	public void secretIsSpreadOverCover() {
+		Steganography stega = new Steganography();
+		stega.setScatterKey("key".getBytes());
+		BufferedImage cover = TestImages.noise(400, 300, 4);
+		byte[] before = TestImages.raster(cover).clone();
+		stega.encodeText(cover, TestImages.text(1000, 5));
+
+		// without the key the 8000 cover bytes of the text would all be at the start
+		byte[] after = TestImages.raster(cover);
+		int lastHalf = 0;
+		for (int i = after.length / 2; i < after.length; i++)
+			if (after[i] != before[i])
+				lastHalf++;
+		assertTrue(lastHalf > 1000, lastHalf + " bytes changed in the last half");
+	}
+}
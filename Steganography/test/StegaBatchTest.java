@@ -0,0 +1,117 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The batch command over small directories, through queues of one image so every stage waits
+ * on the next, and with images that fail at each stage
+ */
+public class StegaBatchTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(60);  // a lost END hangs a stage
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * Runs the command, failing if the pipeline does not finish
+	 * @param args the arguments of the command
+	 */
+	private static void batch(final String... args) {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			public void execute() throws Exception {
+				StegaBatch.main(args);
+			}
+		});
+	}
+
+	/**
+	 * @param name directory under the temporary one
+	 * @param count how many covers
+	 * @param seed picks the pixels
+	 * @return a directory of PNG covers
+	 */
+	private File covers(String name, int count, long seed) throws IOException {
+		File covers = dir.resolve(name).toFile();
+		covers.mkdirs();
+		for (int i = 0; i < count; i++)
+			new PngWriter().write(TestImages.noise(200, 150, seed + i), new File(covers, "cover" + i + ".png"));
+		return covers;
+	}
+
+	@Test
+	public void textThroughEmbedAndExtract() throws IOException {
+		File covers = covers("covers", 6, 1);
+		File secret = dir.resolve("secret.txt").toFile();
+		byte[] text = TestImages.text(3000, 2).getBytes();
+		Files.write(secret.toPath(), text);
+		String stego = dir.resolve("stego").toString();
+		String texts = dir.resolve("texts").toString();
+
+		batch("embed", "-secret", secret.getPath(), "-in", covers.getPath(), "-out", stego, "-readers", "2",
+				"-workers", "3", "-writers", "2", "-queue", "1", "-bits", "2");
+		batch("extract", "-type", "text", "-in", stego, "-out", texts, "-queue", "1", "-bits", "2");
+
+		for (int i = 0; i < 6; i++)
+			assertArrayEquals(text, Files.readAllBytes(new File(texts, "cover" + i + ".txt").toPath()), "cover " + i);
+	}
+
+	@Test
+	public void imageThroughEmbedAndExtract() throws IOException {
+		File covers = covers("covers", 3, 3);
+		File secret = dir.resolve("secret.png").toFile();
+		new PngWriter().write(TestImages.noise(40, 30, 4), secret);
+		String stego = dir.resolve("stego").toString();
+		String images = dir.resolve("images").toString();
+
+		batch("embed", "-secret", secret.getPath(), "-in", covers.getPath(), "-out", stego, "-key", "key");
+		batch("extract", "-type", "image", "-in", stego, "-out", images, "-key", "key");
+
+		for (int i = 0; i < 3; i++)
+			assertTrue(TestImages.sameColors(TestImages.noise(40, 30, 4),
+					ImageIO.read(new File(images, "cover" + i + ".png"))), "cover " + i);
+	}
+
+	@Test
+	public void failedImagesDoNotStopThePipeline() throws IOException {
+		File covers = covers("covers", 4, 5);
+		File notImage = dir.resolve("covers/broken.png").toFile();
+		Files.write(notImage.toPath(), "not an image".getBytes());
+		File small = dir.resolve("covers/small.png").toFile();
+		new PngWriter().write(TestImages.noise(20, 20, 6), small);
+		File list = dir.resolve("list.txt").toFile();
+		Files.write(list.toPath(), Arrays.asList(notImage.getPath(), new File(covers, "cover0.png").getPath(),
+				dir.resolve("missing.png").toString(), small.getPath(), new File(covers, "cover1.png").getPath()));
+		File secret = dir.resolve("secret.txt").toFile();
+		Files.write(secret.toPath(), TestImages.text(3000, 7).getBytes());
+		File stego = dir.resolve("stego").toFile();
+
+		// the read stage fails two images, the embed stage one
+		batch("embed", "-secret", secret.getPath(), "-in", list.getPath(), "-out", stego.getPath(), "-readers", "3",
+				"-workers", "2", "-writers", "1", "-queue", "1");
+		String[] written = stego.list();
+		Arrays.sort(written);
+		assertArrayEquals(new String[] { "cover0.png", "cover1.png" }, written);
+
+		// every image fails in the extract stage, the write stage still stops
+		File texts = dir.resolve("texts").toFile();
+		batch("extract", "-type", "text", "-in", covers.getPath(), "-out", texts.getPath(), "-queue", "1");
+		assertEquals(0, texts.list().length);
+		assertFalse(new File(texts, "cover0.txt").exists());
+	}
+}
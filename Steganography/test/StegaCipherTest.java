@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * AES-GCM chunks: round trips of every length around a chunk, and secrets that were cut off,
+ * reordered, changed or given the wrong password
+ */
+public class StegaCipherTest {
+
+	// deriving a key takes a while on purpose, so the tests share two
+	private static StegaCipher cipher;
+	private static StegaCipher wrong;
+
+	@BeforeAll
+	public static void deriveKeys() {
+		cipher = new StegaCipher("password".toCharArray());
+		wrong = new StegaCipher("passw0rd".toCharArray());
+	}
+
+	/**
+	 * @param plain bytes to encrypt
+	 * @return them encrypted with the shared cipher
+	 */
+	private static byte[] encrypt(byte[] plain) throws IOException {
+		ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+		try (OutputStream out = cipher.encrypting(sealed)) {
+			out.write(plain);
+		}
+		return sealed.toByteArray();
+	}
+
+	/**
+	 * @param with the cipher to decrypt with
+	 * @param sealed encrypted bytes
+	 * @return them decrypted
+	 * @throws IOException if they do not decrypt
+	 */
+	private static byte[] decrypt(StegaCipher with, byte[] sealed) throws IOException {
+		try (InputStream in = with.decrypting(new ByteArrayInputStream(sealed))) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * @param with the cipher to decrypt with
+	 * @param sealed encrypted bytes that must not decrypt
+	 */
+	private static void assertRejected(final StegaCipher with, final byte[] sealed) {
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				decrypt(with, sealed);
+			}
+		});
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		Random random = new Random(1);
+		int chunk = StegaCipher.CHUNK;
+		for (int length : new int[] { 0, 1, chunk - 1, chunk, chunk + 1, 3 * chunk + 100 }) {
+			byte[] plain = new byte[length];
+			random.nextBytes(plain);
+			byte[] sealed = encrypt(plain);
+
+			assertEquals(StegaCipher.encryptedLength(length), sealed.length, "length " + length);
+			assertEquals(length, StegaCipher.plainLength(sealed.length));
+			assertArrayEquals(plain, decrypt(cipher, sealed), "length " + length);
+		}
+	}
+
+	@Test
+	public void wrongPasswordIsRejected() throws IOException {
+		assertRejected(wrong, encrypt(new byte[100]));
+	}
+
+	@Test
+	public void changedByteIsRejected() throws IOException {
+		byte[] sealed = encrypt(new byte[3 * StegaCipher.CHUNK]);
+		sealed[StegaCipher.HEADER + StegaCipher.CHUNK + 7] ^= 1;
+		assertRejected(cipher, sealed);
+	}
+
+	@Test
+	public void cutOffSecretIsRejected() throws IOException {
+		byte[] sealed = encrypt(new byte[3 * StegaCipher.CHUNK]);
+		// whole chunks only, so only the flag of the last chunk tells
+		int twoChunks = StegaCipher.HEADER + 2 * (StegaCipher.CHUNK + StegaCipher.TAG);
+		assertRejected(cipher, Arrays.copyOf(sealed, twoChunks));
+		assertRejected(cipher, Arrays.copyOf(sealed, sealed.length - 1));
+	}
+
+	@Test
+	public void reorderedChunksAreRejected() throws IOException {
+		byte[] sealed = encrypt(new byte[3 * StegaCipher.CHUNK]);
+		int size = StegaCipher.CHUNK + StegaCipher.TAG;
+		byte[] swapped = sealed.clone();
+		System.arraycopy(sealed, StegaCipher.HEADER, swapped, StegaCipher.HEADER + size, size);
+		System.arraycopy(sealed, StegaCipher.HEADER + size, swapped, StegaCipher.HEADER, size);
+		assertRejected(cipher, swapped);
+	}
+
+	@Test
+	public void encryptedStegoImage() {
+		Steganography stega = new Steganography();
+		stega.setPassword("password".toCharArray());
+		String text = TestImages.text(10000, 2);
+		final BufferedImage stego = stega.encodeText(TestImages.noise(400, 300, 3), text);
+		assertEquals(text, stega.decodeText(stego));
+
+		final Steganography other = new Steganography();
+		other.setPassword("passw0rd".toCharArray());
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				other.decodeText(stego);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				new Steganography().decodeText(stego);
+			}
+		}, "no password");
+	}
+}
@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Decodes with a context, which must hand out the same image and buffers again for secrets of
+ * the same size
+ */
+public class StegaContextTest {
+
+	@Test
+	public void sameSizeDecodeReusesTheImage() {
+		Steganography stega = new Steganography();
+		StegaContext context = new StegaContext();
+		BufferedImage first = TestImages.noise(60, 40, 1);
+		BufferedImage second = TestImages.noise(60, 40, 2);
+		BufferedImage a = stega.encodeImage(TestImages.noise(200, 150, 3), first, context);
+		BufferedImage b = stega.encodeImage(TestImages.noise(200, 150, 4), second, context);
+
+		BufferedImage decoded = stega.decodeImage(a, context);
+		byte[] raster = TestImages.raster(decoded);
+		assertTrue(TestImages.sameColors(first, decoded));
+		BufferedImage again = stega.decodeImage(b, context);
+		assertSame(decoded, again, "a second decode of the same size");
+		assertSame(raster, TestImages.raster(again));
+		assertTrue(TestImages.sameColors(second, again));
+
+		// another size gets its own image, the first one is still kept
+		BufferedImage small = stega.decodeImage(stega.encodeImage(TestImages.noise(200, 150, 5),
+				TestImages.noise(30, 20, 6), context), context);
+		assertNotSame(decoded, small);
+		assertSame(decoded, stega.decodeImage(a, context));
+	}
+
+	@Test
+	public void sameLengthDecodeReusesTheBuffer() {
+		StegaContext context = new StegaContext();
+		byte[] buffer = context.buffer(1000);
+		assertSame(buffer, context.buffer(1000));
+		assertEquals(999, context.buffer(999).length);
+		assertSame(buffer, context.buffer(1000));
+
+		// decoding text of that length reads it into the same buffer
+		Steganography stega = new Steganography();
+		String text = TestImages.text(1000, 7);
+		assertEquals(text, stega.decodeText(stega.encodeText(TestImages.noise(200, 150, 8), text), context));
+		assertArrayEquals(text.getBytes(), buffer);
+		assertSame(buffer, context.buffer(1000));
+	}
+}
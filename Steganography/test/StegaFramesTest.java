@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Secrets over the frames of multi-page TIFFs and GIFs, written back as one TIFF, and stego
+ * files with a frame missing
+ */
+public class StegaFramesTest {
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * @return 5 frames of other sizes and layouts
+	 */
+	private static List<BufferedImage> frames() {
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB };
+		for (int i = 0; i < 5; i++)
+			frames.add(TestImages.noise(200 + 10 * i, 150, types[i % 3], i));
+		return frames;
+	}
+
+	/**
+	 * Writes images as the frames of one file
+	 * @param format tiff or gif
+	 * @param file the file
+	 * @param frames the images
+	 * @return the file
+	 */
+	private static File write(String format, File file, List<BufferedImage> frames) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+			writer.setOutput(out);
+			writer.prepareWriteSequence(null);
+			for (BufferedImage frame : frames)
+				writer.writeToSequence(new IIOImage(frame, null, null), null);
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+		}
+		return file;
+	}
+
+	/**
+	 * @param file a multi-image file
+	 * @return its frames
+	 */
+	private static List<BufferedImage> read(File file) throws IOException {
+		List<BufferedImage> frames = new ArrayList<BufferedImage>();
+		try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+			ImageReader reader = ImageIO.getImageReaders(in).next();
+			reader.setInput(in);
+			for (int i = 0; i < reader.getNumImages(true); i++)
+				frames.add(reader.read(i));
+			reader.dispose();
+		}
+		return frames;
+	}
+
+	@Test
+	public void textOverTiffAndGifFrames() throws IOException {
+		File tiff = write("tiff", dir.resolve("in.tif").toFile(), frames());
+		File gif = write("gif", dir.resolve("in.gif").toFile(), frames());
+		File out = dir.resolve("out.tif").toFile();
+		for (File in : new File[] { tiff, gif })
+			for (int bits = 1; bits <= 2; bits++) {
+				Steganography stega = new Steganography();
+				stega.setBitsPerChannel(bits);
+				StegaFrames frames = new StegaFrames(stega);
+				frames.setFramesInFlight(2);
+				// more than any one frame holds
+				String text = TestImages.text((int) (frames.capacity(in) * 9 / 10), bits);
+
+				assertEquals(5, frames.encodeText(in, out, text));
+				assertEquals(text, frames.decodeText(out), in.getName() + ", bits " + bits);
+			}
+	}
+
+	@Test
+	public void imageWithSettings() throws IOException {
+		File in = write("tiff", dir.resolve("in.tif").toFile(), frames());
+		File out = dir.resolve("out.tif").toFile();
+		Steganography stega = new Steganography();
+		stega.setScatterKey("key".getBytes());
+		stega.setPassword("password".toCharArray());
+		stega.setErrorCorrection(true);
+		StegaFrames frames = new StegaFrames(stega);
+		frames.setTiffCompression("LZW");
+		BufferedImage secret = TestImages.noise(100, 80, 9);
+
+		frames.encodeImage(in, out, secret);
+		assertTrue(TestImages.sameColors(secret, frames.decodeImage(out)));
+	}
+
+	@Test
+	public void missingFrameIsRejected() throws IOException {
+		File in = write("tiff", dir.resolve("in.tif").toFile(), frames());
+		File out = dir.resolve("out.tif").toFile();
+		final StegaFrames frames = new StegaFrames(new Steganography());
+		frames.encodeText(in, out, TestImages.text(30000, 10));
+
+		List<BufferedImage> stegos = read(out);
+		stegos.remove(3);
+		final File cut = write("tiff", dir.resolve("cut.tif").toFile(), stegos);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() throws IOException {
+				frames.decodeText(cut);
+			}
+		});
+	}
+
+	@Test
+	public void badInputIsRejected() throws IOException {
+		final File in = write("tiff", dir.resolve("in.tif").toFile(), frames());
+		final File out = dir.resolve("out.tif").toFile();
+		final StegaFrames frames = new StegaFrames(new Steganography());
+
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				frames.setTiffCompression("JPEG");
+			}
+		}, "lossy compression");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() throws IOException {
+				frames.decodeText(in);
+			}
+		}, "frames without a secret");
+		assertThrows(ArrayIndexOutOfBoundsException.class, new Executable() {
+			public void execute() throws IOException {
+				frames.encodeText(in, out, TestImages.text((int) frames.capacity(in) + 1000, 11));
+			}
+		}, "secret too large");
+	}
+}
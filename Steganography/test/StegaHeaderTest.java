@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Headers read back from a cover, headers that must be rejected before anything after them is
+ * read, and a damaged header corrected by the parity hidden after it
+ */
+public class StegaHeaderTest {
+
+	/**
+	 * @param size cover bytes
+	 * @param seed picks the bytes
+	 * @return a cover of random bytes
+	 */
+	private static ArrayCover cover(int size, long seed) {
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return new ArrayCover(bytes);
+	}
+
+	/**
+	 * Hides header bytes as they are, checksum included, so headers write() refuses can be hidden
+	 * @param cover the cover
+	 * @param b the 30 header bytes
+	 */
+	private static void hide(LsbCover cover, byte[] b) {
+		cover.embed(0, b, 0, StegaHeader.SIZE);
+	}
+
+	/**
+	 * @param b header bytes to seal after changing them
+	 * @return b with its header checksum fixed
+	 */
+	private static byte[] seal(byte[] b) {
+		StegaHeader.putInt(b, 26, StegaHeader.checksum(b, 0, 26));
+		return b;
+	}
+
+	/**
+	 * Checks that reading the header of a cover fails
+	 * @param cover the cover
+	 * @param message what the error says
+	 */
+	private static void rejected(final LsbCover cover, String message) {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				StegaHeader.read(cover);
+			}
+		});
+		assertTrue(e.getMessage().contains(message), e.getMessage());
+	}
+
+	@Test
+	public void headerRoundTrip() {
+		StegaHeader[] headers = { new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 1000, 0, 0, 7),
+				new StegaHeader(StegaHeader.TYPE_IMAGE, 3, false, true, false, 3L * 40 * 30, 40, 30, -1),
+				new StegaHeader(StegaHeader.TYPE_SHARD, 4, true, false, true, 2000, 0, 0, 0x12345678) };
+		for (StegaHeader header : headers) {
+			ArrayCover cover = cover(20000, 1);
+			header.write(cover);
+			assertArrayEquals(header.toBytes(), StegaHeader.read(cover).toBytes(), header.toString());
+		}
+	}
+
+	@Test
+	public void badMagicIsRejected() {
+		rejected(cover(20000, 2), "no secret");
+		rejected(cover(StegaHeader.COVER_BYTES - 1, 2), "no secret");
+	}
+
+	@Test
+	public void unknownVersionIsRejected() {
+		ArrayCover cover = cover(20000, 3);
+		byte[] b = new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 100, 0, 0, 0).toBytes();
+		b[3] = 2;
+		hide(cover, seal(b));
+		rejected(cover, "version 2");
+	}
+
+	@Test
+	public void reservedFlagsAreRejected() {
+		for (int flag : new int[] { 0x08, 0x10 }) {
+			ArrayCover cover = cover(20000, 4);
+			byte[] b = new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 100, 0, 0, 0).toBytes();
+			b[5] |= flag;
+			hide(cover, seal(b));
+			rejected(cover, "unsupported options");
+		}
+	}
+
+	@Test
+	public void checksumMismatchIsRejected() {
+		ArrayCover cover = cover(20000, 5);
+		byte[] b = new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 100, 0, 0, 0).toBytes();
+		b[13] ^= 1;  // length 101 with the checksum of length 100
+		hide(cover, b);
+		rejected(cover, "checksum");
+	}
+
+	@Test
+	public void lengthBeyondCapacityIsRejected() {
+		// 10 whole units and 300 bytes more after the header, 677 bytes with one bit
+		int size = StegaHeader.COVER_BYTES + 10 * ScatteredCover.UNIT + 300;
+		final ArrayCover cover = cover(size, 6);
+		assertTrue(new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 677, 0, 0, 0).fits(cover));
+		assertFalse(new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 678, 0, 0, 0).fits(cover));
+		hide(cover, new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, 678, 0, 0, 0).toBytes());
+		rejected(cover, "does not fit");
+
+		// scattered secrets only use the 640 bytes of the whole units
+		final StegaHeader scattered = new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, true, false, 660, 0, 0, 0);
+		assertFalse(scattered.fits(cover));
+		hide(cover, scattered.toBytes());
+		rejected(cover, "does not fit");
+		byte[] before = cover.getBytes().clone();
+		assertThrows(ArrayIndexOutOfBoundsException.class, new Executable() {
+			public void execute() {
+				scattered.write(cover);
+			}
+		});
+		assertArrayEquals(before, cover.getBytes());
+		assertTrue(new StegaHeader(StegaHeader.TYPE_TEXT, 1, false, true, false, 640, 0, 0, 0).fits(cover));
+	}
+
+	@Test
+	public void damagedHeaderIsRepairedByItsParity() {
+		StegaHeader header = new StegaHeader(StegaHeader.TYPE_TEXT, 2, false, false, false, true,
+				ReedSolomon.encodedLength(500), 0, 0, 9);
+		ArrayCover cover = cover(20000, 7);
+		header.write(cover);
+		// 8 wrong header bytes, magic and checksum among them
+		byte[] bytes = cover.getBytes();
+		for (int i : new int[] { 0, 3, 5, 8, 13, 20, 26, 29 })
+			bytes[8 * i + 2] ^= 1;
+		assertArrayEquals(header.toBytes(), StegaHeader.read(cover).toBytes());
+
+		// the same damage without parity is not repaired
+		ArrayCover plain = cover(20000, 7);
+		new StegaHeader(StegaHeader.TYPE_TEXT, 2, false, 500, 0, 0, 9).write(plain);
+		plain.getBytes()[8 * 13 + 2] ^= 1;
+		rejected(plain, "checksum");
+	}
+}
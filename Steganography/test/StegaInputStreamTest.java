@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Text read back a buffer at a time from the cover, and covers with no text or a corrupt one
+ */
+public class StegaInputStreamTest {
+
+	/**
+	 * @param in a stream
+	 * @param size bytes asked for by each read
+	 * @return everything left in the stream
+	 */
+	private static byte[] readAll(InputStream in, int size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[size];
+		int n;
+		while ((n = in.read(buffer, 0, size)) != -1)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void textStreamsBack() throws IOException {
+		Steganography stega = new Steganography();
+		String text = TestImages.text(20000, 1);
+		BufferedImage stego = stega.encodeText(TestImages.noise(300, 200, 2), text);
+
+		for (int size : new int[] { 1, 7, 8192 })
+			assertEquals(text, new String(readAll(stega.readText(stego), size)), "reads of " + size);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(text.length(), stega.decodeText(stego, out));
+		assertEquals(text, out.toString());
+	}
+
+	@Test
+	public void hiddenBytesWithHeader() throws IOException {
+		Steganography stega = new Steganography();
+		String text = TestImages.text(5000, 3);
+		BufferedImage stego = stega.encodeText(TestImages.noise(200, 100, 4), text);
+
+		StegaInputStream in = stega.openText(stego);
+		assertEquals(5000, in.getLength());
+		assertEquals(5000, in.available());
+		assertEquals(1000, in.skip(1000));
+		assertEquals(1000, in.getPosition());
+		assertArrayEquals(text.substring(1000).getBytes(), readAll(in, 333));
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void coverWithoutTextIsRejected() {
+		final Steganography stega = new Steganography();
+		final BufferedImage clean = TestImages.noise(200, 100, 5);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.openText(clean);
+			}
+		}, "clean cover");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.readText(clean);
+			}
+		}, "clean cover");
+
+		final BufferedImage stego = stega.encodeText(TestImages.noise(200, 100, 6), "some text");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.openImage(stego);
+			}
+		}, "text read as an image");
+	}
+
+	@Test
+	public void corruptTextFailsAtTheEnd() {
+		final Steganography stega = new Steganography();
+		final BufferedImage stego = stega.encodeText(TestImages.noise(200, 100, 7), TestImages.text(2000, 8));
+		TestImages.raster(stego)[StegaHeader.COVER_BYTES + 800] ^= 1;
+
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				readAll(stega.readText(stego), 8192);
+			}
+		});
+	}
+}
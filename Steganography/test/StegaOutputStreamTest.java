@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Text hidden from streams and channels, with its length known or not until the end, and
+ * streams that do not hold the length declared
+ */
+public class StegaOutputStreamTest {
+
+	@Test
+	public void textFromStreamAndChannel() throws IOException {
+		Steganography stega = new Steganography();
+		byte[] text = TestImages.text(20000, 1).getBytes();
+		for (long length : new long[] { text.length, -1 }) {
+			BufferedImage stego = stega.encodeText(TestImages.noise(300, 200, 2), new ByteArrayInputStream(text),
+					length);
+			assertArrayEquals(text, stega.decodeText(stego).getBytes(), "stream, length " + length);
+
+			stego = stega.encodeText(TestImages.noise(300, 200, 3),
+					Channels.newChannel(new ByteArrayInputStream(text)), length);
+			assertArrayEquals(text, stega.decodeText(stego).getBytes(), "channel, length " + length);
+		}
+	}
+
+	@Test
+	public void lengthKnownOnlyOnClose() throws IOException {
+		Steganography stega = new Steganography();
+		String text = TestImages.text(10000, 4);
+		BufferedImage cover = TestImages.noise(300, 200, 5);
+		OutputStream out = stega.openTextOutput(RasterCover.wrap(cover), -1);
+		// pieces of every size, so groups are split between writes
+		for (int at = 0, n = 1; at < text.length(); at += n, n = n % 13 + 1)
+			out.write(text.substring(at, Math.min(text.length(), at + n)).getBytes());
+		out.close();
+		assertEquals(text, stega.decodeText(cover));
+	}
+
+	@Test
+	public void wrongLengthIsRejected() {
+		final Steganography stega = new Steganography();
+		final byte[] text = TestImages.text(5000, 6).getBytes();
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				stega.encodeText(TestImages.noise(200, 100, 7), new ByteArrayInputStream(text), text.length + 1);
+			}
+		}, "stream shorter than declared");
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				stega.encodeText(TestImages.noise(200, 100, 7), new ByteArrayInputStream(text), text.length - 1);
+			}
+		}, "stream longer than declared");
+
+		final OutputStream out = stega.openTextOutput(RasterCover.wrap(TestImages.noise(200, 100, 8)), 10);
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				out.write(new byte[5]);
+				out.close();
+			}
+		}, "closed short");
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				out.write(new byte[5]);
+			}
+		}, "written after close");
+	}
+
+	@Test
+	public void declaredLengthTooLargeIsRejected() {
+		final Steganography stega = new Steganography();
+		final BufferedImage cover = TestImages.noise(100, 100, 9);
+		byte[] before = TestImages.raster(cover).clone();
+		assertThrows(ArrayIndexOutOfBoundsException.class, new Executable() {
+			public void execute() {
+				stega.openTextOutput(RasterCover.wrap(cover), 4000);
+			}
+		});
+		assertArrayEquals(before, TestImages.raster(cover));
+	}
+}
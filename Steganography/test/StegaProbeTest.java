@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Headers read from the first rows of PNGs written both ways and of other formats, and files
+ * that hold no secret or no image
+ */
+public class StegaProbeTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void textInPng() throws IOException {
+		Steganography stega = new Steganography();
+		String text = TestImages.text(5000, 1);
+		BufferedImage stego = stega.encodeText(TestImages.noise(300, 200, 2), text);
+		File ours = dir.resolve("ours.png").toFile();
+		File imageIo = dir.resolve("imageio.png").toFile();
+		new PngWriter().write(stego, ours);
+		ImageIO.write(stego, "png", imageIo);
+
+		for (File file : new File[] { ours, imageIo }) {
+			StegaProbe probe = StegaProbe.probe(file);
+			assertTrue(probe.isText(), file.getName());
+			assertEquals(text.length(), probe.getTextLength());
+			assertEquals(300, probe.getWidth());
+			assertEquals(200, probe.getHeight());
+			assertFalse(probe.isCompressed());
+		}
+	}
+
+	@Test
+	public void compressedImageInBmp() throws IOException {
+		Steganography stega = new Steganography();
+		stega.setCompression(true);
+		BufferedImage stego = stega.encodeImage(TestImages.noise(300, 200, 3), TestImages.noise(40, 30, 4));
+		File bmp = dir.resolve("stego.bmp").toFile();
+		assertTrue(ImageIO.write(stego, "bmp", bmp));
+
+		StegaProbe probe = StegaProbe.probe(bmp);
+		assertTrue(probe.isImage());
+		assertTrue(probe.isCompressed());
+		assertEquals(40, probe.getSecretWidth());
+		assertEquals(30, probe.getSecretHeight());
+	}
+
+	@Test
+	public void cleanImageHasNoSecret() throws IOException {
+		File png = dir.resolve("clean.png").toFile();
+		new PngWriter().write(TestImages.noise(300, 200, 5), png);
+
+		StegaProbe probe = StegaProbe.probe(png);
+		assertNull(probe.getHeader());
+		assertFalse(probe.isText());
+		assertEquals(-1, probe.getTextLength());
+	}
+
+	@Test
+	public void missingOrBrokenFilesFail() throws IOException {
+		final File missing = dir.resolve("missing.png").toFile();
+		final File text = dir.resolve("text.png").toFile();
+		Files.write(text.toPath(), "not an image".getBytes());
+
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				StegaProbe.probe(missing);
+			}
+		});
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				StegaProbe.probe(text);
+			}
+		});
+	}
+}
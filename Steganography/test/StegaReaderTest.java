@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Slices of a secret read straight from the cover, in memory and from a PNG, plain, scattered
+ * and encrypted, against the whole secret
+ */
+public class StegaReaderTest {
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * @param stega the settings
+	 * @param cover the cover, the secret is hidden in it
+	 * @param seed picks the secret
+	 * @return the secret, 90% of what the cover holds
+	 */
+	private static byte[] hide(Steganography stega, BufferedImage cover, long seed) throws IOException {
+		byte[] secret = new byte[(int) (stega.capacity(TestImages.raster(cover).length) * 9 / 10)];
+		new Random(seed).nextBytes(secret);
+		stega.encodeText(RasterCover.wrap(cover), new ByteArrayInputStream(secret), secret.length);
+		return secret;
+	}
+
+	/**
+	 * Reads random slices and compares them with the secret
+	 * @param reader the reader
+	 * @param secret the whole secret
+	 * @param seed picks the slices
+	 */
+	private static void assertSlices(StegaReader reader, byte[] secret, long seed) throws IOException {
+		assertEquals(secret.length, reader.size());
+		Random random = new Random(seed);
+		for (int i = 0; i < 300; i++) {
+			int position = random.nextInt(secret.length);
+			int len = random.nextInt(9000);
+			byte[] slice = new byte[len + 3];
+			int n = reader.read(position, slice, 3, len);
+			assertEquals(Math.min(len, secret.length - position), n);
+			assertArrayEquals(Arrays.copyOfRange(secret, position, position + n), Arrays.copyOfRange(slice, 3, 3 + n),
+					"slice at " + position);
+		}
+		assertEquals(-1, reader.read(secret.length, new byte[4], 0, 4));
+	}
+
+	@Test
+	public void slicesOfEverySetting() throws IOException {
+		for (int mode = 0; mode < 6; mode++) {
+			Steganography stega = new Steganography();
+			stega.setBitsPerChannel(mode < 4 ? mode + 1 : 3);
+			if (mode >= 4)
+				stega.setScatterKey("key".getBytes());
+			if (mode == 5)
+				stega.setPassword("password".toCharArray());
+			BufferedImage cover = TestImages.noise(300, 200, mode);
+			byte[] secret = hide(stega, cover, mode);
+
+			try (StegaReader reader = stega.openReader(cover)) {
+				assertSlices(reader, secret, mode);
+			}
+		}
+	}
+
+	@Test
+	public void slicesFromFile() throws IOException {
+		Steganography stega = new Steganography();
+		stega.setPassword("password".toCharArray());
+		BufferedImage cover = TestImages.noise(400, 300, 6);
+		byte[] secret = hide(stega, cover, 7);
+		File png = dir.resolve("stego.png").toFile();
+		new PngWriter().write(cover, png);
+
+		try (StegaReader reader = stega.openReader(png)) {
+			assertSlices(reader, secret, 8);
+
+			SeekableByteChannel channel = reader.channel();
+			channel.position(1234);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(5000);
+			assertEquals(5000, channel.read(buffer));
+			buffer.flip();
+			byte[] read = new byte[5000];
+			buffer.get(read);
+			assertArrayEquals(Arrays.copyOfRange(secret, 1234, 6234), read);
+		}
+	}
+
+	@Test
+	public void rowsOfSecretImage() throws IOException {
+		Steganography stega = new Steganography();
+		stega.setPassword("password".toCharArray());
+		BufferedImage secret = TestImages.noise(100, 80, 9);
+		BufferedImage cover = TestImages.noise(400, 300, 10);
+		stega.encodeImage(RasterCover.wrap(cover), secret);
+
+		BufferedImage rows = stega.openReader(cover).readRows(37, 5);
+		assertTrue(TestImages.sameColors(secret.getSubimage(0, 37, 100, 5), rows));
+	}
+
+	@Test
+	public void readingPastTheEndFails() throws IOException {
+		Steganography stega = new Steganography();
+		BufferedImage cover = TestImages.noise(100, 100, 11);
+		final byte[] secret = hide(stega, cover, 12);
+		final StegaReader reader = stega.openReader(cover);
+
+		assertThrows(EOFException.class, new Executable() {
+			public void execute() throws IOException {
+				reader.readFully(secret.length - 10, new byte[20], 0, 20);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() throws IOException {
+				reader.readRows(0, 1);
+			}
+		}, "text read as rows");
+	}
+
+	@Test
+	public void wrongPasswordFails() throws IOException {
+		Steganography stega = new Steganography();
+		stega.setPassword("password".toCharArray());
+		BufferedImage cover = TestImages.noise(100, 100, 13);
+		hide(stega, cover, 14);
+
+		Steganography other = new Steganography();
+		other.setPassword("passw0rd".toCharArray());
+		final StegaReader reader = other.openReader(cover);
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				reader.read(0, new byte[10], 0, 10);
+			}
+		});
+	}
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Secrets split over several covers: any order of the stego images, and sets with a shard
+ * missing, twice or of another secret
+ */
+public class StegaShardsTest {
+
+	/**
+	 * @return covers of three sizes and layouts
+	 */
+	private static List<BufferedImage> covers() {
+		return Arrays.asList(TestImages.noise(300, 200, BufferedImage.TYPE_3BYTE_BGR, 1),
+				TestImages.noise(120, 90, BufferedImage.TYPE_INT_RGB, 2),
+				TestImages.noise(400, 300, BufferedImage.TYPE_INT_ARGB, 3));
+	}
+
+	/**
+	 * @param stega the settings
+	 * @param covers the covers
+	 * @return bytes of secret the covers hold together
+	 */
+	private static long capacity(Steganography stega, List<BufferedImage> covers) {
+		long total = 0;
+		for (BufferedImage cover : covers)
+			total += stega.capacity(3L * cover.getWidth() * cover.getHeight()) - StegaShards.MANIFEST;
+		return total;
+	}
+
+	@Test
+	public void textInAnyOrder() {
+		Steganography stega = new Steganography();
+		StegaShards shards = new StegaShards(stega);
+		List<BufferedImage> covers = covers();
+		// more than the largest cover holds alone
+		String text = TestImages.text((int) (capacity(stega, covers) * 9 / 10), 4);
+		List<BufferedImage> stegos = new ArrayList<BufferedImage>(shards.encodeText(covers, text));
+		assertEquals(3, stegos.size());
+
+		Collections.reverse(stegos);
+		Collections.swap(stegos, 0, 1);
+		assertEquals(text, shards.decodeText(stegos));
+	}
+
+	@Test
+	public void imageWithSettings() {
+		Steganography stega = new Steganography();
+		stega.setScatterKey("key".getBytes());
+		stega.setPassword("password".toCharArray());
+		stega.setBitsPerChannel(2);
+		StegaShards shards = new StegaShards(stega);
+		BufferedImage secret = TestImages.noise(150, 100, 5);
+		List<BufferedImage> stegos = shards.encodeImage(
+				Arrays.asList(TestImages.noise(200, 160, 6), TestImages.noise(200, 160, 7)), secret);
+
+		BufferedImage back = shards.decodeImage(Arrays.asList(stegos.get(1), stegos.get(0)));
+		assertTrue(TestImages.sameColors(secret, back));
+	}
+
+	@Test
+	public void incompleteSetsAreRejected() {
+		Steganography stega = new Steganography();
+		final StegaShards shards = new StegaShards(stega);
+		List<BufferedImage> covers = covers();
+		String text = TestImages.text((int) (capacity(stega, covers) * 9 / 10), 8);
+		final List<BufferedImage> stegos = shards.encodeText(covers, text);
+		final List<BufferedImage> other = shards.encodeText(covers(), "another secret over three covers");
+
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				shards.decodeText(stegos.subList(0, 2));
+			}
+		}, "missing");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				shards.decodeText(Arrays.asList(stegos.get(0), stegos.get(0), stegos.get(2)));
+			}
+		}, "twice");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				shards.decodeText(Arrays.asList(stegos.get(0), other.get(1), stegos.get(2)));
+			}
+		}, "mixed");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				shards.decodeImage(stegos);
+			}
+		}, "text read as an image");
+	}
+
+	@Test
+	public void secretTooLargeIsRejected() {
+		Steganography stega = new Steganography();
+		final StegaShards shards = new StegaShards(stega);
+		final List<BufferedImage> covers = covers();
+		final String text = TestImages.text((int) capacity(stega, covers) + 1000, 9);
+		assertThrows(ArrayIndexOutOfBoundsException.class, new Executable() {
+			public void execute() {
+				shards.encodeText(covers, text);
+			}
+		});
+	}
+}
@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.awt.GraphicsEnvironment;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The window is built and laid out, skipped without a display
+ */
+public class SteganographyGuiTest {
+
+	@Test
+	public void windowIsLaidOut() throws InterruptedException, InvocationTargetException {
+		assumeFalse(GraphicsEnvironment.isHeadless(), "no display");
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				SteganographyGui gui = new SteganographyGui();
+				try {
+					assertTrue(gui.getWidth() > 0 && gui.getHeight() > 0, "window not packed");
+				} finally {
+					gui.dispose();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,257 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Round trips of the basic encode and decode calls, and the parallel mode against the
+ * sequential one, which must give the same pixels
+ */
+public class SteganographyTest {
+
+	/**
+	 * @param parallel true for the parallel mode, with chunks small enough to split these covers
+	 * @param bits bits per channel
+	 * @return the settings
+	 */
+	private static Steganography stega(boolean parallel, int bits) {
+		Steganography stega = new Steganography();
+		stega.setParallel(parallel);
+		stega.setMinChunkSize(1000);
+		stega.setBitsPerChannel(bits);
+		return stega;
+	}
+
+	@Test
+	public void parallelTextMatchesSequential() {
+		for (int bits = 1; bits <= 4; bits++) {
+			String text = TestImages.text(20000 * bits, bits);
+			BufferedImage sequential = stega(false, bits).encodeText(TestImages.noise(300, 200, 1), text);
+			BufferedImage parallel = stega(true, bits).encodeText(TestImages.noise(300, 200, 1), text);
+
+			assertArrayEquals(TestImages.raster(sequential), TestImages.raster(parallel), "bits " + bits);
+			assertEquals(text, stega(true, bits).decodeText(sequential));
+			assertEquals(text, stega(false, bits).decodeText(parallel));
+		}
+	}
+
+	@Test
+	public void parallelImageMatchesSequential() {
+		BufferedImage secret = TestImages.noise(120, 90, 2);
+		for (int bits = 1; bits <= 4; bits++) {
+			BufferedImage sequential = stega(false, bits).encodeImage(TestImages.noise(400, 300, 3), secret);
+			BufferedImage parallel = stega(true, bits).encodeImage(TestImages.noise(400, 300, 3), secret);
+
+			assertArrayEquals(TestImages.raster(sequential), TestImages.raster(parallel), "bits " + bits);
+			assertTrue(TestImages.sameColors(secret, stega(true, bits).decodeImage(sequential)));
+			assertTrue(TestImages.sameColors(secret, stega(false, bits).decodeImage(parallel)));
+		}
+	}
+
+	@Test
+	public void parallelScatteredMatchesSequential() {
+		String text = TestImages.text(20000, 4);
+		Steganography sequential = stega(false, 1);
+		Steganography parallel = stega(true, 1);
+		sequential.setScatterKey("key".getBytes());
+		parallel.setScatterKey("key".getBytes());
+
+		BufferedImage a = sequential.encodeText(TestImages.noise(300, 200, 5), text);
+		BufferedImage b = parallel.encodeText(TestImages.noise(300, 200, 5), text);
+		assertArrayEquals(TestImages.raster(a), TestImages.raster(b));
+		assertEquals(text, parallel.decodeText(a));
+	}
+
+	@Test
+	public void bitsAreReadFromTheHeader() {
+		for (int bits = 1; bits <= 4; bits++) {
+			String text = TestImages.text(10000, bits);
+			BufferedImage stego = stega(false, bits).encodeText(TestImages.noise(200, 150, 4), text);
+			assertEquals(text, new Steganography().decodeText(stego), "bits " + bits);
+		}
+	}
+
+	@Test
+	public void compressedRoundTrip() {
+		Steganography stega = stega(true, 2);
+		stega.setCompression(true);
+		// neither secret fits the cover before it is deflated
+		String text = TestImages.text(100000, 6);
+		assertEquals(text, stega.decodeText(stega.encodeText(TestImages.noise(400, 300, 7), text)));
+
+		BufferedImage secret = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < 200; y++)
+			for (int x = 0; x < 300; x++)
+				secret.setRGB(x, y, (x / 20 * 16) << 16 | (y / 20 * 25) << 8 | 128);
+		BufferedImage stego = stega.encodeImage(TestImages.noise(400, 300, 8), secret);
+		assertTrue(TestImages.sameColors(secret, new Steganography().decodeImage(stego)));
+	}
+
+	@Test
+	public void decodedImageIsTheHiddenRaster() {
+		// the hidden bytes are the raster of the 3 byte BGR image returned, in any secret layout
+		BufferedImage secret = TestImages.noise(80, 60, BufferedImage.TYPE_INT_RGB, 14);
+		BufferedImage decoded = new Steganography().decodeImage(
+				new Steganography().encodeImage(TestImages.noise(300, 200, 15), secret));
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, decoded.getType());
+		assertArrayEquals(TestImages.raster(RasterCover.convertToBGR(secret)), TestImages.raster(decoded));
+	}
+
+	@Test
+	public void decodeImageToPng() throws IOException {
+		BufferedImage secret = TestImages.noise(90, 70, 16);
+		Steganography[] settings = { stega(false, 1), stega(true, 3), stega(false, 2), stega(false, 2) };
+		settings[2].setCompression(true);
+		settings[3].setPassword("password".toCharArray());
+		for (Steganography stega : settings) {
+			BufferedImage stego = stega.encodeImage(TestImages.noise(400, 300, 17), secret);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StegaHeader header = stega.decodeImage(stego, new PngWriter(), out);
+			assertEquals(90, header.getWidth());
+			assertEquals(70, header.getHeight());
+			BufferedImage png = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+			assertTrue(TestImages.sameColors(secret, png), header.toString());
+		}
+
+		// a damaged secret is found once the last row is read
+		final BufferedImage stego = new Steganography().encodeImage(TestImages.noise(400, 300, 18), secret);
+		TestImages.raster(stego)[StegaHeader.COVER_BYTES + 5000] ^= 1;
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() throws IOException {
+				new Steganography().decodeImage(stego, new PngWriter(), new ByteArrayOutputStream());
+			}
+		});
+	}
+
+	@Test
+	public void coverWithoutSecretIsRejected() {
+		final BufferedImage clean = TestImages.noise(200, 100, 8);
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				new Steganography().decodeText(clean);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				new Steganography().decodeImage(clean);
+			}
+		});
+	}
+
+	@Test
+	public void secretTooLargeIsRejected() {
+		final BufferedImage cover = TestImages.noise(100, 100, 9);
+		byte[] before = TestImages.raster(cover).clone();
+		assertThrows(ArrayIndexOutOfBoundsException.class, new Executable() {
+			public void execute() {
+				new Steganography().encodeText(cover, TestImages.text(4000, 10));
+			}
+		});
+		assertArrayEquals(before, TestImages.raster(cover), "a secret that does not fit is not half hidden");
+	}
+
+	@Test
+	public void progressIsReportedAndInterruptsCancel() {
+		final Steganography stega = stega(false, 4);
+		final String text = TestImages.text(300000, 11);
+		final long[] last = { -1, 0, 0 };  // done, total, reports
+		stega.setProgressListener(new Steganography.ProgressListener() {
+			public void progress(long done, long total) {
+				assertTrue(done > last[0] && done <= total, done + " of " + total);
+				last[0] = done;
+				last[1] = total;
+				last[2]++;
+			}
+		});
+		BufferedImage stego = stega.encodeText(TestImages.noise(600, 400, 12), text);
+		assertTrue(last[2] > 1, "reported once");
+		assertEquals(last[1], last[0], "reported the end");
+
+		// the interrupted thread stops at the first chunk, the interrupt is left set
+		stega.setProgressListener(null);
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(CancellationException.class, new Executable() {
+				public void execute() {
+					stega.encodeText(TestImages.noise(600, 400, 13), text);
+				}
+			});
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(text, stega.decodeText(stego));
+	}
+
+	/**
+	 * A cover of 1 TB that keeps nothing and only checks where it is written
+	 */
+	private static class FarCover implements LsbCover {
+		long end;  // end of the furthest write
+
+		@Override
+		public long size() {
+			return 1L << 40;
+		}
+
+		@Override
+		public void embed(long offset, byte[] payload, int from, int len, int bits) {
+			assertTrue(offset >= 0, "embed at " + offset);
+			end = Math.max(end, offset + LsbKernel.coverBytes(len, bits));
+		}
+
+		@Override
+		public void embedMatching(long offset, byte[] payload, int from, int len, long seed) {
+			embed(offset, payload, from, len, 1);
+		}
+
+		@Override
+		public void extract(long offset, byte[] payload, int from, int len, int bits) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Test
+	public void offsetsPast2GbDoNotOverflow() throws IOException {
+		// 8 cover bytes per payload byte, so the last megabyte goes past 2^31
+		long length = (1L << 28) + (1 << 20);
+		FarCover cover = new FarCover();
+		OutputStream out = new Steganography().openTextOutput(cover, length);
+		byte[] buffer = new byte[1 << 20];
+		for (long written = 0; written < length; written += buffer.length)
+			out.write(buffer);
+		out.close();
+		assertEquals(StegaHeader.COVER_BYTES + 8 * length, cover.end);
+	}
+
+	@Test
+	public void invalidSettingsAreRejected() {
+		final Steganography stega = new Steganography();
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.setMinChunkSize(0);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.setBitsPerChannel(0);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				stega.setBitsPerChannel(5);
+			}
+		});
+	}
+}
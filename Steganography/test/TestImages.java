@@ -0,0 +1,75 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+/**
+ * Covers and secrets for the tests, filled with noise from a seed so every run hides in the
+ * same pixels
+ */
+final class TestImages {
+
+	private TestImages() {
+	}
+
+	/**
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param type a BufferedImage type
+	 * @param seed picks the pixels
+	 * @return an image of random pixels
+	 */
+	static BufferedImage noise(int width, int height, int type, long seed) {
+		BufferedImage b = new BufferedImage(width, height, type);
+		Random random = new Random(seed);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				b.setRGB(x, y, random.nextInt());
+		return b;
+	}
+
+	/**
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param seed picks the pixels
+	 * @return a 3 byte BGR image of random pixels, the layout the covers are hidden in
+	 */
+	static BufferedImage noise(int width, int height, long seed) {
+		return noise(width, height, BufferedImage.TYPE_3BYTE_BGR, seed);
+	}
+
+	/**
+	 * @param bimg an image backed by a byte array
+	 * @return the array, not a copy
+	 */
+	static byte[] raster(BufferedImage bimg) {
+		return ((DataBufferByte) bimg.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * @param length number of characters
+	 * @param seed picks the characters
+	 * @return lower case letters
+	 */
+	static String text(int length, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append((char) ('a' + random.nextInt(26)));
+		return sb.toString();
+	}
+
+	/**
+	 * @param a an image
+	 * @param b another image
+	 * @return true if they have the same size and the same colors, alpha aside
+	 */
+	static boolean sameColors(BufferedImage a, BufferedImage b) {
+		if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight())
+			return false;
+		for (int y = 0; y < a.getHeight(); y++)
+			for (int x = 0; x < a.getWidth(); x++)
+				if ((a.getRGB(x, y) & 0xFFFFFF) != (b.getRGB(x, y) & 0xFFFFFF))
+					return false;
+		return true;
+	}
+}